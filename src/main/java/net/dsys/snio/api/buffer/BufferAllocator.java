@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.api.buffer;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Hands out the direct buffers used by channels to read from and write to
+ * sockets.
+ * 
+ * @author Ricardo Padilha
+ */
+public interface BufferAllocator {
+
+	/**
+	 * @return a cleared direct buffer of at least <code>capacity</code> bytes
+	 */
+	@Nonnull
+	ByteBuffer allocate(@Nonnegative int capacity);
+
+	/**
+	 * Gives a buffer obtained through {@link #allocate(int)} back to this
+	 * allocator. The buffer must not be used anymore.
+	 */
+	void release(@Nonnull ByteBuffer buffer);
+
+	/**
+	 * @return the number of bytes of direct memory held by this allocator
+	 */
+	@Nonnegative
+	long getReserved();
+
+	/**
+	 * @return the number of bytes currently handed out
+	 */
+	@Nonnegative
+	long getAllocated();
+
+	/**
+	 * @return <code>true</code> if released buffers are handed out again, so
+	 *         that allocating is cheap enough to be done on every read or
+	 *         write
+	 */
+	boolean isRecycling();
+
+}
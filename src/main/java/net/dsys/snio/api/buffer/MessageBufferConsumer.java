@@ -16,6 +16,9 @@
 
 package net.dsys.snio.api.buffer;
 
+import java.io.IOException;
+
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
 /**
@@ -23,6 +26,34 @@ import javax.annotation.Nonnull;
  */
 public interface MessageBufferConsumer<T> extends MessageBuffer<T> {
 
+	/**
+	 * Obtains the sequence number of the oldest message that was not released
+	 * yet. Blocks the caller if there is none.
+	 * <p>
+	 * Acquiring does not consume: until {@link #release(long)} is called, the
+	 * next acquire returns the same message again.
+	 * 
+	 * @return the sequence number to be used later on {@link #release(long)}
+	 */
+	@Override
+	long acquire() throws InterruptedException;
+
+	/**
+	 * Obtains up to <code>n</code> messages, starting with the oldest one that
+	 * was not released yet, even if it was already obtained through
+	 * {@link #acquire()} or left unhandled by
+	 * {@link #drainTo(MessageBufferHandler, int)}. Blocks the caller if there
+	 * is none. If {@link #remaining()} returned at least <code>n</code>, exactly
+	 * <code>n</code> messages are obtained.
+	 * 
+	 * @param n
+	 *            the number of messages to acquire
+	 * @return the last sequence number to be used later on
+	 *         {@link #release(long)}
+	 */
+	@Override
+	long acquire(@Nonnegative int n) throws InterruptedException;
+
 	/**
 	 * Obtains the object attached to a buffer position.
 	 * 
@@ -35,7 +66,25 @@ public interface MessageBufferConsumer<T> extends MessageBuffer<T> {
 	Object attachment(long sequence);
 
 	/**
-	 * @return a new producer for this consumer.
+	 * Hands the messages available for processing, up to <code>max</code>, to
+	 * <code>handler</code> in order, and releases them all at once. Never
+	 * blocks. Starts with the oldest message that was not released yet, even
+	 * if it was already obtained through {@link #acquire()}.
+	 * 
+	 * @param handler
+	 *            processes the messages; if it throws, the messages it
+	 *            processed before are still released
+	 * @param max
+	 *            maximum number of messages to drain
+	 * @return the number of messages processed
+	 */
+	@Nonnegative
+	int drainTo(@Nonnull MessageBufferHandler<T> handler, @Nonnegative int max)
+			throws InterruptedException, IOException;
+
+	/**
+	 * @return a new producer for this consumer. The producer must only be used
+	 *         by a single thread.
 	 */
 	@Nonnull
 	MessageBufferProducer<T> createProducer();
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.api.buffer;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Processes the messages drained from a {@link MessageBufferConsumer}.
+ * 
+ * @author Ricardo Padilha
+ * @see MessageBufferConsumer#drainTo(MessageBufferHandler, int)
+ */
+public interface MessageBufferHandler<T> {
+
+	/**
+	 * @param message
+	 *            the message to be processed
+	 * @param attachment
+	 *            the object attached to the message
+	 * @param endOfBatch
+	 *            <code>true</code> if this is the last message of the batch
+	 * @return <code>false</code> if the message was not processed, in which
+	 *         case it stays in the buffer and the drain stops
+	 */
+	boolean handle(@Nonnull T message, @Nonnull Object attachment, boolean endOfBatch) throws IOException;
+
+}
@@ -64,4 +64,12 @@ public interface MessageBufferProvider<T> {
 	 */
 	void close();
 
+	/**
+	 * Called once the underlying channel is closed and no longer touches any
+	 * message. Providers that take their messages from a pool give them back
+	 * as soon as the application released the messages it still holds, and so
+	 * do providers whose factory frees their messages; others do nothing.
+	 */
+	void recycle();
+
 }
@@ -26,7 +26,10 @@ import javax.annotation.Nonnull;
 public interface AcceptListener<E> {
 
 	/**
-	 * Called when a {@link MessageServerChannel} accepted a new connection.
+	 * Called when a {@link MessageServerChannel} accepted a new connection,
+	 * once the connection is registered. Called from within the selector
+	 * thread that completes that registration, so it must not block. If it
+	 * throws, the new channel is closed.
 	 * @param channel the newly accepted channel to the client
 	 */
 	void connectionAccepted(@Nonnull SocketAddress remote, @Nonnull MessageChannel<E> channel);
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.api.codec;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link MessageCodec} whose frames are a header of exactly
+ * {@link #getHeaderLength()} bytes followed by the unmodified message body,
+ * with no footer. Channels can then send the header and the body with a single
+ * gathering write, and receive the body straight into its destination, without
+ * copying the body.
+ * 
+ * @author Ricardo Padilha
+ */
+public interface HeaderCodec extends MessageCodec {
+
+	/**
+	 * Writes only the header of the frame for the given message body. The
+	 * position of <code>in</code> is not modified.
+	 * 
+	 * @param in
+	 *            {@link ByteBuffer} containing the message body
+	 * @param out
+	 *            {@link ByteBuffer} where the header will be placed
+	 */
+	void putHeader(@Nonnull ByteBuffer in, @Nonnull ByteBuffer out) throws InvalidMessageException;
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.api.handler;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Consumer that is told where each batch of messages ends, so that work such
+ * as a flush or a commit can be done once per batch instead of once per
+ * message. With batch processing, {@link #consume(Object, Object, boolean)}
+ * is called instead of {@link #consume(Object, Object)}.
+ * 
+ * @author Ricardo Padilha
+ */
+public interface BatchMessageConsumer<T> extends MessageConsumer<T> {
+
+	/**
+	 * @param message
+	 *            to be processed
+	 * @param endOfBatch
+	 *            <code>true</code> if this is the last message of the batch;
+	 *            the batch is released once this call returns
+	 */
+	void consume(@Nonnull T message, @Nonnull Object attachment, boolean endOfBatch);
+
+}
@@ -68,6 +68,28 @@ public interface KeyProcessor<T> {
 	 */
 	void wakeupWriter();
 
+	/**
+	 * Called from within the selector thread when it takes this processor's
+	 * key off its queue, i.e., before applying the WRITE interest requested by
+	 * {@link #wakeupWriter()}. Further calls to {@link #wakeupWriter()} must
+	 * queue the key again.
+	 */
+	void writerEnabled();
+
+	/**
+	 * Move this processor's keys away from <code>executor</code>, keeping all
+	 * buffered data. Once the keys are cancelled, <code>register</code> is
+	 * called, which must register the channel with <code>target</code>. A
+	 * {@link #close(SelectorExecutor, Callable)} during the migration waits
+	 * for it: the channel is then not registered again, or its new keys are
+	 * cancelled on <code>target</code>.
+	 * 
+	 * @return a future that completes once the keys are registered again
+	 */
+	@Nonnull
+	CallbackFuture<Void> migrate(@Nonnull SelectorExecutor executor, @Nonnull SelectorExecutor target,
+			@Nonnull Callable<Void> register);
+
 	/**
 	 * Close this processor properly, i.e., cancel from within the selector
 	 * threads.
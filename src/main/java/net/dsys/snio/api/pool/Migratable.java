@@ -0,0 +1,46 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.api.pool;
+
+import javax.annotation.Nonnull;
+
+import net.dsys.commons.api.future.CallbackFuture;
+
+/**
+ * A {@link Processor} that can be moved to another {@link SelectorExecutor}
+ * while connected, without losing buffered data.
+ * 
+ * @author Ricardo Padilha
+ */
+public interface Migratable extends Processor {
+
+	/**
+	 * @return the executor currently serving this processor
+	 */
+	@Nonnull
+	SelectorExecutor getExecutor();
+
+	/**
+	 * Move this processor's keys to <code>target</code>.
+	 * 
+	 * @return a future that completes once the keys are registered with
+	 *         <code>target</code>
+	 */
+	@Nonnull
+	CallbackFuture<Void> migrate(@Nonnull SelectorExecutor target);
+
+}
@@ -41,4 +41,25 @@ public interface SelectorExecutor {
 	void cancelConnect(@Nonnull SelectionKey readKey, @Nonnull SettableCallbackFuture<Void> readFuture,
 			@Nonnull SelectionKey writeKey, @Nonnull SettableCallbackFuture<Void> writeFuture);
 
+	/**
+	 * Same as {@link #cancelConnect(SelectionKey, SettableCallbackFuture, SelectionKey, SettableCallbackFuture)},
+	 * but also runs <code>task</code> from within the selector thread that
+	 * cancels the last key, i.e., once no selector thread uses the keys
+	 * anymore.
+	 */
+	void cancelConnect(@Nonnull SelectionKey readKey, @Nonnull SettableCallbackFuture<Void> readFuture,
+			@Nonnull SelectionKey writeKey, @Nonnull SettableCallbackFuture<Void> writeFuture,
+			@Nonnull Callable<Void> task);
+
+	/**
+	 * Cancel the keys of a connected channel from within the selector threads,
+	 * without closing it, then call <code>task</code>. Used to move a channel
+	 * to another executor.
+	 */
+	void deregister(@Nonnull SelectionKey readKey, @Nonnull SelectionKey writeKey,
+			@Nonnull SettableCallbackFuture<Void> future, @Nonnull Callable<Void> task);
+
+	@Nonnull
+	SelectorLoad getLoad();
+
 }
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.api.pool;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * Load of a {@link SelectorExecutor}, as used by load-aware
+ * {@link SelectorPolicy} implementations. Rates are sampled periodically, so
+ * they lag behind the actual load.
+ * 
+ * @author Ricardo Padilha
+ */
+public interface SelectorLoad {
+
+	/**
+	 * @return number of connections currently registered
+	 */
+	@Nonnegative
+	int getConnections();
+
+	/**
+	 * @return bytes read and written per second
+	 */
+	@Nonnegative
+	double getBytesPerSecond();
+
+	/**
+	 * @return fraction of time the selector threads spend processing keys,
+	 *         between 0 and 1
+	 */
+	@Nonnegative
+	double getBusyRatio();
+
+	/**
+	 * @return average number of queued operations (registrations,
+	 *         cancellations, etc) executed per select call
+	 */
+	@Nonnegative
+	double getOpsPerSelect();
+
+}
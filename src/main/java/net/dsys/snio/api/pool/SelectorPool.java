@@ -19,6 +19,8 @@ package net.dsys.snio.api.pool;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
+import net.dsys.commons.api.future.CallbackFuture;
+import net.dsys.snio.api.buffer.BufferAllocator;
 import net.dsys.snio.api.io.AsyncCloseable;
 
 /**
@@ -31,10 +33,32 @@ public interface SelectorPool extends AsyncCloseable {
 	@Nonnegative
 	int size();
 
+	/**
+	 * @param index
+	 *            taken modulo {@link #size()}, as the pool may be resized
+	 *            concurrently
+	 */
 	@Nonnull
-	SelectorExecutor get(int index);
+	SelectorExecutor get(@Nonnegative int index);
 
 	@Nonnull
 	SelectorExecutor next();
 
+	/**
+	 * @return the allocator shared by all channels of this pool
+	 */
+	@Nonnull
+	BufferAllocator getAllocator();
+
+	/**
+	 * Grow or shrink this pool. When shrinking, {@link Migratable} processors
+	 * are moved from the removed executors to the remaining ones. Removed
+	 * executors still serving other channels or acceptors are only closed
+	 * when this pool is closed.
+	 * 
+	 * @return a future that completes once the pool has the new size
+	 */
+	@Nonnull
+	CallbackFuture<Void> resize(@Nonnegative int size);
+
 }
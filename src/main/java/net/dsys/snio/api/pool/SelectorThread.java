@@ -20,6 +20,8 @@ import java.nio.channels.SelectionKey;
 
 import javax.annotation.Nonnull;
 
+import net.dsys.snio.api.buffer.BufferAllocator;
+
 /**
  * @author Ricardo Padilha
  */
@@ -27,4 +29,26 @@ public interface SelectorThread {
 
 	void enableKey(@Nonnull SelectionKey key);
 
+	/**
+	 * Add WRITE interest to <code>key</code> once {@link System#nanoTime()}
+	 * reaches <code>deadline</code>. Only called from within this selector
+	 * thread.
+	 */
+	void enableKeyAt(@Nonnull SelectionKey key, long deadline);
+
+	/**
+	 * Add READ interest to <code>key</code> once {@link System#nanoTime()}
+	 * reaches <code>deadline</code>, and read it right away, whether it is
+	 * readable or not, so that its processor can go on with data it already
+	 * received. Only called from within this selector thread.
+	 */
+	void enableReaderAt(@Nonnull SelectionKey key, long deadline);
+
+	/**
+	 * @return the allocator for the buffers of channels registered with this
+	 *         thread
+	 */
+	@Nonnull
+	BufferAllocator getAllocator();
+
 }
@@ -16,6 +16,7 @@
 
 package net.dsys.snio.impl.buffer;
 
+import java.util.Arrays;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -23,24 +24,36 @@ import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
+import net.dsys.commons.api.lang.Factory;
+
 /**
- * Behaves like an ArrayBlockingQueue, but both {@link #put(Object)} and
- * {@link #take()} can be interrupted. Loosely follows the contract of
- * {@link BlockingQueue}.
+ * Behaves like an ArrayBlockingQueue of preallocated slots, but both
+ * {@link #claim(int)} and {@link #take(long, int)} can be interrupted. Loosely
+ * follows the contract of {@link BlockingQueue}.
+ * <p>
+ * Slots are addressed by sequence number and reused in place: producers claim
+ * a range of sequences, fill their slots, and publish them; the consumer
+ * takes the published ones in order, and frees them once done. Several
+ * producers may claim and publish concurrently, a slot is only handed to the
+ * consumer once all slots before it were published.
  * 
  * @author Ricardo Padilha
  */
 final class BlockingBuffer<T> {
 
-	private final int mask;
-	private final Tuple<T>[] values;
+	private static final Object DUMMY_ATTACHMENT = new Object();
+
+	private final T[] values;
+	private final Object[] attachments;
+	// sequence last published in each slot
+	private final long[] published;
 	private final Lock lock;
 	private final Condition notEmpty;
 	private final Condition notFull;
 
+	private long claimIndex;
 	private long putIndex;
-	private long takeIndex;
-	private int count;
+	private long freeIndex;
 	private InterruptedException interruptPut;
 	private InterruptedException interruptTake;
 
@@ -50,11 +63,13 @@ final class BlockingBuffer<T> {
 	 * 
 	 * @param capacity
 	 *            the capacity of this queue
+	 * @param factory
+	 *            creates the slots, once
 	 * @throws IllegalArgumentException
 	 *             if {@code capacity < 1}
 	 */
-	BlockingBuffer(@Nonnegative final int capacity) {
-		this(capacity, false);
+	BlockingBuffer(@Nonnegative final int capacity, @Nonnull final Factory<T> factory) {
+		this(capacity, factory, false);
 	}
 
 	/**
@@ -63,6 +78,8 @@ final class BlockingBuffer<T> {
 	 * 
 	 * @param capacity
 	 *            the capacity of this buffer
+	 * @param factory
+	 *            creates the slots, once
 	 * @param fair
 	 *            if {@code true} then queue accesses for threads blocked on
 	 *            insertion or removal, are processed in FIFO order; if
@@ -70,33 +87,40 @@ final class BlockingBuffer<T> {
 	 * @throws IllegalArgumentException
 	 *             if {@code capacity < 1}
 	 */
-	BlockingBuffer(@Nonnegative final int capacity, final boolean fair) {
+	BlockingBuffer(@Nonnegative final int capacity, @Nonnull final Factory<T> factory, final boolean fair) {
 		if (capacity < 1) {
 			throw new IllegalArgumentException("capacity < 1");
 		}
-		if (Integer.bitCount(capacity) > 1) {
-			// not a power of two
-			throw new IllegalArgumentException("capacity must be a power of two");
+		if (factory == null) {
+			throw new NullPointerException("factory == null");
 		}
-		this.mask = capacity - 1;
 		@SuppressWarnings("unchecked")
-		final Tuple<T>[] values = new Tuple[capacity];
+		final T[] values = (T[]) new Object[capacity];
+		for (int i = 0; i < capacity; i++) {
+			values[i] = factory.newInstance();
+		}
 		this.values = values;
+		this.attachments = new Object[capacity];
+		Arrays.fill(attachments, DUMMY_ATTACHMENT);
+		this.published = new long[capacity];
+		Arrays.fill(published, BlockingQueueProvider.INITIAL_SEQUENCE_VALUE);
 		this.lock = new ReentrantLock(fair);
 		this.notEmpty = lock.newCondition();
 		this.notFull = lock.newCondition();
 	}
 
 	/**
+	 * Claims <code>n</code> free slots, blocking until they are free.
+	 * 
+	 * @param n
+	 *            at most {@link #capacity()}
+	 * @return the last claimed sequence
 	 * @see BlockingQueue#put(Object)
 	 */
-	void put(@Nonnull final Tuple<T> value) throws InterruptedException {
-		if (value == null) {
-			throw new NullPointerException("value == null");
-		}
+	long claim(@Nonnegative final int n) throws InterruptedException {
 		lock.lockInterruptibly();
 		try {
-			while (count == values.length && interruptPut == null) {
+			while (values.length - (claimIndex - freeIndex) < n && interruptPut == null) {
 				notFull.await();
 			}
 			if (interruptPut != null) {
@@ -105,19 +129,41 @@ final class BlockingBuffer<T> {
 				Thread.currentThread().interrupt();
 				throw ex;
 			}
-			final int index = (int) (putIndex & mask);
-			values[index] = value;
-			++putIndex;
-			++count;
-			notEmpty.signal();
+			for (int i = 0; i < n; i++) {
+				attachments[index(claimIndex + i)] = DUMMY_ATTACHMENT;
+			}
+			claimIndex += n;
+			return claimIndex - 1;
 		} finally {
 			lock.unlock();
 		}
 	}
 
 	/**
-	 * Interrupt threads blocked in {@link #put(Object)} or
-	 * {@link #put(Object, long, TimeUnit)} and throws the given exception.
+	 * Makes the claimed slots from <code>first</code> to <code>last</code>
+	 * available to the consumer, once all slots before them are.
+	 */
+	void publish(final long first, final long last) {
+		lock.lock();
+		try {
+			for (long i = first; i <= last; i++) {
+				published[index(i)] = i;
+			}
+			final long before = putIndex;
+			while (putIndex < claimIndex && published[index(putIndex)] == putIndex) {
+				++putIndex;
+			}
+			if (putIndex > before) {
+				notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Interrupt threads blocked in {@link #claim(int)} and throws the given
+	 * exception.
 	 */
 	void interruptPut(@Nonnull final InterruptedException e) {
 		if (e == null) {
@@ -133,13 +179,16 @@ final class BlockingBuffer<T> {
 	}
 
 	/**
+	 * Takes up to <code>n</code> published slots after <code>taken</code>,
+	 * blocking until at least one is published.
+	 * 
+	 * @return the last sequence taken
 	 * @see BlockingQueue#take()
 	 */
-	@Nonnull
-	Tuple<T> take() throws InterruptedException {
+	long take(final long taken, @Nonnegative final int n) throws InterruptedException {
 		lock.lockInterruptibly();
 		try {
-			while (count == 0 && interruptTake == null) {
+			while (putIndex <= taken + 1 && interruptTake == null) {
 				notEmpty.await();
 			}
 			if (interruptTake != null) {
@@ -148,21 +197,30 @@ final class BlockingBuffer<T> {
 				Thread.currentThread().interrupt();
 				throw ex;
 			}
-			final int index = (int) (takeIndex & mask);
-			final Tuple<T> value = values[index];
-			values[index] = null;
-			++takeIndex;
-			--count;
-			notFull.signal();
-			return value;
+			return Math.min(taken + n, putIndex - 1);
 		} finally {
 			lock.unlock();
 		}
 	}
 
 	/**
-	 * Interrupt threads blocked in {@link #take()} or
-	 * {@link #poll(long, TimeUnit)} and throws the given exception.
+	 * Gives all slots up to <code>sequence</code> back to the producers.
+	 */
+	void free(final long sequence) {
+		lock.lock();
+		try {
+			if (sequence + 1 > freeIndex) {
+				freeIndex = sequence + 1;
+				notFull.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Interrupt threads blocked in {@link #take(long, int)} and throws the
+	 * given exception.
 	 */
 	void interruptTake(@Nonnull final InterruptedException e) {
 		if (e == null) {
@@ -177,6 +235,31 @@ final class BlockingBuffer<T> {
 		}
 	}
 
+	/**
+	 * Any capacity is allowed, so slots are found by remainder rather than by
+	 * mask.
+	 */
+	private int index(final long sequence) {
+		return (int) (sequence % values.length);
+	}
+
+	@Nonnull
+	T get(final long sequence) {
+		return values[index(sequence)];
+	}
+
+	@Nonnull
+	Object attachment(final long sequence) {
+		return attachments[index(sequence)];
+	}
+
+	void attach(final long sequence, @Nonnull final Object attachment) {
+		if (attachment == null) {
+			throw new NullPointerException("attachment == null");
+		}
+		attachments[index(sequence)] = attachment;
+	}
+
 	/**
 	 * @return the capacity of this buffer
 	 */
@@ -186,13 +269,13 @@ final class BlockingBuffer<T> {
 	}
 
 	/**
-	 * @return the number of elements in this buffer
+	 * @return the number of published slots that were not freed yet
 	 */
 	@Nonnegative
 	int size() {
 		lock.lock();
 		try {
-			return count;
+			return (int) (putIndex - freeIndex);
 		} finally {
 			lock.unlock();
 		}
@@ -213,51 +296,9 @@ final class BlockingBuffer<T> {
 	int remainingCapacity() {
 		lock.lock();
 		try {
-			return values.length - count;
+			return (int) (values.length - (claimIndex - freeIndex));
 		} finally {
 			lock.unlock();
 		}
 	}
-
-	/**
-	 * @author Ricardo Padilha
-	 */
-	static final class Tuple<T> {
-
-		private static final Object DUMMY_ATTACHMENT = new Object();
-
-		private final T value;
-		private Object attachment;
-
-		Tuple(@Nonnull final T value) {
-			if (value == null) {
-				throw new NullPointerException("value == null");
-			}
-			this.value = value;
-			this.attachment = DUMMY_ATTACHMENT;
-		}
-
-		Tuple(@Nonnull final T value, @Nonnull final Object attachment) {
-			if (value == null) {
-				throw new NullPointerException("value == null");
-			}
-			if (attachment == null) {
-				throw new NullPointerException("attachment == null");
-			}
-			this.value = value;
-			this.attachment = attachment;
-		}
-
-		@Nonnull T getValue() {
-			return value;
-		}
-
-		@Nonnull Object getAttachment() {
-			return attachment;
-		}
-
-		void setAttachment(@Nonnull final Object attachment) {
-			this.attachment = attachment;
-		}
-	}
 }
@@ -16,41 +16,52 @@
 
 package net.dsys.snio.impl.buffer;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+import java.io.IOException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
-import net.dsys.commons.api.lang.Factory;
 import net.dsys.snio.api.buffer.InterruptedByClose;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
-import net.dsys.snio.impl.buffer.BlockingBuffer.Tuple;
+import net.dsys.snio.api.buffer.MessageBufferHandler;
 
 /**
+ * Single consumer of a {@link BlockingBuffer}. As with
+ * {@link RingBufferConsumer}, {@link #acquire(int)} starts from the last
+ * released sequence.
+ * 
  * @author Ricardo Padilha
  */
 final class BlockingQueueConsumer<T> implements MessageBufferConsumer<T> {
 
 	private final BlockingBuffer<T> buffer;
-	private final Factory<T> factory;
-	private final Map<Long, Tuple<T>> temp;
-	private AtomicLong last;
-	private AtomicLong cursor;
+	@Nonnull(when = When.MAYBE)
+	private final SlotGuard guard;
+	private long last;
+	private long cursor;
+	private long acquired;
+	private boolean holding;
 	private boolean closed;
 
-	BlockingQueueConsumer(@Nonnull final BlockingBuffer<T> buffer, @Nonnull final Factory<T> factory) {
+	BlockingQueueConsumer(@Nonnull final BlockingBuffer<T> buffer) {
+		this(buffer, null);
+	}
+
+	/**
+	 * @param guard
+	 *            if not <code>null</code>, told about the messages held
+	 *            between {@link #acquire()} and {@link #release(long)}
+	 */
+	BlockingQueueConsumer(@Nonnull final BlockingBuffer<T> buffer,
+			@Nonnull(when = When.MAYBE) final SlotGuard guard) {
 		if (buffer == null) {
 			throw new NullPointerException("queue == null");
 		}
-		if (factory == null) {
-			throw new NullPointerException("factory == null");
-		}
 		this.buffer = buffer;
-		this.factory = factory;
-		this.temp = new HashMap<>();
-		this.last = new AtomicLong(BlockingQueueProvider.INITIAL_SEQUENCE_VALUE);
-		this.cursor = new AtomicLong(BlockingQueueProvider.INITIAL_SEQUENCE_VALUE);
+		this.guard = guard;
+		this.last = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.cursor = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.acquired = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
 	}
 
 	/**
@@ -58,7 +69,7 @@ final class BlockingQueueConsumer<T> implements MessageBufferConsumer<T> {
 	 */
 	@Override
 	public BlockingQueueProducer<T> createProducer() {
-		return new BlockingQueueProducer<>(buffer, factory);
+		return new BlockingQueueProducer<>(buffer);
 	}
 
 	void close() {
@@ -85,14 +96,13 @@ final class BlockingQueueConsumer<T> implements MessageBufferConsumer<T> {
 		if (closed) {
 			throw new InterruptedByClose();
 		}
-		int k = Math.min(n, Math.max(buffer.size(), 1));
-		long c = cursor.get();
-		while (--k >= 0) {
-			final Tuple<T> tuple = buffer.take();
-			c = cursor.incrementAndGet();
-			temp.put(Long.valueOf(c), tuple);
+		// like the ring consumers, start after the last released sequence
+		final long end = buffer.take(last, n);
+		if (end > cursor) {
+			cursor = end;
 		}
-		return c;
+		hold(end);
+		return end;
 	}
 
 	/**
@@ -100,7 +110,55 @@ final class BlockingQueueConsumer<T> implements MessageBufferConsumer<T> {
 	 */
 	@Override
 	public int remaining() {
-		return temp.size() + buffer.size();
+		return buffer.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int drainTo(final MessageBufferHandler<T> handler, final int max)
+			throws InterruptedException, IOException {
+		if (handler == null) {
+			throw new NullPointerException("handler == null");
+		}
+		if (max < 1) {
+			throw new IllegalArgumentException("max < 1");
+		}
+		if (closed) {
+			throw new InterruptedByClose();
+		}
+		final int n = Math.min(remaining(), max);
+		if (n == 0) {
+			return 0;
+		}
+		// remaining() counts from the last released sequence
+		final long first = last + 1;
+		final long end = last + n;
+		if (end > cursor) {
+			// at least up to end is published, so this does not block
+			cursor = buffer.take(last, n);
+		}
+		hold(end);
+		long seq = first - 1;
+		try {
+			while (seq < end) {
+				final long next = seq + 1;
+				if (!handler.handle(get(next), attachment(next), next == end)) {
+					break;
+				}
+				seq = next;
+			}
+		} finally {
+			// messages left unhandled are not held anymore
+			acquired = seq;
+			if (seq >= first) {
+				release(seq);
+			} else {
+				unhold();
+			}
+		}
+		return (int) (seq - first + 1);
 	}
 
 	/**
@@ -108,7 +166,7 @@ final class BlockingQueueConsumer<T> implements MessageBufferConsumer<T> {
 	 */
 	@Override
 	public T get(final long sequence) {
-		return temp.get(Long.valueOf(sequence)).getValue();
+		return buffer.get(sequence);
 	}
 
 	/**
@@ -116,7 +174,7 @@ final class BlockingQueueConsumer<T> implements MessageBufferConsumer<T> {
 	 */
 	@Override
 	public Object attachment(final long sequence) {
-		return temp.get(Long.valueOf(sequence)).getAttachment();
+		return buffer.attachment(sequence);
 	}
 
 	/**
@@ -125,18 +183,47 @@ final class BlockingQueueConsumer<T> implements MessageBufferConsumer<T> {
 	@Override
 	public void release(final long sequence) throws InterruptedException {
 		if (closed) {
+			// the application is done with its messages all the same
+			unhold();
 			throw new InterruptedByClose();
 		}
-		final long c = cursor.get();
-		final long l = last.get();
-		if (sequence > c) {
+		if (sequence > cursor) {
 			throw new IllegalArgumentException("sequence > cursor");
 		}
-		final long k = Math.min(sequence, c);
-		for (long i = l + 1; i <= k; i++) {
-			final Long key = Long.valueOf(i);
-			temp.remove(key);
+		if (sequence > last) {
+			buffer.free(sequence);
+			last = sequence;
+		}
+		if (last >= acquired) {
+			unhold();
+		}
+	}
+
+	/**
+	 * Tell the guard, if any, that messages up to <code>last</code> are held.
+	 */
+	private void hold(final long last) throws InterruptedByClose {
+		if (guard == null) {
+			return;
+		}
+		if (!holding) {
+			if (!guard.enter(1)) {
+				throw new InterruptedByClose();
+			}
+			holding = true;
+		}
+		if (last > acquired) {
+			acquired = last;
+		}
+	}
+
+	/**
+	 * Tell the guard, if any, that no message is held anymore.
+	 */
+	private void unhold() {
+		if (holding) {
+			holding = false;
+			guard.exit(1);
 		}
-		last.set(k);
 	}
 }
@@ -16,42 +16,46 @@
 
 package net.dsys.snio.impl.buffer;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
-import net.dsys.commons.api.lang.Factory;
 import net.dsys.snio.api.buffer.InterruptedByClose;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
 import net.dsys.snio.api.pool.KeyProcessor;
-import net.dsys.snio.impl.buffer.BlockingBuffer.Tuple;
 
 /**
+ * Sequences are shared with the other producers of the same buffer, so the
+ * ranges claimed by this producer are kept apart until released, see
+ * {@link ClaimedRanges}. A producer must only be used by a single thread.
+ * 
  * @author Ricardo Padilha
  */
 final class BlockingQueueProducer<T> implements MessageBufferProducer<T> {
 
 	private final BlockingBuffer<T> buffer;
-	private final Factory<T> factory;
-	private final Map<Long, Tuple<T>> temp;
+	private final ClaimedRanges ranges;
+	@Nonnull(when = When.MAYBE)
+	private final SlotGuard guard;
 	private KeyProcessor<T> processor;
-	private long last;
-	private long cursor;
 	private boolean closed;
 
-	BlockingQueueProducer(@Nonnull final BlockingBuffer<T> buffer, @Nonnull final Factory<T> factory) {
+	BlockingQueueProducer(@Nonnull final BlockingBuffer<T> buffer) {
+		this(buffer, null);
+	}
+
+	/**
+	 * @param guard
+	 *            if not <code>null</code>, told about the slots held between
+	 *            {@link #acquire()} and {@link #release(long)}
+	 */
+	BlockingQueueProducer(@Nonnull final BlockingBuffer<T> buffer,
+			@Nonnull(when = When.MAYBE) final SlotGuard guard) {
 		if (buffer == null) {
 			throw new NullPointerException("buffer == null");
 		}
-		if (factory == null) {
-			throw new NullPointerException("factory == null");
-		}
 		this.buffer = buffer;
-		this.factory = factory;
-		this.temp = new HashMap<>();
-		this.last = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
-		this.cursor = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.ranges = new ClaimedRanges(buffer.capacity());
+		this.guard = guard;
 	}
 
 	public void setProcessor(final KeyProcessor<T> processor) {
@@ -82,17 +86,19 @@ final class BlockingQueueProducer<T> implements MessageBufferProducer<T> {
 		if (n <= 0) {
 			throw new IllegalArgumentException("n <= 0");
 		}
-		if (closed) {
+		final int k = Math.min(n, buffer.capacity());
+		if (closed || guard != null && !guard.enter(k)) {
 			throw new InterruptedByClose();
 		}
-		int k = Math.min(n, buffer.capacity());
-		while (--k >= 0) {
-			final T value = factory.newInstance();
-			final Tuple<T> tuple = new Tuple<>(value);
-			final Long key = Long.valueOf(++cursor);
-			temp.put(key, tuple);
+		final long last;
+		try {
+			last = buffer.claim(k);
+		} catch (final InterruptedException | RuntimeException e) {
+			unhold(k);
+			throw e;
 		}
-		return cursor;
+		ranges.add(last - k + 1, last);
+		return last;
 	}
 
 	/**
@@ -108,7 +114,7 @@ final class BlockingQueueProducer<T> implements MessageBufferProducer<T> {
 	 */
 	@Override
 	public T get(final long sequence) {
-		return temp.get(Long.valueOf(sequence)).getValue();
+		return buffer.get(sequence);
 	}
 
 	/**
@@ -116,7 +122,7 @@ final class BlockingQueueProducer<T> implements MessageBufferProducer<T> {
 	 */
 	@Override
 	public void attach(final long sequence, final Object attachment) {
-		temp.get(Long.valueOf(sequence)).setAttachment(attachment);
+		buffer.attach(sequence, attachment);
 	}
 
 	/**
@@ -125,22 +131,41 @@ final class BlockingQueueProducer<T> implements MessageBufferProducer<T> {
 	@Override
 	public void release(final long sequence) throws InterruptedException {
 		if (closed) {
+			// the application is done with its slots all the same
+			unhold(removeUpTo(sequence, false));
 			throw new InterruptedByClose();
 		}
-		if (sequence > cursor) {
+		if (ranges.isEmpty() || sequence > ranges.last()) {
 			throw new IllegalArgumentException("sequence > cursor");
 		}
-		final long k = Math.min(sequence, cursor);
-		for (long i = last + 1; i <= k; i++) {
-			final Long key = Long.valueOf(i);
-			final Tuple<T> tuple = temp.remove(key);
-			if (tuple != null) {
-				buffer.put(tuple);
-			}
-		}
-		last = k;
+		unhold(removeUpTo(sequence, true));
 		if (processor != null) {
 			processor.wakeupWriter();
 		}
 	}
+
+	/**
+	 * Removes the claimed slots up to <code>sequence</code>, publishing them
+	 * if asked to.
+	 * 
+	 * @return the number of slots removed
+	 */
+	private int removeUpTo(final long sequence, final boolean publish) {
+		int n = 0;
+		while (!ranges.isEmpty() && ranges.first() <= sequence) {
+			final long first = ranges.first();
+			final long last = ranges.removeUpTo(sequence);
+			if (publish) {
+				buffer.publish(first, last);
+			}
+			n += (int) (last - first + 1);
+		}
+		return n;
+	}
+
+	private void unhold(final int n) {
+		if (guard != null && n > 0) {
+			guard.exit(n);
+		}
+	}
 }
@@ -18,6 +18,7 @@ package net.dsys.snio.impl.buffer;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
 import net.dsys.commons.api.lang.Factory;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
@@ -39,14 +40,17 @@ public final class BlockingQueueProvider<T> implements MessageBufferProvider<T>
 	private final MessageBufferProducer<T> chnOut; // channel producer
 	private final MessageBufferConsumer<T> appIn; // app consumer
 	private final boolean internalConsumer;
+	@Nonnull(when = When.MAYBE)
+	private final SlotGuard guard;
 
 	BlockingQueueProvider(@Nonnegative final int capacity, @Nonnull final Factory<T> factory) {
-		this.out = new BlockingBuffer<>(capacity);
-		this.in = new BlockingBuffer<>(capacity);
-		this.appOut = new BlockingQueueProducer<>(out, factory);
-		this.chnIn = new BlockingQueueConsumer<>(out, factory);
-		this.chnOut = new BlockingQueueProducer<>(in, factory);
-		this.appIn = new BlockingQueueConsumer<>(in, factory);
+		this.out = new BlockingBuffer<>(capacity, factory);
+		this.in = new BlockingBuffer<>(capacity, factory);
+		this.guard = newGuard(factory, out, in);
+		this.appOut = new BlockingQueueProducer<>(out, guard);
+		this.chnIn = new BlockingQueueConsumer<>(out);
+		this.chnOut = new BlockingQueueProducer<>(in);
+		this.appIn = new BlockingQueueConsumer<>(in, guard);
 		this.internalConsumer = true;
 	}
 
@@ -55,10 +59,11 @@ public final class BlockingQueueProvider<T> implements MessageBufferProvider<T>
 		if (consumer == null) {
 			throw new NullPointerException("appIn == null");
 		}
-		this.out = new BlockingBuffer<>(capacity);
+		this.out = new BlockingBuffer<>(capacity, factory);
 		this.in = null;
-		this.appOut = new BlockingQueueProducer<>(out, factory);
-		this.chnIn = new BlockingQueueConsumer<>(out, factory);
+		this.guard = newGuard(factory, out, null);
+		this.appOut = new BlockingQueueProducer<>(out, guard);
+		this.chnIn = new BlockingQueueConsumer<>(out);
 		this.chnOut = consumer.createProducer();
 		this.appIn = consumer;
 		this.internalConsumer = false;
@@ -110,9 +115,56 @@ public final class BlockingQueueProvider<T> implements MessageBufferProvider<T>
 		}
 	}
 
+	/**
+	 * Slots are given back to the factory if it frees them, such as
+	 * {@link DirectRegionFactory}. Slots still held by the application are
+	 * given back once it releases them.
+	 * 
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void recycle() {
+		if (guard != null) {
+			guard.close();
+		}
+	}
+
+	/**
+	 * @param in
+	 *            if <code>null</code>, only the slots of <code>out</code> are
+	 *            given back
+	 * @return a guard that gives the slots back to the factory, or
+	 *         <code>null</code> if it is not a {@link ReleasingFactory}
+	 */
+	@Nonnull(when = When.MAYBE)
+	private static <T> SlotGuard newGuard(@Nonnull final Factory<T> factory, @Nonnull final BlockingBuffer<T> out,
+			@Nonnull(when = When.MAYBE) final BlockingBuffer<T> in) {
+		if (!(factory instanceof ReleasingFactory)) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		final ReleasingFactory<T> releasing = (ReleasingFactory<T>) factory;
+		return new SlotGuard(new Runnable() {
+			@Override
+			public void run() {
+				release(releasing, out);
+				if (in != null) {
+					release(releasing, in);
+				}
+			}
+		});
+	}
+
+	private static <T> void release(@Nonnull final ReleasingFactory<T> factory, @Nonnull final BlockingBuffer<T> buffer) {
+		final int n = buffer.capacity();
+		for (int i = 0; i < n; i++) {
+			factory.release(buffer.get(i));
+		}
+	}
+
 	public static <T> BlockingQueueConsumer<T> createConsumer(final int capacity, final Factory<T> factory) {
-		final BlockingBuffer<T> buffer = new BlockingBuffer<>(capacity);
-		final BlockingQueueConsumer<T> consumer = new BlockingQueueConsumer<>(buffer, factory);
+		final BlockingBuffer<T> buffer = new BlockingBuffer<>(capacity, factory);
+		final BlockingQueueConsumer<T> consumer = new BlockingQueueConsumer<>(buffer);
 		return consumer;
 	}
 
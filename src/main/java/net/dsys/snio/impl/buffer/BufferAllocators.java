@@ -0,0 +1,54 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import net.dsys.snio.api.buffer.BufferAllocator;
+
+/**
+ * Helper class to create {@link BufferAllocator} instances.
+ * 
+ * @author Ricardo Padilha
+ */
+public final class BufferAllocators {
+
+	private BufferAllocators() {
+		// no instantiation
+		return;
+	}
+
+	/**
+	 * @return an allocator that allocates a new direct buffer each time, and
+	 *         leaves released buffers to the garbage collector
+	 */
+	@Nonnull
+	public static BufferAllocator direct() {
+		return new DirectAllocator();
+	}
+
+	/**
+	 * @return an allocator that slices buffers out of direct regions of
+	 *         <code>slabSize</code> bytes, and reuses released buffers
+	 */
+	@Nonnull
+	public static BufferAllocator slab(@Nonnegative final int slabSize) {
+		return new SlabAllocator(slabSize);
+	}
+
+}
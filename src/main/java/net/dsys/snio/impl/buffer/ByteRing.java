@@ -0,0 +1,373 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Ring of variable-length records, stored back to back in one direct region.
+ * Each record is an <code>int</code> length followed by the message bytes,
+ * padded to {@link #ALIGNMENT}. A record that does not fit before the end of
+ * the region is stored at its start, and the skipped bytes are marked with
+ * {@link #WRAP}. Bytes that a record reserved but did not use are marked with
+ * their negated count.
+ * <p>
+ * The producer and the consumer keep their own offsets into the region; this
+ * class only holds what they share: sequence numbers, the number of bytes in
+ * use, the attachments, and the buffers through which records are accessed.
+ * There is one such buffer per record position; it is sliced again only when
+ * the record at that position starts at another offset. Blocking follows
+ * {@link BlockingBuffer}.
+ *
+ * @author Ricardo Padilha
+ */
+final class ByteRing {
+
+	static final int HEADER_LENGTH = Integer.SIZE / Byte.SIZE;
+	static final int ALIGNMENT = Long.SIZE / Byte.SIZE;
+	static final int WRAP = -1;
+
+	private final ByteBuffer region;
+	// only used by the producer to slice the views
+	private final ByteBuffer slicer;
+	private final ByteBuffer[] views;
+	private final int[] offsets;
+	private final int maxLength;
+	private final int recordLength;
+	private final int mask;
+	private final Object[] attachments;
+	private final Lock lock;
+	private final Condition notEmpty;
+	private final Condition notFull;
+
+	private long published;
+	private long released;
+	private long head;
+	private InterruptedException interruptPut;
+	private InterruptedException interruptTake;
+
+	/**
+	 * @param capacity
+	 *            maximum number of records, a power of two
+	 * @param maxLength
+	 *            maximum length of a single message
+	 * @param size
+	 *            size of the region in bytes, a multiple of
+	 *            {@link #ALIGNMENT} that holds at least two records of
+	 *            <code>maxLength</code>
+	 */
+	ByteRing(@Nonnegative final int capacity, @Nonnegative final int maxLength, @Nonnegative final int size) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity < 1");
+		}
+		if (Integer.bitCount(capacity) > 1) {
+			// not a power of two
+			throw new IllegalArgumentException("capacity must be a power of two");
+		}
+		if (maxLength < 1) {
+			throw new IllegalArgumentException("maxLength < 1");
+		}
+		if (size % ALIGNMENT != 0) {
+			throw new IllegalArgumentException("size % " + ALIGNMENT + " != 0");
+		}
+		this.recordLength = align(HEADER_LENGTH + maxLength);
+		if (size < 2 * recordLength) {
+			throw new IllegalArgumentException("size < " + 2 * recordLength);
+		}
+		this.region = ByteBuffer.allocateDirect(size);
+		this.slicer = region.duplicate();
+		this.views = new ByteBuffer[capacity];
+		this.offsets = new int[capacity];
+		this.maxLength = maxLength;
+		this.mask = capacity - 1;
+		this.attachments = new Object[capacity];
+		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+		this.notFull = lock.newCondition();
+		this.published = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.released = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+	}
+
+	/**
+	 * @return the number of bytes taken by a record of the given length
+	 */
+	static int align(@Nonnegative final int length) {
+		return (length + ALIGNMENT - 1) & -ALIGNMENT;
+	}
+
+	/**
+	 * @return a new view of the whole region, with its own position and limit
+	 */
+	@Nonnull
+	ByteBuffer region() {
+		return region.duplicate();
+	}
+
+	/**
+	 * Only called by the producer, under its lock, when laying out the record
+	 * <code>sequence</code> at <code>offset</code>.
+	 * 
+	 * @return the buffer of the record, of capacity {@link #maxLength()}
+	 */
+	@Nonnull
+	ByteBuffer place(final long sequence, @Nonnegative final int offset) {
+		final int i = index(sequence);
+		ByteBuffer view = views[i];
+		if (view == null || offsets[i] != offset) {
+			final int start = offset + HEADER_LENGTH;
+			slicer.limit(start + maxLength).position(start);
+			view = slicer.slice();
+			views[i] = view;
+			offsets[i] = offset;
+		}
+		return view;
+	}
+
+	/**
+	 * Only called by the consumer once the record <code>sequence</code> is
+	 * published.
+	 * 
+	 * @return the buffer of the record, as laid out by
+	 *         {@link #place(long, int)}
+	 */
+	@Nonnull
+	ByteBuffer view(final long sequence) {
+		return views[index(sequence)];
+	}
+
+	@Nonnegative
+	int size() {
+		return region.capacity();
+	}
+
+	@Nonnegative
+	int capacity() {
+		return attachments.length;
+	}
+
+	@Nonnegative
+	int maxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * @return the number of bytes a producer reserves per record
+	 */
+	@Nonnegative
+	int recordLength() {
+		return recordLength;
+	}
+
+	int index(final long sequence) {
+		return (int) (sequence & mask);
+	}
+
+	void attach(final long sequence, @Nonnull final Object attachment) {
+		attachments[index(sequence)] = attachment;
+	}
+
+	@Nonnull
+	Object attachment(final long sequence) {
+		return attachments[index(sequence)];
+	}
+
+	/**
+	 * Blocks a producer until all records up to <code>sequence</code> have
+	 * a free position, and at least <code>bytes</code> bytes past
+	 * <code>tail</code> are free.
+	 *
+	 * @param tail
+	 *            the number of bytes the producer has written so far
+	 */
+	void awaitFree(final long sequence, final long tail, @Nonnegative final long bytes)
+			throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (!hasRoom(sequence, tail, bytes) && interruptPut == null) {
+				notFull.await();
+			}
+			if (interruptPut != null) {
+				// kept, so that every blocked producer throws it
+				final InterruptedException ex = interruptPut;
+				Thread.currentThread().interrupt();
+				throw ex;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Same as {@link #awaitFree(long, long, long)}, without blocking.
+	 * 
+	 * @return <code>true</code> if the records and bytes are free
+	 */
+	boolean isFree(final long sequence, final long tail, @Nonnegative final long bytes) {
+		lock.lock();
+		try {
+			return hasRoom(sequence, tail, bytes);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean hasRoom(final long sequence, final long tail, final long bytes) {
+		return sequence - released <= attachments.length
+				&& region.capacity() - (tail - head) >= bytes;
+	}
+
+	/**
+	 * @return the number of records the producer can acquire without
+	 *         blocking
+	 * @param claimed
+	 *            last sequence acquired by the producer
+	 * @param tail
+	 *            the number of bytes the producer has written so far
+	 * @param pending
+	 *            the number of acquired records that were not written yet
+	 */
+	@Nonnegative
+	int remainingCapacity(final long claimed, final long tail, @Nonnegative final int pending) {
+		lock.lock();
+		try {
+			final long records = attachments.length - (claimed - released);
+			// one record is kept back for the bytes skipped at the end of the
+			// region
+			final long bytes = (region.capacity() - (tail - head)) / recordLength - 1 - pending;
+			return (int) Math.max(0, Math.min(records, bytes));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Makes all records up to <code>sequence</code> visible to the consumer.
+	 */
+	void publish(final long sequence) {
+		lock.lock();
+		try {
+			published = sequence;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Interrupt the producers blocked in {@link #awaitFree(long, long, long)}
+	 * and throws the given exception.
+	 */
+	void interruptPut(@Nonnull final InterruptedException e) {
+		if (e == null) {
+			throw new NullPointerException("e == null");
+		}
+		lock.lock();
+		try {
+			interruptPut = e;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Blocks the consumer until a record after <code>sequence</code> is
+	 * published.
+	 *
+	 * @return the last published sequence
+	 */
+	long awaitPublished(final long sequence) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (published <= sequence && interruptTake == null) {
+				notEmpty.await();
+			}
+			if (interruptTake != null) {
+				final InterruptedException ex = interruptTake;
+				interruptTake = null;
+				Thread.currentThread().interrupt();
+				throw ex;
+			}
+			return published;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the last published sequence
+	 */
+	long published() {
+		lock.lock();
+		try {
+			return published;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if all published records were released
+	 */
+	boolean isEmpty() {
+		lock.lock();
+		try {
+			return published == released;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives the positions of all records up to <code>sequence</code>, and
+	 * <code>bytes</code> bytes of the region, back to the producer.
+	 */
+	void free(final long sequence, @Nonnegative final long bytes) {
+		lock.lock();
+		try {
+			released = sequence;
+			head += bytes;
+			// producers may wait for different amounts
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Interrupt the consumer blocked in {@link #awaitPublished(long)} and
+	 * throws the given exception.
+	 */
+	void interruptTake(@Nonnull final InterruptedException e) {
+		if (e == null) {
+			throw new NullPointerException("e == null");
+		}
+		lock.lock();
+		try {
+			interruptTake = e;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
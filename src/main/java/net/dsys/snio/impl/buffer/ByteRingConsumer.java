@@ -0,0 +1,227 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+import net.dsys.snio.api.buffer.InterruptedByClose;
+import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferHandler;
+import net.dsys.snio.api.buffer.MessageBufferProducer;
+
+/**
+ * Reads records from a {@link ByteRing}. The buffer of each record shows the
+ * bytes that were written, from position 0 to its limit.
+ *
+ * @author Ricardo Padilha
+ */
+final class ByteRingConsumer implements MessageBufferConsumer<ByteBuffer> {
+
+	private final ByteRing ring;
+	private final ByteBuffer region;
+	// bytes taken by each record, including those skipped before it
+	private final int[] spans;
+	private long cursor;
+	private long walked;
+	private long available;
+	private int offset;
+	private boolean closed;
+
+	ByteRingConsumer(@Nonnull final ByteRing ring) {
+		if (ring == null) {
+			throw new NullPointerException("ring == null");
+		}
+		this.ring = ring;
+		this.region = ring.region();
+		this.spans = new int[ring.capacity()];
+		this.cursor = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.walked = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.available = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+	}
+
+	/**
+	 * A byte ring has a single producer, so it cannot be shared.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             always
+	 */
+	@Override
+	public MessageBufferProducer<ByteBuffer> createProducer() {
+		throw new UnsupportedOperationException("createProducer()");
+	}
+
+	void close() {
+		closed = true;
+		ring.interruptTake(new InterruptedByClose());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long acquire() throws InterruptedException {
+		return acquire(1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long acquire(final int n) throws InterruptedException {
+		if (n < 1) {
+			throw new IllegalArgumentException("n < 1");
+		}
+		if (closed) {
+			throw new InterruptedByClose();
+		}
+		if (available <= cursor) {
+			available = ring.awaitPublished(cursor);
+		}
+		final long last = Math.min(cursor + n, available);
+		while (walked < last) {
+			walk(++walked);
+		}
+		return last;
+	}
+
+	/**
+	 * Reads the length of the record at the current offset, after skipping
+	 * the bytes that previous records did not use.
+	 */
+	private void walk(final long sequence) {
+		final int size = ring.size();
+		int span = 0;
+		while (true) {
+			if (size - offset < ByteRing.HEADER_LENGTH) {
+				span += size - offset;
+				offset = 0;
+				continue;
+			}
+			final int header = region.getInt(offset);
+			if (header == ByteRing.WRAP) {
+				span += size - offset;
+				offset = 0;
+			} else if (header < 0) {
+				span -= header;
+				offset -= header;
+				if (offset == size) {
+					offset = 0;
+				}
+			} else {
+				break;
+			}
+		}
+		final int length = region.getInt(offset);
+		final int index = ring.index(sequence);
+		ring.view(sequence).limit(length).position(0);
+		final int n = ByteRing.align(ByteRing.HEADER_LENGTH + length);
+		spans[index] = span + n;
+		offset += n;
+		if (offset == size) {
+			offset = 0;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int remaining() {
+		available = ring.published();
+		return (int) (available - cursor);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int drainTo(final MessageBufferHandler<ByteBuffer> handler, final int max)
+			throws InterruptedException, IOException {
+		if (handler == null) {
+			throw new NullPointerException("handler == null");
+		}
+		if (max < 1) {
+			throw new IllegalArgumentException("max < 1");
+		}
+		if (closed) {
+			throw new InterruptedByClose();
+		}
+		final int n = Math.min(remaining(), max);
+		if (n == 0) {
+			return 0;
+		}
+		final long first = cursor + 1;
+		// n records are published, so exactly n are walked
+		final long last = acquire(n);
+		long seq = first - 1;
+		try {
+			while (seq < last) {
+				final long next = seq + 1;
+				if (!handler.handle(get(next), attachment(next), next == last)) {
+					break;
+				}
+				seq = next;
+			}
+		} finally {
+			if (seq >= first) {
+				release(seq);
+			}
+		}
+		return (int) (seq - first + 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ByteBuffer get(final long sequence) {
+		return ring.view(sequence);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object attachment(final long sequence) {
+		return ring.attachment(sequence);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void release(final long sequence) throws InterruptedException {
+		if (closed) {
+			throw new InterruptedByClose();
+		}
+		if (sequence > walked) {
+			throw new IllegalArgumentException("sequence > cursor");
+		}
+		if (sequence <= cursor) {
+			return;
+		}
+		long bytes = 0;
+		for (long i = cursor + 1; i <= sequence; i++) {
+			bytes += spans[ring.index(i)];
+		}
+		cursor = sequence;
+		ring.free(sequence, bytes);
+	}
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+import net.dsys.snio.api.buffer.InterruptedByClose;
+import net.dsys.snio.api.buffer.MessageBufferProducer;
+import net.dsys.snio.api.pool.KeyProcessor;
+
+/**
+ * Writes records into a {@link ByteRing}. Records are laid out in sequence
+ * order when first touched by {@link #get(long)} or {@link #release(long)}.
+ * Each one reserves room for a message of maximum length, and is sealed with
+ * the limit of its buffer when released: the buffer must be flipped by then.
+ * A record sealed while it is the last one laid out gives the bytes past its
+ * limit back; otherwise they are skipped by the consumer.
+ * <p>
+ * An exclusive producer also gives them back when the next record is laid
+ * out, so that a batch filled one record after the other only takes the
+ * bytes it uses. A buffer that was flipped by then must not grow past its
+ * limit afterwards.
+ * <p>
+ * A shared producer may be used by several threads at once. Each thread then
+ * releases its own sequences, and records are published in sequence order
+ * once all previous ones are released. An exclusive producer is only used by
+ * a single thread, and releasing a sequence releases all previous ones.
+ *
+ * @author Ricardo Padilha
+ */
+final class ByteRingProducer implements MessageBufferProducer<ByteBuffer> {
+
+	private final ByteRing ring;
+	private final ByteBuffer region;
+	private final boolean exclusive;
+	private final int[] offsets;
+	// bytes taken by each record that is not the last one laid out
+	private final int[] reserved;
+	private final boolean[] sealed;
+	private volatile KeyProcessor<ByteBuffer> processor;
+	private volatile boolean closed;
+	// guarded by this
+	private long claimed;
+	private long placed;
+	private long published;
+	private long tail;
+	private int offset;
+	// the last record laid out was not sealed yet, and may still shrink
+	private boolean open;
+
+	/**
+	 * @param exclusive
+	 *            <code>true</code> if this producer is only ever used by a
+	 *            single thread
+	 */
+	ByteRingProducer(@Nonnull final ByteRing ring, final boolean exclusive) {
+		if (ring == null) {
+			throw new NullPointerException("ring == null");
+		}
+		this.ring = ring;
+		this.region = ring.region();
+		this.exclusive = exclusive;
+		this.offsets = new int[ring.capacity()];
+		this.reserved = new int[ring.capacity()];
+		this.sealed = new boolean[ring.capacity()];
+		this.claimed = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.placed = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.published = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+	}
+
+	public void setProcessor(final KeyProcessor<ByteBuffer> processor) {
+		this.processor = processor;
+		if (!ring.isEmpty()) {
+			processor.wakeupWriter();
+		}
+	}
+
+	void close() {
+		closed = true;
+		ring.interruptPut(new InterruptedByClose());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long acquire() throws InterruptedException {
+		return acquire(1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long acquire(final int n) throws InterruptedException {
+		if (n <= 0) {
+			throw new IllegalArgumentException("n <= 0");
+		}
+		while (true) {
+			final long sequence;
+			final long from;
+			final long bytes;
+			synchronized (this) {
+				if (closed) {
+					throw new InterruptedByClose();
+				}
+				final int pending = pending();
+				final int records = ring.size() / ring.recordLength() - 1 - pending;
+				final int k = Math.max(1, Math.min(n, Math.min(ring.capacity(), records)));
+				// every pending record may take a full record length, plus
+				// the bytes skipped when wrapping around
+				bytes = (long) (pending + k + 1) * ring.recordLength();
+				sequence = claimed + k;
+				from = tail;
+				if (ring.isFree(sequence, from, bytes)) {
+					claimed = sequence;
+					return sequence;
+				}
+			}
+			// wait without blocking the other threads, then try again
+			ring.awaitFree(sequence, from, bytes);
+		}
+	}
+
+	/**
+	 * @return the number of acquired records whose bytes are not accounted
+	 *         for in {@link #tail} yet
+	 */
+	private int pending() {
+		return (int) (claimed - placed) + (open ? 1 : 0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized int remaining() {
+		return ring.remainingCapacity(claimed, tail, pending());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized ByteBuffer get(final long sequence) {
+		if (sequence > claimed) {
+			throw new IllegalArgumentException("sequence > claimed");
+		}
+		placeUpTo(sequence);
+		return ring.view(sequence);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void attach(final long sequence, final Object attachment) {
+		ring.attach(sequence, attachment);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void release(final long sequence) throws InterruptedException {
+		synchronized (this) {
+			if (closed) {
+				throw new InterruptedByClose();
+			}
+			if (sequence > claimed) {
+				throw new IllegalArgumentException("sequence > claimed");
+			}
+			if (sequence <= published) {
+				throw new IllegalArgumentException("sequence <= published");
+			}
+			placeUpTo(sequence);
+			if (exclusive) {
+				for (long i = published + 1; i <= sequence; i++) {
+					seal(i);
+				}
+			} else {
+				seal(sequence);
+			}
+			final long last = published;
+			while (published < placed && sealed[ring.index(published + 1)]) {
+				sealed[ring.index(++published)] = false;
+			}
+			if (published == last) {
+				// previous records are still being written
+				return;
+			}
+			ring.publish(published);
+		}
+		final KeyProcessor<ByteBuffer> p = processor;
+		if (p != null) {
+			p.wakeupWriter();
+		}
+	}
+
+	private void placeUpTo(final long sequence) {
+		while (placed < sequence) {
+			place(++placed);
+		}
+	}
+
+	/**
+	 * Reserves room for a message of maximum length at the current offset.
+	 */
+	private void place(final long sequence) {
+		final int size = ring.size();
+		final int recordLength = ring.recordLength();
+		if (open) {
+			// the previous record is done with unless it is shared, in which
+			// case it may still be written and keeps all its room
+			final int previous = ring.index(sequence - 1);
+			final int n = exclusive ? length(ring.view(sequence - 1)) : recordLength;
+			advance(n);
+			reserved[previous] = n;
+			open = false;
+		}
+		if (size - offset < recordLength) {
+			if (size - offset >= ByteRing.HEADER_LENGTH) {
+				region.putInt(offset, ByteRing.WRAP);
+			}
+			tail += size - offset;
+			offset = 0;
+		}
+		final int index = ring.index(sequence);
+		ring.place(sequence, offset).clear();
+		offsets[index] = offset;
+		open = true;
+	}
+
+	/**
+	 * @return the number of bytes taken by the record of <code>view</code>,
+	 *         up to its limit
+	 */
+	private static int length(@Nonnull final ByteBuffer view) {
+		return ByteRing.align(ByteRing.HEADER_LENGTH + view.limit());
+	}
+
+	/**
+	 * Writes the length of a record. The last record laid out gives the bytes
+	 * past its limit back, the others mark those they reserved but did not
+	 * use as skipped.
+	 */
+	private void seal(final long sequence) {
+		final int index = ring.index(sequence);
+		if (sealed[index]) {
+			return;
+		}
+		final ByteBuffer view = ring.view(sequence);
+		final int n = length(view);
+		final int start = offsets[index];
+		if (open && sequence == placed) {
+			advance(n);
+			open = false;
+		} else if (n > reserved[index]) {
+			throw new IllegalStateException("limit > reserved");
+		} else if (n < reserved[index]) {
+			region.putInt(start + n, n - reserved[index]);
+		}
+		region.putInt(start, view.limit());
+		sealed[index] = true;
+	}
+
+	private void advance(final int n) {
+		tail += n;
+		offset += n;
+		if (offset == ring.size()) {
+			offset = 0;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import net.dsys.commons.api.lang.Factory;
+import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferProducer;
+import net.dsys.snio.api.buffer.MessageBufferProvider;
+import net.dsys.snio.api.pool.KeyProcessor;
+
+/**
+ * Provider that stores messages as variable-length records in one direct
+ * region per direction, see {@link ByteRing}. A message only takes its own
+ * length plus a few bytes, instead of a whole buffer of maximum length, so
+ * the region can be much smaller than <code>capacity * maxLength</code> when
+ * messages are small.
+ * <p>
+ * The application output may be written by several threads at once; the
+ * channel is the single producer of the application input, which cannot be
+ * shared between channels.
+ *
+ * @author Ricardo Padilha
+ */
+public final class ByteRingProvider implements MessageBufferProvider<ByteBuffer> {
+
+	private final ByteRingProducer appOut; // app producer
+	private final ByteRingConsumer chnIn; // channel consumer
+	private final ByteRingProducer chnOut; // channel producer
+	private final ByteRingConsumer appIn; // app consumer
+
+	/**
+	 * @param capacity
+	 *            maximum number of messages per direction, a power of two
+	 * @param maxLength
+	 *            maximum length of a single message
+	 * @param size
+	 *            size in bytes of the region of each direction
+	 */
+	ByteRingProvider(@Nonnegative final int capacity, @Nonnegative final int maxLength,
+			@Nonnegative final int size) {
+		final ByteRing out = new ByteRing(capacity, maxLength, size); // app -> channel
+		final ByteRing in = new ByteRing(capacity, maxLength, size); // channel -> app
+		this.appOut = new ByteRingProducer(out, false);
+		this.chnIn = new ByteRingConsumer(out);
+		this.chnOut = new ByteRingProducer(in, true);
+		this.appIn = new ByteRingConsumer(in);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MessageBufferProducer<ByteBuffer> getAppOutput(final KeyProcessor<ByteBuffer> processor) {
+		appOut.setProcessor(processor);
+		return appOut;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MessageBufferConsumer<ByteBuffer> getChannelInput() {
+		return chnIn;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MessageBufferProducer<ByteBuffer> getChannelOutput() {
+		return chnOut;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MessageBufferConsumer<ByteBuffer> getAppInput() {
+		return appIn;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() {
+		appOut.close();
+		chnIn.close();
+		chnOut.close();
+		appIn.close();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void recycle() {
+		// the regions are not pooled, nothing to give back
+		return;
+	}
+
+	/**
+	 * Rounds <code>size</code> up so that it holds at least two messages of
+	 * <code>maxLength</code>, and is properly aligned.
+	 */
+	@Nonnegative
+	static int regionSize(@Nonnegative final int maxLength, @Nonnegative final int size) {
+		final int min = 2 * ByteRing.align(ByteRing.HEADER_LENGTH + maxLength);
+		return Math.max(min, ByteRing.align(size));
+	}
+
+	public static MessageBufferProvider<ByteBuffer> createProvider(final int capacity, final int maxLength,
+			final int size) {
+		return new ByteRingProvider(capacity, maxLength, regionSize(maxLength, size));
+	}
+
+	public static Factory<MessageBufferProvider<ByteBuffer>> createProviderFactory(final int capacity,
+			final int maxLength, final int size) {
+		return new ProviderFactory(capacity, maxLength, size);
+	}
+
+	private static final class ProviderFactory implements Factory<MessageBufferProvider<ByteBuffer>> {
+
+		private final int capacity;
+		private final int maxLength;
+		private final int size;
+
+		ProviderFactory(@Nonnegative final int capacity, @Nonnegative final int maxLength,
+				@Nonnegative final int size) {
+			if (capacity < 1) {
+				throw new IllegalArgumentException("capacity < 1");
+			}
+			if (maxLength < 1) {
+				throw new IllegalArgumentException("maxLength < 1");
+			}
+			if (size < 1) {
+				throw new IllegalArgumentException("size < 1");
+			}
+			this.capacity = capacity;
+			this.maxLength = maxLength;
+			this.size = regionSize(maxLength, size);
+		}
+
+		@Override
+		public MessageBufferProvider<ByteBuffer> newInstance() {
+			return new ByteRingProvider(capacity, maxLength, size);
+		}
+	}
+}
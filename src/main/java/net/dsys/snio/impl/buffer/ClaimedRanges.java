@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * Ranges of sequences claimed by one producer and not released yet, in
+ * order. Producers of a buffer share its sequences, so the ranges of a single
+ * producer are not necessarily contiguous. Not thread-safe.
+ *
+ * @author Ricardo Padilha
+ */
+final class ClaimedRanges {
+
+	private final long[] starts;
+	private final long[] ends;
+	private int head;
+	private int count;
+
+	/**
+	 * @param capacity
+	 *            capacity of the buffer; every range holds at least one of
+	 *            its slots
+	 */
+	ClaimedRanges(@Nonnegative final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity < 1");
+		}
+		this.starts = new long[capacity];
+		this.ends = new long[capacity];
+	}
+
+	void add(final long first, final long last) {
+		if (count > 0 && ends[(head + count - 1) % starts.length] == first - 1) {
+			// no other producer claimed in between
+			ends[(head + count - 1) % starts.length] = last;
+			return;
+		}
+		starts[(head + count) % starts.length] = first;
+		ends[(head + count) % starts.length] = last;
+		count++;
+	}
+
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * @return first sequence of the oldest range
+	 */
+	long first() {
+		return starts[head];
+	}
+
+	/**
+	 * @return last sequence of the newest range
+	 */
+	long last() {
+		return ends[(head + count - 1) % starts.length];
+	}
+
+	/**
+	 * Removes the part of the oldest range that is not after
+	 * <code>sequence</code>.
+	 *
+	 * @return the last sequence removed
+	 */
+	long removeUpTo(final long sequence) {
+		final long end = ends[head];
+		if (end > sequence) {
+			starts[head] = sequence + 1;
+			return sequence;
+		}
+		head = (head + 1) % starts.length;
+		count--;
+		return end;
+	}
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import net.dsys.commons.api.lang.Factory;
+import net.dsys.snio.api.buffer.InterruptedByClose;
+
+/**
+ * Lock-free ring of preallocated slots with a single consumer. With a single
+ * producer, publication is a write of the producer cursor; with several
+ * producers, slots are claimed by compare-and-set and each one is published
+ * by a write of its sequence in an availability array.
+ * <p>
+ * Waiting threads spin, then yield, then park until they are unparked: the
+ * consumer by the producers when they publish, the producers by the consumer
+ * when it frees slots. A waiting thread registers itself before checking the
+ * ring one last time, and the other side writes the ring before checking for
+ * waiting threads. Both writes are volatile, so at least one side sees the
+ * other and no wakeup is missed.
+ *
+ * @author Ricardo Padilha
+ */
+final class ConcurrentRing<T> {
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+
+	private final int mask;
+	private final T[] values;
+	private final Object[] attachments;
+	private final boolean multiProducer;
+	// last claimed sequence
+	private final PaddedSequence claimed;
+	// last published sequence, single producer only
+	private final PaddedSequence published;
+	// sequence last published in each slot, multiple producers only
+	private final AtomicLongArray available;
+	// last sequence released by the consumer
+	private final PaddedSequence consumed;
+	// consumer waiting for publication
+	private volatile Thread waiter;
+	// producers waiting for free slots
+	private final Queue<Thread> putWaiters;
+	private volatile boolean closedPut;
+	private volatile boolean closedTake;
+
+	ConcurrentRing(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+			final boolean multiProducer) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity < 1");
+		}
+		if (Integer.bitCount(capacity) > 1) {
+			// not a power of two
+			throw new IllegalArgumentException("capacity must be a power of two");
+		}
+		if (factory == null) {
+			throw new NullPointerException("factory == null");
+		}
+		this.mask = capacity - 1;
+		@SuppressWarnings("unchecked")
+		final T[] values = (T[]) new Object[capacity];
+		for (int i = 0; i < capacity; i++) {
+			values[i] = factory.newInstance();
+		}
+		this.values = values;
+		this.attachments = new Object[capacity];
+		this.multiProducer = multiProducer;
+		this.putWaiters = new ConcurrentLinkedQueue<>();
+		this.claimed = new PaddedSequence(BlockingQueueProvider.INITIAL_SEQUENCE_VALUE);
+		this.consumed = new PaddedSequence(BlockingQueueProvider.INITIAL_SEQUENCE_VALUE);
+		if (multiProducer) {
+			this.published = null;
+			this.available = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				available.set(i, BlockingQueueProvider.INITIAL_SEQUENCE_VALUE);
+			}
+		} else {
+			this.published = new PaddedSequence(BlockingQueueProvider.INITIAL_SEQUENCE_VALUE);
+			this.available = null;
+		}
+	}
+
+	boolean isMultiProducer() {
+		return multiProducer;
+	}
+
+	@Nonnegative
+	int capacity() {
+		return values.length;
+	}
+
+	@Nonnull
+	T get(final long sequence) {
+		return values[(int) (sequence & mask)];
+	}
+
+	@Nonnull
+	Object attachment(final long sequence) {
+		return attachments[(int) (sequence & mask)];
+	}
+
+	void attach(final long sequence, @Nonnull final Object attachment) {
+		attachments[(int) (sequence & mask)] = attachment;
+	}
+
+	/**
+	 * Claims <code>n</code> slots, waiting until the consumer released them.
+	 *
+	 * @param n
+	 *            at most {@link #capacity()}
+	 * @return the last claimed sequence
+	 */
+	long claim(@Nonnegative final int n) throws InterruptedException {
+		int tries = 0;
+		while (true) {
+			final long current = claimed.get();
+			final long next = current + n;
+			if (next - values.length > consumed.get()) {
+				if (tries < SPIN_TRIES + YIELD_TRIES) {
+					tries = backoff(tries, true);
+					continue;
+				}
+				final Thread thread = Thread.currentThread();
+				putWaiters.add(thread);
+				try {
+					if (next - values.length > consumed.get()) {
+						park(true);
+					}
+				} finally {
+					putWaiters.remove(thread);
+				}
+				continue;
+			}
+			if (!multiProducer) {
+				claimed.lazySet(next);
+				return next;
+			}
+			if (claimed.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of slots that can be claimed without waiting
+	 */
+	@Nonnegative
+	int remainingCapacity() {
+		return (int) Math.max(0, values.length - (claimed.get() - consumed.get()));
+	}
+
+	/**
+	 * Makes the claimed slots from <code>first</code> to <code>last</code>
+	 * available to the consumer. With a single producer, slots must be
+	 * published in order.
+	 */
+	void publish(final long first, final long last) {
+		if (multiProducer) {
+			for (long i = first; i <= last; i++) {
+				available.set((int) (i & mask), i);
+			}
+		} else {
+			published.set(last);
+		}
+		final Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * @return the highest sequence after <code>sequence</code>, up to
+	 *         <code>limit</code>, such that all slots up to it are published
+	 */
+	long highestPublished(final long sequence, final long limit) {
+		if (!multiProducer) {
+			return Math.min(published.get(), limit);
+		}
+		final long max = Math.min(claimed.get(), limit);
+		long i = sequence + 1;
+		while (i <= max && available.get((int) (i & mask)) == i) {
+			i++;
+		}
+		return i - 1;
+	}
+
+	/**
+	 * Waits until the slot after <code>sequence</code> is published.
+	 *
+	 * @return the highest sequence, up to <code>limit</code>, such that all
+	 *         slots up to it are published
+	 */
+	long awaitPublished(final long sequence, final long limit) throws InterruptedException {
+		long last = highestPublished(sequence, limit);
+		int tries = 0;
+		while (last <= sequence) {
+			if (tries < SPIN_TRIES + YIELD_TRIES) {
+				tries = backoff(tries, false);
+			} else {
+				waiter = Thread.currentThread();
+				try {
+					last = highestPublished(sequence, limit);
+					if (last > sequence) {
+						break;
+					}
+					park(false);
+				} finally {
+					waiter = null;
+				}
+			}
+			last = highestPublished(sequence, limit);
+		}
+		return last;
+	}
+
+	/**
+	 * Gives all slots up to <code>sequence</code> back to the producers.
+	 */
+	void free(final long sequence) {
+		consumed.set(sequence);
+		if (!putWaiters.isEmpty()) {
+			unparkProducers();
+		}
+	}
+
+	private void unparkProducers() {
+		for (final Thread thread : putWaiters) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	void closePut() {
+		closedPut = true;
+		unparkProducers();
+	}
+
+	void closeTake() {
+		closedTake = true;
+		final Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Spins, then yields.
+	 *
+	 * @return the number of tries so far
+	 */
+	private int backoff(final int tries, final boolean put) throws InterruptedException {
+		checkClosed(put);
+		if (tries >= SPIN_TRIES) {
+			Thread.yield();
+		}
+		return tries + 1;
+	}
+
+	/**
+	 * Parks until unparked by the other side, closed, or interrupted. The
+	 * caller must be registered as waiting and have checked the ring again.
+	 */
+	private void park(final boolean put) throws InterruptedException {
+		checkClosed(put);
+		LockSupport.park(this);
+		checkClosed(put);
+	}
+
+	private void checkClosed(final boolean put) throws InterruptedException {
+		if (put ? closedPut : closedTake) {
+			throw new InterruptedByClose();
+		}
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
+
+import net.dsys.snio.api.buffer.InterruptedByClose;
+import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferHandler;
+
+/**
+ * Single consumer of a {@link ConcurrentRing}. As with
+ * {@link RingBufferConsumer}, {@link #acquire(int)} starts from the last
+ * released sequence.
+ *
+ * @author Ricardo Padilha
+ */
+final class ConcurrentRingConsumer<T> implements MessageBufferConsumer<T> {
+
+	private final ConcurrentRing<T> ring;
+	@Nonnull(when = When.MAYBE)
+	private final SlotGuard guard;
+	private long cursor;
+	private long available;
+	private long acquired;
+	private boolean holding;
+	private boolean closed;
+
+	ConcurrentRingConsumer(@Nonnull final ConcurrentRing<T> ring) {
+		this(ring, null);
+	}
+
+	/**
+	 * @param guard
+	 *            if not <code>null</code>, told about the messages held
+	 *            between {@link #acquire()} and {@link #release(long)}
+	 */
+	ConcurrentRingConsumer(@Nonnull final ConcurrentRing<T> ring,
+			@Nonnull(when = When.MAYBE) final SlotGuard guard) {
+		if (ring == null) {
+			throw new NullPointerException("ring == null");
+		}
+		this.ring = ring;
+		this.guard = guard;
+		this.cursor = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.available = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+		this.acquired = BlockingQueueProvider.INITIAL_SEQUENCE_VALUE;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             if the ring only allows a single producer
+	 */
+	@Override
+	public ConcurrentRingProducer<T> createProducer() {
+		if (!ring.isMultiProducer()) {
+			throw new UnsupportedOperationException("createProducer()");
+		}
+		return new ConcurrentRingProducer<>(ring);
+	}
+
+	void close() {
+		closed = true;
+		ring.closeTake();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long acquire() throws InterruptedException {
+		return acquire(1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long acquire(final int n) throws InterruptedException {
+		if (n < 1) {
+			throw new IllegalArgumentException("n < 1");
+		}
+		if (closed) {
+			throw new InterruptedByClose();
+		}
+		final long limit = cursor + n;
+		if (limit <= available) {
+			hold(limit);
+			return limit;
+		}
+		if (available <= cursor) {
+			available = ring.awaitPublished(cursor, cursor + ring.capacity());
+		} else {
+			available = ring.highestPublished(available, cursor + ring.capacity());
+		}
+		final long last = Math.min(limit, available);
+		hold(last);
+		return last;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int remaining() {
+		available = ring.highestPublished(available > cursor ? available : cursor, cursor + ring.capacity());
+		return (int) (available - cursor);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int drainTo(final MessageBufferHandler<T> handler, final int max)
+			throws InterruptedException, IOException {
+		if (handler == null) {
+			throw new NullPointerException("handler == null");
+		}
+		if (max < 1) {
+			throw new IllegalArgumentException("max < 1");
+		}
+		if (closed) {
+			throw new InterruptedByClose();
+		}
+		final int n = Math.min(remaining(), max);
+		if (n == 0) {
+			return 0;
+		}
+		final long first = cursor + 1;
+		final long last = cursor + n;
+		hold(last);
+		long seq = first - 1;
+		try {
+			while (seq < last) {
+				final long next = seq + 1;
+				if (!handler.handle(get(next), attachment(next), next == last)) {
+					break;
+				}
+				seq = next;
+			}
+		} finally {
+			// messages left unhandled are not held anymore
+			acquired = seq;
+			if (seq >= first) {
+				release(seq);
+			} else {
+				unhold();
+			}
+		}
+		return (int) (seq - first + 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T get(final long sequence) {
+		return ring.get(sequence);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object attachment(final long sequence) {
+		return ring.attachment(sequence);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void release(final long sequence) throws InterruptedException {
+		if (closed) {
+			// the application is done with its messages all the same
+			unhold();
+			throw new InterruptedByClose();
+		}
+		if (sequence > available) {
+			throw new IllegalArgumentException("sequence > available");
+		}
+		if (sequence > cursor) {
+			cursor = sequence;
+			ring.free(sequence);
+		}
+		if (cursor >= acquired) {
+			unhold();
+		}
+	}
+
+	/**
+	 * Tell the guard, if any, that messages up to <code>last</code> are held.
+	 */
+	private void hold(final long last) throws InterruptedByClose {
+		if (guard == null) {
+			return;
+		}
+		if (!holding) {
+			if (!guard.enter(1)) {
+				throw new InterruptedByClose();
+			}
+			holding = true;
+		}
+		if (last > acquired) {
+			acquired = last;
+		}
+	}
+
+	/**
+	 * Tell the guard, if any, that no message is held anymore.
+	 */
+	private void unhold() {
+		if (holding) {
+			holding = false;
+			guard.exit(1);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
+
+import net.dsys.snio.api.buffer.InterruptedByClose;
+import net.dsys.snio.api.buffer.MessageBufferProducer;
+import net.dsys.snio.api.pool.KeyProcessor;
+
+/**
+ * Producer of a {@link ConcurrentRing}. An exclusive producer must only be
+ * used by a single thread. A shared producer may be used by several threads
+ * at once, on a ring with several producers: each thread then keeps its own
+ * claimed ranges, and releasing a sequence only publishes the slots claimed
+ * by the calling thread.
+ *
+ * @author Ricardo Padilha
+ */
+final class ConcurrentRingProducer<T> implements MessageBufferProducer<T> {
+
+	private final ConcurrentRing<T> ring;
+	@Nonnull(when = When.MAYBE)
+	private final ClaimedRanges ranges;
+	@Nonnull(when = When.MAYBE)
+	private final ThreadLocal<ClaimedRanges> threadRanges;
+	@Nonnull(when = When.MAYBE)
+	private final SlotGuard guard;
+	private volatile KeyProcessor<T> processor;
+	private volatile boolean closed;
+
+	ConcurrentRingProducer(@Nonnull final ConcurrentRing<T> ring) {
+		this(ring, false);
+	}
+
+	/**
+	 * @param shared
+	 *            <code>true</code> if this producer may be used by several
+	 *            threads at once
+	 */
+	ConcurrentRingProducer(@Nonnull final ConcurrentRing<T> ring, final boolean shared) {
+		this(ring, shared, null);
+	}
+
+	/**
+	 * @param shared
+	 *            <code>true</code> if this producer may be used by several
+	 *            threads at once
+	 * @param guard
+	 *            if not <code>null</code>, told about the slots held between
+	 *            {@link #acquire()} and {@link #release(long)}
+	 */
+	ConcurrentRingProducer(@Nonnull final ConcurrentRing<T> ring, final boolean shared,
+			@Nonnull(when = When.MAYBE) final SlotGuard guard) {
+		if (ring == null) {
+			throw new NullPointerException("ring == null");
+		}
+		if (shared && !ring.isMultiProducer()) {
+			throw new IllegalArgumentException("shared && !ring.isMultiProducer()");
+		}
+		this.ring = ring;
+		this.guard = guard;
+		if (shared) {
+			this.ranges = null;
+			this.threadRanges = new ThreadLocal<ClaimedRanges>() {
+				@Override
+				protected ClaimedRanges initialValue() {
+					return new ClaimedRanges(ring.capacity());
+				}
+			};
+		} else {
+			this.ranges = new ClaimedRanges(ring.capacity());
+			this.threadRanges = null;
+		}
+	}
+
+	/**
+	 * @return the ranges claimed by the calling thread
+	 */
+	@Nonnull
+	private ClaimedRanges ranges() {
+		if (ranges != null) {
+			return ranges;
+		}
+		return threadRanges.get();
+	}
+
+	public void setProcessor(final KeyProcessor<T> processor) {
+		this.processor = processor;
+		if (ring.remainingCapacity() < ring.capacity()) {
+			processor.wakeupWriter();
+		}
+	}
+
+	void close() {
+		closed = true;
+		ring.closePut();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long acquire() throws InterruptedException {
+		return acquire(1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long acquire(final int n) throws InterruptedException {
+		if (n <= 0) {
+			throw new IllegalArgumentException("n <= 0");
+		}
+		final int k = Math.min(n, ring.capacity());
+		if (closed || guard != null && !guard.enter(k)) {
+			throw new InterruptedByClose();
+		}
+		final long last;
+		try {
+			last = ring.claim(k);
+		} catch (final InterruptedException | RuntimeException e) {
+			unhold(k);
+			throw e;
+		}
+		ranges().add(last - k + 1, last);
+		return last;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int remaining() {
+		return ring.remainingCapacity();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T get(final long sequence) {
+		return ring.get(sequence);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void attach(final long sequence, final Object attachment) {
+		ring.attach(sequence, attachment);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void release(final long sequence) throws InterruptedException {
+		final ClaimedRanges ranges = ranges();
+		if (closed) {
+			// the application is done with its slots all the same
+			unhold(removeUpTo(ranges, sequence, false));
+			throw new InterruptedByClose();
+		}
+		if (ranges.isEmpty() || sequence > ranges.last()) {
+			throw new IllegalArgumentException("sequence > cursor");
+		}
+		unhold(removeUpTo(ranges, sequence, true));
+		final KeyProcessor<T> p = processor;
+		if (p != null) {
+			p.wakeupWriter();
+		}
+	}
+
+	/**
+	 * Removes the claimed slots up to <code>sequence</code>, publishing them
+	 * if asked to.
+	 * 
+	 * @return the number of slots removed
+	 */
+	private int removeUpTo(@Nonnull final ClaimedRanges ranges, final long sequence, final boolean publish) {
+		int n = 0;
+		while (!ranges.isEmpty() && ranges.first() <= sequence) {
+			final long first = ranges.first();
+			final long last = ranges.removeUpTo(sequence);
+			if (publish) {
+				ring.publish(first, last);
+			}
+			n += (int) (last - first + 1);
+		}
+		return n;
+	}
+
+	private void unhold(final int n) {
+		if (guard != null && n > 0) {
+			guard.exit(n);
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
+
+import net.dsys.commons.api.lang.Factory;
+import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferProducer;
+import net.dsys.snio.api.buffer.MessageBufferProvider;
+import net.dsys.snio.api.pool.KeyProcessor;
+
+/**
+ * Provider based on {@link ConcurrentRing}, without locks nor the Disruptor
+ * library. The application output may be written by several threads at
+ * once, each one releasing the slots it acquired; the channel is the single
+ * producer of the application input, unless the input is shared between
+ * channels.
+ *
+ * @author Ricardo Padilha
+ */
+public final class ConcurrentRingProvider<T> implements MessageBufferProvider<T> {
+
+	private final ConcurrentRingProducer<T> appOut; // app producer
+	private final ConcurrentRingConsumer<T> chnIn; // channel consumer
+	private final MessageBufferProducer<T> chnOut; // channel producer
+	private final MessageBufferConsumer<T> appIn; // app consumer
+	private final boolean internalConsumer;
+	@Nonnull(when = When.MAYBE)
+	private final SlotGuard guard;
+
+	ConcurrentRingProvider(@Nonnegative final int capacity, @Nonnull final Factory<T> factory) {
+		final ConcurrentRing<T> out = new ConcurrentRing<>(capacity, factory, true); // app -> channel
+		final ConcurrentRing<T> in = new ConcurrentRing<>(capacity, factory, false); // channel -> app
+		this.guard = newGuard(factory, out, in);
+		this.appOut = new ConcurrentRingProducer<>(out, true, guard);
+		this.chnIn = new ConcurrentRingConsumer<>(out);
+		this.chnOut = new ConcurrentRingProducer<>(in);
+		this.appIn = new ConcurrentRingConsumer<>(in, guard);
+		this.internalConsumer = true;
+	}
+
+	ConcurrentRingProvider(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+			@Nonnull final MessageBufferConsumer<T> consumer) {
+		if (consumer == null) {
+			throw new NullPointerException("appIn == null");
+		}
+		final ConcurrentRing<T> out = new ConcurrentRing<>(capacity, factory, true); // app -> channel
+		this.guard = newGuard(factory, out, null);
+		this.appOut = new ConcurrentRingProducer<>(out, true, guard);
+		this.chnIn = new ConcurrentRingConsumer<>(out);
+		this.chnOut = consumer.createProducer();
+		this.appIn = consumer;
+		this.internalConsumer = false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MessageBufferProducer<T> getAppOutput(final KeyProcessor<T> processor) {
+		appOut.setProcessor(processor);
+		return appOut;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MessageBufferConsumer<T> getChannelInput() {
+		return chnIn;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MessageBufferProducer<T> getChannelOutput() {
+		return chnOut;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MessageBufferConsumer<T> getAppInput() {
+		return appIn;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() {
+		appOut.close();
+		chnIn.close();
+		if (internalConsumer) {
+			((ConcurrentRingProducer<?>) chnOut).close();
+			((ConcurrentRingConsumer<?>) appIn).close();
+		}
+	}
+
+	/**
+	 * Slots are given back to the factory if it frees them, such as
+	 * {@link DirectRegionFactory}. Slots still held by the application are
+	 * given back once it releases them.
+	 * 
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void recycle() {
+		if (guard != null) {
+			guard.close();
+		}
+	}
+
+	/**
+	 * @param in
+	 *            if <code>null</code>, only the slots of <code>out</code> are
+	 *            given back
+	 * @return a guard that gives the slots back to the factory, or
+	 *         <code>null</code> if it is not a {@link ReleasingFactory}
+	 */
+	@Nonnull(when = When.MAYBE)
+	private static <T> SlotGuard newGuard(@Nonnull final Factory<T> factory, @Nonnull final ConcurrentRing<T> out,
+			@Nonnull(when = When.MAYBE) final ConcurrentRing<T> in) {
+		if (!(factory instanceof ReleasingFactory)) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		final ReleasingFactory<T> releasing = (ReleasingFactory<T>) factory;
+		return new SlotGuard(new Runnable() {
+			@Override
+			public void run() {
+				release(releasing, out);
+				if (in != null) {
+					release(releasing, in);
+				}
+			}
+		});
+	}
+
+	private static <T> void release(@Nonnull final ReleasingFactory<T> factory, @Nonnull final ConcurrentRing<T> ring) {
+		final int n = ring.capacity();
+		for (int i = 0; i < n; i++) {
+			factory.release(ring.get(i));
+		}
+	}
+
+	/**
+	 * @return a consumer that can be shared between channels, each one with
+	 *         its own producer
+	 */
+	public static <T> ConcurrentRingConsumer<T> createConsumer(@Nonnegative final int capacity,
+			@Nonnull final Factory<T> factory) {
+		final ConcurrentRing<T> ring = new ConcurrentRing<>(capacity, factory, true);
+		return new ConcurrentRingConsumer<>(ring);
+	}
+
+	public static <T> MessageBufferProvider<T> createProvider(@Nonnegative final int capacity,
+			@Nonnull final Factory<T> factory) {
+		return new ConcurrentRingProvider<>(capacity, factory);
+	}
+
+	public static <T> Factory<MessageBufferProvider<T>> createProviderFactory(@Nonnegative final int capacity,
+			@Nonnull final Factory<T> factory) {
+		return new ProviderFactory<>(capacity, factory);
+	}
+
+	public static <T> MessageBufferProvider<T> createProvider(@Nonnegative final int capacity,
+			@Nonnull final Factory<T> factory, @Nonnull final MessageBufferConsumer<T> consumer) {
+		return new ConcurrentRingProvider<>(capacity, factory, consumer);
+	}
+
+	public static <T> Factory<MessageBufferProvider<T>> createProviderFactory(@Nonnegative final int capacity,
+			@Nonnull final Factory<T> factory, @Nonnull final MessageBufferConsumer<T> consumer) {
+		return new ProviderFactory<>(capacity, factory, consumer);
+	}
+
+	private static final class ProviderFactory<T> implements Factory<MessageBufferProvider<T>> {
+
+		private final int capacity;
+		private final Factory<T> factory;
+		private final MessageBufferConsumer<T> consumer;
+
+		ProviderFactory(@Nonnegative final int capacity, @Nonnull final Factory<T> factory) {
+			if (capacity < 1) {
+				throw new IllegalArgumentException("capacity < 1");
+			}
+			if (factory == null) {
+				throw new NullPointerException("factory == null");
+			}
+			this.capacity = capacity;
+			this.factory = factory;
+			this.consumer = null;
+		}
+
+		ProviderFactory(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+				@Nonnull final MessageBufferConsumer<T> consumer) {
+			if (capacity < 1) {
+				throw new IllegalArgumentException("capacity < 1");
+			}
+			if (factory == null) {
+				throw new NullPointerException("factory == null");
+			}
+			if (consumer == null) {
+				throw new NullPointerException("consumer == null");
+			}
+			this.capacity = capacity;
+			this.factory = factory;
+			this.consumer = consumer;
+		}
+
+		@Override
+		public MessageBufferProvider<T> newInstance() {
+			if (consumer != null) {
+				return new ConcurrentRingProvider<>(capacity, factory, consumer);
+			}
+			return new ConcurrentRingProvider<>(capacity, factory);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.dsys.snio.api.buffer.BufferAllocator;
+
+/**
+ * {@link BufferAllocator} that calls {@link ByteBuffer#allocateDirect(int)}
+ * for every buffer.
+ * 
+ * @author Ricardo Padilha
+ */
+final class DirectAllocator implements BufferAllocator {
+
+	private final AtomicLong allocated;
+
+	DirectAllocator() {
+		this.allocated = new AtomicLong();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ByteBuffer allocate(final int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity < 0");
+		}
+		allocated.addAndGet(capacity);
+		return ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void release(final ByteBuffer buffer) {
+		if (buffer == null) {
+			throw new NullPointerException("buffer == null");
+		}
+		// the memory itself is only freed once the buffer is collected
+		allocated.addAndGet(-buffer.capacity());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getReserved() {
+		return allocated.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getAllocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isRecycling() {
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "DirectAllocator[allocated=" + allocated.get() + "]";
+	}
+}
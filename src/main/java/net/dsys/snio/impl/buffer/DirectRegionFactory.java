@@ -0,0 +1,284 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
+
+import net.dsys.commons.api.lang.Factory;
+
+/**
+ * {@link Factory} of direct buffers that are sliced, <code>count</code> at a
+ * time, out of a single direct region. Each thread slices its own region, so
+ * a ring of <code>count</code> slots that takes all of its slots at once gets
+ * one region of its own, with adjacent slots, instead of <code>count</code>
+ * separate native allocations, even when several rings are created at once.
+ * <p>
+ * Once all slots of a region are given back through {@link #release(ByteBuffer)},
+ * the region is freed right away, if the JVM lets its memory be freed through
+ * reflection; otherwise, and for slots never given back, the region is freed
+ * by the garbage collector once none of its slots is referenced anymore.
+ * <p>
+ * Slots start at multiples of {@link #CACHE_LINE} within the region. The
+ * region itself starts at a page boundary when the address of direct buffers
+ * can be read through reflection, otherwise wherever the JVM placed it.
+ *
+ * @author Ricardo Padilha
+ */
+public final class DirectRegionFactory implements ReleasingFactory<ByteBuffer> {
+
+	private static final int CACHE_LINE = 64;
+	private static final int PAGE_SIZE = 4096;
+	private static final Field ADDRESS = addressField();
+
+	private final int length;
+	private final int count;
+	private final int stride;
+	private final ThreadLocal<Region> current;
+	// guarded by this
+	private final Map<ByteBuffer, Region> owners;
+	private long reserved;
+
+	/**
+	 * @param length
+	 *            capacity of each buffer
+	 * @param count
+	 *            number of buffers per region, usually the capacity of the
+	 *            ring
+	 */
+	public DirectRegionFactory(@Nonnegative final int length, @Nonnegative final int count) {
+		if (length < 1) {
+			throw new IllegalArgumentException("length < 1");
+		}
+		if (count < 1) {
+			throw new IllegalArgumentException("count < 1");
+		}
+		this.stride = (length + CACHE_LINE - 1) & -CACHE_LINE;
+		if ((long) stride * count + PAGE_SIZE > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("length * count too large");
+		}
+		this.length = length;
+		this.count = count;
+		this.current = new ThreadLocal<>();
+		this.owners = new IdentityHashMap<>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ByteBuffer newInstance() {
+		Region region = current.get();
+		if (region == null) {
+			region = allocate();
+			current.set(region);
+		}
+		final int offset = region.next * stride;
+		region.slots.limit(offset + length).position(offset);
+		final ByteBuffer slot = region.slots.slice();
+		region.slots.clear();
+		region.next++;
+		if (region.next == count) {
+			// a full region is only kept alive by its slots
+			current.remove();
+		}
+		synchronized (this) {
+			owners.put(slot, region);
+		}
+		return slot;
+	}
+
+	/**
+	 * Gives back a slot of this factory. The region of the slot is freed once
+	 * all of its slots are given back.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the slot does not come from this factory, or was already
+	 *             given back
+	 */
+	@Override
+	public void release(final ByteBuffer slot) {
+		if (slot == null) {
+			throw new NullPointerException("slot == null");
+		}
+		final Region region;
+		synchronized (this) {
+			region = owners.remove(slot);
+			if (region == null) {
+				throw new IllegalArgumentException("slot not owned by this factory");
+			}
+			region.released++;
+			if (region.released < count) {
+				return;
+			}
+			reserved -= region.buffer.capacity();
+		}
+		Cleaners.free(region.buffer);
+	}
+
+	/**
+	 * @return the number of bytes taken by the regions not freed yet through
+	 *         {@link #release(ByteBuffer)}
+	 */
+	public synchronized long getReserved() {
+		return reserved;
+	}
+
+	/**
+	 * @return a region of <code>count</code> slots, starting at a page
+	 *         boundary if possible
+	 */
+	@Nonnull
+	private Region allocate() {
+		final int size = stride * count;
+		if (ADDRESS == null) {
+			return newRegion(ByteBuffer.allocateDirect(size), 0, size);
+		}
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(size + PAGE_SIZE - 1);
+		final long address;
+		try {
+			address = ADDRESS.getLong(buffer);
+		} catch (final IllegalAccessException e) {
+			return newRegion(buffer, 0, size);
+		}
+		final int skip = (int) (-address & (PAGE_SIZE - 1));
+		return newRegion(buffer, skip, size);
+	}
+
+	@Nonnull
+	private Region newRegion(@Nonnull final ByteBuffer buffer, final int skip, final int size) {
+		buffer.limit(skip + size).position(skip);
+		final Region region = new Region(buffer, buffer.slice());
+		buffer.clear();
+		synchronized (this) {
+			reserved += buffer.capacity();
+		}
+		return region;
+	}
+
+	/**
+	 * @return the address field of direct buffers, or <code>null</code> if
+	 *         reflection is denied
+	 */
+	private static Field addressField() {
+		try {
+			final Field field = Buffer.class.getDeclaredField("address");
+			field.setAccessible(true);
+			return field;
+		} catch (final ReflectiveOperationException | SecurityException e) {
+			return null;
+		} catch (final RuntimeException e) {
+			// module system denies access to java.nio
+			return null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "DirectRegionFactory[length=" + length + ", count=" + count + "]";
+	}
+
+	/**
+	 * A region and the slots handed out so far.
+	 */
+	private static final class Region {
+
+		// the buffer returned by allocateDirect(), the only one that can be freed
+		final ByteBuffer buffer;
+		// the aligned part of the buffer, sliced into slots
+		final ByteBuffer slots;
+		// only touched by the thread that slices the region
+		int next;
+		// guarded by the factory
+		int released;
+
+		Region(@Nonnull final ByteBuffer buffer, @Nonnull final ByteBuffer slots) {
+			this.buffer = buffer;
+			this.slots = slots;
+		}
+	}
+
+	/**
+	 * Frees direct buffers through the internal API of the running JVM:
+	 * <code>Unsafe.invokeCleaner()</code> since Java 9, the cleaner of the
+	 * buffer before that.
+	 */
+	private static final class Cleaners {
+
+		@Nonnull(when = When.MAYBE)
+		private static final Object UNSAFE;
+		@Nonnull(when = When.MAYBE)
+		private static final Method INVOKE_CLEANER;
+
+		static {
+			Object unsafe = null;
+			Method invokeCleaner = null;
+			try {
+				final Class<?> type = Class.forName("sun.misc.Unsafe");
+				final Field field = type.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+				unsafe = field.get(null);
+			} catch (final ReflectiveOperationException | RuntimeException e) {
+				invokeCleaner = null;
+			}
+			UNSAFE = unsafe;
+			INVOKE_CLEANER = invokeCleaner;
+		}
+
+		private Cleaners() {
+			super();
+		}
+
+		/**
+		 * Frees <code>buffer</code>, or leaves it to the garbage collector if
+		 * the JVM does not allow it.
+		 */
+		static void free(@Nonnull final ByteBuffer buffer) {
+			try {
+				if (INVOKE_CLEANER != null) {
+					INVOKE_CLEANER.invoke(UNSAFE, buffer);
+					return;
+				}
+				final Method cleaner = buffer.getClass().getMethod("cleaner");
+				cleaner.setAccessible(true);
+				final Object c = cleaner.invoke(buffer);
+				if (c != null) {
+					c.getClass().getMethod("clean").invoke(c);
+				}
+			} catch (final InvocationTargetException | IllegalAccessException | NoSuchMethodException e) {
+				// left to the garbage collector
+				return;
+			} catch (final RuntimeException e) {
+				// module system denies access to the buffer internals
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+@SuppressWarnings("unused")
+class SequenceLeftPadding {
+	private long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequenceLeftPadding {
+
+	private static final AtomicLongFieldUpdater<SequenceValue> UPDATER =
+			AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+	private volatile long value;
+
+	SequenceValue(final long initialValue) {
+		this.value = initialValue;
+	}
+
+	final long get() {
+		return value;
+	}
+
+	final void set(final long newValue) {
+		value = newValue;
+	}
+
+	final void lazySet(final long newValue) {
+		UPDATER.lazySet(this, newValue);
+	}
+
+	final boolean compareAndSet(final long expect, final long update) {
+		return UPDATER.compareAndSet(this, expect, update);
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(value);
+	}
+}
+
+/**
+ * Sequence padded on both sides to keep the sequences of producers and
+ * consumers off each other's cache lines. Fields of a superclass are laid out
+ * first, so the value sits between the padding of its superclass and the
+ * padding of this class.
+ *
+ * @author Ricardo Padilha
+ */
+final class PaddedSequence extends SequenceValue {
+
+	@SuppressWarnings("unused")
+	private long p8, p9, p10, p11, p12, p13, p14;
+
+	PaddedSequence(final long initialValue) {
+		super(initialValue);
+	}
+}
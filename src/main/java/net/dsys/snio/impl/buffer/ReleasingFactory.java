@@ -0,0 +1,37 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import javax.annotation.Nonnull;
+
+import net.dsys.commons.api.lang.Factory;
+
+/**
+ * {@link Factory} whose instances can be given back once nobody uses them
+ * anymore, so that the resources behind them are freed right away instead of
+ * by the garbage collector.
+ * 
+ * @author Ricardo Padilha
+ */
+interface ReleasingFactory<T> extends Factory<T> {
+
+	/**
+	 * Gives back an instance of this factory. It must not be touched
+	 * afterwards.
+	 */
+	void release(@Nonnull T instance);
+}
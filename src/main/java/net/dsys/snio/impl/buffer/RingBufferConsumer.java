@@ -16,10 +16,14 @@
 
 package net.dsys.snio.impl.buffer;
 
+import java.io.IOException;
+
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
 import net.dsys.snio.api.buffer.InterruptedByClose;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferHandler;
 
 import com.lmax.disruptor.AlertException;
 import com.lmax.disruptor.RingBuffer;
@@ -36,11 +40,25 @@ final class RingBufferConsumer<T> implements MessageBufferConsumer<T> {
 	private final Object[] attachments;
 	private final SequenceBarrier barrier;
 	private final Sequence sequence;
+	@Nonnull(when = When.MAYBE)
+	private final SlotGuard guard;
 	private long cursor;
 	private long available;
+	private long acquired;
+	private boolean holding;
 	private boolean closed;
 
 	RingBufferConsumer(@Nonnull final RingBuffer<T> buffer, @Nonnull final Object[] attachments) {
+		this(buffer, attachments, null);
+	}
+
+	/**
+	 * @param guard
+	 *            if not <code>null</code>, told about the messages held
+	 *            between {@link #acquire()} and {@link #release(long)}
+	 */
+	RingBufferConsumer(@Nonnull final RingBuffer<T> buffer, @Nonnull final Object[] attachments,
+			@Nonnull(when = When.MAYBE) final SlotGuard guard) {
 		if (buffer == null) {
 			throw new NullPointerException("buffer == null");
 		}
@@ -55,8 +73,10 @@ final class RingBufferConsumer<T> implements MessageBufferConsumer<T> {
 		this.barrier = buffer.newBarrier();
 		this.sequence = new Sequence();
 		buffer.addGatingSequences(sequence);
+		this.guard = guard;
 		this.cursor = sequence.get();
 		this.available = sequence.get();
+		this.acquired = sequence.get();
 	}
 
 	/**
@@ -64,7 +84,7 @@ final class RingBufferConsumer<T> implements MessageBufferConsumer<T> {
 	 */
 	@Override
 	public RingBufferProducer<T> createProducer() {
-		return new RingBufferProducer<>(buffer, attachments);
+		return new RingBufferProducer<>(buffer, attachments, true);
 	}
 
 	void close() {
@@ -82,18 +102,10 @@ final class RingBufferConsumer<T> implements MessageBufferConsumer<T> {
 			throw new InterruptedByClose();
 		}
 		final long newCursor = cursor + 1;
-		if (newCursor <= available) {
-			return newCursor;
-		}
-		try {
-			do {
-				available = barrier.waitFor(newCursor);
-			} while (available < newCursor);
-		} catch (final AlertException e) {
-			throw new InterruptedByClose();
-		} catch (final TimeoutException e) {
-			throw new InterruptedException(e.getLocalizedMessage());
+		while (available < newCursor) {
+			available = waitFor(newCursor);
 		}
+		hold(newCursor);
 		return newCursor;
 	}
 
@@ -107,19 +119,58 @@ final class RingBufferConsumer<T> implements MessageBufferConsumer<T> {
 		}
 		final long newCursor = cursor + n;
 		if (newCursor <= available) {
+			hold(newCursor);
 			return newCursor;
 		}
+		final long minCursor = cursor + 1;
+		do {
+			available = waitFor(newCursor);
+		} while (available < minCursor);
+		final long last = Math.min(newCursor, available);
+		hold(last);
+		return last;
+	}
+
+	/**
+	 * Tell the guard, if any, that messages up to <code>last</code> are held.
+	 */
+	private void hold(final long last) throws InterruptedByClose {
+		if (guard == null) {
+			return;
+		}
+		if (!holding) {
+			if (!guard.enter(1)) {
+				throw new InterruptedByClose();
+			}
+			holding = true;
+		}
+		if (last > acquired) {
+			acquired = last;
+		}
+	}
+
+	/**
+	 * Tell the guard, if any, that no message is held anymore.
+	 */
+	private void unhold() {
+		if (holding) {
+			holding = false;
+			guard.exit(1);
+		}
+	}
+
+	/**
+	 * A timed out wait returns what was already known to be available, so
+	 * that waiting resumes; closing the consumer alerts the barrier.
+	 */
+	private long waitFor(final long sequence) throws InterruptedException {
 		try {
-			final long minCursor = cursor + 1;
-			do {
-				available = barrier.waitFor(newCursor);
-			} while (available < minCursor);
+			return barrier.waitFor(sequence);
 		} catch (final AlertException e) {
 			throw new InterruptedByClose();
 		} catch (final TimeoutException e) {
-			throw new InterruptedException(e.getLocalizedMessage());
+			return available;
 		}
-		return Math.min(newCursor, available);
 	}
 
 	/**
@@ -127,14 +178,64 @@ final class RingBufferConsumer<T> implements MessageBufferConsumer<T> {
 	 */
 	@Override
 	public int remaining() {
-		long c = buffer.getCursor();
-		while (!buffer.isPublished(c)) {
-			c--;
+		if (buffer.getCursor() > available && !closed) {
+			// sequences up to the cursor are claimed, so the barrier does not
+			// wait, and only looks at those published since the last call
+			try {
+				available = barrier.waitFor(available + 1);
+			} catch (final AlertException | TimeoutException e) {
+				// closed meanwhile: keep what is known
+				return (int) (available - cursor);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 		}
-		available = c;
 		return (int) (available - cursor);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int drainTo(final MessageBufferHandler<T> handler, final int max)
+			throws InterruptedException, IOException {
+		if (handler == null) {
+			throw new NullPointerException("handler == null");
+		}
+		if (max < 1) {
+			throw new IllegalArgumentException("max < 1");
+		}
+		if (closed) {
+			throw new InterruptedByClose();
+		}
+		final int n = Math.min(remaining(), max);
+		if (n == 0) {
+			return 0;
+		}
+		final long first = cursor + 1;
+		final long last = cursor + n;
+		hold(last);
+		long seq = cursor;
+		try {
+			while (seq < last) {
+				final long next = seq + 1;
+				if (!handler.handle(buffer.get(next), attachment(next), next == last)) {
+					break;
+				}
+				seq = next;
+			}
+		} finally {
+			// messages left unhandled are not held anymore
+			acquired = seq;
+			if (seq >= first) {
+				release(seq);
+			} else {
+				unhold();
+			}
+		}
+		return (int) (seq - first + 1);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -157,6 +258,8 @@ final class RingBufferConsumer<T> implements MessageBufferConsumer<T> {
 	@Override
 	public void release(final long seq) throws InterruptedException {
 		if (closed) {
+			// the application is done with its messages all the same
+			unhold();
 			throw new InterruptedByClose();
 		}
 		if (seq > available) {
@@ -166,5 +269,8 @@ final class RingBufferConsumer<T> implements MessageBufferConsumer<T> {
 		if (cursor == available) {
 			sequence.set(cursor);
 		}
+		if (cursor >= acquired) {
+			unhold();
+		}
 	}
 }
@@ -17,6 +17,7 @@
 package net.dsys.snio.impl.buffer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
 import net.dsys.snio.api.buffer.InterruptedByClose;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
@@ -30,11 +31,36 @@ import com.lmax.disruptor.RingBuffer;
  */
 final class RingBufferProducer<T> implements MessageBufferProducer<T> {
 
+	private static final long NO_SEQUENCE = -1;
+
 	private final RingBuffer<T> buffer;
 	private final Object[] attachments;
+	private final boolean exclusive;
+	@Nonnull(when = When.MAYBE)
+	private final SlotGuard guard;
+	private long pending;
+	private long acquired;
 	private boolean closed;
 
-	public RingBufferProducer(@Nonnull final RingBuffer<T> buffer, @Nonnull final Object[] attachments) {
+	/**
+	 * @param exclusive
+	 *            <code>true</code> if this producer is only ever used by a
+	 *            single thread. In that case, {@link #release(long)} publishes
+	 *            every sequence acquired up to the given one with a single
+	 *            call. Otherwise, only the given sequence is published.
+	 */
+	public RingBufferProducer(@Nonnull final RingBuffer<T> buffer, @Nonnull final Object[] attachments,
+			final boolean exclusive) {
+		this(buffer, attachments, exclusive, null);
+	}
+
+	/**
+	 * @param guard
+	 *            if not <code>null</code>, told about the slots held between
+	 *            {@link #acquire()} and {@link #release(long)}
+	 */
+	RingBufferProducer(@Nonnull final RingBuffer<T> buffer, @Nonnull final Object[] attachments,
+			final boolean exclusive, @Nonnull(when = When.MAYBE) final SlotGuard guard) {
 		if (buffer == null) {
 			throw new NullPointerException("buffer == null");
 		}
@@ -46,6 +72,10 @@ final class RingBufferProducer<T> implements MessageBufferProducer<T> {
 		}
 		this.buffer = buffer;
 		this.attachments = attachments;
+		this.exclusive = exclusive;
+		this.guard = guard;
+		this.pending = NO_SEQUENCE;
+		this.acquired = NO_SEQUENCE;
 	}
 
 	void close() {
@@ -57,10 +87,14 @@ final class RingBufferProducer<T> implements MessageBufferProducer<T> {
 	 */
 	@Override
 	public long acquire() throws InterruptedException {
-		if (closed) {
+		if (closed || guard != null && !guard.enter(1)) {
 			throw new InterruptedByClose();
 		}
-		return buffer.next();
+		final long sequence = buffer.next();
+		if (exclusive) {
+			acquired(sequence, sequence);
+		}
+		return sequence;
 	}
 
 	/**
@@ -68,10 +102,21 @@ final class RingBufferProducer<T> implements MessageBufferProducer<T> {
 	 */
 	@Override
 	public long acquire(final int n) throws InterruptedException {
-		if (closed) {
+		if (closed || guard != null && !guard.enter(n)) {
 			throw new InterruptedByClose();
 		}
-		return buffer.next(n);
+		final long sequence = buffer.next(n);
+		if (exclusive) {
+			acquired(sequence - n + 1, sequence);
+		}
+		return sequence;
+	}
+
+	private void acquired(final long first, final long last) {
+		if (pending == NO_SEQUENCE) {
+			pending = first;
+		}
+		acquired = last;
 	}
 
 	/**
@@ -104,9 +149,39 @@ final class RingBufferProducer<T> implements MessageBufferProducer<T> {
 	 */
 	@Override
 	public void release(final long sequence) throws InterruptedException {
+		final int n;
+		if (exclusive && pending != NO_SEQUENCE && pending < sequence) {
+			n = (int) (sequence - pending + 1);
+		} else {
+			n = 1;
+		}
 		if (closed) {
+			// the application is done with its slots all the same
+			unhold(n);
 			throw new InterruptedByClose();
 		}
-		buffer.publish(sequence);
+		if (!exclusive) {
+			buffer.publish(sequence);
+			unhold(n);
+			return;
+		}
+		if (n > 1) {
+			// a multi-producer ring needs every slot in the range published
+			buffer.publish(pending, sequence);
+		} else {
+			buffer.publish(sequence);
+		}
+		if (sequence < acquired) {
+			pending = sequence + 1;
+		} else {
+			pending = NO_SEQUENCE;
+		}
+		unhold(n);
+	}
+
+	private void unhold(final int n) {
+		if (guard != null) {
+			guard.exit(n);
+		}
 	}
 }
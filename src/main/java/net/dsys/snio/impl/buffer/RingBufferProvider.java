@@ -18,7 +18,9 @@ package net.dsys.snio.impl.buffer;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
+import net.dsys.commons.api.lang.Cleaner;
 import net.dsys.commons.api.lang.Factory;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
@@ -46,35 +48,74 @@ public final class RingBufferProvider<T> implements MessageBufferProvider<T> {
 	private final MessageBufferProducer<T> chnOut; // channel producer
 	private final MessageBufferConsumer<T> appIn; // app consumer
 	private final boolean internalConsumer;
+	@Nonnull(when = When.MAYBE)
+	private final SlotGuard guard;
 
 	RingBufferProvider(@Nonnegative final int capacity, @Nonnull final Factory<T> factory) {
+		this(capacity, factory, (SlotPool<T>) null);
+	}
+
+	/**
+	 * @param pool
+	 *            if not <code>null</code>, slots are taken from it, and given
+	 *            back to it by {@link #recycle()}
+	 */
+	RingBufferProvider(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+			@Nonnull(when = When.MAYBE) final SlotPool<T> pool) {
+		this(capacity, factory, pool, null);
+	}
+
+	/**
+	 * @param pool
+	 *            if not <code>null</code>, slots are taken from it, and given
+	 *            back to it by {@link #recycle()}
+	 * @param waits
+	 *            creates the wait strategy of the application consumer, if
+	 *            <code>null</code> it blocks
+	 */
+	RingBufferProvider(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+			@Nonnull(when = When.MAYBE) final SlotPool<T> pool,
+			@Nonnull(when = When.MAYBE) final Factory<WaitStrategy> waits) {
 		this.waitOut = new WakeupWaitStrategy();
-		this.waitIn = new BlockingWaitStrategy();
-		final EventFactory<T> evfactory = wrapFactory(factory);
+		this.waitIn = newWaitStrategy(waits);
+		final EventFactory<T> evfactory = wrapFactory(pool != null ? pool : factory);
 		this.out = RingBuffer.createMultiProducer(evfactory, capacity, waitOut);
 		this.in = RingBuffer.createSingleProducer(evfactory, capacity, waitIn);
 		this.attachOut = new Object[capacity];
 		this.attachIn = new Object[capacity];
-		this.appOut = new RingBufferProducer<>(out, attachOut);
+		this.guard = newGuard(factory, pool, out, in);
+		this.appOut = new RingBufferProducer<>(out, attachOut, false, guard);
 		this.chnIn = new RingBufferConsumer<>(out, attachOut);
-		this.chnOut = new RingBufferProducer<>(in, attachIn);
-		this.appIn = new RingBufferConsumer<>(in, attachIn);
+		this.chnOut = new RingBufferProducer<>(in, attachIn, true);
+		this.appIn = new RingBufferConsumer<>(in, attachIn, guard);
 		this.internalConsumer = true;
 	}
 
 	RingBufferProvider(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
 			@Nonnull final MessageBufferConsumer<T> appIn) {
+		this(capacity, factory, appIn, null);
+	}
+
+	/**
+	 * @param pool
+	 *            if not <code>null</code>, slots are taken from it, and given
+	 *            back to it by {@link #recycle()}
+	 */
+	RingBufferProvider(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+			@Nonnull final MessageBufferConsumer<T> appIn,
+			@Nonnull(when = When.MAYBE) final SlotPool<T> pool) {
 		if (appIn == null) {
 			throw new NullPointerException("appIn == null");
 		}
 		this.waitOut = new WakeupWaitStrategy();
 		this.waitIn = null;
-		final EventFactory<T> evfactory = wrapFactory(factory);
+		final EventFactory<T> evfactory = wrapFactory(pool != null ? pool : factory);
 		this.out = RingBuffer.createMultiProducer(evfactory, capacity, waitOut);
 		this.in = null;
 		this.attachOut = new Object[capacity];
 		this.attachIn = null;
-		this.appOut = new RingBufferProducer<>(out, attachOut);
+		this.guard = newGuard(factory, pool, out, null);
+		this.appOut = new RingBufferProducer<>(out, attachOut, false, guard);
 		this.chnIn = new RingBufferConsumer<>(out, attachOut);
 		this.chnOut = appIn.createProducer();
 		this.appIn = appIn;
@@ -127,6 +168,74 @@ public final class RingBufferProvider<T> implements MessageBufferProvider<T> {
 		}
 	}
 
+	/**
+	 * Slots are given back to the pool, or to the factory if it frees them,
+	 * such as {@link DirectRegionFactory}. Slots still held by the application
+	 * are given back once it releases them.
+	 * 
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void recycle() {
+		if (guard != null) {
+			guard.close();
+		}
+	}
+
+	/**
+	 * @param in
+	 *            if <code>null</code>, only the slots of <code>out</code> are
+	 *            given back
+	 * @return a guard that gives the slots back to the pool, or to the
+	 *         factory if it is a {@link ReleasingFactory}, or
+	 *         <code>null</code> if there is nothing to give back
+	 */
+	@Nonnull(when = When.MAYBE)
+	private static <T> SlotGuard newGuard(@Nonnull final Factory<T> factory,
+			@Nonnull(when = When.MAYBE) final SlotPool<T> pool, @Nonnull final RingBuffer<T> out,
+			@Nonnull(when = When.MAYBE) final RingBuffer<T> in) {
+		if (pool != null) {
+			return new SlotGuard(new Runnable() {
+				@Override
+				public void run() {
+					pool.recycle(out);
+					if (in != null) {
+						pool.recycle(in);
+					}
+				}
+			});
+		}
+		if (!(factory instanceof ReleasingFactory)) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		final ReleasingFactory<T> releasing = (ReleasingFactory<T>) factory;
+		return new SlotGuard(new Runnable() {
+			@Override
+			public void run() {
+				release(releasing, out);
+				if (in != null) {
+					release(releasing, in);
+				}
+			}
+		});
+	}
+
+	private static <T> void release(@Nonnull final ReleasingFactory<T> factory, @Nonnull final RingBuffer<T> buffer) {
+		final int n = buffer.getBufferSize();
+		for (int i = 0; i < n; i++) {
+			factory.release(buffer.get(i));
+		}
+	}
+
+	@Nonnull
+	private static WaitStrategy newWaitStrategy(@Nonnull(when = When.MAYBE) final Factory<WaitStrategy> waits) {
+		if (waits == null) {
+			return new BlockingWaitStrategy();
+		}
+		return waits.newInstance();
+	}
+
 	/**
 	 * Convert a {@link Factory} into an {@link EventFactory}
 	 */
@@ -144,8 +253,18 @@ public final class RingBufferProvider<T> implements MessageBufferProvider<T> {
 
 	public static <T> RingBufferConsumer<T> createConsumer(@Nonnegative final int capacity,
 			@Nonnull final Factory<T> factory) {
+		return createConsumer(capacity, factory, null);
+	}
+
+	/**
+	 * @param waits
+	 *            creates the wait strategy of the consumer, if
+	 *            <code>null</code> it blocks
+	 */
+	public static <T> RingBufferConsumer<T> createConsumer(@Nonnegative final int capacity,
+			@Nonnull final Factory<T> factory, @Nonnull(when = When.MAYBE) final Factory<WaitStrategy> waits) {
 		final EventFactory<T> evfactory = wrapFactory(factory);
-		final RingBuffer<T> buffer = RingBuffer.createMultiProducer(evfactory, capacity);
+		final RingBuffer<T> buffer = RingBuffer.createMultiProducer(evfactory, capacity, newWaitStrategy(waits));
 		final Object[] attachments = new Object[capacity];
 		final RingBufferConsumer<T> consumer = new RingBufferConsumer<>(buffer, attachments);
 		return consumer;
@@ -156,11 +275,31 @@ public final class RingBufferProvider<T> implements MessageBufferProvider<T> {
 		return new RingBufferProvider<>(capacity, factory);
 	}
 
+	/**
+	 * @param waits
+	 *            creates the wait strategy of the application consumer, if
+	 *            <code>null</code> it blocks
+	 */
+	public static <T> MessageBufferProvider<T> createProvider(@Nonnegative final int capacity,
+			@Nonnull final Factory<T> factory, @Nonnull(when = When.MAYBE) final Factory<WaitStrategy> waits) {
+		return new RingBufferProvider<>(capacity, factory, (SlotPool<T>) null, waits);
+	}
+
 	public static <T> Factory<MessageBufferProvider<T>> createProviderFactory(@Nonnegative final int capacity,
 			@Nonnull final Factory<T> factory) {
 		return new ProviderFactory<>(capacity, factory);
 	}
 
+	/**
+	 * @param waits
+	 *            creates the wait strategy of the application consumers, if
+	 *            <code>null</code> they block
+	 */
+	public static <T> Factory<MessageBufferProvider<T>> createProviderFactory(@Nonnegative final int capacity,
+			@Nonnull final Factory<T> factory, @Nonnull(when = When.MAYBE) final Factory<WaitStrategy> waits) {
+		return new ProviderFactory<>(capacity, factory, (SlotPool<T>) null, waits);
+	}
+
 	public static <T> MessageBufferProvider<T> createProvider(@Nonnegative final int capacity,
 			@Nonnull final Factory<T> factory, @Nonnull final MessageBufferConsumer<T> consumer) {
 		return new RingBufferProvider<>(capacity, factory, consumer);
@@ -171,13 +310,66 @@ public final class RingBufferProvider<T> implements MessageBufferProvider<T> {
 		return new ProviderFactory<>(capacity, factory, consumer);
 	}
 
+	/**
+	 * Returns a factory whose providers give their message slots back once
+	 * their channel is closed, for reuse by the next provider. Messages that
+	 * the application still holds when the channel closes are given back
+	 * once it releases them.
+	 * 
+	 * @param maxIdle
+	 *            maximum number of idle providers whose slots are kept
+	 */
+	public static <T> Factory<MessageBufferProvider<T>> createRecyclingProviderFactory(
+			@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+			@Nonnull final Cleaner<T> cleaner, @Nonnegative final int maxIdle) {
+		return createRecyclingProviderFactory(capacity, factory, cleaner, maxIdle, null);
+	}
+
+	/**
+	 * Same as {@link #createRecyclingProviderFactory(int, Factory, Cleaner, int)}
+	 * with the given wait strategy for the application consumers.
+	 */
+	public static <T> Factory<MessageBufferProvider<T>> createRecyclingProviderFactory(
+			@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+			@Nonnull final Cleaner<T> cleaner, @Nonnegative final int maxIdle,
+			@Nonnull(when = When.MAYBE) final Factory<WaitStrategy> waits) {
+		if (maxIdle < 1) {
+			throw new IllegalArgumentException("maxIdle < 1");
+		}
+		final SlotPool<T> pool = new SlotPool<>(factory, cleaner, 2 * maxIdle);
+		return new ProviderFactory<>(capacity, factory, pool, waits);
+	}
+
+	/**
+	 * Same as {@link #createRecyclingProviderFactory(int, Factory, Cleaner, int)}
+	 * for providers that share a single input buffer.
+	 */
+	public static <T> Factory<MessageBufferProvider<T>> createRecyclingProviderFactory(
+			@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+			@Nonnull final MessageBufferConsumer<T> consumer,
+			@Nonnull final Cleaner<T> cleaner, @Nonnegative final int maxIdle) {
+		if (maxIdle < 1) {
+			throw new IllegalArgumentException("maxIdle < 1");
+		}
+		final SlotPool<T> pool = new SlotPool<>(factory, cleaner, maxIdle);
+		return new ProviderFactory<>(capacity, factory, consumer, pool);
+	}
+
 	private static final class ProviderFactory<T> implements Factory<MessageBufferProvider<T>> {
 
 		private final int capacity;
 		private final Factory<T> factory;
 		private final MessageBufferConsumer<T> consumer;
+		private final SlotPool<T> pool;
+		private final Factory<WaitStrategy> waits;
 
 		ProviderFactory(@Nonnegative final int capacity, @Nonnull final Factory<T> factory) {
+			this(capacity, factory, (SlotPool<T>) null, null);
+		}
+
+		ProviderFactory(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+				@Nonnull(when = When.MAYBE) final SlotPool<T> pool,
+				@Nonnull(when = When.MAYBE) final Factory<WaitStrategy> waits) {
 			if (capacity < 1) {
 				throw new IllegalArgumentException("capacity < 1");
 			}
@@ -187,10 +379,18 @@ public final class RingBufferProvider<T> implements MessageBufferProvider<T> {
 			this.capacity = capacity;
 			this.factory = factory;
 			this.consumer = null;
+			this.pool = pool;
+			this.waits = waits;
 		}
 
 		ProviderFactory(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
 				@Nonnull final MessageBufferConsumer<T> consumer) {
+			this(capacity, factory, consumer, null);
+		}
+
+		ProviderFactory(@Nonnegative final int capacity, @Nonnull final Factory<T> factory,
+				@Nonnull final MessageBufferConsumer<T> consumer,
+				@Nonnull(when = When.MAYBE) final SlotPool<T> pool) {
 			if (capacity < 1) {
 				throw new IllegalArgumentException("capacity < 1");
 			}
@@ -203,14 +403,16 @@ public final class RingBufferProvider<T> implements MessageBufferProvider<T> {
 			this.capacity = capacity;
 			this.factory = factory;
 			this.consumer = consumer;
+			this.pool = pool;
+			this.waits = null;
 		}
 
 		@Override
 		public MessageBufferProvider<T> newInstance() {
 			if (consumer != null) {
-				return new RingBufferProvider<>(capacity, factory, consumer);
+				return new RingBufferProvider<>(capacity, factory, consumer, pool);
 			}
-			return new RingBufferProvider<>(capacity, factory);
+			return new RingBufferProvider<>(capacity, factory, pool, waits);
 		}
 		
 	}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import net.dsys.snio.api.buffer.BufferAllocator;
+
+/**
+ * {@link BufferAllocator} that slices buffers out of large direct regions.
+ * Capacities are rounded up to a power of two, and each region is cut into
+ * slices of a single size, so that every slice starts at a multiple of its
+ * own size within its region. Released slices are kept for reuse, they are
+ * never given back to the system. Buffers larger than a region are allocated
+ * on their own. Only buffers handed out by this allocator, and not released
+ * yet, can be released.
+ * 
+ * @author Ricardo Padilha
+ */
+final class SlabAllocator implements BufferAllocator {
+
+	private static final int MIN_SLICE_SIZE = 64;
+
+	private final int slabSize;
+	// free slices of size 1 << i at index i, guarded by this
+	private final ArrayDeque<ByteBuffer>[] free;
+	// buffers handed out and not released yet, guarded by this
+	private final Set<ByteBuffer> used;
+	private long reserved;
+	private long allocated;
+
+	@SuppressWarnings("unchecked")
+	SlabAllocator(@Nonnegative final int slabSize) {
+		if (slabSize < MIN_SLICE_SIZE) {
+			throw new IllegalArgumentException("slabSize < " + MIN_SLICE_SIZE);
+		}
+		if (Integer.bitCount(slabSize) != 1) {
+			throw new IllegalArgumentException("slabSize is not a power of two");
+		}
+		this.slabSize = slabSize;
+		this.free = new ArrayDeque[Integer.SIZE];
+		for (int i = 0; i < free.length; i++) {
+			free[i] = new ArrayDeque<>();
+		}
+		this.used = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ByteBuffer allocate(final int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity < 0");
+		}
+		if (capacity > slabSize) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+			synchronized (this) {
+				used.add(buffer);
+				reserved += capacity;
+				allocated += capacity;
+			}
+			return buffer;
+		}
+		final int size = sliceSize(capacity);
+		final int index = Integer.numberOfTrailingZeros(size);
+		synchronized (this) {
+			if (free[index].isEmpty()) {
+				carve(size, free[index]);
+			}
+			allocated += size;
+			final ByteBuffer buffer = free[index].pop();
+			buffer.clear();
+			used.add(buffer);
+			return buffer;
+		}
+	}
+
+	/**
+	 * Cut a new region into slices of <code>size</code> bytes.
+	 */
+	private void carve(@Nonnegative final int size, @Nonnull final ArrayDeque<ByteBuffer> slices) {
+		final ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+		reserved += slabSize;
+		for (int offset = 0; offset < slabSize; offset += size) {
+			slab.limit(offset + size).position(offset);
+			slices.push(slab.slice());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void release(final ByteBuffer buffer) {
+		if (buffer == null) {
+			throw new NullPointerException("buffer == null");
+		}
+		final int size = buffer.capacity();
+		synchronized (this) {
+			if (!used.remove(buffer)) {
+				throw new IllegalArgumentException("buffer was not allocated here");
+			}
+			allocated -= size;
+			if (size > slabSize) {
+				reserved -= size;
+				return;
+			}
+			free[Integer.numberOfTrailingZeros(size)].push(buffer);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized long getReserved() {
+		return reserved;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized long getAllocated() {
+		return allocated;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isRecycling() {
+		return true;
+	}
+
+	/**
+	 * @return nearest power of two that is not smaller than
+	 *         <code>capacity</code> nor {@link #MIN_SLICE_SIZE}
+	 */
+	private static int sliceSize(final int capacity) {
+		if (capacity <= MIN_SLICE_SIZE) {
+			return MIN_SLICE_SIZE;
+		}
+		return Integer.highestOneBit(capacity - 1) << 1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized String toString() {
+		return "SlabAllocator[slabSize=" + slabSize + ", reserved=" + reserved + ", allocated=" + allocated + "]";
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.dsys.snio.impl.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Gives the slots of a provider back, to its {@link SlotPool} or to the
+ * {@link ReleasingFactory} they come from, once nobody can touch them
+ * anymore: the channel no longer uses them, see {@link #close()}, and no
+ * application thread holds a slot it acquired. Application threads that are
+ * still busy with a slot when the channel closes delay recycling until they
+ * release it.
+ * 
+ * @author Ricardo Padilha
+ */
+final class SlotGuard {
+
+	private static final int CLOSED = 1 << 30;
+	private static final int RECYCLED = 1 << 29;
+
+	private final Runnable recycler;
+	// closed and recycled flags, plus number of holds
+	private final AtomicInteger state;
+
+	/**
+	 * @param recycler
+	 *            gives the slots back, run exactly once
+	 */
+	SlotGuard(@Nonnull final Runnable recycler) {
+		if (recycler == null) {
+			throw new NullPointerException("recycler == null");
+		}
+		this.recycler = recycler;
+		this.state = new AtomicInteger();
+	}
+
+	/**
+	 * Called by an application thread before it touches <code>n</code> newly
+	 * acquired slots.
+	 * 
+	 * @return <code>false</code> if the channel is closed, in which case the
+	 *         slots must not be touched
+	 */
+	boolean enter(@Nonnegative final int n) {
+		if ((state.addAndGet(n) & CLOSED) != 0) {
+			exit(n);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Called by an application thread once it released <code>n</code> slots,
+	 * or once it gave up on them.
+	 */
+	void exit(@Nonnegative final int n) {
+		if (state.addAndGet(-n) == CLOSED) {
+			recycle();
+		}
+	}
+
+	/**
+	 * Called once the channel no longer uses any slot.
+	 */
+	void close() {
+		while (true) {
+			final int s = state.get();
+			if ((s & CLOSED) != 0) {
+				return;
+			}
+			if (state.compareAndSet(s, s | CLOSED)) {
+				if (s == 0) {
+					recycle();
+				}
+				return;
+			}
+		}
+	}
+
+	private void recycle() {
+		// several threads may see the last hold go away, only one recycles
+		if (!state.compareAndSet(CLOSED, CLOSED | RECYCLED)) {
+			return;
+		}
+		recycler.run();
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.util.ArrayDeque;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import net.dsys.commons.api.lang.Cleaner;
+import net.dsys.commons.api.lang.Factory;
+
+import com.lmax.disruptor.RingBuffer;
+
+/**
+ * {@link Factory} that hands out the slots of rings given back by closed
+ * providers before creating new ones. Slots are kept ring by ring: a thread
+ * takes all the slots of a new ring from a single idle ring, so that slots
+ * sliced out of the same region stay together. At most <code>maxIdle</code>
+ * rings are kept; the slots of the others are given back to the factory if
+ * it is a {@link ReleasingFactory}, or left to the garbage collector.
+ * 
+ * @author Ricardo Padilha
+ */
+final class SlotPool<T> implements Factory<T> {
+
+	private final Factory<T> factory;
+	private final Cleaner<T> cleaner;
+	private final int maxIdle;
+	// slots left in the idle ring taken by each thread
+	private final ThreadLocal<ArrayDeque<T>> taken;
+	// guarded by this
+	private final ArrayDeque<ArrayDeque<T>> idle;
+
+	/**
+	 * @param maxIdle
+	 *            maximum number of idle rings kept
+	 */
+	SlotPool(@Nonnull final Factory<T> factory, @Nonnull final Cleaner<T> cleaner,
+			@Nonnegative final int maxIdle) {
+		if (factory == null) {
+			throw new NullPointerException("factory == null");
+		}
+		if (cleaner == null) {
+			throw new NullPointerException("cleaner == null");
+		}
+		if (maxIdle < 1) {
+			throw new IllegalArgumentException("maxIdle < 1");
+		}
+		this.factory = factory;
+		this.cleaner = cleaner;
+		this.maxIdle = maxIdle;
+		this.taken = new ThreadLocal<>();
+		this.idle = new ArrayDeque<>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T newInstance() {
+		ArrayDeque<T> ring = taken.get();
+		if (ring == null) {
+			synchronized (this) {
+				ring = idle.pollFirst();
+			}
+			if (ring == null) {
+				return factory.newInstance();
+			}
+			taken.set(ring);
+		}
+		final T slot = ring.pollFirst();
+		if (ring.isEmpty()) {
+			taken.remove();
+		}
+		return slot;
+	}
+
+	/**
+	 * Takes back all slots of a ring that is no longer used.
+	 */
+	void recycle(@Nonnull final RingBuffer<T> buffer) {
+		final int n = buffer.getBufferSize();
+		final ArrayDeque<T> ring = new ArrayDeque<>(n);
+		for (int i = 0; i < n; i++) {
+			final T slot = buffer.get(i);
+			cleaner.clear(slot);
+			ring.addLast(slot);
+		}
+		synchronized (this) {
+			if (idle.size() < maxIdle) {
+				idle.addFirst(ring);
+				return;
+			}
+		}
+		if (factory instanceof ReleasingFactory) {
+			@SuppressWarnings("unchecked")
+			final ReleasingFactory<T> releasing = (ReleasingFactory<T>) factory;
+			for (final T slot : ring) {
+				releasing.release(slot);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized String toString() {
+		return "SlotPool[maxIdle=" + maxIdle + ", idle=" + idle.size() + "]";
+	}
+}
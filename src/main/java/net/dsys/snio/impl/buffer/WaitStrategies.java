@@ -0,0 +1,147 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.buffer;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import net.dsys.commons.api.lang.Factory;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.PhasedBackoffWaitStrategy;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.TimeoutBlockingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+
+/**
+ * Factories of {@link WaitStrategy}s for the rings that application
+ * consumers wait on. Each ring needs its own instance, since some strategies
+ * hold a lock.
+ *
+ * @author Ricardo Padilha
+ */
+public final class WaitStrategies {
+
+	private WaitStrategies() {
+		// no instantiation
+		return;
+	}
+
+	/**
+	 * Consumers park on a lock until a message is published. Lowest CPU use,
+	 * highest latency.
+	 */
+	@Nonnull
+	public static Factory<WaitStrategy> blocking() {
+		return new Factory<WaitStrategy>() {
+			@Override
+			public WaitStrategy newInstance() {
+				return new BlockingWaitStrategy();
+			}
+		};
+	}
+
+	/**
+	 * Consumers park on a lock, but wake up after <code>timeout</code> to
+	 * check again even if no one signalled them.
+	 */
+	@Nonnull
+	public static Factory<WaitStrategy> timeoutBlocking(@Nonnegative final long timeout,
+			@Nonnull final TimeUnit unit) {
+		if (timeout < 1) {
+			throw new IllegalArgumentException("timeout < 1");
+		}
+		if (unit == null) {
+			throw new NullPointerException("unit == null");
+		}
+		return new Factory<WaitStrategy>() {
+			@Override
+			public WaitStrategy newInstance() {
+				return new TimeoutBlockingWaitStrategy(timeout, unit);
+			}
+		};
+	}
+
+	/**
+	 * Consumers spin without ever giving up their core. Lowest latency, but
+	 * each consumer takes a whole core.
+	 */
+	@Nonnull
+	public static Factory<WaitStrategy> busySpin() {
+		return new Factory<WaitStrategy>() {
+			@Override
+			public WaitStrategy newInstance() {
+				return new BusySpinWaitStrategy();
+			}
+		};
+	}
+
+	/**
+	 * Consumers spin for a while, then yield their core between checks.
+	 */
+	@Nonnull
+	public static Factory<WaitStrategy> yielding() {
+		return new Factory<WaitStrategy>() {
+			@Override
+			public WaitStrategy newInstance() {
+				return new YieldingWaitStrategy();
+			}
+		};
+	}
+
+	/**
+	 * Consumers spin, then yield, then sleep for short periods between
+	 * checks.
+	 */
+	@Nonnull
+	public static Factory<WaitStrategy> sleeping() {
+		return new Factory<WaitStrategy>() {
+			@Override
+			public WaitStrategy newInstance() {
+				return new SleepingWaitStrategy();
+			}
+		};
+	}
+
+	/**
+	 * Consumers spin for <code>spin</code>, then yield for another
+	 * <code>yield</code>, then park on a lock.
+	 */
+	@Nonnull
+	public static Factory<WaitStrategy> phasedBackoff(@Nonnegative final long spin, @Nonnegative final long yield,
+			@Nonnull final TimeUnit unit) {
+		if (spin < 0) {
+			throw new IllegalArgumentException("spin < 0");
+		}
+		if (yield < 0) {
+			throw new IllegalArgumentException("yield < 0");
+		}
+		if (unit == null) {
+			throw new NullPointerException("unit == null");
+		}
+		return new Factory<WaitStrategy>() {
+			@Override
+			public WaitStrategy newInstance() {
+				return PhasedBackoffWaitStrategy.withLock(spin, yield, unit);
+			}
+		};
+	}
+}
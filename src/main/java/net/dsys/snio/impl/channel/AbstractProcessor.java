@@ -18,17 +18,22 @@ package net.dsys.snio.impl.channel;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
 import net.dsys.commons.api.exception.Bug;
 import net.dsys.commons.api.future.CallbackFuture;
 import net.dsys.commons.impl.future.MergingCallbackFuture;
 import net.dsys.commons.impl.future.SettableCallbackFuture;
+import net.dsys.snio.api.buffer.BufferAllocator;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
 import net.dsys.snio.api.buffer.MessageBufferProvider;
@@ -42,6 +47,12 @@ import net.dsys.snio.api.pool.SelectorThread;
  */
 abstract class AbstractProcessor<T> implements KeyProcessor<T> {
 
+	/**
+	 * How long a paused reader waits before looking for room in the channel
+	 * output buffer again.
+	 */
+	private static final long READ_RETRY_NANOS = 1_000_000L;
+
 	private final SettableCallbackFuture<Void> connectReadFuture;
 	private final SettableCallbackFuture<Void> connectWriteFuture;
 	private final MergingCallbackFuture<Void> connectFuture;
@@ -56,9 +67,27 @@ abstract class AbstractProcessor<T> implements KeyProcessor<T> {
 	private final MessageBufferProducer<T> chnOut;
 	private final MessageBufferConsumer<T> appIn;
 
-	private SelectorThread thread;
-	private SelectionKey readKey;
-	private SelectionKey writeKey;
+	private final AtomicBoolean writePending;
+	private final AtomicBoolean migrating;
+	private final AtomicInteger reregistering;
+	private final AtomicInteger connecting;
+	private volatile Runnable connectTask;
+	private volatile boolean closing;
+	private volatile SelectorThread thread;
+	private volatile BufferAllocator allocator;
+	private volatile SelectionKey readKey;
+	private volatile SelectionKey writeKey;
+	private volatile boolean unified;
+	// only accessed from within the selector thread that reads
+	private boolean readerPaused;
+	private volatile SettableCallbackFuture<Void> migrateReadFuture;
+	private volatile SettableCallbackFuture<Void> migrateWriteFuture;
+	// orders close() against a migration in flight
+	private final Object migrationLock;
+	// guarded by migrationLock
+	private SelectorExecutor migrationTarget;
+	// set once close() waits for the migration, run once the keys are cancelled
+	private Callable<Void> pendingClose;
 
 	protected AbstractProcessor(@Nonnull final MessageBufferProvider<T> provider) {
 		if (provider == null) {
@@ -75,6 +104,13 @@ abstract class AbstractProcessor<T> implements KeyProcessor<T> {
 		this.closeFuture = MergingCallbackFuture.<Void>builder()
 				.add(shutdownFuture).add(closeReadFuture).add(closeWriteFuture).build();
 
+		this.writePending = new AtomicBoolean();
+		this.migrating = new AtomicBoolean();
+		this.reregistering = new AtomicInteger();
+		this.migrationLock = new Object();
+		// one registration per direction
+		this.connecting = new AtomicInteger(2);
+
 		this.provider = provider;
 		this.appOut = provider.getAppOutput(this);
 		this.chnIn = provider.getChannelInput();
@@ -100,24 +136,44 @@ abstract class AbstractProcessor<T> implements KeyProcessor<T> {
 	 */
 	@Override
 	public final void registered(final SelectorThread thread, final SelectionKey key, final SelectionType type) {
+		if (allocator == null) {
+			// buffers go back to the allocator they came from, even after a migration
+			allocator = thread.getAllocator();
+		}
 		switch (type) {
 			case OP_READ: {
 				this.readKey = key;
+				if (connectReadFuture.isDone() && migrating.get()) {
+					reregistered(migrateReadFuture, key);
+					break;
+				}
 				readRegistered(key);
 				if (connectReadFuture.isDone()) {
 					throw new Bug("connectFuture.isDone() while register");
 				}
 				connectReadFuture.success(null);
+				connected();
 				break;
 			}
 			case OP_WRITE: {
 				this.thread = thread;
 				this.writeKey = key;
+				this.unified = key != null && key == readKey;
+				if (connectWriteFuture.isDone() && migrating.get()) {
+					writePending.set(false);
+					if (key != null) {
+						// flush whatever was queued or held back during the move
+						key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					}
+					reregistered(migrateWriteFuture, key);
+					break;
+				}
 				writeRegistered(key);
 				if (connectWriteFuture.isDone()) {
 					throw new Bug("connectFuture.isDone() while register");
 				}
 				connectWriteFuture.success(null);
+				connected();
 				break;
 			}
 			case OP_CONNECT: {
@@ -130,19 +186,101 @@ abstract class AbstractProcessor<T> implements KeyProcessor<T> {
 		}
 	}
 
+	/**
+	 * Runs <code>task</code> on the selector thread that completes the
+	 * connection, i.e., once both directions are registered. With split
+	 * loops, this is the reading or the writing thread, whichever registers
+	 * last, from within its queued operations, so <code>task</code> must not
+	 * block. Anything it throws is printed and otherwise ignored. Must be
+	 * called before the channel is registered.
+	 */
+	final void onConnected(@Nonnull final Runnable task) {
+		if (task == null) {
+			throw new NullPointerException("task == null");
+		}
+		this.connectTask = task;
+	}
+
+	private void connected() {
+		if (connecting.decrementAndGet() == 0) {
+			final Runnable task = connectTask;
+			if (task != null) {
+				connectTask = null;
+				try {
+					task.run();
+				} catch (final Throwable t) {
+					// the operations queued after this one must still run
+					t.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called when a key is registered again after {@link #migrate(SelectorExecutor, SelectorExecutor, Callable)}.
+	 * The buffers are kept as they are.
+	 */
+	private void reregistered(@Nonnull final SettableCallbackFuture<Void> future,
+			@Nonnull(when = When.MAYBE) final SelectionKey key) {
+		// allow another migration before the caller sees the last future complete
+		if (reregistering.decrementAndGet() == 0) {
+			final SelectorExecutor target;
+			final Callable<Void> close;
+			synchronized (migrationLock) {
+				migrating.set(false);
+				target = migrationTarget;
+				migrationTarget = null;
+				close = pendingClose;
+				pendingClose = null;
+			}
+			if (close != null) {
+				// closed while registering again: the keys now belong to the target
+				finishClose(target, readKey, writeKey, close);
+			}
+		}
+		if (key == null) {
+			future.fail(new ClosedChannelException());
+		} else {
+			future.success(null);
+		}
+	}
+
 	protected abstract void readRegistered(@Nonnull SelectionKey key);
 	protected abstract void writeRegistered(@Nonnull SelectionKey key);
 
+	/**
+	 * Called from within a selector thread once both keys are cancelled, i.e.,
+	 * once no selector thread uses the buffers of this processor anymore.
+	 * Subclasses give their buffers back to {@link #getAllocator()}.
+	 */
+	protected abstract void cancelled();
+
+	/**
+	 * Only valid once registered.
+	 */
+	@Nonnull
+	protected final BufferAllocator getAllocator() {
+		return allocator;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public final void wakeupWriter() {
-		if (writeKey != null && writeKey.isValid()) {
+		if (writeKey != null && writeKey.isValid() && writePending.compareAndSet(false, true)) {
 			thread.enableKey(writeKey);
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final void writerEnabled() {
+		writePending.set(false);
+	}
+
 	/**
 	 * Only called from within the selector thread.
 	 */
@@ -150,6 +288,49 @@ abstract class AbstractProcessor<T> implements KeyProcessor<T> {
 		writeKey.interestOps(writeKey.interestOps() & ~SelectionKey.OP_WRITE);
 	}
 
+	/**
+	 * Add WRITE interest back once {@link System#nanoTime()} reaches
+	 * <code>deadline</code>. Only called from within the selector thread.
+	 */
+	protected final void enableWriterAt(final long deadline) {
+		thread.enableKeyAt(writeKey, deadline);
+	}
+
+	/**
+	 * @return <code>true</code> if the same selector thread reads and writes
+	 *         this processor's channel. Such a thread must never wait for room
+	 *         in the channel output buffer, since it would stop writing, and
+	 *         the consumer may be waiting for that output.
+	 */
+	protected final boolean isUnified() {
+		return unified;
+	}
+
+	/**
+	 * Stops reading until the channel output buffer has room again. READ
+	 * interest is removed from the key, and the selector thread calls
+	 * {@link #read(SelectionKey)} again after a short delay, whether the
+	 * channel is readable or not, so that the data already received is
+	 * decoded. Only called from within the selector thread.
+	 */
+	protected final void pauseReader() {
+		readerPaused = true;
+		readKey.interestOps(readKey.interestOps() & ~SelectionKey.OP_READ);
+		thread.enableReaderAt(readKey, System.nanoTime() + READ_RETRY_NANOS);
+	}
+
+	/**
+	 * Only called from within the selector thread.
+	 * 
+	 * @return <code>true</code> if the reader was paused, in which case it is
+	 *         not anymore
+	 */
+	protected final boolean resumeReader() {
+		final boolean paused = readerPaused;
+		readerPaused = false;
+		return paused;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -176,15 +357,98 @@ abstract class AbstractProcessor<T> implements KeyProcessor<T> {
 		return chnOut;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final CallbackFuture<Void> migrate(final SelectorExecutor executor, final SelectorExecutor target,
+			final Callable<Void> register) {
+		if (executor == null) {
+			throw new NullPointerException("executor == null");
+		}
+		if (target == null) {
+			throw new NullPointerException("target == null");
+		}
+		if (register == null) {
+			throw new NullPointerException("register == null");
+		}
+		if (!connectFuture.isDone() || readKey == null || writeKey == null) {
+			throw new IllegalStateException("not connected");
+		}
+		final SettableCallbackFuture<Void> readFuture = new SettableCallbackFuture<>();
+		final SettableCallbackFuture<Void> writeFuture = new SettableCallbackFuture<>();
+		synchronized (migrationLock) {
+			if (closing) {
+				throw new IllegalStateException("closing");
+			}
+			if (!migrating.compareAndSet(false, true)) {
+				throw new IllegalStateException("already migrating");
+			}
+			this.migrationTarget = target;
+		}
+		this.migrateReadFuture = readFuture;
+		this.migrateWriteFuture = writeFuture;
+		reregistering.set(2);
+		final Callable<Void> task = new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				final Callable<Void> close;
+				synchronized (migrationLock) {
+					close = pendingClose;
+					if (close != null) {
+						pendingClose = null;
+						migrating.set(false);
+						migrationTarget = null;
+					}
+				}
+				if (close != null) {
+					// the keys are gone already, so there is nothing left to cancel
+					readFuture.fail(new ClosedChannelException());
+					writeFuture.fail(new ClosedChannelException());
+					finishClose(executor, null, null, close);
+					return null;
+				}
+				try {
+					return register.call();
+				} catch (final Exception e) {
+					final Callable<Void> pending;
+					synchronized (migrationLock) {
+						migrating.set(false);
+						migrationTarget = null;
+						pending = pendingClose;
+						pendingClose = null;
+					}
+					readFuture.fail(e);
+					writeFuture.fail(e);
+					if (pending != null) {
+						finishClose(executor, null, null, pending);
+					}
+					throw e;
+				}
+			}
+		};
+		executor.deregister(readKey, writeKey, new SettableCallbackFuture<Void>(), task);
+		return MergingCallbackFuture.<Void>builder().add(readFuture).add(writeFuture).build();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public final void close(final SelectorExecutor executor, final Callable<Void> closeTask) {
+		closing = true;
 		final Callable<Void> task = new Callable<Void>() {
 			@Override
 			public Void call() throws Exception {
-				shutdown(executor);
+				provider.close();
+				synchronized (migrationLock) {
+					if (migrating.get()) {
+						// finished by the migration, see finishClose()
+						pendingClose = closeTask;
+						return null;
+					}
+				}
+				cancelKeys(executor, readKey, writeKey);
 				closeTask.call();
 				return null;
 			}
@@ -193,9 +457,38 @@ abstract class AbstractProcessor<T> implements KeyProcessor<T> {
 		shutdown(shutdownFuture, task);
 	}
 
-	final void shutdown(@Nonnull final SelectorExecutor executor) {
-		provider.close();
-		executor.cancelConnect(readKey, closeReadFuture, writeKey, closeWriteFuture);
+	/**
+	 * Completes a {@link #close(SelectorExecutor, Callable)} that waited for a
+	 * migration, on the executor that holds the keys by then, if any. Runs
+	 * within a selector thread, so the close task must not throw.
+	 */
+	private void finishClose(@Nonnull final SelectorExecutor executor,
+			@Nonnull(when = When.MAYBE) final SelectionKey readKey,
+			@Nonnull(when = When.MAYBE) final SelectionKey writeKey, @Nonnull final Callable<Void> closeTask) {
+		try {
+			closeTask.call();
+		} catch (final Exception e) {
+			// the operations queued after this one must still run
+			e.printStackTrace();
+		}
+		// cancelling completes the close future, so the task runs first
+		cancelKeys(executor, readKey, writeKey);
+	}
+
+	private void cancelKeys(@Nonnull final SelectorExecutor executor,
+			@Nonnull(when = When.MAYBE) final SelectionKey readKey,
+			@Nonnull(when = When.MAYBE) final SelectionKey writeKey) {
+		final Callable<Void> task = new Callable<Void>() {
+			@Override
+			public Void call() {
+				if (allocator != null) {
+					cancelled();
+				}
+				provider.recycle();
+				return null;
+			}
+		};
+		executor.cancelConnect(readKey, closeReadFuture, writeKey, closeWriteFuture, task);
 	}
 
 	/**
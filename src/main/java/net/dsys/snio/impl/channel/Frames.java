@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.channel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import net.dsys.snio.api.buffer.MessageBufferProducer;
+import net.dsys.snio.api.codec.HeaderCodec;
+import net.dsys.snio.api.codec.InvalidEncodingException;
+import net.dsys.snio.api.codec.MessageCodec;
+
+/**
+ * Decodes received frames into the channel output buffer.
+ * 
+ * @author Ricardo Padilha
+ */
+final class Frames {
+
+	/**
+	 * Maximum number of frames published at once.
+	 */
+	private static final int MAX_BATCH = 256;
+
+	private Frames() {
+		// no instantiation
+	}
+
+	/**
+	 * Decodes all complete frames at the start of <code>in</code> into
+	 * <code>out</code>. With a {@link HeaderCodec}, frames are counted first
+	 * so that a whole batch of slots is acquired and published at once, and
+	 * consumers are woken up once per batch instead of once per message.
+	 * 
+	 * @param attachment
+	 *            attached to every decoded message
+	 */
+	static void decode(@Nonnull final MessageCodec codec, @Nonnull final ByteBuffer in,
+			@Nonnull final MessageBufferProducer<ByteBuffer> out, @Nonnull final Object attachment)
+			throws IOException {
+		decode(codec, in, out, attachment, true);
+	}
+
+	/**
+	 * Same as {@link #decode(MessageCodec, ByteBuffer, MessageBufferProducer, Object)},
+	 * but if <code>wait</code> is <code>false</code>, stops at the first frame
+	 * for which <code>out</code> has no free slot, instead of waiting for one.
+	 * 
+	 * @return <code>false</code> if complete frames were left in
+	 *         <code>in</code> because <code>out</code> is full
+	 */
+	static boolean decode(@Nonnull final MessageCodec codec, @Nonnull final ByteBuffer in,
+			@Nonnull final MessageBufferProducer<ByteBuffer> out, @Nonnull final Object attachment,
+			final boolean wait) throws IOException {
+		try {
+			if (codec instanceof HeaderCodec) {
+				return decodeBatches((HeaderCodec) codec, in, out, attachment, wait);
+			}
+			while (codec.hasNext(in)) {
+				if (!wait && out.remaining() == 0) {
+					return false;
+				}
+				final long sequence = out.acquire();
+				try {
+					final ByteBuffer msg = out.get(sequence);
+					msg.clear();
+					codec.get(in, msg);
+					msg.flip();
+					out.attach(sequence, attachment);
+				} finally {
+					out.release(sequence);
+				}
+			}
+			return true;
+		} catch (final InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static boolean decodeBatches(@Nonnull final HeaderCodec codec, @Nonnull final ByteBuffer in,
+			@Nonnull final MessageBufferProducer<ByteBuffer> out, @Nonnull final Object attachment,
+			final boolean wait) throws IOException, InterruptedException {
+		int n = count(codec, in, MAX_BATCH);
+		while (n > 0) {
+			final int free = out.remaining();
+			if (!wait && free == 0) {
+				return false;
+			}
+			// never ask for more than is free, so that exactly k are acquired
+			final int k = Math.min(n, Math.max(1, free));
+			final long last = out.acquire(k);
+			try {
+				for (long sequence = last - k + 1; sequence <= last; sequence++) {
+					final ByteBuffer msg = out.get(sequence);
+					msg.clear();
+					codec.get(in, msg);
+					msg.flip();
+					out.attach(sequence, attachment);
+				}
+			} finally {
+				out.release(last);
+			}
+			n -= k;
+			if (n == 0) {
+				n = count(codec, in, MAX_BATCH);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of complete frames at the start of <code>in</code>, up
+	 *         to <code>max</code>. The position of <code>in</code> is not
+	 *         modified.
+	 */
+	@Nonnegative
+	static int count(@Nonnull final HeaderCodec codec, @Nonnull final ByteBuffer in, @Nonnegative final int max)
+			throws InvalidEncodingException {
+		final int start = in.position();
+		final int headerLength = codec.getHeaderLength();
+		int n = 0;
+		try {
+			while (n < max && codec.hasNext(in)) {
+				in.position(in.position() + headerLength + codec.getDecodedLength(in));
+				n++;
+			}
+		} finally {
+			in.position(start);
+		}
+		return n;
+	}
+}
@@ -19,6 +19,7 @@ package net.dsys.snio.impl.channel;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.net.ssl.SSLContext;
@@ -40,6 +41,8 @@ import net.dsys.snio.impl.channel.builder.ClientConfig;
 import net.dsys.snio.impl.channel.builder.ChannelConfig;
 import net.dsys.snio.impl.channel.builder.SSLConfig;
 
+import com.lmax.disruptor.WaitStrategy;
+
 /**
  * Helper class to create {@link MessageChannel} instances.
  * 
@@ -87,7 +90,8 @@ public final class MessageChannels {
 		final Factory<ByteBuffer> factory = common.getFactory(codec.getBodyLength());
 		final MessageBufferProvider<ByteBuffer> provider = common.getProvider(factory);
 		final KeyProcessor<ByteBuffer> processor = new TCPProcessor(codec, limiter, provider,
-				common.getSendBufferSize(), common.getReceiveBufferSize());
+				common.getSendBufferSize(), common.getReceiveBufferSize(),
+				common.getCoalesceBytes(), common.getCoalesceNanos(), common.isLazyBuffers());
 		final SelectorExecutor executor = common.getPool().next();
 		final TCPChannel<ByteBuffer> channel = new TCPChannel<>(executor, processor);
 		channel.open();
@@ -117,7 +121,7 @@ public final class MessageChannels {
 		final Factory<ByteBuffer> factory = common.getFactory(codec.getBodyLength());
 		final MessageBufferProvider<ByteBuffer> provider = common.getProvider(factory);
 		final KeyProcessor<ByteBuffer> processor = new SSLProcessor(codec, limiter, provider,
-				common.getSendBufferSize(), common.getReceiveBufferSize(), engine);
+				common.getSendBufferSize(), common.getReceiveBufferSize(), engine, common.isLazyBuffers());
 		final SelectorExecutor executor = common.getPool().next();
 		final TCPChannel<ByteBuffer> channel = new TCPChannel<>(executor, processor);
 		channel.open();
@@ -227,6 +231,14 @@ public final class MessageChannels {
 			return this;
 		}
 
+		/**
+		 * @see ChannelConfig#useWaitStrategy(Factory)
+		 */
+		public TCPChannelBuilder useWaitStrategy(final Factory<WaitStrategy> waits) {
+			common.useWaitStrategy(waits);
+			return this;
+		}
+
 		/**
 		 * @see ChannelConfig#useBlockingQueue()
 		 */
@@ -259,6 +271,22 @@ public final class MessageChannels {
 			return this;
 		}
 
+		/**
+		 * @see ChannelConfig#disableWriteCoalescing()
+		 */
+		public TCPChannelBuilder disableWriteCoalescing() {
+			common.disableWriteCoalescing();
+			return this;
+		}
+
+		/**
+		 * @see ChannelConfig#useWriteCoalescing(int, long, TimeUnit)
+		 */
+		public TCPChannelBuilder useWriteCoalescing(final int bytes, final long delay, final TimeUnit unit) {
+			common.useWriteCoalescing(bytes, delay, unit);
+			return this;
+		}
+
 		/**
 		 * @see ClientConfig#setMessageCodec(MessageCodec)
 		 */
@@ -367,6 +395,14 @@ public final class MessageChannels {
 			return this;
 		}
 
+		/**
+		 * @see ChannelConfig#useWaitStrategy(Factory)
+		 */
+		public SSLChannelBuilder useWaitStrategy(final Factory<WaitStrategy> waits) {
+			common.useWaitStrategy(waits);
+			return this;
+		}
+
 		/**
 		 * @see ChannelConfig#useBlockingQueue()
 		 */
@@ -513,6 +549,14 @@ public final class MessageChannels {
 			return this;
 		}
 
+		/**
+		 * @see ChannelConfig#useWaitStrategy(Factory)
+		 */
+		public UDPChannelBuilder useWaitStrategy(final Factory<WaitStrategy> waits) {
+			common.useWaitStrategy(waits);
+			return this;
+		}
+
 		/**
 		 * @see ChannelConfig#useBlockingQueue()
 		 */
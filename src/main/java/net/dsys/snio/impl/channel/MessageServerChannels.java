@@ -18,23 +18,30 @@ package net.dsys.snio.impl.channel;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.net.ssl.SSLContext;
 
 import net.dsys.commons.api.lang.BinaryUnit;
 import net.dsys.commons.api.lang.Factory;
+import net.dsys.commons.impl.lang.ByteBufferCopier;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
 import net.dsys.snio.api.buffer.MessageBufferProvider;
 import net.dsys.snio.api.channel.MessageServerChannel;
 import net.dsys.snio.api.codec.MessageCodec;
 import net.dsys.snio.api.limit.RateLimiter;
 import net.dsys.snio.api.pool.KeyAcceptor;
+import net.dsys.snio.api.pool.SelectorExecutor;
 import net.dsys.snio.api.pool.SelectorPool;
 import net.dsys.snio.impl.channel.builder.ChannelConfig;
 import net.dsys.snio.impl.channel.builder.SSLConfig;
 import net.dsys.snio.impl.channel.builder.ServerConfig;
 
+import com.lmax.disruptor.WaitStrategy;
+
 /**
  * Helper class to create {@link MessageServerChannel} instances.
  * 
@@ -60,10 +67,26 @@ public final class MessageServerChannels {
 		final Factory<MessageCodec> codecs = server.getMessageCodecs();
 		final Factory<RateLimiter> limiters = server.getRateLimiters();
 		final Factory<ByteBuffer> factory = common.getFactory(codecs.newInstance().getBodyLength());
-		final Factory<MessageBufferProvider<ByteBuffer>> provider = common.getProviderFactory(factory);
+		final Factory<MessageBufferProvider<ByteBuffer>> provider = common.getProviderFactory(factory,
+				new ByteBufferCopier());
 		final SelectorPool pool = common.getPool();
-		final KeyAcceptor<ByteBuffer> acceptor = new TCPAcceptor(pool, codecs, limiters, provider,
-				common.getSendBufferSize(), common.getReceiveBufferSize());
+		if (server.isMultipleAcceptors()) {
+			final int n = pool.size();
+			final List<TCPServerChannel<ByteBuffer>> channels = new ArrayList<>(n);
+			for (int i = 0; i < n; i++) {
+				final SelectorExecutor executor = pool.get(i);
+				final KeyAcceptor<ByteBuffer> acceptor = new TCPAcceptor(pool, executor, codecs, limiters,
+						provider, common.getSendBufferSize(), common.getReceiveBufferSize(),
+						common.getCoalesceBytes(), common.getCoalesceNanos(), common.isLazyBuffers());
+				channels.add(new TCPServerChannel<>(executor, acceptor));
+			}
+			final TCPMultiServerChannel<ByteBuffer> channel = new TCPMultiServerChannel<>(channels);
+			channel.open();
+			return channel;
+		}
+		final KeyAcceptor<ByteBuffer> acceptor = new TCPAcceptor(pool, null, codecs, limiters, provider,
+				common.getSendBufferSize(), common.getReceiveBufferSize(),
+				common.getCoalesceBytes(), common.getCoalesceNanos(), common.isLazyBuffers());
 		final TCPServerChannel<ByteBuffer> channel = new TCPServerChannel<>(pool, acceptor);
 		channel.open();
 		return channel;
@@ -87,10 +110,26 @@ public final class MessageServerChannels {
 		final Factory<MessageCodec> codecs = server.getMessageCodecs();
 		final Factory<RateLimiter> limiters = server.getRateLimiters();
 		final Factory<ByteBuffer> factory = common.getFactory(codecs.newInstance().getBodyLength());
-		final Factory<MessageBufferProvider<ByteBuffer>> provider = common.getProviderFactory(factory);
+		final Factory<MessageBufferProvider<ByteBuffer>> provider = common.getProviderFactory(factory,
+				new ByteBufferCopier());
 		final SelectorPool pool = common.getPool();
-		final KeyAcceptor<ByteBuffer> acceptor = new SSLAcceptor(pool, codecs, limiters, provider,
-				common.getSendBufferSize(), common.getReceiveBufferSize(), ssl.getContext());
+		if (server.isMultipleAcceptors()) {
+			final int n = pool.size();
+			final List<TCPServerChannel<ByteBuffer>> channels = new ArrayList<>(n);
+			for (int i = 0; i < n; i++) {
+				final SelectorExecutor executor = pool.get(i);
+				final KeyAcceptor<ByteBuffer> acceptor = new SSLAcceptor(pool, executor, codecs, limiters,
+						provider, common.getSendBufferSize(), common.getReceiveBufferSize(), ssl.getContext(),
+						common.isLazyBuffers());
+				channels.add(new TCPServerChannel<>(executor, acceptor));
+			}
+			final TCPMultiServerChannel<ByteBuffer> channel = new TCPMultiServerChannel<>(channels);
+			channel.open();
+			return channel;
+		}
+		final KeyAcceptor<ByteBuffer> acceptor = new SSLAcceptor(pool, null, codecs, limiters, provider,
+				common.getSendBufferSize(), common.getReceiveBufferSize(), ssl.getContext(),
+				common.isLazyBuffers());
 		final TCPServerChannel<ByteBuffer> channel = new TCPServerChannel<>(pool, acceptor);
 		channel.open();
 		return channel;
@@ -173,6 +212,14 @@ public final class MessageServerChannels {
 			return this;
 		}
 
+		/**
+		 * @see ChannelConfig#useWaitStrategy(Factory)
+		 */
+		public TCPServerChannelBuilder useWaitStrategy(final Factory<WaitStrategy> waits) {
+			common.useWaitStrategy(waits);
+			return this;
+		}
+
 		/**
 		 * @see ChannelConfig#useBlockingQueue()
 		 */
@@ -205,6 +252,22 @@ public final class MessageServerChannels {
 			return this;
 		}
 
+		/**
+		 * @see ChannelConfig#disableWriteCoalescing()
+		 */
+		public TCPServerChannelBuilder disableWriteCoalescing() {
+			common.disableWriteCoalescing();
+			return this;
+		}
+
+		/**
+		 * @see ChannelConfig#useWriteCoalescing(int, long, TimeUnit)
+		 */
+		public TCPServerChannelBuilder useWriteCoalescing(final int bytes, final long delay, final TimeUnit unit) {
+			common.useWriteCoalescing(bytes, delay, unit);
+			return this;
+		}
+
 		/**
 		 * @see ServerConfig#setMessageCodec(Factory)
 		 */
@@ -237,6 +300,22 @@ public final class MessageServerChannels {
 			return this;
 		}
 
+		/**
+		 * @see ServerConfig#useSingleAcceptor()
+		 */
+		public TCPServerChannelBuilder useSingleAcceptor() {
+			server.useSingleAcceptor();
+			return this;
+		}
+
+		/**
+		 * @see ServerConfig#useMultipleAcceptors()
+		 */
+		public TCPServerChannelBuilder useMultipleAcceptors() {
+			server.useMultipleAcceptors();
+			return this;
+		}
+
 		public MessageServerChannel<ByteBuffer> open() throws IOException {
 			return openTCPServerChannel(common, server);
 		}
@@ -313,6 +392,14 @@ public final class MessageServerChannels {
 			return this;
 		}
 
+		/**
+		 * @see ChannelConfig#useWaitStrategy(Factory)
+		 */
+		public SSLServerChannelBuilder useWaitStrategy(final Factory<WaitStrategy> waits) {
+			common.useWaitStrategy(waits);
+			return this;
+		}
+
 		/**
 		 * @see ChannelConfig#useBlockingQueue()
 		 */
@@ -377,6 +464,22 @@ public final class MessageServerChannels {
 			return this;
 		}
 
+		/**
+		 * @see ServerConfig#useSingleAcceptor()
+		 */
+		public SSLServerChannelBuilder useSingleAcceptor() {
+			server.useSingleAcceptor();
+			return this;
+		}
+
+		/**
+		 * @see ServerConfig#useMultipleAcceptors()
+		 */
+		public SSLServerChannelBuilder useMultipleAcceptors() {
+			server.useMultipleAcceptors();
+			return this;
+		}
+
 		/**
 		 * @see SSLConfig#setContext(SSLContext)
 		 */
@@ -17,16 +17,16 @@
 package net.dsys.snio.impl.channel;
 
 import java.io.IOException;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 
@@ -50,6 +50,8 @@ final class SSLAcceptor implements KeyAcceptor<ByteBuffer> {
 
 	@Nonnull
 	private final SelectorPool pool;
+	@Nonnull(when = When.MAYBE)
+	private final SelectorExecutor executor;
 	@Nonnull
 	private final Factory<MessageCodec> codecs;
 	@Nonnull
@@ -62,6 +64,7 @@ final class SSLAcceptor implements KeyAcceptor<ByteBuffer> {
 	private final int receiveSize;
 	@Nonnull
 	private final SSLContext context;
+	private final boolean lazy;
 	@Nonnull
 	private final SettableCallbackFuture<Void> bindFuture;
 	@Nonnull
@@ -73,12 +76,20 @@ final class SSLAcceptor implements KeyAcceptor<ByteBuffer> {
 	private CloseListener<ByteBuffer> close;
 	private SelectionKey acceptKey;
 
-	SSLAcceptor(@Nonnull final SelectorPool pool, @Nonnull final Factory<MessageCodec> codecs,
+	/**
+	 * @param executor
+	 *            executor for all accepted connections, or <code>null</code>
+	 *            to spread them over the pool
+	 */
+	SSLAcceptor(@Nonnull final SelectorPool pool,
+			@Nonnull(when = When.MAYBE) final SelectorExecutor executor,
+			@Nonnull final Factory<MessageCodec> codecs,
 			@Nonnull final Factory<RateLimiter> limiters,
 			@Nonnull final Factory<MessageBufferProvider<ByteBuffer>> providers,
 			@Nonnegative final int sendSize,
 			@Nonnegative final int receiveSize,
-			@Nonnull final SSLContext context) {
+			@Nonnull final SSLContext context,
+			final boolean lazy) {
 		if (pool == null) {
 			throw new NullPointerException("pool == null");
 		}
@@ -101,12 +112,14 @@ final class SSLAcceptor implements KeyAcceptor<ByteBuffer> {
 			throw new NullPointerException("context == null");
 		}
 		this.pool = pool;
+		this.executor = executor;
 		this.codecs = codecs;
 		this.limiters = limiters;
 		this.providers = providers;
 		this.sendSize = sendSize;
 		this.receiveSize = receiveSize;
 		this.context = context;
+		this.lazy = lazy;
 		this.bindFuture = new SettableCallbackFuture<>();
 		this.closeFuture = new SettableCallbackFuture<>();
 		this.accept = MessageChannels.dummyAcceptListener();
@@ -164,26 +177,62 @@ final class SSLAcceptor implements KeyAcceptor<ByteBuffer> {
 	@Override
 	public void accept(final SelectionKey key) throws IOException {
 		final ServerSocketChannel server = (ServerSocketChannel) key.channel();
-		final SocketChannel client = server.accept();
-		client.configureBlocking(false);
-
-		final MessageCodec codec = codecs.newInstance();
-		final RateLimiter limiter = limiters.newInstance();
-		final MessageBufferProvider<ByteBuffer> provider = providers.newInstance();
-		final SSLEngine engine = context.createSSLEngine();
-		engine.setUseClientMode(false);
-		final SSLProcessor processor = new SSLProcessor(codec, limiter, provider, sendSize, receiveSize, engine);
-		final TCPChannel<ByteBuffer> channel = new TCPChannel<>(pool.next(), processor, client, close);
-		channel.open();
-		channel.register();
-		final Future<Void> future = channel.getConnectFuture();
+		// drain the backlog
+		SocketChannel client = server.accept();
+		while (client != null) {
+			accept(client);
+			client = server.accept();
+		}
+	}
+
+	/**
+	 * Registers the new connection without waiting for it: the
+	 * {@link AcceptListener} is notified by the selector thread that completes
+	 * the registration.
+	 */
+	private void accept(@Nonnull final SocketChannel client) throws IOException {
 		try {
-			future.get();
-		} catch (final InterruptedException | ExecutionException e) {
-			channel.close();
-			throw new IOException(e);
+			client.configureBlocking(false);
+			final SocketAddress remote = client.getRemoteAddress();
+			final MessageCodec codec = codecs.newInstance();
+			final RateLimiter limiter = limiters.newInstance();
+			final MessageBufferProvider<ByteBuffer> provider = providers.newInstance();
+			final SSLEngine engine = context.createSSLEngine();
+			engine.setUseClientMode(false);
+			final SSLProcessor processor = new SSLProcessor(codec, limiter, provider, sendSize, receiveSize,
+					engine, lazy);
+			final TCPChannel<ByteBuffer> channel = new TCPChannel<>(nextExecutor(), processor, client, close);
+			final AcceptListener<ByteBuffer> listener = accept;
+			processor.onConnected(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						listener.connectionAccepted(remote, channel);
+					} catch (final Throwable t) {
+						// nobody took the connection, so nobody would close it
+						try {
+							channel.close();
+						} catch (final IOException e) {
+							t.addSuppressed(e);
+						}
+						throw t;
+					}
+				}
+			});
+			channel.open();
+			channel.register();
+		} catch (final IOException e) {
+			client.close();
+			throw e;
+		}
+	}
+
+	@Nonnull
+	private SelectorExecutor nextExecutor() {
+		if (executor != null) {
+			return executor;
 		}
-		accept.connectionAccepted(client.getRemoteAddress(), channel);
+		return pool.next();
 	}
 
 	/**
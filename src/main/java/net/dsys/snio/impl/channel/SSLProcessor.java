@@ -38,7 +38,9 @@ import javax.net.ssl.SSLSession;
 
 import net.dsys.commons.api.exception.Bug;
 import net.dsys.commons.impl.future.SettableCallbackFuture;
+import net.dsys.snio.api.buffer.BufferAllocator;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferHandler;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
 import net.dsys.snio.api.buffer.MessageBufferProvider;
 import net.dsys.snio.api.codec.MessageCodec;
@@ -49,8 +51,6 @@ import net.dsys.snio.api.limit.RateLimiter;
  */
 final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 
-	private static final int NO_SEQUENCE = -1;
-
 	@Nonnull
 	private final MessageCodec codec;
 	@Nonnull
@@ -61,12 +61,21 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 	private final int sendSize;
 	@Nonnegative
 	private final int receiveSize;
+	private final boolean lazy;
+	@Nonnull
+	private final MessageBufferHandler<ByteBuffer> encoder;
+
+	// buffer sizes, known once registered
+	private int receiveNetSize;
+	private int receiveAppSize;
+	private int sendAppSize;
+	private int sendNetSize;
+	private volatile boolean registered;
 
 	private ByteBuffer receiveBuffer;
 	private ByteBuffer sendBuffer;
 	private ByteBuffer preSendBuffer;
 	private ByteBuffer postReceiveBuffer;
-	private long writeSequence;
 
 	private volatile SettableCallbackFuture<Void> closeFuture;
 	private volatile Callable<Void> closeTask;
@@ -77,6 +86,20 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 			@Nonnull final MessageBufferProvider<ByteBuffer> provider,
 			@Nonnegative final int sendBufferSize, @Nonnegative final int receiveBufferSize,
 			@Nonnull final SSLEngine engine) {
+		this(codec, limiter, provider, sendBufferSize, receiveBufferSize, engine, false);
+	}
+
+	/**
+	 * @param lazy
+	 *            if <code>true</code>, all four buffers are only taken from
+	 *            the allocator while they hold data, so that idle connections
+	 *            hold no buffers at all. Ignored unless the allocator is
+	 *            {@link BufferAllocator#isRecycling() recycling}.
+	 */
+	SSLProcessor(@Nonnull final MessageCodec codec, @Nonnull final RateLimiter limiter,
+			@Nonnull final MessageBufferProvider<ByteBuffer> provider,
+			@Nonnegative final int sendBufferSize, @Nonnegative final int receiveBufferSize,
+			@Nonnull final SSLEngine engine, final boolean lazy) {
 		super(provider);
 		if (codec == null) {
 			throw new NullPointerException("codec == null");
@@ -102,7 +125,14 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 		this.engine = engine;
 		this.sendSize = sendSize;
 		this.receiveSize = receiveSize;
-		this.writeSequence = NO_SEQUENCE;
+		this.lazy = lazy;
+		this.encoder = new MessageBufferHandler<ByteBuffer>() {
+			@Override
+			public boolean handle(final ByteBuffer msg, final Object attachment, final boolean endOfBatch)
+					throws IOException {
+				return encode(msg);
+			}
+		};
 	}
 
 	/**
@@ -132,10 +162,13 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 		}
 		final SSLSession session = engine.getSession();
 		final int delta = session.getPacketBufferSize() - session.getApplicationBufferSize();
-		final int outSize = Math.max(receiveSize, session.getPacketBufferSize());
-		final int inSize = Math.max(receiveSize - delta, session.getApplicationBufferSize());
-		this.receiveBuffer = ByteBuffer.allocateDirect(outSize);
-		this.postReceiveBuffer = ByteBuffer.allocate(inSize);
+		this.receiveNetSize = Math.max(receiveSize, session.getPacketBufferSize());
+		this.receiveAppSize = Math.max(receiveSize - delta, session.getApplicationBufferSize());
+		if (!isLazy()) {
+			this.receiveBuffer = getAllocator().allocate(receiveNetSize);
+			this.postReceiveBuffer = ByteBuffer.allocate(receiveAppSize);
+		}
+		this.registered = true;
 	}
 
 	/**
@@ -148,10 +181,81 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 		}
 		final SSLSession session = engine.getSession();
 		final int delta = session.getPacketBufferSize() - session.getApplicationBufferSize();
-		final int inSize = Math.max(sendSize - delta, session.getApplicationBufferSize());
-		final int outSize = Math.max(sendSize, session.getPacketBufferSize());
-		this.preSendBuffer = ByteBuffer.allocate(inSize);
-		this.sendBuffer = ByteBuffer.allocateDirect(outSize);
+		this.sendAppSize = Math.max(sendSize - delta, session.getApplicationBufferSize());
+		this.sendNetSize = Math.max(sendSize, session.getPacketBufferSize());
+		if (!isLazy()) {
+			this.preSendBuffer = ByteBuffer.allocate(sendAppSize);
+			this.sendBuffer = getAllocator().allocate(sendNetSize);
+		}
+		this.registered = true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void cancelled() {
+		if (receiveBuffer != null) {
+			getAllocator().release(receiveBuffer);
+			receiveBuffer = null;
+		}
+		if (sendBuffer != null) {
+			getAllocator().release(sendBuffer);
+			sendBuffer = null;
+		}
+		if (isLazy()) {
+			// otherwise these are heap buffers
+			if (postReceiveBuffer != null) {
+				getAllocator().release(postReceiveBuffer);
+				postReceiveBuffer = null;
+			}
+			if (preSendBuffer != null) {
+				getAllocator().release(preSendBuffer);
+				preSendBuffer = null;
+			}
+		}
+	}
+
+	/**
+	 * Lazy buffers are only used with an allocator that recycles, otherwise
+	 * every read and write would allocate new direct memory.
+	 */
+	private boolean isLazy() {
+		return lazy && getAllocator().isRecycling();
+	}
+
+	/**
+	 * In lazy mode, give the read buffers back if they hold no partial data.
+	 */
+	private void detachReceiveBuffers() {
+		if (!isLazy()) {
+			return;
+		}
+		if (receiveBuffer != null && receiveBuffer.position() == 0) {
+			getAllocator().release(receiveBuffer);
+			receiveBuffer = null;
+		}
+		if (postReceiveBuffer != null && postReceiveBuffer.position() == 0) {
+			getAllocator().release(postReceiveBuffer);
+			postReceiveBuffer = null;
+		}
+	}
+
+	/**
+	 * In lazy mode, give the write buffers back if they hold no partial data.
+	 */
+	private void detachSendBuffers() {
+		if (!isLazy()) {
+			return;
+		}
+		if (sendBuffer != null && sendBuffer.position() == 0) {
+			getAllocator().release(sendBuffer);
+			sendBuffer = null;
+		}
+		if (preSendBuffer != null && preSendBuffer.position() == 0) {
+			getAllocator().release(preSendBuffer);
+			preSendBuffer = null;
+		}
 	}
 
 	/**
@@ -165,10 +269,19 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 		final SocketChannel channel = (SocketChannel) key.channel();
 		final MessageBufferProducer<ByteBuffer> chnOut = getChannelOutput();
 		final MessageBufferProducer<ByteBuffer> appOut = getOutputBuffer();
+		if (receiveBuffer == null) {
+			receiveBuffer = getAllocator().allocate(receiveNetSize);
+		}
+		if (postReceiveBuffer == null) {
+			postReceiveBuffer = getAllocator().allocate(receiveAppSize);
+		}
+		// frames left over by a paused reader are decoded even without new data
+		final boolean paused = resumeReader();
 		final long n = channel.read(receiveBuffer);
-		if (n <= 0) {
+		if (n < 0 || n == 0 && !paused) {
 			// (n < 0) means channel closed from the other side
 			closedInternally = true;
+			detachReceiveBuffers();
 			return n;
 		}
 
@@ -242,27 +355,15 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 		}
 		postReceiveBuffer.flip();
 
-		while (codec.hasNext(postReceiveBuffer)) {
-			try {
-				final long sequence = chnOut.acquire();
-				try {
-					final ByteBuffer msg = chnOut.get(sequence);
-					msg.clear();
-					codec.get(postReceiveBuffer, msg);
-					msg.flip();
-					chnOut.attach(sequence, appOut);
-				} finally {
-					chnOut.release(sequence);
-				}
-			} catch (final InterruptedException e) {
-				throw new IOException(e);
-			}
+		if (!Frames.decode(codec, postReceiveBuffer, chnOut, appOut, !isUnified())) {
+			pauseReader();
 		}
 		if (postReceiveBuffer.remaining() > 0) {
 			postReceiveBuffer.compact();
 		} else {
 			postReceiveBuffer.clear();
 		}
+		detachReceiveBuffers();
 		if (closed) {
 			return -1;
 		}
@@ -280,26 +381,14 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 		final SocketChannel channel = (SocketChannel) key.channel();
 
 		final MessageBufferConsumer<ByteBuffer> chnIn = getChannelInput();
+		if (preSendBuffer == null) {
+			preSendBuffer = getAllocator().allocate(sendAppSize);
+		}
+		if (sendBuffer == null) {
+			sendBuffer = getAllocator().allocate(sendNetSize);
+		}
 		try {
-			long k = chnIn.remaining();
-			while (--k >= 0) {
-				if (writeSequence == NO_SEQUENCE) {
-					writeSequence = chnIn.acquire();
-				}
-				final ByteBuffer msg = chnIn.get(writeSequence);
-				final int msglen = codec.getEncodedLength(msg);
-				if (msglen > preSendBuffer.capacity()) {
-					// this message is too big for the current buffer
-					throw new IOException("codec.length(msg) > preSendBuffer.capacity()");
-				}
-				if (msglen > preSendBuffer.remaining()) {
-					break;
-				}
-				codec.put(msg, preSendBuffer);
-				msg.clear();
-				chnIn.release(writeSequence);
-				writeSequence = NO_SEQUENCE;
-			}
+			chnIn.drainTo(encoder, Integer.MAX_VALUE);
 		} catch (final InterruptedException e) {
 			throw new IOException(e);
 		}
@@ -376,6 +465,7 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 			return n;
 		}
 		sendBuffer.clear();
+		detachSendBuffers();
 		if (chnIn.remaining() == 0) {
 			disableWriter();
 		}
@@ -385,6 +475,25 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 		return n;
 	}
 
+	/**
+	 * Copies <code>msg</code> into the buffer of bytes to be encrypted.
+	 * 
+	 * @return <code>false</code> if that buffer is too full to take it
+	 */
+	private boolean encode(@Nonnull final ByteBuffer msg) throws IOException {
+		final int msglen = codec.getEncodedLength(msg);
+		if (msglen > preSendBuffer.capacity()) {
+			// this message is too big for the current buffer
+			throw new IOException("codec.length(msg) > preSendBuffer.capacity()");
+		}
+		if (msglen > preSendBuffer.remaining()) {
+			return false;
+		}
+		codec.put(msg, preSendBuffer);
+		msg.clear();
+		return true;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -399,7 +508,7 @@ final class SSLProcessor extends AbstractProcessor<ByteBuffer> {
 		this.closeFuture = future;
 		this.closeTask = task;
 		engine.closeOutbound();
-		if (closedInternally || (receiveBuffer == null && sendBuffer == null)) {
+		if (closedInternally || !registered) {
 			// not yet connected or disconnected remotely
 			shutdown();
 		} else {
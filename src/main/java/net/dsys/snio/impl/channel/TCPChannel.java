@@ -33,16 +33,16 @@ import net.dsys.snio.api.buffer.MessageBufferProducer;
 import net.dsys.snio.api.channel.CloseListener;
 import net.dsys.snio.api.channel.MessageChannel;
 import net.dsys.snio.api.pool.KeyProcessor;
-import net.dsys.snio.api.pool.Processor;
+import net.dsys.snio.api.pool.Migratable;
 import net.dsys.snio.api.pool.SelectorExecutor;
 
 /**
  * @author Ricardo Padilha
  */
-final class TCPChannel<T> implements MessageChannel<T>, Processor {
+final class TCPChannel<T> implements MessageChannel<T>, Migratable {
 
 	@Nonnull
-	private final SelectorExecutor selector;
+	private volatile SelectorExecutor selector;
 	@Nonnull
 	private final KeyProcessor<T> processor;
 	@Nonnull
@@ -190,6 +190,40 @@ final class TCPChannel<T> implements MessageChannel<T>, Processor {
 		selector.register(channel, this);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SelectorExecutor getExecutor() {
+		return selector;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CallbackFuture<Void> migrate(final SelectorExecutor target) {
+		if (target == null) {
+			throw new NullPointerException("target == null");
+		}
+		final SelectorExecutor current = this.selector;
+		if (target == current) {
+			final SettableCallbackFuture<Void> future = new SettableCallbackFuture<>();
+			future.success(null);
+			return future;
+		}
+		final SocketChannel channel = this.channel;
+		final Callable<Void> register = new Callable<Void>() {
+			@Override
+			public Void call() {
+				selector = target;
+				target.register(channel, TCPChannel.this);
+				return null;
+			}
+		};
+		return processor.migrate(current, target, register);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.channel;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
+
+import net.dsys.commons.api.future.CallbackFuture;
+import net.dsys.commons.impl.future.MergingCallbackFuture;
+import net.dsys.snio.api.channel.AcceptListener;
+import net.dsys.snio.api.channel.CloseListener;
+import net.dsys.snio.api.channel.MessageChannel;
+import net.dsys.snio.api.channel.MessageServerChannel;
+
+/**
+ * Server channel made of several listening sockets bound to the same address
+ * with <code>SO_REUSEPORT</code>, each serviced by the accepter thread of a
+ * different executor. The kernel spreads incoming connections over the
+ * sockets, and each acceptor keeps its connections on its own executor.
+ * Listeners are set on the server as a whole: each accepted connection is
+ * reported once, whichever socket accepted it.
+ * 
+ * @author Ricardo Padilha
+ */
+final class TCPMultiServerChannel<T> implements MessageServerChannel<T> {
+
+	@Nonnull(when = When.MAYBE)
+	private static final SocketOption<Boolean> SO_REUSEPORT = lookupReusePort();
+
+	@Nonnull
+	private final List<TCPServerChannel<T>> channels;
+	@Nonnull
+	private final CallbackFuture<Void> bindFuture;
+	@Nonnull
+	private final CallbackFuture<Void> closeFuture;
+	@Nonnull
+	private volatile CloseListener<T> close;
+
+	TCPMultiServerChannel(@Nonnull final List<TCPServerChannel<T>> channels) {
+		if (channels == null) {
+			throw new NullPointerException("channels == null");
+		}
+		if (channels.isEmpty()) {
+			throw new IllegalArgumentException("channels.isEmpty()");
+		}
+		this.channels = new ArrayList<>(channels);
+		final MergingCallbackFuture.Builder<Void> binds = MergingCallbackFuture.builder();
+		final MergingCallbackFuture.Builder<Void> closes = MergingCallbackFuture.builder();
+		for (final TCPServerChannel<T> channel : channels) {
+			binds.add(channel.getBindFuture());
+			closes.add(channel.getCloseFuture());
+		}
+		this.bindFuture = binds.build();
+		this.closeFuture = closes.build();
+		this.close = MessageChannels.dummyCloseListener();
+		// a single listener for all sockets
+		final CloseListener<T> forward = new CloseListener<T>() {
+			@Override
+			public void connectionClosed(final MessageChannel<T> channel) {
+				close.connectionClosed(channel);
+			}
+		};
+		for (final TCPServerChannel<T> channel : channels) {
+			channel.onClose(forward);
+		}
+	}
+
+	/**
+	 * <code>StandardSocketOptions.SO_REUSEPORT</code> only exists from Java 9
+	 * onwards.
+	 */
+	@SuppressWarnings("unchecked")
+	@Nonnull(when = When.MAYBE)
+	private static SocketOption<Boolean> lookupReusePort() {
+		try {
+			return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (final NoSuchFieldException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Opens all sockets. If any of them cannot be opened, those already
+	 * opened are closed again.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the platform does not support <code>SO_REUSEPORT</code>
+	 */
+	void open() throws IOException {
+		if (SO_REUSEPORT == null) {
+			throw new UnsupportedOperationException("SO_REUSEPORT not supported");
+		}
+		try {
+			for (final TCPServerChannel<T> channel : channels) {
+				channel.open();
+				if (!channel.supportedOptions().contains(SO_REUSEPORT)) {
+					throw new UnsupportedOperationException("SO_REUSEPORT not supported");
+				}
+				channel.setOption(SO_REUSEPORT, Boolean.TRUE);
+			}
+		} catch (final IOException | RuntimeException e) {
+			for (final TCPServerChannel<T> channel : channels) {
+				try {
+					channel.close();
+				} catch (final IOException ex) {
+					e.addSuppressed(ex);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isOpen() {
+		for (final TCPServerChannel<T> channel : channels) {
+			if (!channel.isOpen()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public TCPMultiServerChannel<T> bind(final SocketAddress local) throws IOException {
+		return bind(local, 0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public TCPMultiServerChannel<T> bind(final SocketAddress local, final int backlog) throws IOException {
+		final TCPServerChannel<T> first = channels.get(0);
+		first.bind(local, backlog);
+		// resolves ephemeral ports for the remaining sockets
+		final SocketAddress bound = first.getLocalAddress();
+		final int k = channels.size();
+		for (int i = 1; i < k; i++) {
+			channels.get(i).bind(bound, backlog);
+		}
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CallbackFuture<Void> getBindFuture() {
+		return bindFuture;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SocketAddress getLocalAddress() throws IOException {
+		return channels.get(0).getLocalAddress();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (final TCPServerChannel<T> channel : channels) {
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CallbackFuture<Void> getCloseFuture() {
+		return closeFuture;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public TCPMultiServerChannel<T> onAccept(final AcceptListener<T> listener) {
+		for (final TCPServerChannel<T> channel : channels) {
+			channel.onAccept(listener);
+		}
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public TCPMultiServerChannel<T> onClose(final CloseListener<T> listener) {
+		if (listener == null) {
+			throw new NullPointerException("listener == null");
+		}
+		this.close = listener;
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<SocketOption<?>> supportedOptions() {
+		return channels.get(0).supportedOptions();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public <E> MessageServerChannel<?> setOption(final SocketOption<E> name, final E value) throws IOException {
+		for (final TCPServerChannel<T> channel : channels) {
+			channel.setOption(name, value);
+		}
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public <E> E getOption(final SocketOption<E> name) throws IOException {
+		return channels.get(0).getOption(name);
+	}
+
+}
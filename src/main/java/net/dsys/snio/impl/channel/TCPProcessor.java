@@ -25,12 +25,16 @@ import java.util.concurrent.Callable;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
 import net.dsys.commons.api.exception.Bug;
 import net.dsys.commons.impl.future.SettableCallbackFuture;
+import net.dsys.snio.api.buffer.BufferAllocator;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferHandler;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
 import net.dsys.snio.api.buffer.MessageBufferProvider;
+import net.dsys.snio.api.codec.HeaderCodec;
 import net.dsys.snio.api.codec.MessageCodec;
 import net.dsys.snio.api.limit.RateLimiter;
 
@@ -42,26 +46,89 @@ final class TCPProcessor extends AbstractProcessor<ByteBuffer> {
 	private static final int NO_SEQUENCE = -1;
 	private static final ByteBuffer DUMMY_BUFFER = ByteBuffer.allocate(0);
 
+	/**
+	 * Below this body length, copying a message into the send buffer is
+	 * cheaper than handing the kernel one more pair of buffers for it.
+	 */
+	private static final int MIN_GATHER_BODY_LENGTH = 1024;
+	/**
+	 * Maximum number of messages per gathering write.
+	 */
+	private static final int MAX_GATHER = 64;
+	/**
+	 * Minimum number of body bytes still to be received for a message to be
+	 * read straight into its slot.
+	 */
+	private static final int MIN_DIRECT_READ_LENGTH = 1024;
+
 	@Nonnull
 	private final MessageCodec codec;
+	@Nonnull(when = When.MAYBE)
+	private final HeaderCodec headerCodec;
 	@Nonnull
 	private final RateLimiter limiter;
 	@Nonnegative
 	private final int sendSize;
 	@Nonnegative
 	private final int receiveSize;
+	@Nonnegative
+	private final int coalesceBytes;
+	@Nonnegative
+	private final long coalesceNanos;
+	private final boolean lazy;
+	@Nonnull
+	private final MessageBufferHandler<ByteBuffer> encoder;
 
 	@Nonnull
 	private ByteBuffer receiveBuffer;
 	@Nonnull
 	private ByteBuffer sendBuffer;
-	private long writeSequence;
+	// write coalescing: output is held back until flushDeadline
+	private boolean holding;
+	private long flushDeadline;
+
+	// direct reads: body bytes go straight into the slot of readSequence
+	@Nonnull(when = When.MAYBE)
+	private ByteBuffer[] scatter;
+	private long readSequence;
+
+	// gathering writes: send buffer at 0, header and body of message i at
+	// 2i+1 and 2i+2
+	@Nonnull(when = When.MAYBE)
+	private ByteBuffer headers;
+	@Nonnull(when = When.MAYBE)
+	private ByteBuffer[] gather;
+	private long gatherSequence;
+	private int gatherHead;
+	private int gatherCount;
 
 	TCPProcessor(@Nonnull final MessageCodec codec,
 			@Nonnull final RateLimiter limiter,
 			@Nonnull final MessageBufferProvider<ByteBuffer> provider,
 			@Nonnegative final int sendBufferSize,
 			@Nonnegative final int receiveBufferSize) {
+		this(codec, limiter, provider, sendBufferSize, receiveBufferSize, 0, 0, false);
+	}
+
+	/**
+	 * @param coalesceBytes
+	 *            if positive, output is held back until this many bytes are
+	 *            queued, or until <code>coalesceNanos</code> elapsed since
+	 *            output was first held back, whichever comes first.
+	 * @param lazy
+	 *            if <code>true</code>, buffers are only taken from the
+	 *            allocator while they hold data, so that idle connections
+	 *            hold no buffers at all. Ignored unless the allocator is
+	 *            {@link BufferAllocator#isRecycling() recycling}.
+	 */
+	TCPProcessor(@Nonnull final MessageCodec codec,
+			@Nonnull final RateLimiter limiter,
+			@Nonnull final MessageBufferProvider<ByteBuffer> provider,
+			@Nonnegative final int sendBufferSize,
+			@Nonnegative final int receiveBufferSize,
+			@Nonnegative final int coalesceBytes,
+			@Nonnegative final long coalesceNanos,
+			final boolean lazy) {
 		super(provider);
 		if (codec == null) {
 			throw new NullPointerException("codec == null");
@@ -78,14 +145,37 @@ final class TCPProcessor extends AbstractProcessor<ByteBuffer> {
 		if (receiveSize < 1) {
 			throw new IllegalArgumentException("receiveSize < 1");
 		}
+		if (coalesceBytes < 0) {
+			throw new IllegalArgumentException("coalesceBytes < 0");
+		}
+		if (coalesceNanos < 0) {
+			throw new IllegalArgumentException("coalesceNanos < 0");
+		}
 
 		this.codec = codec;
+		if (codec instanceof HeaderCodec && codec.getBodyLength() >= MIN_GATHER_BODY_LENGTH) {
+			this.headerCodec = (HeaderCodec) codec;
+		} else {
+			this.headerCodec = null;
+		}
 		this.limiter = limiter;
 		this.sendSize = sendSize;
 		this.receiveSize = receiveSize;
+		// a full send buffer is always written
+		this.coalesceBytes = Math.min(coalesceBytes, sendSize);
+		this.coalesceNanos = coalesceNanos;
+		this.lazy = lazy;
 		this.receiveBuffer = DUMMY_BUFFER; // will be replaced once processor is registered
 		this.sendBuffer = DUMMY_BUFFER; // will be replaced once processor is registered
-		this.writeSequence = NO_SEQUENCE;
+		this.encoder = new MessageBufferHandler<ByteBuffer>() {
+			@Override
+			public boolean handle(final ByteBuffer msg, final Object attachment, final boolean endOfBatch)
+					throws IOException {
+				return encode(msg);
+			}
+		};
+		this.gatherSequence = NO_SEQUENCE;
+		this.readSequence = NO_SEQUENCE;
 	}
 
 	/**
@@ -115,7 +205,13 @@ final class TCPProcessor extends AbstractProcessor<ByteBuffer> {
 		if (key == null) {
 			throw new NullPointerException("key == null");
 		}
-		this.receiveBuffer = ByteBuffer.allocateDirect(receiveSize);
+		if (!isLazy()) {
+			this.receiveBuffer = getAllocator().allocate(receiveSize);
+		}
+		if (headerCodec != null) {
+			// body slot first, then whatever follows it
+			this.scatter = new ByteBuffer[2];
+		}
 	}
 
 	/**
@@ -126,7 +222,69 @@ final class TCPProcessor extends AbstractProcessor<ByteBuffer> {
 		if (key == null) {
 			throw new NullPointerException("key == null");
 		}
-		this.sendBuffer = ByteBuffer.allocateDirect(sendSize);
+		if (!isLazy()) {
+			this.sendBuffer = getAllocator().allocate(sendSize);
+		}
+		if (headerCodec == null) {
+			return;
+		}
+		// large bodies are written from the ring slots, only their headers
+		// need a buffer
+		this.gather = new ByteBuffer[2 * MAX_GATHER + 1];
+		if (!isLazy()) {
+			attachHeaders();
+		}
+	}
+
+	/**
+	 * Take the header buffer from the allocator and slice it into
+	 * {@link #gather}.
+	 */
+	private void attachHeaders() {
+		final int headerLength = headerCodec.getHeaderLength();
+		final ByteBuffer headers = getAllocator().allocate(MAX_GATHER * headerLength);
+		this.headers = headers;
+		for (int i = 0; i < MAX_GATHER; i++) {
+			headers.limit((i + 1) * headerLength).position(i * headerLength);
+			gather[2 * i + 1] = headers.slice();
+		}
+	}
+
+	/**
+	 * Lazy buffers are only used with an allocator that recycles, otherwise
+	 * every read and write would allocate new direct memory.
+	 */
+	private boolean isLazy() {
+		return lazy && getAllocator().isRecycling();
+	}
+
+	/**
+	 * In lazy mode, give the receive buffer back if it holds no partial frame.
+	 */
+	private void detachReceiveBuffer() {
+		if (isLazy() && receiveBuffer.position() == 0 && readSequence == NO_SEQUENCE) {
+			getAllocator().release(receiveBuffer);
+			receiveBuffer = DUMMY_BUFFER;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void cancelled() {
+		if (receiveBuffer != DUMMY_BUFFER) {
+			getAllocator().release(receiveBuffer);
+			receiveBuffer = DUMMY_BUFFER;
+		}
+		if (sendBuffer != DUMMY_BUFFER) {
+			getAllocator().release(sendBuffer);
+			sendBuffer = DUMMY_BUFFER;
+		}
+		if (headers != null) {
+			getAllocator().release(headers);
+			headers = null;
+		}
 	}
 
 	/**
@@ -137,83 +295,290 @@ final class TCPProcessor extends AbstractProcessor<ByteBuffer> {
 		final SocketChannel channel = (SocketChannel) key.channel();
 		final MessageBufferProducer<ByteBuffer> chnOut = getChannelOutput();
 		final MessageBufferProducer<ByteBuffer> appOut = getOutputBuffer();
-		final long n = channel.read(receiveBuffer);
-		if (n <= 0) {
+		if (receiveBuffer == DUMMY_BUFFER) {
+			receiveBuffer = getAllocator().allocate(receiveSize);
+		}
+		// frames left over by a paused reader are decoded even without new data
+		final boolean paused = resumeReader();
+		final long n;
+		if (readSequence == NO_SEQUENCE) {
+			n = channel.read(receiveBuffer);
+		} else {
+			n = channel.read(scatter);
+		}
+		if (n < 0 || n == 0 && !paused) {
 			// (n < 0) means channel closed from the other side
+			detachReceiveBuffer();
 			return n;
 		}
 
 		limiter.receive(n);
 
-		receiveBuffer.flip();
-		while (codec.hasNext(receiveBuffer)) {
-			try {
-				final long sequence = chnOut.acquire();
-				try {
-					final ByteBuffer msg = chnOut.get(sequence);
-					msg.clear();
-					codec.get(receiveBuffer, msg);
-					msg.flip();
-					chnOut.attach(sequence, appOut);
-				} finally {
-					chnOut.release(sequence);
+		try {
+			if (readSequence != NO_SEQUENCE) {
+				final ByteBuffer msg = scatter[0];
+				if (msg.hasRemaining()) {
+					return n;
 				}
-			} catch (final InterruptedException e) {
-				throw new IOException(e);
+				msg.flip();
+				scatter[0] = null;
+				chnOut.attach(readSequence, appOut);
+				chnOut.release(readSequence);
+				readSequence = NO_SEQUENCE;
 			}
+			receiveBuffer.flip();
+			if (!Frames.decode(codec, receiveBuffer, chnOut, appOut, !isUnified())) {
+				pauseReader();
+			} else if (scatter != null) {
+				startDirectRead(chnOut);
+			}
+		} catch (final InterruptedException e) {
+			throw new IOException(e);
 		}
 		if (receiveBuffer.remaining() > 0) {
 			receiveBuffer.compact();
 		} else {
 			receiveBuffer.clear();
 		}
+		detachReceiveBuffer();
 		return n;
 	}
 
+	/**
+	 * If the receive buffer holds the header of a large message, acquire its
+	 * slot now and let the next reads fill it directly.
+	 */
+	private void startDirectRead(@Nonnull final MessageBufferProducer<ByteBuffer> chnOut)
+			throws InterruptedException {
+		final int headerLength = headerCodec.getHeaderLength();
+		final int rem = receiveBuffer.remaining() - headerLength;
+		if (rem < 0) {
+			return;
+		}
+		// hasNext() already validated the length
+		final int length = headerCodec.getDecodedLength(receiveBuffer);
+		if (length - rem < MIN_DIRECT_READ_LENGTH) {
+			return;
+		}
+		if (isUnified() && chnOut.remaining() == 0) {
+			// the frame is received into the receive buffer instead
+			return;
+		}
+		final long sequence = chnOut.acquire();
+		final ByteBuffer msg = chnOut.get(sequence);
+		msg.clear();
+		msg.limit(length);
+		receiveBuffer.position(receiveBuffer.position() + headerLength);
+		msg.put(receiveBuffer);
+		readSequence = sequence;
+		scatter[0] = msg;
+		scatter[1] = receiveBuffer;
+	}
+
 	/**
 	 * {@inheritDoc}
+	 * <p>
+	 * Small messages are copied into the send buffer. Large messages are
+	 * gathered: their headers are written from the header buffer and their
+	 * bodies straight from their slots, in the same call as the bytes of the
+	 * send buffer that precede them. Slots of gathered messages are released
+	 * only once the kernel took all of their bytes.
 	 */
 	@Override
 	public long write(final SelectionKey key) throws IOException {
 		final SocketChannel channel = (SocketChannel) key.channel();
 		final MessageBufferConsumer<ByteBuffer> chnIn = getChannelInput();
+		if (sendBuffer == DUMMY_BUFFER) {
+			sendBuffer = getAllocator().allocate(sendSize);
+		}
 		try {
-			int k = chnIn.remaining();
-			while (--k >= 0) {
-				if (writeSequence == NO_SEQUENCE) {
-					writeSequence = chnIn.acquire();
+			if (gatherHead == gatherCount) {
+				// bytes left over from a partial write are not held back again
+				final boolean leftover = sendBuffer.position() > 0 && !holding;
+				final int copied = sendBuffer.position();
+				chnIn.drainTo(encoder, Integer.MAX_VALUE);
+				limiter.send(sendBuffer.position() - copied);
+				final long gathered = gather(chnIn);
+				if (!leftover && holdBack(sendBuffer.position() + gathered)) {
+					ungather();
+					return 0;
 				}
-				final ByteBuffer msg = chnIn.get(writeSequence);
-				final int msglen = codec.getEncodedLength(msg);
-				if (msglen > sendBuffer.capacity()) {
-					// this message is too big for the current buffer
-					throw new IOException("codec.length(msg) > sendBuffer.capacity()");
+				limiter.send(gathered);
+			}
+			sendBuffer.flip();
+			final long n;
+			if (gatherHead < gatherCount) {
+				if (gatherHead == 0) {
+					n = channel.write(gather, 0, 2 * gatherCount + 1);
+				} else {
+					// the send buffer was written before the first body
+					n = channel.write(gather, 2 * gatherHead + 1, 2 * (gatherCount - gatherHead));
 				}
-				if (msglen > sendBuffer.remaining()) {
-					break;
+				released(chnIn);
+			} else if (sendBuffer.hasRemaining()) {
+				n = channel.write(sendBuffer);
+			} else {
+				n = 0;
+			}
+			if (sendBuffer.hasRemaining()) {
+				sendBuffer.compact();
+				return n;
+			}
+			sendBuffer.clear();
+			if (gatherHead < gatherCount) {
+				return n;
+			}
+			if (isLazy()) {
+				getAllocator().release(sendBuffer);
+				sendBuffer = DUMMY_BUFFER;
+				if (headers != null) {
+					getAllocator().release(headers);
+					headers = null;
 				}
-				codec.put(msg, sendBuffer);
-				msg.clear();
-				chnIn.release(writeSequence);
-				writeSequence = NO_SEQUENCE;
 			}
+			if (chnIn.remaining() == 0) {
+				disableWriter();
+			}
+			return n;
 		} catch (final InterruptedException e) {
 			throw new IOException(e);
 		}
-		sendBuffer.flip();
+	}
 
-		limiter.send(sendBuffer.remaining());
+	/**
+	 * Copies <code>msg</code> into the send buffer.
+	 * 
+	 * @return <code>false</code> if the send buffer is too full to take it, or
+	 *         if it is to be gathered instead
+	 */
+	private boolean encode(@Nonnull final ByteBuffer msg) throws IOException {
+		if (isGathered(msg)) {
+			return false;
+		}
+		final int msglen = codec.getEncodedLength(msg);
+		if (msglen > sendBuffer.capacity()) {
+			// this message is too big for the current buffer
+			throw new IOException("codec.length(msg) > sendBuffer.capacity()");
+		}
+		if (msglen > sendBuffer.remaining()) {
+			return false;
+		}
+		codec.put(msg, sendBuffer);
+		msg.clear();
+		return true;
+	}
 
-		final int n = channel.write(sendBuffer);
-		if (sendBuffer.remaining() > 0) {
-			sendBuffer.compact();
-			return n;
+	/**
+	 * @return <code>true</code> if <code>msg</code> is written straight from
+	 *         its slot
+	 */
+	private boolean isGathered(@Nonnull final ByteBuffer msg) {
+		return gather != null && msg.remaining() >= MIN_GATHER_BODY_LENGTH;
+	}
+
+	/**
+	 * Lays out the messages to be gathered that follow those copied into the
+	 * send buffer, up to the next message to be copied.
+	 * 
+	 * @return the number of bytes laid out
+	 */
+	private long gather(@Nonnull final MessageBufferConsumer<ByteBuffer> chnIn)
+			throws InterruptedException, IOException {
+		final int k = Math.min(chnIn.remaining(), MAX_GATHER);
+		if (gather == null || k == 0) {
+			return 0;
 		}
-		sendBuffer.clear();
-		if (chnIn.remaining() == 0) {
-			disableWriter();
+		if (headers == null) {
+			attachHeaders();
 		}
-		return n;
+		// k messages are available, so exactly k are acquired, starting with
+		// the first one drainTo left; those that are not gathered are
+		// acquired again by the next write
+		final long last = chnIn.acquire(k);
+		final long first = last - k + 1;
+		long bytes = 0;
+		int count = 0;
+		while (count < k) {
+			final ByteBuffer msg = chnIn.get(first + count);
+			if (!isGathered(msg)) {
+				break;
+			}
+			final ByteBuffer header = gather[2 * count + 1];
+			header.clear();
+			headerCodec.putHeader(msg, header);
+			header.flip();
+			gather[2 * count + 2] = msg;
+			bytes += header.remaining() + msg.remaining();
+			count++;
+		}
+		gather[0] = sendBuffer;
+		gatherSequence = first;
+		gatherHead = 0;
+		gatherCount = count;
+		return bytes;
+	}
+
+	/**
+	 * Gives up the messages laid out by {@link #gather(MessageBufferConsumer)}
+	 * without releasing their slots.
+	 */
+	private void ungather() {
+		for (int i = 0; i < gatherCount; i++) {
+			gather[2 * i + 2] = null;
+		}
+		gatherHead = 0;
+		gatherCount = 0;
+	}
+
+	/**
+	 * Releases the slots of the gathered messages the kernel took entirely,
+	 * header included.
+	 */
+	private void released(@Nonnull final MessageBufferConsumer<ByteBuffer> chnIn) throws InterruptedException {
+		int done = gatherHead;
+		while (done < gatherCount
+				&& !gather[2 * done + 1].hasRemaining()
+				&& !gather[2 * done + 2].hasRemaining()) {
+			gather[2 * done + 2].clear();
+			gather[2 * done + 2] = null;
+			done++;
+		}
+		if (done > gatherHead) {
+			chnIn.release(gatherSequence + done - 1);
+			gatherHead = done;
+		}
+		if (gatherHead == gatherCount) {
+			gatherHead = 0;
+			gatherCount = 0;
+		}
+	}
+
+	/**
+	 * Decides whether the queued bytes wait for more output. The first time
+	 * output is held back, the selector thread is asked to resume writing at
+	 * the deadline.
+	 * 
+	 * @param queued
+	 *            number of bytes ready to be written
+	 * @return <code>true</code> if nothing should be written now
+	 */
+	private boolean holdBack(@Nonnegative final long queued) {
+		if (coalesceBytes == 0 || queued == 0 || queued >= coalesceBytes) {
+			holding = false;
+			return false;
+		}
+		final long now = System.nanoTime();
+		if (!holding) {
+			holding = true;
+			flushDeadline = now + coalesceNanos;
+			enableWriterAt(flushDeadline);
+		} else if (now - flushDeadline >= 0) {
+			holding = false;
+			return false;
+		}
+		// wakeupWriter() or the deadline brings the writer back
+		disableWriter();
+		return true;
 	}
 
 	/**
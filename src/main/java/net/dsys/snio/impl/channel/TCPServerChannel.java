@@ -57,6 +57,21 @@ final class TCPServerChannel<T> implements MessageServerChannel<T>, Acceptor {
 		this.acceptor = acceptor;
 	}
 
+	/**
+	 * @param selector
+	 *            executor whose accepter thread services this channel
+	 */
+	TCPServerChannel(@Nonnull final SelectorExecutor selector, @Nonnull final KeyAcceptor<T> acceptor) {
+		if (selector == null) {
+			throw new NullPointerException("selector == null");
+		}
+		if (acceptor == null) {
+			throw new NullPointerException("acceptor == null");
+		}
+		this.selector = selector;
+		this.acceptor = acceptor;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -24,9 +24,11 @@ import java.nio.channels.SelectionKey;
 import java.util.concurrent.Callable;
 
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
 import net.dsys.commons.impl.future.SettableCallbackFuture;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferHandler;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
 import net.dsys.snio.api.buffer.MessageBufferProvider;
 import net.dsys.snio.api.codec.MessageCodec;
@@ -46,11 +48,20 @@ final class UDPProcessor extends AbstractProcessor<ByteBuffer> {
 	private final MessageCodec codec;
 	@Nonnull
 	private final RateLimiter limiter;
+	@Nonnull
+	private final MessageBufferHandler<ByteBuffer> sender;
 
 	@Nonnull
 	private ByteBuffer receiveBuffer;
 	@Nonnull
 	private ByteBuffer sendBuffer;
+	// sender of the frames left in the receive buffer by a paused reader
+	@Nonnull(when = When.MAYBE)
+	private SocketAddress source;
+	// channel and bytes sent of the current write
+	@Nonnull(when = When.MAYBE)
+	private DatagramChannel sendChannel;
+	private long sent;
 
 	UDPProcessor(@Nonnull final MessageCodec codec,
 			@Nonnull final RateLimiter limiter,
@@ -69,6 +80,14 @@ final class UDPProcessor extends AbstractProcessor<ByteBuffer> {
 		this.limiter = limiter;
 		this.receiveBuffer = DUMMY_BUFFER; // will be replaced once processor is registered
 		this.sendBuffer = DUMMY_BUFFER; // will be replaced once processor is registered
+		this.sender = new MessageBufferHandler<ByteBuffer>() {
+			@Override
+			public boolean handle(final ByteBuffer msg, final Object attachment, final boolean endOfBatch)
+					throws IOException {
+				send(msg, (SocketAddress) attachment);
+				return true;
+			}
+		};
 	}
 
 	/**
@@ -90,7 +109,7 @@ final class UDPProcessor extends AbstractProcessor<ByteBuffer> {
 		if (key == null) {
 			throw new NullPointerException("key == null");
 		}
-		this.receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+		this.receiveBuffer = getAllocator().allocate(MAX_DATAGRAM_LENGTH);
 	}
 
 	/**
@@ -101,11 +120,26 @@ final class UDPProcessor extends AbstractProcessor<ByteBuffer> {
 		if (key == null) {
 			throw new NullPointerException("key == null");
 		}
-		this.sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+		this.sendBuffer = getAllocator().allocate(MAX_DATAGRAM_LENGTH);
 		// start the sendBuffer as empty to ensure the writerKey is disabled
 		sendBuffer.flip();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void cancelled() {
+		if (receiveBuffer != DUMMY_BUFFER) {
+			getAllocator().release(receiveBuffer);
+			receiveBuffer = DUMMY_BUFFER;
+		}
+		if (sendBuffer != DUMMY_BUFFER) {
+			getAllocator().release(sendBuffer);
+			sendBuffer = DUMMY_BUFFER;
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -113,38 +147,42 @@ final class UDPProcessor extends AbstractProcessor<ByteBuffer> {
 	public long read(final SelectionKey key) throws IOException {
 		final DatagramChannel channel = (DatagramChannel) key.channel();
 		final MessageBufferProducer<ByteBuffer> chnOut = getChannelOutput();
+		// frames left over by a paused reader are decoded before receiving more
+		if (resumeReader() && !decode(chnOut)) {
+			return 0;
+		}
 		final int start = receiveBuffer.position();
 		final SocketAddress source = channel.receive(receiveBuffer);
 		if (source == null) {
 			return 0;
 		}
+		this.source = source;
 		final int n = receiveBuffer.position() - start;
 
 		limiter.receive(n);
 
+		decode(chnOut);
+		return n;
+	}
+
+	/**
+	 * Decodes the frames in the receive buffer, pausing the reader if the
+	 * channel output buffer has no room for all of them.
+	 * 
+	 * @return <code>false</code> if the reader was paused
+	 */
+	private boolean decode(@Nonnull final MessageBufferProducer<ByteBuffer> chnOut) throws IOException {
 		receiveBuffer.flip();
-		while (codec.hasNext(receiveBuffer)) {
-			try {
-				final long sequence = chnOut.acquire();
-				try {
-					final ByteBuffer buffer = chnOut.get(sequence);
-					buffer.clear();
-					codec.get(receiveBuffer, buffer);
-					buffer.flip();
-					chnOut.attach(sequence, source);
-				} finally {
-					chnOut.release(sequence);
-				}
-			} catch (final InterruptedException e) {
-				throw new IOException(e);
-			}
-		}
+		final boolean done = Frames.decode(codec, receiveBuffer, chnOut, source, !isUnified());
 		if (receiveBuffer.remaining() > 0) {
 			receiveBuffer.compact();
 		} else {
 			receiveBuffer.clear();
 		}
-		return n;
+		if (!done) {
+			pauseReader();
+		}
+		return done;
 	}
 
 	/**
@@ -152,38 +190,36 @@ final class UDPProcessor extends AbstractProcessor<ByteBuffer> {
 	 */
 	@Override
 	public long write(final SelectionKey key) throws IOException {
-		final DatagramChannel channel = (DatagramChannel) key.channel();
 		final MessageBufferConsumer<ByteBuffer> chnIn = getChannelInput();
-		long n = 0;
-		long k = chnIn.remaining();
-		for (; k >= 0; k--) {
-			final SocketAddress address;
-			try {
-				final long sequence = chnIn.acquire();
-				try {
-					final ByteBuffer msg = chnIn.get(sequence);
-					sendBuffer.clear();
-					codec.put(msg, sendBuffer);
-					msg.clear();
-					sendBuffer.flip();
-					address = (SocketAddress) chnIn.attachment(sequence);
-				} finally {
-					chnIn.release(sequence);
-				}
-			} catch (final InterruptedException e) {
-				throw new IOException(e);
-			}
-
-			limiter.send(sendBuffer.remaining());
-
-			do {
-				n += channel.send(sendBuffer, address);
-			} while (sendBuffer.remaining() > 0);
+		sendChannel = (DatagramChannel) key.channel();
+		sent = 0;
+		try {
+			chnIn.drainTo(sender, Integer.MAX_VALUE);
+		} catch (final InterruptedException e) {
+			throw new IOException(e);
+		} finally {
+			sendChannel = null;
 		}
 		if (chnIn.remaining() == 0) {
 			disableWriter();
 		}
-		return n;
+		return sent;
+	}
+
+	/**
+	 * Sends <code>msg</code> as a single datagram.
+	 */
+	private void send(@Nonnull final ByteBuffer msg, @Nonnull final SocketAddress address) throws IOException {
+		sendBuffer.clear();
+		codec.put(msg, sendBuffer);
+		msg.clear();
+		sendBuffer.flip();
+
+		limiter.send(sendBuffer.remaining());
+
+		do {
+			sent += sendChannel.send(sendBuffer, address);
+		} while (sendBuffer.remaining() > 0);
 	}
 
 	/**
@@ -17,10 +17,13 @@
 package net.dsys.snio.impl.channel.builder;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
 
+import net.dsys.commons.api.lang.Cleaner;
 import net.dsys.commons.api.lang.Factory;
 import net.dsys.commons.impl.builder.Mandatory;
 import net.dsys.commons.impl.builder.OptionGroup;
@@ -31,7 +34,14 @@ import net.dsys.snio.api.buffer.MessageBufferConsumer;
 import net.dsys.snio.api.buffer.MessageBufferProvider;
 import net.dsys.snio.api.pool.SelectorPool;
 import net.dsys.snio.impl.buffer.BlockingQueueProvider;
+import net.dsys.snio.impl.buffer.ByteRingProvider;
+import net.dsys.snio.impl.buffer.ConcurrentRingProvider;
+import net.dsys.snio.impl.buffer.DirectRegionFactory;
 import net.dsys.snio.impl.buffer.RingBufferProvider;
+import net.dsys.snio.impl.buffer.WaitStrategies;
+import net.dsys.snio.impl.pool.SelectorPools;
+
+import com.lmax.disruptor.WaitStrategy;
 
 /**
  * @author Ricardo Padilha
@@ -51,8 +61,15 @@ public final class ChannelConfig<T> {
 	private int receiveBufferSize;
 	private boolean useDirectBuffer;
 	private boolean useRingBuffer;
+	private boolean useConcurrentRing;
+	private int byteRingSize;
 	private boolean singleInputBuffer;
 	private MessageBufferConsumer<T> consumer;
+	private int coalesceBytes;
+	private long coalesceNanos;
+	private boolean lazyBuffers;
+	private int maxIdleProviders;
+	private Factory<WaitStrategy> waits;
 
 	public ChannelConfig() {
 		this.pool = null;
@@ -61,8 +78,15 @@ public final class ChannelConfig<T> {
 		this.receiveBufferSize = DEFAULT_BUFFER_SIZE;
 		this.useDirectBuffer = false;
 		this.useRingBuffer = false;
+		this.useConcurrentRing = false;
+		this.byteRingSize = 0;
 		this.singleInputBuffer = false;
 		this.consumer = null;
+		this.coalesceBytes = 0;
+		this.coalesceNanos = 0;
+		this.lazyBuffers = false;
+		this.maxIdleProviders = 0;
+		this.waits = null;
 	}
 
 	@Nonnull
@@ -123,17 +147,59 @@ public final class ChannelConfig<T> {
 
 	@Nonnull
 	@Optional(defaultValue = "useBlockingQueue()", restrictions = "requires disruptor library")
-	@OptionGroup(name = "bufferImplementation", seeAlso = "useBlockingQueue()")
+	@OptionGroup(name = "bufferImplementation",
+			seeAlso = "useBlockingQueue(), useConcurrentRing(), useByteRing(size)")
 	public ChannelConfig<T> useRingBuffer() {
 		this.useRingBuffer = true;
+		this.useConcurrentRing = false;
+		this.byteRingSize = 0;
 		return this;
 	}
 
 	@Nonnull
 	@Optional(defaultValue = "useBlockingQueue()")
-	@OptionGroup(name = "bufferImplementation", seeAlso = "useRingBuffer()")
+	@OptionGroup(name = "bufferImplementation",
+			seeAlso = "useRingBuffer(), useConcurrentRing(), useByteRing(size)")
 	public ChannelConfig<T> useBlockingQueue() {
 		this.useRingBuffer = false;
+		this.useConcurrentRing = false;
+		this.byteRingSize = 0;
+		return this;
+	}
+
+	/**
+	 * Lock-free rings of preallocated slots, without the disruptor library:
+	 * single producer from the channel to the application, multiple producers
+	 * from the application to the channel.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "useBlockingQueue()")
+	@OptionGroup(name = "bufferImplementation",
+			seeAlso = "useRingBuffer(), useBlockingQueue(), useByteRing(size)")
+	public ChannelConfig<T> useConcurrentRing() {
+		this.useRingBuffer = false;
+		this.useConcurrentRing = true;
+		this.byteRingSize = 0;
+		return this;
+	}
+
+	/**
+	 * Messages of each direction are stored back to back in a single direct
+	 * region of <code>size</code> bytes, instead of one buffer of maximum
+	 * length per message. Only applies to {@link ByteBuffer} messages, with a
+	 * single sending thread, and multiple input buffers.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "useBlockingQueue()", restrictions = "size > 0")
+	@OptionGroup(name = "bufferImplementation",
+			seeAlso = "useRingBuffer(), useBlockingQueue(), useConcurrentRing()")
+	public ChannelConfig<T> useByteRing(@Nonnegative final int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size < 1");
+		}
+		this.useRingBuffer = false;
+		this.useConcurrentRing = false;
+		this.byteRingSize = size;
 		return this;
 	}
 
@@ -167,6 +233,127 @@ public final class ChannelConfig<T> {
 		return this;
 	}
 
+	/**
+	 * Messages are written as soon as the channel is writable.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "disableWriteCoalescing()")
+	@OptionGroup(name = "writeCoalescing", seeAlso = "useWriteCoalescing(bytes, delay, unit)")
+	public ChannelConfig<T> disableWriteCoalescing() {
+		this.coalesceBytes = 0;
+		this.coalesceNanos = 0;
+		return this;
+	}
+
+	/**
+	 * Output is held back until at least <code>bytes</code> are queued, or
+	 * until <code>delay</code> elapsed, whichever comes first. Trades a bounded
+	 * amount of latency for fewer system calls and segments when sending many
+	 * small messages. Only applies to TCP channels.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "disableWriteCoalescing()", restrictions = "bytes > 0, delay > 0, unit != null")
+	@OptionGroup(name = "writeCoalescing", seeAlso = "disableWriteCoalescing()")
+	public ChannelConfig<T> useWriteCoalescing(@Nonnegative final int bytes, @Nonnegative final long delay,
+			@Nonnull final TimeUnit unit) {
+		if (bytes < 1) {
+			throw new IllegalArgumentException("bytes < 1");
+		}
+		if (delay < 1) {
+			throw new IllegalArgumentException("delay < 1");
+		}
+		if (unit == null) {
+			throw new NullPointerException("unit == null");
+		}
+		this.coalesceBytes = bytes;
+		this.coalesceNanos = unit.toNanos(delay);
+		return this;
+	}
+
+	/**
+	 * Each connection holds its socket buffers for as long as it is open.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "useEagerBuffers()")
+	@OptionGroup(name = "bufferAttachment", seeAlso = "useLazyBuffers()")
+	public ChannelConfig<T> useEagerBuffers() {
+		this.lazyBuffers = false;
+		return this;
+	}
+
+	/**
+	 * Socket buffers are taken from the pool's allocator when a read or write
+	 * needs them, and given back as soon as they are drained, so idle
+	 * connections hold no buffers. Requires a recycling allocator, see
+	 * {@link SelectorPools.PoolBuilder#useSlabAllocator(int)}: with any other
+	 * allocator, buffers are attached eagerly. Only applies to TCP and SSL
+	 * channels.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "useEagerBuffers()")
+	@OptionGroup(name = "bufferAttachment", seeAlso = "useEagerBuffers()")
+	public ChannelConfig<T> useLazyBuffers() {
+		this.lazyBuffers = true;
+		return this;
+	}
+
+	/**
+	 * Every accepted connection gets newly allocated message buffers.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "disableProviderRecycling()")
+	@OptionGroup(name = "providerRecycling", seeAlso = "useProviderRecycling(maxIdle)")
+	public ChannelConfig<T> disableProviderRecycling() {
+		this.maxIdleProviders = 0;
+		return this;
+	}
+
+	/**
+	 * Message buffers of closed connections are kept, up to
+	 * <code>maxIdle</code> connections' worth, and handed to newly accepted
+	 * connections. Avoids allocating <code>capacity</code> messages per
+	 * direction and per connection under connection churn. The application
+	 * must not use messages of a connection once it is closed. Only applies
+	 * to server channels using ring buffers.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "disableProviderRecycling()", restrictions = "maxIdle > 0")
+	@OptionGroup(name = "providerRecycling", seeAlso = "disableProviderRecycling()")
+	public ChannelConfig<T> useProviderRecycling(@Nonnegative final int maxIdle) {
+		if (maxIdle < 1) {
+			throw new IllegalArgumentException("maxIdle < 1");
+		}
+		this.maxIdleProviders = maxIdle;
+		return this;
+	}
+
+	/**
+	 * Application consumers park on a lock until a message arrives.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "useBlockingWait()")
+	@OptionGroup(name = "waitStrategy", seeAlso = "useWaitStrategy(waits)")
+	public ChannelConfig<T> useBlockingWait() {
+		this.waits = null;
+		return this;
+	}
+
+	/**
+	 * Application consumers wait for messages with strategies created by
+	 * <code>waits</code>, one per ring, see {@link WaitStrategies}. Spinning
+	 * strategies trade CPU time for latency. Only applies to ring buffers.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "useBlockingWait()", restrictions = "waits != null")
+	@OptionGroup(name = "waitStrategy", seeAlso = "useBlockingWait()")
+	public ChannelConfig<T> useWaitStrategy(@Nonnull final Factory<WaitStrategy> waits) {
+		if (waits == null) {
+			throw new NullPointerException("waits == null");
+		}
+		this.waits = waits;
+		return this;
+	}
+
 	@Nonnull
 	public SelectorPool getPool() {
 		if (pool == null) {
@@ -190,14 +377,43 @@ public final class ChannelConfig<T> {
 		return receiveBufferSize;
 	}
 
+	/**
+	 * @return the number of bytes output is held back for, or 0 if write
+	 *         coalescing is disabled
+	 */
+	@Nonnegative
+	public int getCoalesceBytes() {
+		return coalesceBytes;
+	}
+
+	/**
+	 * @return for how long output is held back at most, in nanoseconds
+	 */
+	@Nonnegative
+	public long getCoalesceNanos() {
+		return coalesceNanos;
+	}
+
+	public boolean isLazyBuffers() {
+		return lazyBuffers;
+	}
+
 	public boolean isDirectBuffer() {
 		return useDirectBuffer;
 	}
 
+	/**
+	 * With direct buffers, the slots of each ring or queue are sliced out of a
+	 * single region, freed once its provider is recycled. Byte rings have no
+	 * slots of their own.
+	 */
 	@Nonnull
 	public Factory<ByteBuffer> getFactory(@Nonnegative final int length) {
 		if (useDirectBuffer) {
-			return new DirectByteBufferFactory(length);
+			if (byteRingSize > 0) {
+				return new DirectByteBufferFactory(length);
+			}
+			return new DirectRegionFactory(length, capacity);
 		}
 		return new ByteBufferFactory(length);
 	}
@@ -206,18 +422,44 @@ public final class ChannelConfig<T> {
 		return useRingBuffer;
 	}
 
+	public boolean isConcurrentRing() {
+		return useConcurrentRing;
+	}
+
+	/**
+	 * @return the factory of wait strategies of ring buffers, or
+	 *         <code>null</code> if consumers block
+	 */
+	@Nonnull(when = When.MAYBE)
+	public Factory<WaitStrategy> getWaitStrategy() {
+		return waits;
+	}
+
 	@Nonnull
 	public MessageBufferProvider<T> getProvider(@Nonnull final Factory<T> factory) {
+		if (byteRingSize > 0) {
+			return getByteRingProviderFactory(factory).newInstance();
+		}
 		final MessageBufferProvider<T> provider;
-		if (useRingBuffer) {
+		if (useConcurrentRing) {
+			if (singleInputBuffer) {
+				MessageBufferConsumer<T> cons = consumer;
+				if (cons == null) {
+					cons = ConcurrentRingProvider.createConsumer(capacity, factory);
+				}
+				provider = ConcurrentRingProvider.createProvider(capacity, factory, cons);
+			} else {
+				provider = ConcurrentRingProvider.createProvider(capacity, factory);
+			}
+		} else if (useRingBuffer) {
 			if (singleInputBuffer) {
 				MessageBufferConsumer<T> cons = consumer;
 				if (cons == null) {
-					cons = RingBufferProvider.createConsumer(capacity, factory);
+					cons = RingBufferProvider.createConsumer(capacity, factory, waits);
 				}
 				provider = RingBufferProvider.createProvider(capacity, factory, cons);
 			} else {
-				provider = RingBufferProvider.createProvider(capacity, factory);
+				provider = RingBufferProvider.createProvider(capacity, factory, waits);
 			}
 		} else {
 			if (singleInputBuffer) {
@@ -235,16 +477,49 @@ public final class ChannelConfig<T> {
 
 	@Nonnull
 	public Factory<MessageBufferProvider<T>> getProviderFactory(@Nonnull final Factory<T> factory) {
+		return getProviderFactory(factory, null);
+	}
+
+	/**
+	 * @param cleaner
+	 *            resets recycled messages, if <code>null</code> messages are
+	 *            never recycled
+	 */
+	@Nonnull
+	public Factory<MessageBufferProvider<T>> getProviderFactory(@Nonnull final Factory<T> factory,
+			@Nonnull(when = When.MAYBE) final Cleaner<T> cleaner) {
+		if (byteRingSize > 0) {
+			return getByteRingProviderFactory(factory);
+		}
+		final boolean recycle = cleaner != null && maxIdleProviders > 0;
 		final Factory<MessageBufferProvider<T>> provider;
-		if (useRingBuffer) {
+		if (useConcurrentRing) {
 			if (singleInputBuffer) {
 				MessageBufferConsumer<T> cons = consumer;
 				if (cons == null) {
-					cons = RingBufferProvider.createConsumer(capacity, factory);
+					cons = ConcurrentRingProvider.createConsumer(capacity, factory);
 				}
-				provider = RingBufferProvider.createProviderFactory(capacity, factory, cons);
+				provider = ConcurrentRingProvider.createProviderFactory(capacity, factory, cons);
 			} else {
-				provider = RingBufferProvider.createProviderFactory(capacity, factory);
+				provider = ConcurrentRingProvider.createProviderFactory(capacity, factory);
+			}
+		} else if (useRingBuffer) {
+			if (singleInputBuffer) {
+				MessageBufferConsumer<T> cons = consumer;
+				if (cons == null) {
+					cons = RingBufferProvider.createConsumer(capacity, factory, waits);
+				}
+				if (recycle) {
+					provider = RingBufferProvider.createRecyclingProviderFactory(capacity, factory, cons,
+							cleaner, maxIdleProviders);
+				} else {
+					provider = RingBufferProvider.createProviderFactory(capacity, factory, cons);
+				}
+			} else if (recycle) {
+				provider = RingBufferProvider.createRecyclingProviderFactory(capacity, factory,
+						cleaner, maxIdleProviders, waits);
+			} else {
+				provider = RingBufferProvider.createProviderFactory(capacity, factory, waits);
 			}
 		} else {
 			if (singleInputBuffer) {
@@ -259,4 +534,22 @@ public final class ChannelConfig<T> {
 		}
 		return provider;
 	}
+
+	/**
+	 * The maximum message length is taken from a message of the factory.
+	 */
+	@Nonnull
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Factory<MessageBufferProvider<T>> getByteRingProviderFactory(@Nonnull final Factory<T> factory) {
+		if (singleInputBuffer) {
+			throw new IllegalStateException("a byte ring cannot be used with a single input buffer");
+		}
+		final Object message = factory.newInstance();
+		if (!(message instanceof ByteBuffer)) {
+			throw new IllegalStateException("a byte ring only holds ByteBuffer messages");
+		}
+		final int maxLength = ((ByteBuffer) message).capacity();
+		final Factory provider = ByteRingProvider.createProviderFactory(capacity, maxLength, byteRingSize);
+		return provider;
+	}
 }
@@ -23,6 +23,7 @@ import net.dsys.commons.api.lang.BinaryUnit;
 import net.dsys.commons.api.lang.Factory;
 import net.dsys.commons.impl.builder.Mandatory;
 import net.dsys.commons.impl.builder.OptionGroup;
+import net.dsys.commons.impl.builder.Optional;
 import net.dsys.snio.api.codec.MessageCodec;
 import net.dsys.snio.api.limit.RateLimiter;
 import net.dsys.snio.impl.codec.Codecs;
@@ -35,10 +36,12 @@ public final class ServerConfig {
 
 	private Factory<MessageCodec> codecs;
 	private Factory<RateLimiter> limiters;
+	private boolean multipleAcceptors;
 
 	public ServerConfig() {
 		codecs = null;
 		limiters = RateLimiters.noLimitFactory();
+		multipleAcceptors = false;
 	}
 
 	@Nonnull
@@ -82,6 +85,34 @@ public final class ServerConfig {
 		return this;
 	}
 
+	/**
+	 * Bind a single listening socket, serviced by one accepter thread.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "useSingleAcceptor()")
+	@OptionGroup(name = "acceptors", seeAlso = "useMultipleAcceptors()")
+	public ServerConfig useSingleAcceptor() {
+		this.multipleAcceptors = false;
+		return this;
+	}
+
+	/**
+	 * Bind one listening socket per executor of the pool on the same address,
+	 * using <code>SO_REUSEPORT</code>. Each socket is serviced by the accepter
+	 * thread of its executor, which also handles the connections it accepts.
+	 * <p>
+	 * <code>SO_REUSEPORT</code> is only available from Java 9 onwards, and
+	 * only on platforms that support it: elsewhere, opening the server channel
+	 * throws {@link UnsupportedOperationException}.
+	 */
+	@Nonnull
+	@Optional(defaultValue = "useSingleAcceptor()", restrictions = "requires Java 9+ and SO_REUSEPORT support")
+	@OptionGroup(name = "acceptors", seeAlso = "useSingleAcceptor()")
+	public ServerConfig useMultipleAcceptors() {
+		this.multipleAcceptors = true;
+		return this;
+	}
+
 	@Nonnull
 	public Factory<MessageCodec> getMessageCodecs() {
 		if (codecs == null) {
@@ -98,4 +129,8 @@ public final class ServerConfig {
 		return limiters;
 	}
 
+	public boolean isMultipleAcceptors() {
+		return multipleAcceptors;
+	}
+
 }
@@ -20,9 +20,9 @@ import java.nio.ByteBuffer;
 
 import javax.annotation.Nonnegative;
 
+import net.dsys.snio.api.codec.HeaderCodec;
 import net.dsys.snio.api.codec.InvalidEncodingException;
 import net.dsys.snio.api.codec.InvalidLengthException;
-import net.dsys.snio.api.codec.MessageCodec;
 
 /**
  * Simple frame encoding which just adds an unsigned int length field as a
@@ -31,7 +31,7 @@ import net.dsys.snio.api.codec.MessageCodec;
  * 
  * @author Ricardo Padilha
  */
-public final class IntHeaderCodec implements MessageCodec {
+public final class IntHeaderCodec implements HeaderCodec {
 
 	private static final int UNSIGNED_INT_MASK = Integer.MAX_VALUE;
 
@@ -117,9 +117,17 @@ public final class IntHeaderCodec implements MessageCodec {
 	 */
 	@Override
 	public void put(final ByteBuffer in, final ByteBuffer out) {
+		putHeader(in, out);
+		out.put(in);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void putHeader(final ByteBuffer in, final ByteBuffer out) {
 		final int length = in.remaining();
 		out.putInt(length);
-		out.put(in);
 	}
 
 	/**
@@ -20,9 +20,9 @@ import java.nio.ByteBuffer;
 
 import javax.annotation.Nonnegative;
 
+import net.dsys.snio.api.codec.HeaderCodec;
 import net.dsys.snio.api.codec.InvalidEncodingException;
 import net.dsys.snio.api.codec.InvalidLengthException;
-import net.dsys.snio.api.codec.MessageCodec;
 
 /**
  * Simple frame encoding which just adds an unsigned short length field as a
@@ -30,7 +30,7 @@ import net.dsys.snio.api.codec.MessageCodec;
  * 
  * @author Ricardo Padilha
  */
-final class ShortHeaderCodec implements MessageCodec {
+final class ShortHeaderCodec implements HeaderCodec {
 
 	private static final int UNSIGNED_SHORT_MASK = 0xFFFF;
 
@@ -116,9 +116,17 @@ final class ShortHeaderCodec implements MessageCodec {
 	 */
 	@Override
 	public void put(final ByteBuffer in, final ByteBuffer out) {
+		putHeader(in, out);
+		out.put(in);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void putHeader(final ByteBuffer in, final ByteBuffer out) {
 		final int length = in.remaining();
 		out.putShort((short) length);
-		out.put(in);
 	}
 
 	/**
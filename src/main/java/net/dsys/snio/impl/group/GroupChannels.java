@@ -32,12 +32,15 @@ import net.dsys.snio.api.codec.MessageCodec;
 import net.dsys.snio.api.limit.RateLimiter;
 import net.dsys.snio.api.pool.SelectorPool;
 import net.dsys.snio.impl.buffer.BlockingQueueProvider;
+import net.dsys.snio.impl.buffer.ConcurrentRingProvider;
 import net.dsys.snio.impl.buffer.RingBufferProvider;
 import net.dsys.snio.impl.channel.MessageChannels;
 import net.dsys.snio.impl.channel.builder.ChannelConfig;
 import net.dsys.snio.impl.channel.builder.ClientConfig;
 import net.dsys.snio.impl.group.builder.GroupConfig;
 
+import com.lmax.disruptor.WaitStrategy;
+
 /**
  * @author Ricardo Padilha
  */
@@ -55,8 +58,11 @@ public final class GroupChannels {
 		final Factory<RateLimiter> limiters = group.getRateLimiters();
 		final Factory<ByteBuffer> factory = new ByteBufferFactory(codecs.newInstance().getBodyLength());
 		final MessageBufferConsumer<ByteBuffer> consumer;
-		if (common.isRingBuffer()) {
-			consumer = RingBufferProvider.createConsumer(common.getCapacity(), factory);
+		if (common.isConcurrentRing()) {
+			consumer = ConcurrentRingProvider.createConsumer(common.getCapacity(), factory);
+		} else if (common.isRingBuffer()) {
+			consumer = RingBufferProvider.createConsumer(common.getCapacity(), factory,
+					common.getWaitStrategy());
 		} else {
 			consumer = BlockingQueueProvider.createConsumer(common.getCapacity(), factory);
 		}
@@ -148,6 +154,14 @@ public final class GroupChannels {
 			return this;
 		}
 
+		/**
+		 * @see ChannelConfig#useWaitStrategy(Factory)
+		 */
+		public TCPGroupBuilder useWaitStrategy(final Factory<WaitStrategy> waits) {
+			common.useWaitStrategy(waits);
+			return this;
+		}
+
 		/**
 		 * @see ChannelConfig#useBlockingQueue()
 		 */
@@ -16,11 +16,13 @@
 
 package net.dsys.snio.impl.handler;
 
+import static net.dsys.snio.impl.handler.ExecutionType.BATCH;
 import static net.dsys.snio.impl.handler.ExecutionType.DECOUPLED;
 import static net.dsys.snio.impl.handler.ExecutionType.ZERO_COPY;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
 import net.dsys.commons.api.exception.Bug;
@@ -30,6 +32,8 @@ import net.dsys.commons.api.lang.Factory;
 import net.dsys.commons.api.lang.Interruptible;
 import net.dsys.snio.api.buffer.InterruptedByClose;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferHandler;
+import net.dsys.snio.api.handler.BatchMessageConsumer;
 import net.dsys.snio.api.handler.MessageConsumer;
 
 /**
@@ -37,6 +41,9 @@ import net.dsys.snio.api.handler.MessageConsumer;
  * buffer locally and releases it before processing it. This allows a measure of
  * decoupling between input and output buffers. The down-side is that it requires
  * an additional copy of the data to be processed.
+ * <p>
+ * In batch mode, all messages available, up to a maximum, are processed in
+ * place and released at once, see {@link BatchMessageConsumer}.
  * 
  * @author Ricardo Padilha
  */
@@ -48,6 +55,8 @@ final class ConsumerThread<T> implements Interruptible {
 	private final T holder;
 	private final Copier<T> copier;
 	private final Cleaner<T> cleaner;
+	private final int batchSize;
+	private final MessageBufferHandler<T> batch;
 	private final AtomicBoolean interrupted;
 
 	ConsumerThread(@Nonnull final MessageBufferConsumer<T> in,
@@ -74,6 +83,8 @@ final class ConsumerThread<T> implements Interruptible {
 		this.holder = holder;
 		this.copier = copier;
 		this.cleaner = cleaner;
+		this.batchSize = 0;
+		this.batch = null;
 		this.interrupted = new AtomicBoolean();
 	}
 
@@ -90,6 +101,30 @@ final class ConsumerThread<T> implements Interruptible {
 		this.holder = null;
 		this.copier = null;
 		this.cleaner = null;
+		this.batchSize = 0;
+		this.batch = null;
+		this.interrupted = new AtomicBoolean();
+	}
+
+	ConsumerThread(@Nonnull final MessageBufferConsumer<T> in, @Nonnull final MessageConsumer<T> consumer,
+			@Nonnegative final int batchSize) {
+		if (in == null) {
+			throw new NullPointerException("in == null");
+		}
+		if (consumer == null) {
+			throw new NullPointerException("consumer == null");
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize < 1");
+		}
+		this.type = BATCH;
+		this.in = in;
+		this.consumer = consumer;
+		this.holder = null;
+		this.copier = null;
+		this.cleaner = null;
+		this.batchSize = batchSize;
+		this.batch = createBatchHandler(consumer);
 		this.interrupted = new AtomicBoolean();
 	}
 
@@ -112,6 +147,51 @@ final class ConsumerThread<T> implements Interruptible {
 		};
 	}
 
+	static <T> ConsumerThreadFactory<T> createBatchFactory(@Nonnegative final int batchSize) {
+		return new ConsumerThreadFactory<T>() {
+			@Override
+			public Runnable newInstance(final MessageBufferConsumer<T> in, final MessageConsumer<T> consumer) {
+				return new ConsumerThread<>(in, consumer, batchSize);
+			}
+		};
+	}
+
+	/**
+	 * A failing message does not stop the batch, nor is it processed again.
+	 */
+	@Nonnull
+	private static <T> MessageBufferHandler<T> createBatchHandler(@Nonnull final MessageConsumer<T> consumer) {
+		if (consumer instanceof BatchMessageConsumer) {
+			final BatchMessageConsumer<T> batchConsumer = (BatchMessageConsumer<T>) consumer;
+			return new MessageBufferHandler<T>() {
+				@Override
+				public boolean handle(final T message, final Object attachment, final boolean endOfBatch) {
+					try {
+						batchConsumer.consume(message, attachment, endOfBatch);
+					} catch (final RuntimeException e) {
+						uncaught(e);
+					}
+					return true;
+				}
+			};
+		}
+		return new MessageBufferHandler<T>() {
+			@Override
+			public boolean handle(final T message, final Object attachment, final boolean endOfBatch) {
+				try {
+					consumer.consume(message, attachment);
+				} catch (final RuntimeException e) {
+					uncaught(e);
+				}
+				return true;
+			}
+		};
+	}
+
+	private static void uncaught(@Nonnull final Throwable t) {
+		System.err.println("Uncaught MessageHandler exception: " + t.getLocalizedMessage());
+		t.printStackTrace();
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -135,6 +215,10 @@ final class ConsumerThread<T> implements Interruptible {
 				syncRun();
 				break;
 			}
+			case BATCH: {
+				batchRun();
+				break;
+			}
 			default: {
 				throw new Bug("Unsuppported ThreadType: " + type);
 			}
@@ -162,8 +246,7 @@ final class ConsumerThread<T> implements Interruptible {
 				Thread.currentThread().interrupt();
 				return;
 			} catch (final Throwable t) {
-				System.err.println("Uncaught MessageHandler exception: " + t.getLocalizedMessage());
-				t.printStackTrace();
+				uncaught(t);
 			}
 		}
 	}
@@ -185,8 +268,25 @@ final class ConsumerThread<T> implements Interruptible {
 				Thread.currentThread().interrupt();
 				return;
 			} catch (final Throwable t) {
-				System.err.println("Uncaught MessageHandler exception: " + t.getLocalizedMessage());
-				t.printStackTrace();
+				uncaught(t);
+			}
+		}
+	}
+
+	private void batchRun() {
+		final int batchSize = this.batchSize;
+		while (!Thread.interrupted() && !interrupted.get()) {
+			try {
+				// wait for the first message, the drain starts with it
+				in.acquire();
+				in.drainTo(batch, batchSize);
+			} catch (final InterruptedByClose e) {
+				return;
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (final Throwable t) {
+				uncaught(t);
 			}
 		}
 	}
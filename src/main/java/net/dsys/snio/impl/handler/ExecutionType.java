@@ -22,6 +22,7 @@ package net.dsys.snio.impl.handler;
 enum ExecutionType {
 
 	ZERO_COPY,
-	DECOUPLED;
+	DECOUPLED,
+	BATCH;
 
 }
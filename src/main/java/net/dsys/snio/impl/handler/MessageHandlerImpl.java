@@ -33,6 +33,7 @@ import net.dsys.snio.api.channel.MessageChannel;
 import net.dsys.snio.api.handler.MessageConsumer;
 import net.dsys.snio.api.handler.MessageConsumerFactory;
 import net.dsys.snio.api.handler.MessageHandler;
+import net.dsys.snio.impl.pool.CpuAffinity;
 
 /**
  * @author Ricardo Padilha
@@ -41,6 +42,7 @@ final class MessageHandlerImpl<T> implements MessageHandler<T> {
 
 	private final HandlerType type;
 	private final ExecutorService executor;
+	private final CpuAffinity affinity;
 	private final ConsumerThreadFactory<T> threads;
 	private final MessageConsumerFactory<T> factory;
 	private final MessageConsumer<T> consumer;
@@ -49,12 +51,16 @@ final class MessageHandlerImpl<T> implements MessageHandler<T> {
 	private final AtomicBoolean started;
 
 	MessageHandlerImpl(@Nonnull final ExecutorService executor,
+			@Nonnull final CpuAffinity affinity,
 			@Nonnull final ConsumerThreadFactory<T> threads,
 			@Nonnull final MessageConsumerFactory<T> factory,
 			@Nonnull final AcceptListener<T> delegate) {
 		if (executor == null) {
 			throw new NullPointerException("executor == null");
 		}
+		if (affinity == null) {
+			throw new NullPointerException("affinity == null");
+		}
 		if (threads == null) {
 			throw new NullPointerException("threads == null");
 		}
@@ -63,6 +69,7 @@ final class MessageHandlerImpl<T> implements MessageHandler<T> {
 		}
 		this.type = MULTI_THREADED;
 		this.executor = executor;
+		this.affinity = affinity;
 		this.threads = threads;
 		this.factory = factory;
 		this.consumer = null;
@@ -72,12 +79,16 @@ final class MessageHandlerImpl<T> implements MessageHandler<T> {
 	}
 
 	MessageHandlerImpl(@Nonnull final ExecutorService executor,
+			@Nonnull final CpuAffinity affinity,
 			@Nonnull final ConsumerThreadFactory<T> factory,
 			@Nonnull final MessageConsumer<T> consumer,
 			@Nonnull final AcceptListener<T> delegate) {
 		if (executor == null) {
 			throw new NullPointerException("executor == null");
 		}
+		if (affinity == null) {
+			throw new NullPointerException("affinity == null");
+		}
 		if (factory == null) {
 			throw new NullPointerException("factory == null");
 		}
@@ -86,6 +97,7 @@ final class MessageHandlerImpl<T> implements MessageHandler<T> {
 		}
 		this.type = SINGLE_THREADED;
 		this.executor = executor;
+		this.affinity = affinity;
 		this.threads = factory;
 		this.consumer = consumer;
 		this.factory = null;
@@ -102,6 +114,10 @@ final class MessageHandlerImpl<T> implements MessageHandler<T> {
 		return listener;
 	}
 
+	/**
+	 * Called from the selector thread that accepted <code>channel</code>, so
+	 * consumers are paired with the CPU of that thread.
+	 */
 	void accept(@Nonnull final SocketAddress remote, @Nonnull final MessageChannel<T> channel) {
 		if (delegate != null) {
 			delegate.connectionAccepted(remote, channel);
@@ -111,14 +127,14 @@ final class MessageHandlerImpl<T> implements MessageHandler<T> {
 				final MessageBufferConsumer<T> in = channel.getInputBuffer();
 				final MessageConsumer<T> handler = factory.newInstance(remote, channel);
 				final Runnable runnable = threads.newInstance(in, handler);
-				executor.execute(runnable);
+				executor.execute(affinity.pairWithCaller(runnable));
 				break;
 			}
 			case SINGLE_THREADED:
 				if (started.compareAndSet(false, true)) {
 					final MessageBufferConsumer<T> in = channel.getInputBuffer();
 					final Runnable runnable = threads.newInstance(in, consumer);
-					executor.execute(runnable);
+					executor.execute(affinity.pairWithCaller(runnable));
 				}
 				break;
 			default: {
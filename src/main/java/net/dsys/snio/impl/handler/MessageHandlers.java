@@ -16,6 +16,7 @@
 
 package net.dsys.snio.impl.handler;
 
+import static net.dsys.snio.impl.handler.ExecutionType.BATCH;
 import static net.dsys.snio.impl.handler.ExecutionType.DECOUPLED;
 import static net.dsys.snio.impl.handler.ExecutionType.ZERO_COPY;
 import static net.dsys.snio.impl.handler.HandlerType.MULTI_THREADED;
@@ -45,10 +46,12 @@ import net.dsys.commons.impl.lang.DirectByteBufferFactory;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
 import net.dsys.snio.api.channel.AcceptListener;
+import net.dsys.snio.api.handler.BatchMessageConsumer;
 import net.dsys.snio.api.handler.MessageConsumer;
 import net.dsys.snio.api.handler.MessageConsumerFactory;
 import net.dsys.snio.api.handler.MessageHandler;
 import net.dsys.snio.api.handler.MessageProducer;
+import net.dsys.snio.impl.pool.CpuAffinity;
 
 /**
  * @author Ricardo Padilha
@@ -73,6 +76,18 @@ public final class MessageHandlers {
 		return new ConsumerThread<>(in, consumer, holder, copier, cleaner);
 	}
 
+	/**
+	 * Processes up to <code>batchSize</code> messages in place, and releases
+	 * them at once.
+	 * 
+	 * @see BatchMessageConsumer
+	 */
+	@Nonnull
+	public static <T> Interruptible batchConsumer(@Nonnull final MessageBufferConsumer<T> in,
+			@Nonnull final MessageConsumer<T> consumer, @Nonnegative final int batchSize) {
+		return new ConsumerThread<>(in, consumer, batchSize);
+	}
+
 	@Nonnull
 	public static <T> Interruptible syncProducer(@Nonnull final MessageBufferProducer<T> out,
 			@Nonnull final MessageProducer<T> producer) {
@@ -103,20 +118,24 @@ public final class MessageHandlers {
 		private HandlerType handlerType;
 		private ExecutionType threadType;
 		private ExecutorService executor;
+		private CpuAffinity affinity;
 		private MessageConsumer<ByteBuffer> consumer;
 		private MessageConsumerFactory<ByteBuffer> consumerFactory;
 		private AcceptListener<ByteBuffer> delegate;
 		private int length;
+		private int batchSize;
 		private boolean useDirectBuffer;
 
 		HandlerBuilder() {
 			this.name = "MessageHandler-" + counter.getAndIncrement();
 			this.handlerType = null;
 			this.threadType = ZERO_COPY;
+			this.affinity = CpuAffinity.none();
 			this.consumer = null;
 			this.consumerFactory = null;
 			this.delegate = null;
 			this.length = 0;
+			this.batchSize = 0;
 			this.useDirectBuffer = false;
 		}
 
@@ -141,6 +160,21 @@ public final class MessageHandlers {
 			return this;
 		}
 
+		/**
+		 * Pin each consumer to the CPU of the selector executor that accepted
+		 * its connection, if that executor is pinned, or else to the next CPU
+		 * of <code>affinity</code>. Ignored if an executor is given.
+		 */
+		@Optional(defaultValue = "CpuAffinity.none()", restrictions = "affinity != null")
+		@OptionGroup(name = "executor", seeAlso = "setExecutor(executor)")
+		public HandlerBuilder setAffinity(final CpuAffinity affinity) {
+			if (affinity == null) {
+				throw new NullPointerException("affinity == null");
+			}
+			this.affinity = affinity;
+			return this;
+		}
+
 		@Mandatory(restrictions = "consumer != null")
 		@OptionGroup(name = "consumer", seeAlso = "useManyConsumers(factory)")
 		public HandlerBuilder useSingleConsumer(final MessageConsumer<ByteBuffer> consumer) {
@@ -166,18 +200,41 @@ public final class MessageHandlers {
 		}
 
 		@Optional(defaultValue = "useZeroCopyProcessing()", restrictions = "none")
-		@OptionGroup(name = "execution", seeAlso = "useDecoupledProcessing(length)")
+		@OptionGroup(name = "execution",
+				seeAlso = "useDecoupledProcessing(length), useBatchProcessing(batchSize)")
 		public HandlerBuilder useZeroCopyProcessing() {
 			this.threadType = ZERO_COPY;
 			this.length = 0;
+			this.batchSize = 0;
 			return this;
 		}
 
 		@Optional(defaultValue = "useZeroCopyProcessing()", restrictions = "messageLength > 0")
-		@OptionGroup(name = "execution", seeAlso = "useZeroCopyProcessing()")
+		@OptionGroup(name = "execution",
+				seeAlso = "useZeroCopyProcessing(), useBatchProcessing(batchSize)")
 		public HandlerBuilder useDecoupledProcessing(@Nonnegative final int messageLength) {
 			this.threadType = DECOUPLED;
 			this.length = messageLength;
+			this.batchSize = 0;
+			return this;
+		}
+
+		/**
+		 * Messages are processed in place, in batches of all messages
+		 * available up to <code>batchSize</code>, and each batch is released
+		 * at once. Consumers that implement {@link BatchMessageConsumer} are
+		 * told where each batch ends.
+		 */
+		@Optional(defaultValue = "useZeroCopyProcessing()", restrictions = "batchSize > 0")
+		@OptionGroup(name = "execution",
+				seeAlso = "useZeroCopyProcessing(), useDecoupledProcessing(length)")
+		public HandlerBuilder useBatchProcessing(@Nonnegative final int batchSize) {
+			if (batchSize < 1) {
+				throw new IllegalArgumentException("batchSize < 1");
+			}
+			this.threadType = BATCH;
+			this.length = 0;
+			this.batchSize = batchSize;
 			return this;
 		}
 
@@ -203,8 +260,12 @@ public final class MessageHandlers {
 
 		public MessageHandler<ByteBuffer> build() {
 			ExecutorService exec = executor;
+			CpuAffinity affinity = this.affinity;
 			if (exec == null) {
 				exec = Executors.newCachedThreadPool(new DaemonThreadFactory(name));
+			} else {
+				// do not pin the threads of a given executor
+				affinity = CpuAffinity.none();
 			}
 			final ConsumerThreadFactory<ByteBuffer> threads;
 			switch (threadType) {
@@ -223,6 +284,10 @@ public final class MessageHandlers {
 				threads = ConsumerThread.createSyncFactory();
 				break;
 			}
+			case BATCH: {
+				threads = ConsumerThread.createBatchFactory(batchSize);
+				break;
+			}
 			default: {
 				throw new Bug("Unsupported ThreadType: " + threadType);
 			}
@@ -230,11 +295,11 @@ public final class MessageHandlers {
 			final MessageHandler<ByteBuffer> handler;
 			switch (handlerType) {
 			case MULTI_THREADED: {
-				handler = new MessageHandlerImpl<>(exec, threads, consumerFactory, delegate);
+				handler = new MessageHandlerImpl<>(exec, affinity, threads, consumerFactory, delegate);
 				break;
 			}
 			case SINGLE_THREADED: {
-				handler = new MessageHandlerImpl<>(exec, threads, consumer, delegate);
+				handler = new MessageHandlerImpl<>(exec, affinity, threads, consumer, delegate);
 				break;
 			}
 			default: {
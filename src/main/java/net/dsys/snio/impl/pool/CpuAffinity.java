@@ -0,0 +1,311 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Set of CPUs on which threads are pinned, handed out in round-robin order.
+ * Given to a {@link SelectorPools.PoolBuilder}, each selector executor takes
+ * the next CPU, and all of its threads are pinned to it. Given to a
+ * {@link net.dsys.snio.impl.handler.MessageHandlers.HandlerBuilder}, each
+ * consumer is pinned to the CPU of the executor that accepted its connection,
+ * so that a connection is read, written, and consumed on the same core.
+ * <p>
+ * Pinning relies on <code>/proc/thread-self</code> and <code>taskset</code>,
+ * i.e., it only works on Linux. Elsewhere threads are left unpinned. Only
+ * direct buffers that a pinned thread allocates for itself are first touched
+ * from its core, and so placed by the kernel on that core's NUMA node; the
+ * regions of a pool-wide slab allocator and of the rings of a provider belong
+ * to whichever thread allocated them.
+ *
+ * @author Ricardo Padilha
+ */
+public final class CpuAffinity {
+
+	private static final CpuAffinity NONE = new CpuAffinity(new int[0]);
+	private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+	private static final String TASKSET = "taskset";
+	private static final int UNPINNED = -1;
+	// CPU each thread was pinned to by this class
+	private static final ThreadLocal<int[]> PINNED = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[] { UNPINNED };
+		}
+	};
+
+	private final int[] cpus;
+	private final AtomicInteger next;
+
+	private CpuAffinity(@Nonnull final int[] cpus) {
+		this.cpus = cpus;
+		this.next = new AtomicInteger();
+	}
+
+	/**
+	 * @return threads are never pinned
+	 */
+	@Nonnull
+	public static CpuAffinity none() {
+		return NONE;
+	}
+
+	/**
+	 * @return threads are pinned to <code>cpus</code>, one CPU per thread
+	 */
+	@Nonnull
+	public static CpuAffinity of(@Nonnull final int... cpus) {
+		if (cpus == null) {
+			throw new NullPointerException("cpus == null");
+		}
+		if (cpus.length == 0) {
+			return NONE;
+		}
+		for (final int cpu : cpus) {
+			if (cpu < 0) {
+				throw new IllegalArgumentException("cpu < 0: " + cpu);
+			}
+		}
+		return new CpuAffinity(cpus.clone());
+	}
+
+	/**
+	 * @param list
+	 *            CPU list in <code>taskset</code> format, e.g.,
+	 *            <code>"0-3,8,10-11"</code>
+	 */
+	@Nonnull
+	public static CpuAffinity parse(@Nonnull final String list) {
+		if (list == null) {
+			throw new NullPointerException("list == null");
+		}
+		final String[] ranges = list.trim().split(",");
+		int[] cpus = new int[ranges.length];
+		int k = 0;
+		for (final String range : ranges) {
+			final int dash = range.indexOf('-');
+			try {
+				final int first;
+				final int last;
+				if (dash < 0) {
+					first = Integer.parseInt(range.trim());
+					last = first;
+				} else {
+					first = Integer.parseInt(range.substring(0, dash).trim());
+					last = Integer.parseInt(range.substring(dash + 1).trim());
+				}
+				if (first > last) {
+					throw new IllegalArgumentException("invalid range: " + range);
+				}
+				for (int cpu = first; cpu <= last; cpu++) {
+					if (k == cpus.length) {
+						cpus = Arrays.copyOf(cpus, cpus.length * 2);
+					}
+					cpus[k++] = cpu;
+				}
+			} catch (final NumberFormatException e) {
+				throw new IllegalArgumentException("invalid range: " + range, e);
+			}
+		}
+		return of(Arrays.copyOf(cpus, k));
+	}
+
+	/**
+	 * @return <code>true</code> if threads will be pinned
+	 */
+	public boolean isEnabled() {
+		return cpus.length > 0;
+	}
+
+	@Nonnegative
+	public int size() {
+		return cpus.length;
+	}
+
+	/**
+	 * @return the CPU at <code>index</code> modulo {@link #size()}
+	 */
+	@Nonnegative
+	public int getCpu(@Nonnegative final int index) {
+		if (cpus.length == 0) {
+			throw new IllegalStateException("no cpus");
+		}
+		return cpus[(index & Integer.MAX_VALUE) % cpus.length];
+	}
+
+	/**
+	 * @return the next CPU of this set, in round-robin order
+	 */
+	@Nonnegative
+	public int nextCpu() {
+		return getCpu(next.getAndIncrement());
+	}
+
+	/**
+	 * @return a factory that creates threads through <code>factory</code>
+	 *         and pins all of them to the next CPU of this set, or
+	 *         <code>factory</code> itself if this set is empty
+	 */
+	@Nonnull
+	public ThreadFactory apply(@Nonnull final ThreadFactory factory) {
+		if (factory == null) {
+			throw new NullPointerException("factory == null");
+		}
+		if (!isEnabled()) {
+			return factory;
+		}
+		final int cpu = nextCpu();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				return factory.newThread(new Runnable() {
+					@Override
+					public void run() {
+						pinCurrentThread(cpu);
+						r.run();
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * Pairs <code>task</code> with the calling thread: the thread that runs
+	 * it is first pinned to the CPU of the calling thread, or to the next CPU
+	 * of this set if the calling thread is not pinned.
+	 *
+	 * @return <code>task</code> itself if this set is empty
+	 */
+	@Nonnull
+	public Runnable pairWithCaller(@Nonnull final Runnable task) {
+		if (task == null) {
+			throw new NullPointerException("task == null");
+		}
+		if (!isEnabled()) {
+			return task;
+		}
+		final int current = PINNED.get()[0];
+		final int cpu;
+		if (current == UNPINNED) {
+			cpu = nextCpu();
+		} else {
+			cpu = current;
+		}
+		return new Runnable() {
+			@Override
+			public void run() {
+				pinCurrentThread(cpu);
+				task.run();
+			}
+		};
+	}
+
+	/**
+	 * Pin the calling thread to <code>cpu</code>. A thread that is already
+	 * pinned to <code>cpu</code> is left as is.
+	 *
+	 * @return <code>false</code> if the thread could not be pinned
+	 */
+	public static boolean pinCurrentThread(@Nonnegative final int cpu) {
+		if (cpu < 0) {
+			throw new IllegalArgumentException("cpu < 0");
+		}
+		final int[] pinned = PINNED.get();
+		if (pinned[0] == cpu) {
+			return true;
+		}
+		if (!Platform.SUPPORTED) {
+			return false;
+		}
+		try {
+			// "<pid>/task/<tid>"
+			final String tid = Files.readSymbolicLink(THREAD_SELF).getFileName().toString();
+			final Process process = new ProcessBuilder(TASKSET, "-p", "-c", String.valueOf(cpu), tid)
+					.redirectErrorStream(true).start();
+			try (final InputStream in = process.getInputStream()) {
+				final byte[] discard = new byte[256];
+				while (in.read(discard) >= 0) {
+					continue;
+				}
+			}
+			if (process.waitFor() == 0) {
+				pinned[0] = cpu;
+				return true;
+			}
+		} catch (final IOException e) {
+			// this thread only, e.g., the fork failed
+			return false;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * Whether pinning is supported is only checked once, and only when
+	 * pinning is first needed.
+	 */
+	private static final class Platform {
+
+		static final boolean SUPPORTED = isSupported();
+
+		private Platform() {
+			// no instantiation
+			return;
+		}
+
+		/**
+		 * @return <code>true</code> on Linux with <code>taskset</code> in the
+		 *         path
+		 */
+		private static boolean isSupported() {
+			if (!Files.isSymbolicLink(THREAD_SELF)) {
+				return false;
+			}
+			final String path = System.getenv("PATH");
+			if (path == null) {
+				return false;
+			}
+			for (final String dir : path.split(File.pathSeparator)) {
+				if (!dir.isEmpty() && Files.isExecutable(Paths.get(dir, TASKSET))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "CpuAffinity" + Arrays.toString(cpus);
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import net.dsys.snio.api.pool.SelectorExecutor;
+
+/**
+ * Defines how a {@link SelectorExecutor} distributes selection work among its
+ * threads.
+ * 
+ * @author Ricardo Padilha
+ */
+public enum ExecutorType {
+
+	/**
+	 * One selector thread each for accepting, reading, and writing.
+	 */
+	SPLIT,
+	/**
+	 * One selector thread for accepting, and a single selector thread that
+	 * both reads and writes. Avoids the cross-thread hand-off and selector
+	 * wakeup for each outgoing message.
+	 * <p>
+	 * The thread never waits for room in an input buffer, since it would stop
+	 * writing meanwhile. A channel whose input buffer is full is not read
+	 * until its consumer releases messages, while the other channels are
+	 * still served.
+	 */
+	UNIFIED;
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import net.dsys.snio.api.pool.SelectorExecutor;
+import net.dsys.snio.api.pool.SelectorPolicy;
+import net.dsys.snio.api.pool.SelectorPool;
+
+/**
+ * Allocates the {@link SelectorExecutor} with the lowest {@link LoadMetric}.
+ * Ties are broken in round-robin order.
+ * 
+ * @author Ricardo Padilha
+ */
+public final class LeastLoadedPolicy implements SelectorPolicy {
+
+	private final LoadMetric metric;
+	private final AtomicInteger index;
+
+	/**
+	 * Least-connections policy.
+	 */
+	public LeastLoadedPolicy() {
+		this(LoadMetric.CONNECTIONS);
+	}
+
+	public LeastLoadedPolicy(@Nonnull final LoadMetric metric) {
+		if (metric == null) {
+			throw new NullPointerException("metric == null");
+		}
+		this.metric = metric;
+		this.index = new AtomicInteger();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SelectorExecutor allocate(final SelectorPool pool) {
+		final int size = pool.size();
+		final int start = (index.getAndIncrement() & Integer.MAX_VALUE) % size;
+		SelectorExecutor best = pool.get(start);
+		double min = metric.get(best.getLoad());
+		for (int i = 1; i < size; i++) {
+			final SelectorExecutor executor = pool.get((start + i) % size);
+			final double load = metric.get(executor.getLoad());
+			if (load < min) {
+				best = executor;
+				min = load;
+			}
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import javax.annotation.Nonnull;
+
+import net.dsys.snio.api.pool.SelectorLoad;
+
+/**
+ * Measures used by load-aware policies to compare
+ * {@link net.dsys.snio.api.pool.SelectorExecutor}s. Lower is less loaded.
+ * 
+ * @author Ricardo Padilha
+ */
+public enum LoadMetric {
+
+	/**
+	 * Number of live connections.
+	 */
+	CONNECTIONS {
+		@Override
+		public double get(final SelectorLoad load) {
+			return load.getConnections();
+		}
+	},
+	/**
+	 * Bytes read and written per second.
+	 */
+	BYTES {
+		@Override
+		public double get(final SelectorLoad load) {
+			return load.getBytesPerSecond();
+		}
+	},
+	/**
+	 * Fraction of time the selector threads are busy.
+	 */
+	BUSY_TIME {
+		@Override
+		public double get(final SelectorLoad load) {
+			return load.getBusyRatio();
+		}
+	};
+
+	public abstract double get(@Nonnull SelectorLoad load);
+
+}
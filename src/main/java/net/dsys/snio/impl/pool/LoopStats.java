@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * Counters maintained by a single selector thread and read by any thread,
+ * except for the number of pending registrations, which any thread may update.
+ * 
+ * @author Ricardo Padilha
+ */
+final class LoopStats {
+
+	private final AtomicInteger keys;
+	private final AtomicInteger pendingKeys;
+	private final AtomicLong bytes;
+	private final AtomicLong busyNanos;
+	private final AtomicLong ops;
+	private final AtomicLong selects;
+
+	LoopStats() {
+		this.keys = new AtomicInteger();
+		this.pendingKeys = new AtomicInteger();
+		this.bytes = new AtomicLong();
+		this.busyNanos = new AtomicLong();
+		this.ops = new AtomicLong();
+		this.selects = new AtomicLong();
+	}
+
+	/**
+	 * Only called from within the selector thread, once per select.
+	 * 
+	 * @param ops
+	 *            number of queued operations executed after this select
+	 */
+	void update(@Nonnegative final int keys, @Nonnegative final long bytes, @Nonnegative final int ops,
+			@Nonnegative final long busyNanos) {
+		// single writer: no need for atomic read-modify-write
+		this.keys.lazySet(keys);
+		if (bytes > 0) {
+			this.bytes.lazySet(this.bytes.get() + bytes);
+		}
+		this.busyNanos.lazySet(this.busyNanos.get() + busyNanos);
+		if (ops > 0) {
+			this.ops.lazySet(this.ops.get() + ops);
+		}
+		this.selects.lazySet(this.selects.get() + 1);
+	}
+
+	/**
+	 * Called before queuing a registration for the selector thread.
+	 */
+	void registering() {
+		pendingKeys.incrementAndGet();
+	}
+
+	/**
+	 * Called once a queued registration was processed.
+	 */
+	void registered() {
+		pendingKeys.decrementAndGet();
+	}
+
+	/**
+	 * @return number of keys registered with the selector, or about to be
+	 */
+	@Nonnegative
+	int getKeys() {
+		return keys.get() + pendingKeys.get();
+	}
+
+	/**
+	 * @return total number of bytes read or written
+	 */
+	@Nonnegative
+	long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * @return total number of queued operations executed
+	 */
+	@Nonnegative
+	long getOps() {
+		return ops.get();
+	}
+
+	/**
+	 * @return total number of select calls
+	 */
+	@Nonnegative
+	long getSelects() {
+		return selects.get();
+	}
+
+	/**
+	 * @return total time spent outside of select
+	 */
+	@Nonnegative
+	long getBusyNanos() {
+		return busyNanos.get();
+	}
+}
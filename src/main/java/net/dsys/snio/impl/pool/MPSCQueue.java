@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
+
+/**
+ * Bounded, array-backed, multi-producer single-consumer queue. Each slot
+ * carries a sequence number that tells producers and the consumer whose turn
+ * it is, so that neither side allocates nor locks.
+ * <p>
+ * {@link #offer(Object)} may be called from any thread, {@link #poll()} only
+ * from a single consumer thread.
+ *
+ * @author Ricardo Padilha
+ */
+final class MPSCQueue<E> {
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLong tail;
+	private long head;
+
+	/**
+	 * @param capacity
+	 *            rounded up to the next power of two
+	 */
+	MPSCQueue(@Nonnegative final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity < 1");
+		}
+		if (capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("capacity > MAX_CAPACITY");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		this.elements = new AtomicReferenceArray<>(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.tail = new AtomicLong();
+		this.head = 0;
+	}
+
+	@Nonnegative
+	int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @return <code>false</code> if the queue is full
+	 */
+	boolean offer(@Nonnull final E e) {
+		if (e == null) {
+			throw new NullPointerException("e == null");
+		}
+		long pos = tail.get();
+		while (true) {
+			final int index = (int) pos & mask;
+			final long delta = sequences.get(index) - pos;
+			if (delta == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					elements.lazySet(index, e);
+					// publish the slot to the consumer
+					sequences.set(index, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			} else if (delta < 0) {
+				// the consumer has not yet freed this slot
+				return false;
+			} else {
+				// another producer took this slot
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Only called from the consumer thread.
+	 *
+	 * @return <code>null</code> if the queue is empty
+	 */
+	@Nonnull(when = When.MAYBE)
+	E poll() {
+		final long pos = head;
+		final int index = (int) pos & mask;
+		if (sequences.get(index) != pos + 1) {
+			return null;
+		}
+		final E e = elements.get(index);
+		elements.lazySet(index, null);
+		// hand the slot back to producers for the next lap
+		sequences.set(index, pos + mask + 1);
+		head = pos + 1;
+		return e;
+	}
+
+	/**
+	 * Only called from the consumer thread.
+	 */
+	boolean isEmpty() {
+		final long pos = head;
+		return sequences.get((int) pos & mask) != pos + 1;
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.meta.When;
+
+import net.dsys.commons.impl.future.SettableCallbackFuture;
+
+/**
+ * Bounded multi-producer single-consumer ring of operation records for a
+ * selector thread. Records are preallocated and reused, so queuing an
+ * operation neither allocates nor locks. Slots are handed over through
+ * per-slot sequence numbers, like in {@link MPSCQueue}.
+ * <p>
+ * {@link #offer} may be called from any thread, {@link #drain()} only from
+ * the selector thread.
+ *
+ * @author Ricardo Padilha
+ */
+final class OpQueue {
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/**
+	 * @author Ricardo Padilha
+	 */
+	enum OpCode {
+		BIND, CONNECT, REGISTER, CANCEL, LIST, CLOSE
+	}
+
+	/**
+	 * Executes operations from within the selector thread.
+	 *
+	 * @author Ricardo Padilha
+	 */
+	interface Runner {
+		void run(@Nonnull OpCode code, SelectableChannel channel, Object target, SelectionKey key,
+				SettableCallbackFuture<?> future, Callable<Void> task) throws IOException;
+	}
+
+	/**
+	 * Reusable operation record. Only accessed by the thread that owns its
+	 * slot.
+	 *
+	 * @author Ricardo Padilha
+	 */
+	private static final class Op {
+		OpCode code;
+		SelectableChannel channel;
+		Object target;
+		SelectionKey key;
+		SettableCallbackFuture<?> future;
+		Callable<Void> task;
+
+		Op() {
+			return;
+		}
+	}
+
+	private final Runner runner;
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final Op[] slots;
+	private final AtomicLong tail;
+	private long head;
+	private volatile Thread consumer;
+
+	/**
+	 * @param capacity
+	 *            rounded up to the next power of two
+	 */
+	OpQueue(@Nonnegative final int capacity, @Nonnull final Runner runner) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity < 1");
+		}
+		if (capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("capacity > MAX_CAPACITY");
+		}
+		if (runner == null) {
+			throw new NullPointerException("runner == null");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.runner = runner;
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		this.slots = new Op[size];
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+			slots[i] = new Op();
+		}
+		this.tail = new AtomicLong();
+		this.head = 0;
+	}
+
+	@Nonnegative
+	int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Called by the selector thread before it starts draining this queue.
+	 */
+	void bindConsumer() {
+		consumer = Thread.currentThread();
+	}
+
+	/**
+	 * @return <code>true</code> if the calling thread drains this queue
+	 */
+	boolean isConsumer() {
+		return consumer == Thread.currentThread();
+	}
+
+	/**
+	 * @return <code>false</code> if the queue is full
+	 */
+	boolean offer(@Nonnull final OpCode code, @Nonnull(when = When.MAYBE) final SelectableChannel channel,
+			@Nonnull(when = When.MAYBE) final Object target, @Nonnull(when = When.MAYBE) final SelectionKey key,
+			@Nonnull(when = When.MAYBE) final SettableCallbackFuture<?> future,
+			@Nonnull(when = When.MAYBE) final Callable<Void> task) {
+		if (code == null) {
+			throw new NullPointerException("code == null");
+		}
+		long pos = tail.get();
+		while (true) {
+			final int index = (int) pos & mask;
+			final long delta = sequences.get(index) - pos;
+			if (delta == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					final Op op = slots[index];
+					op.code = code;
+					op.channel = channel;
+					op.target = target;
+					op.key = key;
+					op.future = future;
+					op.task = task;
+					// publish the record to the consumer
+					sequences.set(index, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			} else if (delta < 0) {
+				// the consumer has not yet freed this slot
+				return false;
+			} else {
+				// another producer took this slot
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Only called from the consumer thread. Each record is copied out and its
+	 * slot freed before the operation runs, so operations may queue further
+	 * operations, or drain this queue again.
+	 *
+	 * @return number of operations executed
+	 */
+	@Nonnegative
+	int drain() throws IOException {
+		int n = 0;
+		while (true) {
+			final long pos = head;
+			final int index = (int) pos & mask;
+			if (sequences.get(index) != pos + 1) {
+				return n;
+			}
+			final Op op = slots[index];
+			final OpCode code = op.code;
+			final SelectableChannel channel = op.channel;
+			final Object target = op.target;
+			final SelectionKey key = op.key;
+			final SettableCallbackFuture<?> future = op.future;
+			final Callable<Void> task = op.task;
+			op.code = null;
+			op.channel = null;
+			op.target = null;
+			op.key = null;
+			op.future = null;
+			op.task = null;
+			// hand the slot back to producers for the next lap
+			sequences.set(index, pos + mask + 1);
+			head = pos + 1;
+			n++;
+			runner.run(code, channel, target, key, future, task);
+		}
+	}
+
+	/**
+	 * Only called from the consumer thread.
+	 */
+	boolean isEmpty() {
+		final long pos = head;
+		return sequences.get((int) pos & mask) != pos + 1;
+	}
+}
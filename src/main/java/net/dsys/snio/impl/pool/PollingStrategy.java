@@ -0,0 +1,103 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Defines how a selector thread waits for readiness events. A selector thread
+ * first spins on {@link java.nio.channels.Selector#selectNow()} for
+ * {@link #getSpinNanos()}, then keeps polling while yielding the CPU for
+ * {@link #getYieldNanos()}, and finally blocks on
+ * {@link java.nio.channels.Selector#select()}.
+ * <p>
+ * Spinning trades a CPU core per selector thread for lower latency, since
+ * under steady traffic the thread never parks and never needs a wakeup.
+ *
+ * @author Ricardo Padilha
+ */
+public final class PollingStrategy {
+
+	private static final PollingStrategy BLOCKING = new PollingStrategy(0, 0);
+
+	private final long spinNanos;
+	private final long yieldNanos;
+
+	private PollingStrategy(@Nonnegative final long spinNanos, @Nonnegative final long yieldNanos) {
+		this.spinNanos = spinNanos;
+		this.yieldNanos = yieldNanos;
+	}
+
+	/**
+	 * @return a strategy that always blocks on
+	 *         {@link java.nio.channels.Selector#select()}
+	 */
+	@Nonnull
+	public static PollingStrategy blocking() {
+		return BLOCKING;
+	}
+
+	/**
+	 * @return a strategy that busy-polls for <code>spin</code>, then polls
+	 *         while yielding for <code>yield</code>, and then blocks
+	 */
+	@Nonnull
+	public static PollingStrategy spinning(@Nonnegative final long spin, @Nonnegative final long yield,
+			@Nonnull final TimeUnit unit) {
+		if (spin < 0) {
+			throw new IllegalArgumentException("spin < 0");
+		}
+		if (yield < 0) {
+			throw new IllegalArgumentException("yield < 0");
+		}
+		if (unit == null) {
+			throw new NullPointerException("unit == null");
+		}
+		if (spin == 0 && yield == 0) {
+			return BLOCKING;
+		}
+		return new PollingStrategy(unit.toNanos(spin), unit.toNanos(yield));
+	}
+
+	/**
+	 * @return <code>true</code> if this strategy never polls
+	 */
+	public boolean isBlocking() {
+		return spinNanos == 0 && yieldNanos == 0;
+	}
+
+	@Nonnegative
+	public long getSpinNanos() {
+		return spinNanos;
+	}
+
+	@Nonnegative
+	public long getYieldNanos() {
+		return yieldNanos;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "PollingStrategy[spin=" + spinNanos + "ns, yield=" + yieldNanos + "ns]";
+	}
+}
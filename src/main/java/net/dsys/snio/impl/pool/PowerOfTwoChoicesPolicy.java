@@ -0,0 +1,71 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nonnull;
+
+import net.dsys.snio.api.pool.SelectorExecutor;
+import net.dsys.snio.api.pool.SelectorPolicy;
+import net.dsys.snio.api.pool.SelectorPool;
+
+/**
+ * Samples two {@link SelectorExecutor}s at random and allocates the one with
+ * the lower {@link LoadMetric}. Balances almost as well as
+ * {@link LeastLoadedPolicy} while only looking at two executors, and avoids
+ * herding on a single executor when the load information is stale.
+ * 
+ * @author Ricardo Padilha
+ */
+public final class PowerOfTwoChoicesPolicy implements SelectorPolicy {
+
+	private final LoadMetric metric;
+
+	public PowerOfTwoChoicesPolicy() {
+		this(LoadMetric.CONNECTIONS);
+	}
+
+	public PowerOfTwoChoicesPolicy(@Nonnull final LoadMetric metric) {
+		if (metric == null) {
+			throw new NullPointerException("metric == null");
+		}
+		this.metric = metric;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SelectorExecutor allocate(final SelectorPool pool) {
+		final int size = pool.size();
+		if (size == 1) {
+			return pool.get(0);
+		}
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int i = random.nextInt(size);
+		// pick a different second executor
+		final int j = (i + 1 + random.nextInt(size - 1)) % size;
+		final SelectorExecutor a = pool.get(i);
+		final SelectorExecutor b = pool.get(j);
+		if (metric.get(b.getLoad()) < metric.get(a.getLoad())) {
+			return b;
+		}
+		return a;
+	}
+
+}
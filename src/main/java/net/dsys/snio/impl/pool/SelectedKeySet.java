@@ -0,0 +1,210 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Array-backed replacement for the selected-key set of a JDK
+ * {@link Selector}. Adding a key does not hash nor allocate, and the selector
+ * loops iterate it by index.
+ * <p>
+ * The selector reports each key at most once per selection operation, so
+ * {@link #contains(Object)} only searches the set after {@link #mark()}: the
+ * selector thread calls it before a selection operation that runs while keys
+ * from a previous one are still pending. Otherwise the set is drained after
+ * every selection operation and is never searched.
+ * 
+ * @author Ricardo Padilha
+ */
+final class SelectedKeySet extends AbstractSet<SelectionKey> {
+
+	private static final int INITIAL_CAPACITY = 1 << 10;
+
+	private SelectionKey[] keys;
+	private int size;
+	private boolean marked;
+
+	SelectedKeySet() {
+		this.keys = new SelectionKey[INITIAL_CAPACITY];
+		this.size = 0;
+		this.marked = false;
+	}
+
+	/**
+	 * Replace the selected-key sets of <code>selector</code> with a new
+	 * {@link SelectedKeySet}, through reflection on the JDK implementation.
+	 * 
+	 * @return <code>false</code> if the selector implementation is unknown, or
+	 *         if reflection is denied
+	 */
+	static boolean install(@Nonnull final Selector selector) {
+		if (selector == null) {
+			throw new NullPointerException("selector == null");
+		}
+		try {
+			final Class<?> impl = Class.forName("sun.nio.ch.SelectorImpl", false,
+					ClassLoader.getSystemClassLoader());
+			if (!impl.isInstance(selector)) {
+				return false;
+			}
+			final Field selectedKeys = impl.getDeclaredField("selectedKeys");
+			final Field publicSelectedKeys = impl.getDeclaredField("publicSelectedKeys");
+			selectedKeys.setAccessible(true);
+			publicSelectedKeys.setAccessible(true);
+			final SelectedKeySet set = new SelectedKeySet();
+			selectedKeys.set(selector, set);
+			publicSelectedKeys.set(selector, set);
+			return true;
+		} catch (final ReflectiveOperationException | SecurityException e) {
+			return false;
+		} catch (final RuntimeException e) {
+			// module system denies access to sun.nio.ch
+			return false;
+		}
+	}
+
+	/**
+	 * Only called from the selector thread. Keys beyond {@link #size()} are
+	 * <code>null</code>.
+	 */
+	@Nonnull
+	SelectionKey[] keys() {
+		return keys;
+	}
+
+	/**
+	 * Only called from the selector thread, before a selection operation that
+	 * may report keys already in this set. Until the next {@link #reset()},
+	 * {@link #contains(Object)} searches the set, so that the selector merges
+	 * the ready operations of such keys instead of adding them twice.
+	 */
+	void mark() {
+		marked = size > 0;
+	}
+
+	/**
+	 * Only called from the selector thread, once all keys were processed.
+	 */
+	void reset() {
+		Arrays.fill(keys, 0, size, null);
+		size = 0;
+		marked = false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean add(final SelectionKey key) {
+		if (key == null) {
+			return false;
+		}
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size << 1);
+		}
+		keys[size++] = key;
+		return true;
+	}
+
+	/**
+	 * Called by the selector when a cancelled key is deregistered.
+	 * 
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean remove(final Object o) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == o) {
+				keys[i] = keys[--size];
+				keys[size] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean contains(final Object o) {
+		if (!marked) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == o) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	@Nonnegative
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void clear() {
+		reset();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Iterator<SelectionKey> iterator() {
+		return new Iterator<SelectionKey>() {
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public SelectionKey next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				return keys[index++];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
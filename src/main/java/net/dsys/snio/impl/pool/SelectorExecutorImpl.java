@@ -19,51 +19,122 @@ package net.dsys.snio.impl.pool;
 import java.io.IOException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
+import net.dsys.commons.api.exception.Bug;
+import net.dsys.commons.api.future.CallbackFuture;
 import net.dsys.commons.impl.future.MergingCallbackFuture;
 import net.dsys.commons.impl.future.SettableCallbackFuture;
 import net.dsys.commons.impl.lang.DaemonThreadFactory;
+import net.dsys.snio.api.buffer.BufferAllocator;
 import net.dsys.snio.api.pool.Acceptor;
 import net.dsys.snio.api.pool.Processor;
 import net.dsys.snio.api.pool.SelectionType;
 import net.dsys.snio.api.pool.SelectorExecutor;
+import net.dsys.snio.impl.buffer.BufferAllocators;
 
 /**
  * @author Ricardo Padilha
  */
 final class SelectorExecutorImpl implements SelectorExecutor {
 
-	private static final int THREAD_COUNT = 3;
+	private static final int SPLIT_THREAD_COUNT = 3;
+	private static final int UNIFIED_THREAD_COUNT = 2;
 
+	private final ExecutorType type;
 	private final ExecutorService executor;
 	private final SelectorThreadImpl accepter;
 	private final SelectorThreadImpl reader;
 	private final SelectorThreadImpl writer;
+	private final SelectorLoadImpl load;
 	private volatile boolean accepting;
 	private MergingCallbackFuture<Void> closeFuture;
 
 	SelectorExecutorImpl(@Nonnull final String name) {
-		this.executor = Executors.newFixedThreadPool(THREAD_COUNT, new DaemonThreadFactory(name));
+		this(name, ExecutorType.SPLIT, PollingStrategy.blocking());
+	}
+
+	SelectorExecutorImpl(@Nonnull final String name, @Nonnull final ExecutorType type,
+			@Nonnull final PollingStrategy polling) {
+		this(name, type, polling, CpuAffinity.none(), false, SelectorThreadImpl.DEFAULT_READ_BUDGET,
+				BufferAllocators.direct());
+	}
+
+	/**
+	 * @param arrayKeys
+	 *            if <code>true</code>, selector threads try to use a
+	 *            {@link SelectedKeySet}
+	 * @param readBudget
+	 *            maximum number of bytes read from a key per readiness event
+	 * @param allocator
+	 *            allocator for the buffers of registered channels
+	 */
+	SelectorExecutorImpl(@Nonnull final String name, @Nonnull final ExecutorType type,
+			@Nonnull final PollingStrategy polling, @Nonnull final CpuAffinity affinity,
+			final boolean arrayKeys, @Nonnegative final int readBudget,
+			@Nonnull final BufferAllocator allocator) {
+		if (type == null) {
+			throw new NullPointerException("type == null");
+		}
+		if (polling == null) {
+			throw new NullPointerException("polling == null");
+		}
+		if (affinity == null) {
+			throw new NullPointerException("affinity == null");
+		}
+		if (allocator == null) {
+			throw new NullPointerException("allocator == null");
+		}
+		final ThreadFactory threads = affinity.apply(new DaemonThreadFactory(name));
+		this.type = type;
 		this.accepter = new SelectorThreadImpl(SelectionType.OP_ACCEPT);
-		this.reader = new SelectorThreadImpl(SelectionType.OP_READ);
-		this.writer = new SelectorThreadImpl(SelectionType.OP_WRITE);
+		switch (type) {
+			case SPLIT: {
+				this.executor = Executors.newFixedThreadPool(SPLIT_THREAD_COUNT, threads);
+				this.reader = new SelectorThreadImpl(SelectionType.OP_READ, false, polling, arrayKeys, readBudget, allocator);
+				this.writer = new SelectorThreadImpl(SelectionType.OP_WRITE, false, polling, arrayKeys, readBudget, allocator);
+				break;
+			}
+			case UNIFIED: {
+				this.executor = Executors.newFixedThreadPool(UNIFIED_THREAD_COUNT, threads);
+				this.reader = new SelectorThreadImpl(SelectionType.OP_READ, true, polling, arrayKeys, readBudget, allocator);
+				this.writer = reader;
+				break;
+			}
+			default: {
+				throw new Bug("Unsupported ExecutorType: " + type);
+			}
+		}
+		this.load = new SelectorLoadImpl(reader.getStats(), writer.getStats());
 		this.accepting = false;
 	}
 
+	/**
+	 * @return <code>true</code> if reads and writes share a single selector thread.
+	 */
+	private boolean isUnified() {
+		return type == ExecutorType.UNIFIED;
+	}
+
 	/**
 	 * Open this executor.
 	 */
 	void open() throws IOException {
 		accepter.open();
 		reader.open();
-		writer.open();
 		executor.execute(reader.getRunnable());
-		executor.execute(writer.getRunnable());
+		if (!isUnified()) {
+			writer.open();
+			executor.execute(writer.getRunnable());
+		}
 	}
 
 	/**
@@ -103,7 +174,9 @@ final class SelectorExecutorImpl implements SelectorExecutor {
 	@Override
 	public void register(final SelectableChannel channel, final Processor processor) {
 		reader.register(channel, processor);
-		writer.register(channel, processor);
+		if (!isUnified()) {
+			writer.register(channel, processor);
+		}
 	}
 
 	/**
@@ -142,11 +215,98 @@ final class SelectorExecutorImpl implements SelectorExecutor {
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void cancelConnect(final SelectionKey readKey, final SettableCallbackFuture<Void> readFuture,
+			final SelectionKey writeKey, final SettableCallbackFuture<Void> writeFuture,
+			final Callable<Void> task) {
+		if (task == null) {
+			throw new NullPointerException("task == null");
+		}
+		final AtomicInteger pending = new AtomicInteger(2);
+		final Callable<Void> last = new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				if (pending.decrementAndGet() == 0) {
+					task.call();
+				}
+				return null;
+			}
+		};
+		try {
+			if (readKey != null) {
+				reader.cancel(readKey, readFuture, last);
+			} else {
+				last.call();
+				readFuture.success(null);
+			}
+			if (writeKey != null) {
+				writer.cancel(writeKey, writeFuture, last);
+			} else {
+				last.call();
+				writeFuture.success(null);
+			}
+		} catch (final Exception e) {
+			writeFuture.fail(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void deregister(final SelectionKey readKey, final SelectionKey writeKey,
+			final SettableCallbackFuture<Void> future, final Callable<Void> task) {
+		if (readKey == writeKey) {
+			// unified loop: a single key for both directions
+			reader.cancel(readKey, future, task);
+			return;
+		}
+		final Callable<Void> cancelWrite = new Callable<Void>() {
+			@Override
+			public Void call() {
+				writer.cancel(writeKey, future, task);
+				return null;
+			}
+		};
+		reader.cancel(readKey, new SettableCallbackFuture<Void>(), cancelWrite);
+	}
+
+	/**
+	 * @return a future with the processors currently registered with this
+	 *         executor
+	 */
+	@Nonnull
+	CallbackFuture<List<Processor>> listProcessors() {
+		final SettableCallbackFuture<List<Processor>> future = new SettableCallbackFuture<>();
+		reader.listProcessors(future);
+		return future;
+	}
+
+	/**
+	 * @return <code>true</code> if an acceptor was ever bound to this executor.
+	 */
+	boolean isAccepting() {
+		return accepting;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SelectorLoadImpl getLoad() {
+		return load;
+	}
+
 	/**
 	 * Close this executor.
 	 */
 	void close() {
-		writer.close();
+		if (!isUnified()) {
+			writer.close();
+		}
 		reader.close();
 		accepter.close();
 		executor.shutdown();
@@ -155,7 +315,9 @@ final class SelectorExecutorImpl implements SelectorExecutor {
 	MergingCallbackFuture<Void> getCloseFuture() {
 		if (closeFuture == null) {
 			final MergingCallbackFuture.Builder<Void> builder = MergingCallbackFuture.builder();
-			builder.add(writer.getCloseFuture());
+			if (!isUnified()) {
+				builder.add(writer.getCloseFuture());
+			}
 			builder.add(reader.getCloseFuture());
 			/**
 			 * XXX: there is a racing condition between this method and bind().
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.impl.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import net.dsys.snio.api.pool.SelectorLoad;
+
+/**
+ * Aggregates the {@link LoopStats} of the reading and writing threads of a
+ * {@link SelectorExecutorImpl}. Connections are counted by the reading thread,
+ * which holds exactly one key per connection.
+ * 
+ * @author Ricardo Padilha
+ */
+final class SelectorLoadImpl implements SelectorLoad {
+
+	private static final long SAMPLE_PERIOD = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final double SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final LoopStats reader;
+	private final LoopStats writer;
+	private final int threads;
+
+	// sampling state, guarded by this
+	private long lastSample;
+	private long lastBytes;
+	private long lastBusyNanos;
+	private long lastOps;
+	private long lastSelects;
+	private double bytesPerSecond;
+	private double busyRatio;
+	private double opsPerSelect;
+
+	/**
+	 * @param writer
+	 *            same as <code>reader</code> if a single thread both reads and
+	 *            writes
+	 */
+	SelectorLoadImpl(@Nonnull final LoopStats reader, @Nonnull final LoopStats writer) {
+		if (reader == null) {
+			throw new NullPointerException("reader == null");
+		}
+		if (writer == null) {
+			throw new NullPointerException("writer == null");
+		}
+		this.reader = reader;
+		this.writer = writer;
+		if (reader == writer) {
+			this.threads = 1;
+		} else {
+			this.threads = 2;
+		}
+		this.lastSample = System.nanoTime();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getConnections() {
+		return reader.getKeys();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized double getBytesPerSecond() {
+		sample();
+		return bytesPerSecond;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized double getBusyRatio() {
+		sample();
+		return busyRatio;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized double getOpsPerSelect() {
+		sample();
+		return opsPerSelect;
+	}
+
+	private long getBytes() {
+		if (threads == 1) {
+			return reader.getBytes();
+		}
+		return reader.getBytes() + writer.getBytes();
+	}
+
+	private long getBusyNanos() {
+		if (threads == 1) {
+			return reader.getBusyNanos();
+		}
+		return reader.getBusyNanos() + writer.getBusyNanos();
+	}
+
+	private long getOps() {
+		if (threads == 1) {
+			return reader.getOps();
+		}
+		return reader.getOps() + writer.getOps();
+	}
+
+	private long getSelects() {
+		if (threads == 1) {
+			return reader.getSelects();
+		}
+		return reader.getSelects() + writer.getSelects();
+	}
+
+	/**
+	 * Recompute the rates if the last sample is older than
+	 * {@link #SAMPLE_PERIOD}.
+	 */
+	private void sample() {
+		final long now = System.nanoTime();
+		final long elapsed = now - lastSample;
+		if (elapsed < SAMPLE_PERIOD) {
+			return;
+		}
+		final long bytes = getBytes();
+		final long busyNanos = getBusyNanos();
+		final long ops = getOps();
+		final long selects = getSelects();
+		bytesPerSecond = (bytes - lastBytes) * SECOND / elapsed;
+		busyRatio = Math.min(1, (busyNanos - lastBusyNanos) / ((double) elapsed * threads));
+		if (selects > lastSelects) {
+			opsPerSelect = (ops - lastOps) / (double) (selects - lastSelects);
+		} else {
+			opsPerSelect = 0;
+		}
+		lastSample = now;
+		lastBytes = bytes;
+		lastBusyNanos = busyNanos;
+		lastOps = ops;
+		lastSelects = selects;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format("SelectorLoad{connections=%d, bytesPerSecond=%.0f, busyRatio=%.3f, opsPerSelect=%.2f}",
+				Integer.valueOf(getConnections()), Double.valueOf(getBytesPerSecond()),
+				Double.valueOf(getBusyRatio()), Double.valueOf(getOpsPerSelect()));
+	}
+}
@@ -17,38 +17,110 @@
 package net.dsys.snio.impl.pool;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
 import net.dsys.commons.api.future.CallbackFuture;
 import net.dsys.commons.impl.future.MergingCallbackFuture;
+import net.dsys.commons.impl.future.SettableCallbackFuture;
+import net.dsys.commons.impl.lang.DaemonThreadFactory;
+import net.dsys.snio.api.buffer.BufferAllocator;
+import net.dsys.snio.api.pool.Migratable;
+import net.dsys.snio.api.pool.Processor;
 import net.dsys.snio.api.pool.SelectorExecutor;
+import net.dsys.snio.api.pool.SelectorLoad;
 import net.dsys.snio.api.pool.SelectorPolicy;
 import net.dsys.snio.api.pool.SelectorPool;
+import net.dsys.snio.impl.buffer.BufferAllocators;
 
 /**
+ * The executors are kept in a copy-on-write array, so that {@link #get(int)}
+ * and {@link #next()} never lock. Resizing and rebalancing run on a single
+ * maintenance thread.
+ * 
  * @author Ricardo Padilha
  */
 final class SelectorPoolImpl implements SelectorPool {
 
+	private final String name;
 	private final SelectorPolicy policy;
-	private final SelectorExecutorImpl[] selectors;
+	private final ExecutorType type;
+	private final PollingStrategy polling;
+	private final CpuAffinity affinity;
+	private final boolean arrayKeys;
+	private final int readBudget;
+	private final BufferAllocator allocator;
+	private volatile SelectorExecutorImpl[] selectors;
+	// guarded by this
+	private final List<SelectorExecutorImpl> retired;
+	private int counter;
+	private ScheduledExecutorService maintenance;
 	private CallbackFuture<Void> closeFuture;
 
 	SelectorPoolImpl(@Nonnull final String name, @Nonnegative final int size,
 			@Nonnull final SelectorPolicy policy) {
+		this(name, size, policy, ExecutorType.SPLIT, PollingStrategy.blocking());
+	}
+
+	SelectorPoolImpl(@Nonnull final String name, @Nonnegative final int size,
+			@Nonnull final SelectorPolicy policy, @Nonnull final ExecutorType type,
+			@Nonnull final PollingStrategy polling) {
+		this(name, size, policy, type, polling, CpuAffinity.none(), false, SelectorThreadImpl.DEFAULT_READ_BUDGET,
+				BufferAllocators.direct());
+	}
+
+	SelectorPoolImpl(@Nonnull final String name, @Nonnegative final int size,
+			@Nonnull final SelectorPolicy policy, @Nonnull final ExecutorType type,
+			@Nonnull final PollingStrategy polling, @Nonnull final CpuAffinity affinity,
+			final boolean arrayKeys, @Nonnegative final int readBudget,
+			@Nonnull final BufferAllocator allocator) {
 		if (size < 1) {
 			throw new IllegalArgumentException("size < 1: " + size);
 		}
 		if (policy == null) {
 			throw new NullPointerException("policy == null");
 		}
+		if (type == null) {
+			throw new NullPointerException("type == null");
+		}
+		if (polling == null) {
+			throw new NullPointerException("polling == null");
+		}
+		if (affinity == null) {
+			throw new NullPointerException("affinity == null");
+		}
+		if (readBudget < 0) {
+			throw new IllegalArgumentException("readBudget < 0: " + readBudget);
+		}
+		if (allocator == null) {
+			throw new NullPointerException("allocator == null");
+		}
+		this.name = name;
 		this.policy = policy;
-		this.selectors = new SelectorExecutorImpl[size];
+		this.type = type;
+		this.polling = polling;
+		this.affinity = affinity;
+		this.arrayKeys = arrayKeys;
+		this.readBudget = readBudget;
+		this.allocator = allocator;
+		this.retired = new ArrayList<>();
+		final SelectorExecutorImpl[] selectors = new SelectorExecutorImpl[size];
 		for (int i = 0; i < size; i++) {
-			selectors[i] = new SelectorExecutorImpl(name + "-" + i);
+			selectors[i] = newExecutor();
 		}
+		this.selectors = selectors;
+	}
+
+	private SelectorExecutorImpl newExecutor() {
+		return new SelectorExecutorImpl(name + "-" + counter++, type, polling, affinity, arrayKeys, readBudget, allocator);
 	}
 
 	void open() throws IOException {
@@ -57,6 +129,105 @@ final class SelectorPoolImpl implements SelectorPool {
 		}
 	}
 
+	/**
+	 * Periodically move connections from the busiest executor to the idlest
+	 * one, whenever the busiest is above <code>threshold</code>.
+	 */
+	synchronized void startRebalancing(final double threshold, @Nonnegative final long period,
+			@Nonnull final TimeUnit unit) {
+		if (threshold <= 0 || threshold > 1) {
+			throw new IllegalArgumentException("threshold not in (0, 1]: " + threshold);
+		}
+		if (period < 1) {
+			throw new IllegalArgumentException("period < 1");
+		}
+		if (unit == null) {
+			throw new NullPointerException("unit == null");
+		}
+		final Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					rebalance(threshold);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (final ExecutionException e) {
+					// wtf? log and try again on the next period
+					e.printStackTrace();
+				}
+			}
+		};
+		getMaintenance().scheduleWithFixedDelay(task, period, period, unit);
+	}
+
+	private synchronized ScheduledExecutorService getMaintenance() {
+		if (maintenance == null) {
+			maintenance = Executors.newSingleThreadScheduledExecutor(
+					new DaemonThreadFactory(name + "-maintenance"));
+		}
+		return maintenance;
+	}
+
+	/**
+	 * Only called from the maintenance thread.
+	 */
+	void rebalance(final double threshold) throws InterruptedException, ExecutionException {
+		final SelectorExecutorImpl[] selectors = this.selectors;
+		if (selectors.length < 2) {
+			return;
+		}
+		SelectorExecutorImpl hot = selectors[0];
+		SelectorExecutorImpl cold = selectors[0];
+		for (final SelectorExecutorImpl selector : selectors) {
+			final double busy = selector.getLoad().getBusyRatio();
+			if (busy > hot.getLoad().getBusyRatio()) {
+				hot = selector;
+			}
+			if (busy < cold.getLoad().getBusyRatio()) {
+				cold = selector;
+			}
+		}
+		final SelectorLoad hotLoad = hot.getLoad();
+		final double hotBusy = hotLoad.getBusyRatio();
+		final double coldBusy = cold.getLoad().getBusyRatio();
+		if (hotBusy < threshold || coldBusy > hotBusy / 2) {
+			return;
+		}
+		// move enough connections to even out both executors
+		final int count = (int) Math.max(1, hotLoad.getConnections() * (hotBusy - coldBusy) / (2 * hotBusy));
+		migrate(hot.listProcessors().get(), cold, count);
+	}
+
+	/**
+	 * Migrate up to <code>count</code> processors to <code>target</code>, or
+	 * to {@link #next()} if <code>target</code> is <code>null</code>.
+	 * 
+	 * @return the migration futures
+	 */
+	private List<CallbackFuture<Void>> migrate(@Nonnull final List<Processor> processors,
+			final SelectorExecutor target, @Nonnegative final int count) {
+		final List<CallbackFuture<Void>> futures = new ArrayList<>();
+		for (final Processor processor : processors) {
+			if (futures.size() >= count) {
+				break;
+			}
+			if (!(processor instanceof Migratable)) {
+				continue;
+			}
+			try {
+				SelectorExecutor executor = target;
+				if (executor == null) {
+					executor = next();
+				}
+				futures.add(((Migratable) processor).migrate(executor));
+			} catch (final IllegalStateException e) {
+				// not yet connected, closing, or already migrating
+				continue;
+			}
+		}
+		return futures;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -78,7 +249,12 @@ final class SelectorPoolImpl implements SelectorPool {
 	 */
 	@Override
 	public SelectorExecutorImpl get(final int index) {
-		return selectors[index];
+		final SelectorExecutorImpl[] selectors = this.selectors;
+		final int i = index % selectors.length;
+		if (i < 0) {
+			return selectors[i + selectors.length];
+		}
+		return selectors[i];
 	}
 
 	/**
@@ -93,22 +269,112 @@ final class SelectorPoolImpl implements SelectorPool {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void close() {
+	public BufferAllocator getAllocator() {
+		return allocator;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized CallbackFuture<Void> resize(final int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size < 1: " + size);
+		}
+		final SettableCallbackFuture<Void> future = new SettableCallbackFuture<>();
+		final SelectorExecutorImpl[] current = this.selectors;
+		if (size > current.length) {
+			final SelectorExecutorImpl[] grown = Arrays.copyOf(current, size);
+			try {
+				for (int i = current.length; i < size; i++) {
+					grown[i] = newExecutor();
+					grown[i].open();
+				}
+			} catch (final IOException e) {
+				for (int i = current.length; i < size && grown[i] != null; i++) {
+					grown[i].close();
+				}
+				future.fail(e);
+				return future;
+			}
+			this.selectors = grown;
+			future.success(null);
+		} else if (size < current.length) {
+			final SelectorExecutorImpl[] removed = Arrays.copyOfRange(current, size, current.length);
+			retired.addAll(Arrays.asList(removed));
+			this.selectors = Arrays.copyOf(current, size);
+			getMaintenance().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						drain(removed);
+						future.success(null);
+					} catch (final Throwable t) {
+						future.fail(t);
+					}
+				}
+			});
+		} else {
+			future.success(null);
+		}
+		return future;
+	}
+
+	/**
+	 * Only called from the maintenance thread. Move all processors away from
+	 * <code>removed</code>, and close the executors left idle.
+	 */
+	void drain(@Nonnull final SelectorExecutorImpl[] removed) throws InterruptedException, ExecutionException {
+		for (final SelectorExecutorImpl selector : removed) {
+			final List<CallbackFuture<Void>> futures =
+					migrate(selector.listProcessors().get(), null, Integer.MAX_VALUE);
+			for (final CallbackFuture<Void> future : futures) {
+				try {
+					future.get();
+				} catch (final ExecutionException e) {
+					// the channel was closed while migrating
+					continue;
+				}
+			}
+			if (!selector.isAccepting() && selector.listProcessors().get().isEmpty()) {
+				synchronized (this) {
+					if (retired.remove(selector)) {
+						selector.close();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void close() {
+		if (maintenance != null) {
+			maintenance.shutdownNow();
+		}
 		for (final SelectorExecutorImpl selector : selectors) {
 			selector.close();
 		}
+		for (final SelectorExecutorImpl selector : retired) {
+			selector.close();
+		}
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public CallbackFuture<Void> getCloseFuture() {
+	public synchronized CallbackFuture<Void> getCloseFuture() {
 		if (closeFuture == null) {
 			final MergingCallbackFuture.Builder<Void> builder = MergingCallbackFuture.builder();
 			for (final SelectorExecutorImpl selector : selectors) {
 				builder.add(selector.getCloseFuture());
 			}
+			for (final SelectorExecutorImpl selector : retired) {
+				builder.add(selector.getCloseFuture());
+			}
 			this.closeFuture = builder.build();
 		}
 		return closeFuture;
@@ -17,12 +17,19 @@
 package net.dsys.snio.impl.pool;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
 
+import net.dsys.commons.impl.builder.Optional;
+import net.dsys.commons.impl.builder.OptionGroup;
+import net.dsys.snio.api.buffer.BufferAllocator;
 import net.dsys.snio.api.pool.SelectorPolicy;
 import net.dsys.snio.api.pool.SelectorPool;
+import net.dsys.snio.impl.buffer.BufferAllocators;
 
 /**
  * @author Ricardo Padilha
@@ -34,10 +41,14 @@ public final class SelectorPools {
 		return;
 	}
 
+	@Nonnegative
+	static int getDefaultSize() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	}
+
 	@Nonnull
 	public static SelectorPool open(@Nonnull final String name) throws IOException {
-		final int size = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
-		return open(name, size, new RoundRobinPolicy());
+		return open(name, getDefaultSize(), new RoundRobinPolicy());
 	}
 
 	@Nonnull
@@ -53,4 +64,272 @@ public final class SelectorPools {
 		return pool;
 	}
 
+	@Nonnull
+	public static SelectorPool open(@Nonnull final String name, @Nonnegative final int size,
+			@Nonnull final SelectorPolicy policy, @Nonnull final PollingStrategy polling) throws IOException {
+		final SelectorPoolImpl pool = new SelectorPoolImpl(name, size, policy, ExecutorType.SPLIT, polling);
+		pool.open();
+		return pool;
+	}
+
+	@Nonnull
+	public static PoolBuilder buildPool() {
+		return new PoolBuilder();
+	}
+
+	/**
+	 * @author Ricardo Padilha
+	 */
+	@ParametersAreNonnullByDefault
+	public static final class PoolBuilder {
+
+		private static AtomicInteger counter = new AtomicInteger();
+
+		private String name;
+		private int size;
+		private SelectorPolicy policy;
+		private ExecutorType type;
+		private PollingStrategy polling;
+		private double rebalanceThreshold;
+		private long rebalancePeriod;
+		private TimeUnit rebalanceUnit;
+		private CpuAffinity affinity;
+		private boolean arrayKeys;
+		private int readBudget;
+		private BufferAllocator allocator;
+
+		PoolBuilder() {
+			this.name = "SelectorPool-" + counter.getAndIncrement();
+			this.size = getDefaultSize();
+			this.policy = null;
+			this.type = ExecutorType.SPLIT;
+			this.polling = PollingStrategy.blocking();
+			this.rebalanceThreshold = 0;
+			this.rebalancePeriod = 0;
+			this.rebalanceUnit = null;
+			this.affinity = CpuAffinity.none();
+			this.arrayKeys = false;
+			this.readBudget = SelectorThreadImpl.DEFAULT_READ_BUDGET;
+			this.allocator = null;
+		}
+
+		@Optional(defaultValue = "SelectorPool-#", restrictions = "name != null")
+		public PoolBuilder setName(final String name) {
+			if (name == null) {
+				throw new NullPointerException("name == null");
+			}
+			this.name = name;
+			return this;
+		}
+
+		@Optional(defaultValue = "max(1, availableProcessors() / 2)", restrictions = "size > 0")
+		public PoolBuilder setSize(@Nonnegative final int size) {
+			if (size < 1) {
+				throw new IllegalArgumentException("size < 1");
+			}
+			this.size = size;
+			return this;
+		}
+
+		@Optional(defaultValue = "new RoundRobinPolicy()", restrictions = "policy != null")
+		public PoolBuilder setPolicy(final SelectorPolicy policy) {
+			if (policy == null) {
+				throw new NullPointerException("policy == null");
+			}
+			this.policy = policy;
+			return this;
+		}
+
+		/**
+		 * Each executor uses separate selector threads for reading and writing.
+		 */
+		@Optional(defaultValue = "useSplitLoops()")
+		@OptionGroup(name = "executorType", seeAlso = "useUnifiedLoop()")
+		public PoolBuilder useSplitLoops() {
+			this.type = ExecutorType.SPLIT;
+			return this;
+		}
+
+		/**
+		 * Each executor uses a single selector thread for both reading and
+		 * writing.
+		 */
+		@Optional(defaultValue = "useSplitLoops()")
+		@OptionGroup(name = "executorType", seeAlso = "useSplitLoops()")
+		public PoolBuilder useUnifiedLoop() {
+			this.type = ExecutorType.UNIFIED;
+			return this;
+		}
+
+		/**
+		 * Selector threads always block while waiting for readiness events.
+		 */
+		@Optional(defaultValue = "useBlockingSelect()")
+		@OptionGroup(name = "polling", seeAlso = "useBusyPolling(spin, yield, unit)")
+		public PoolBuilder useBlockingSelect() {
+			this.polling = PollingStrategy.blocking();
+			return this;
+		}
+
+		/**
+		 * Selector threads spin on <code>selectNow()</code> for
+		 * <code>spin</code>, then poll while yielding for <code>yield</code>,
+		 * before blocking. Each selector thread may keep a core busy.
+		 */
+		@Optional(defaultValue = "useBlockingSelect()", restrictions = "spin >= 0, yield >= 0, unit != null")
+		@OptionGroup(name = "polling", seeAlso = "useBlockingSelect()")
+		public PoolBuilder useBusyPolling(@Nonnegative final long spin, @Nonnegative final long yield,
+				final TimeUnit unit) {
+			this.polling = PollingStrategy.spinning(spin, yield, unit);
+			return this;
+		}
+
+		/**
+		 * Connections are never moved between executors, unless the pool is
+		 * resized.
+		 */
+		@Optional(defaultValue = "useStaticPlacement()")
+		@OptionGroup(name = "rebalancing", seeAlso = "useRebalancing(threshold, period, unit)")
+		public PoolBuilder useStaticPlacement() {
+			this.rebalanceThreshold = 0;
+			this.rebalancePeriod = 0;
+			this.rebalanceUnit = null;
+			return this;
+		}
+
+		/**
+		 * Every <code>period</code>, if the busiest executor spends more than
+		 * <code>threshold</code> of its time processing keys, and the idlest
+		 * executor less than half of that, move connections from the former
+		 * to the latter.
+		 */
+		@Optional(defaultValue = "useStaticPlacement()",
+				restrictions = "0 < threshold <= 1, period > 0, unit != null")
+		@OptionGroup(name = "rebalancing", seeAlso = "useStaticPlacement()")
+		public PoolBuilder useRebalancing(final double threshold, @Nonnegative final long period,
+				final TimeUnit unit) {
+			if (threshold <= 0 || threshold > 1) {
+				throw new IllegalArgumentException("threshold not in (0, 1]");
+			}
+			if (period < 1) {
+				throw new IllegalArgumentException("period < 1");
+			}
+			if (unit == null) {
+				throw new NullPointerException("unit == null");
+			}
+			this.rebalanceThreshold = threshold;
+			this.rebalancePeriod = period;
+			this.rebalanceUnit = unit;
+			return this;
+		}
+
+		/**
+		 * Selector threads use the selected-key sets provided by the JDK.
+		 */
+		@Optional(defaultValue = "useDefaultSelectedKeys()")
+		@OptionGroup(name = "selectedKeys", seeAlso = "useArraySelectedKeys()")
+		public PoolBuilder useDefaultSelectedKeys() {
+			this.arrayKeys = false;
+			return this;
+		}
+
+		/**
+		 * Selector threads replace, through reflection, the selected-key sets
+		 * of their selectors with array-backed sets that are iterated without
+		 * allocation. Falls back to {@link #useDefaultSelectedKeys()} if
+		 * reflection is denied, e.g., when <code>sun.nio.ch</code> is not
+		 * opened to this module.
+		 */
+		@Optional(defaultValue = "useDefaultSelectedKeys()")
+		@OptionGroup(name = "selectedKeys", seeAlso = "useDefaultSelectedKeys()")
+		public PoolBuilder useArraySelectedKeys() {
+			this.arrayKeys = true;
+			return this;
+		}
+
+		/**
+		 * A readable channel is read until it has no more data, or until
+		 * <code>bytes</code> were read from it, before the selector thread
+		 * moves on to the next channel. With <code>0</code>, each channel is
+		 * read once per readiness event.
+		 */
+		@Optional(defaultValue = "256 KiB", restrictions = "bytes >= 0")
+		public PoolBuilder setReadBudget(@Nonnegative final int bytes) {
+			if (bytes < 0) {
+				throw new IllegalArgumentException("bytes < 0");
+			}
+			this.readBudget = bytes;
+			return this;
+		}
+
+		/**
+		 * Each channel allocates its own direct buffers, which are freed by
+		 * the garbage collector.
+		 */
+		@Optional(defaultValue = "useDirectAllocator()")
+		@OptionGroup(name = "allocator", seeAlso = "useSlabAllocator(slabSize), setAllocator(allocator)")
+		public PoolBuilder useDirectAllocator() {
+			this.allocator = null;
+			return this;
+		}
+
+		/**
+		 * Channels of this pool slice their direct buffers out of shared
+		 * regions of <code>slabSize</code> bytes, and give them back when
+		 * they are closed.
+		 */
+		@Optional(defaultValue = "useDirectAllocator()", restrictions = "slabSize is a power of two >= 64")
+		@OptionGroup(name = "allocator", seeAlso = "useDirectAllocator(), setAllocator(allocator)")
+		public PoolBuilder useSlabAllocator(@Nonnegative final int slabSize) {
+			this.allocator = BufferAllocators.slab(slabSize);
+			return this;
+		}
+
+		/**
+		 * Channels of this pool get their direct buffers from
+		 * <code>allocator</code>, which may be shared with other pools.
+		 */
+		@Optional(defaultValue = "useDirectAllocator()", restrictions = "allocator != null")
+		@OptionGroup(name = "allocator", seeAlso = "useDirectAllocator(), useSlabAllocator(slabSize)")
+		public PoolBuilder setAllocator(final BufferAllocator allocator) {
+			if (allocator == null) {
+				throw new NullPointerException("allocator == null");
+			}
+			this.allocator = allocator;
+			return this;
+		}
+
+		/**
+		 * Pin all threads of each selector executor to the next CPU of
+		 * <code>affinity</code>.
+		 */
+		@Optional(defaultValue = "CpuAffinity.none()", restrictions = "affinity != null")
+		public PoolBuilder setAffinity(final CpuAffinity affinity) {
+			if (affinity == null) {
+				throw new NullPointerException("affinity == null");
+			}
+			this.affinity = affinity;
+			return this;
+		}
+
+		@Nonnull
+		public SelectorPool open() throws IOException {
+			SelectorPolicy policy = this.policy;
+			if (policy == null) {
+				policy = new RoundRobinPolicy();
+			}
+			BufferAllocator allocator = this.allocator;
+			if (allocator == null) {
+				allocator = BufferAllocators.direct();
+			}
+			final SelectorPoolImpl pool = new SelectorPoolImpl(name, size, policy, type, polling, affinity, arrayKeys,
+					readBudget, allocator);
+			pool.open();
+			if (rebalanceUnit != null) {
+				pool.startRebalancing(rebalanceThreshold, rebalancePeriod, rebalanceUnit);
+			}
+			return pool;
+		}
+	}
+
 }
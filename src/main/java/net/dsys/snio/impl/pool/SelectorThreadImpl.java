@@ -17,7 +17,6 @@
 package net.dsys.snio.impl.pool;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ClosedSelectorException;
@@ -25,56 +24,136 @@ import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.NavigableSet;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.meta.When;
 
 import net.dsys.commons.api.exception.Bug;
 import net.dsys.commons.api.future.CallbackFuture;
 import net.dsys.commons.impl.future.SettableCallbackFuture;
+import net.dsys.snio.api.buffer.BufferAllocator;
 import net.dsys.snio.api.pool.Acceptor;
 import net.dsys.snio.api.pool.KeyAcceptor;
 import net.dsys.snio.api.pool.KeyProcessor;
 import net.dsys.snio.api.pool.Processor;
 import net.dsys.snio.api.pool.SelectionType;
 import net.dsys.snio.api.pool.SelectorThread;
+import net.dsys.snio.impl.buffer.BufferAllocators;
+import net.dsys.snio.impl.pool.OpQueue.OpCode;
 
 /**
  * @author Ricardo Padilha
  */
 final class SelectorThreadImpl implements SelectorThread {
 
+	/**
+	 * Each key is queued at most once until it is drained, so this only needs
+	 * to hold as many keys as there are connections with pending writes.
+	 */
+	private static final int KEY_QUEUE_CAPACITY = 1 << 12;
+
+	/**
+	 * Producers wait, or drain the queue themselves if they run on the
+	 * selector thread, when this many operations are pending.
+	 */
+	private static final int OP_QUEUE_CAPACITY = 1 << 12;
+
+	/**
+	 * Default number of bytes read from a key per readiness event.
+	 */
+	static final int DEFAULT_READ_BUDGET = 1 << 18;
+
+	private static final long MILLISECOND = 1000000L;
+
 	private final SelectionType type;
+	private final boolean unified;
+	private final PollingStrategy polling;
+	private final boolean arrayKeys;
+	private final int readBudget;
+	private final BufferAllocator allocator;
 	private final AtomicBoolean newOps;
-	private final Queue<IOOperation> ops;
+	private final OpQueue ops;
 	private final AtomicBoolean newKeys;
-	private final NavigableSet<SelectionKey> keys;
+	private final KeyQueue keys;
+	private final KeyTimers timers;
 	private final SettableCallbackFuture<Void> closeFuture;
+	private final LoopStats stats;
 	private Selector selector;
 	private Loop loop;
 
 	SelectorThreadImpl(@Nonnull final SelectionType type) {
+		this(type, false, PollingStrategy.blocking(), false);
+	}
+
+	/**
+	 * @param unified
+	 *            if <code>true</code>, this thread both reads and writes using
+	 *            a single {@link SelectionKey} per channel. Only valid with
+	 *            {@link SelectionType#OP_READ}.
+	 * @param polling
+	 *            how this thread waits for readiness events
+	 * @param arrayKeys
+	 *            if <code>true</code>, try to replace the selected-key set of
+	 *            the selector with a {@link SelectedKeySet}
+	 */
+	SelectorThreadImpl(@Nonnull final SelectionType type, final boolean unified,
+			@Nonnull final PollingStrategy polling, final boolean arrayKeys) {
+		this(type, unified, polling, arrayKeys, DEFAULT_READ_BUDGET, BufferAllocators.direct());
+	}
+
+	/**
+	 * @param readBudget
+	 *            a readable key is read until it has no more data, or until
+	 *            this many bytes were read, so that a busy channel does not
+	 *            starve the others on this thread. With <code>0</code>, keys
+	 *            are read once per readiness event.
+	 * @param allocator
+	 *            allocator for the buffers of registered channels
+	 */
+	SelectorThreadImpl(@Nonnull final SelectionType type, final boolean unified,
+			@Nonnull final PollingStrategy polling, final boolean arrayKeys,
+			@Nonnegative final int readBudget, @Nonnull final BufferAllocator allocator) {
 		if (type == null) {
 			throw new NullPointerException("type == null");
 		}
+		if (polling == null) {
+			throw new NullPointerException("polling == null");
+		}
 		if (type != SelectionType.OP_READ && type != SelectionType.OP_WRITE && type != SelectionType.OP_ACCEPT) {
 			throw new IllegalArgumentException("invalid type");
 		}
+		if (unified && type != SelectionType.OP_READ) {
+			throw new IllegalArgumentException("unified && type != SelectionType.OP_READ");
+		}
+		if (readBudget < 0) {
+			throw new IllegalArgumentException("readBudget < 0");
+		}
+		if (allocator == null) {
+			throw new NullPointerException("allocator == null");
+		}
 		this.type = type;
+		this.unified = unified;
+		this.polling = polling;
+		this.arrayKeys = arrayKeys;
+		this.readBudget = readBudget;
+		this.allocator = allocator;
 		this.newOps = new AtomicBoolean();
-		this.ops = new ConcurrentLinkedQueue<>();
+		this.ops = new OpQueue(OP_QUEUE_CAPACITY, new OpRunner());
 		this.newKeys = new AtomicBoolean();
-		this.keys = new ConcurrentSkipListSet<>(new KeyComparator());
+		this.keys = new KeyQueue(KEY_QUEUE_CAPACITY);
+		this.timers = new KeyTimers();
 		this.closeFuture = new SettableCallbackFuture<>();
+		this.stats = new LoopStats();
 	}
 
 	void open() throws IOException {
@@ -82,6 +161,10 @@ final class SelectorThreadImpl implements SelectorThread {
 			return;
 		}
 		selector = Selector.open();
+		if (arrayKeys) {
+			// falls back to the JDK set if reflection is denied
+			SelectedKeySet.install(selector);
+		}
 	}
 
 	boolean isOpen() {
@@ -89,29 +172,39 @@ final class SelectorThreadImpl implements SelectorThread {
 	}
 
 	CallbackFuture<Void> close() {
-		final IOOperation close = new IOOperation() {
-			@Override
-			public void run() throws IOException {
-				doClose();
-			}
-		};
-		queueOp(close);
+		queueOp(OpCode.CLOSE, null, null, null, null, null);
 		return closeFuture;
 	}
 
-	private void queueOp(@Nonnull final IOOperation op) {
+	private void queueOp(@Nonnull final OpCode code, @Nonnull(when = When.MAYBE) final SelectableChannel channel,
+			@Nonnull(when = When.MAYBE) final Object target, @Nonnull(when = When.MAYBE) final SelectionKey key,
+			@Nonnull(when = When.MAYBE) final SettableCallbackFuture<?> future,
+			@Nonnull(when = When.MAYBE) final Callable<Void> task) {
 		assert selector != null;
-		if (ops.offer(op)) {
-			if (newOps.compareAndSet(false, true)) {
-				selector.wakeup();
+		while (!ops.offer(code, channel, target, key, future, task)) {
+			if (!selector.isOpen()) {
+				// nobody is left to run it
+				return;
+			}
+			if (ops.isConsumer()) {
+				// waiting on ourselves would deadlock
+				try {
+					ops.drain();
+				} catch (final IOException e) {
+					// wtf? log and continue
+					e.printStackTrace();
+				}
+			} else {
+				Thread.yield();
 			}
-		} else {
-			throw new Bug("ops.offer(op) == false");
+		}
+		if (newOps.compareAndSet(false, true)) {
+			selector.wakeup();
 		}
 	}
 
 	/**
-	 * Only called from within an {@link IOOperation} submitted by {@link #close()}.
+	 * Only called from within an operation submitted by {@link #close()}.
 	 * 
 	 * @throws IOException
 	 */
@@ -163,19 +256,28 @@ final class SelectorThreadImpl implements SelectorThread {
 		return closeFuture;
 	}
 
+	@Nonnull
+	LoopStats getStats() {
+		return stats;
+	}
+
 	Runnable getRunnable() {
 		if (loop != null) {
 			return loop;
 		}
 		switch (type) {
 		case OP_ACCEPT:
-			loop = new AcceptLoop(selector, newOps, ops);
+			loop = new AcceptLoop(selector, polling, stats, newOps, ops, timers);
 			break;
 		case OP_READ:
-			loop = new ReadLoop(selector, newOps, ops);
+			if (unified) {
+				loop = new ReadWriteLoop(selector, polling, stats, newOps, ops, timers, newKeys, keys, readBudget);
+			} else {
+				loop = new ReadLoop(selector, polling, stats, newOps, ops, timers, readBudget);
+			}
 			break;
 		case OP_WRITE:
-			loop = new WriteLoop(selector, newOps, ops, newKeys, keys, SelectionKey.OP_WRITE);
+			loop = new WriteLoop(selector, polling, stats, newOps, ops, timers, newKeys, keys, SelectionKey.OP_WRITE);
 			break;
 		default:
 			throw new Bug("Unsupported selection type: " + type);
@@ -184,17 +286,11 @@ final class SelectorThreadImpl implements SelectorThread {
 	}
 
 	void bind(@Nonnull final SelectableChannel channel, @Nonnull final Acceptor acceptor) {
-		final IOOperation bind = new IOOperation() {
-			@Override
-			public void run() throws IOException {
-				doBind(channel, acceptor);
-			}
-		};
-		queueOp(bind);
+		queueOp(OpCode.BIND, channel, acceptor, null, null, null);
 	}
 
 	/**
-	 * Only called from within an IOOperation.
+	 * Only called from within an operation.
 	 * 
 	 * @throws ClosedChannelException
 	 */
@@ -204,17 +300,12 @@ final class SelectorThreadImpl implements SelectorThread {
 	}
 
 	void connect(@Nonnull final SelectableChannel channel, @Nonnull final Processor processor) {
-		final IOOperation bind = new IOOperation() {
-			@Override
-			public void run() throws IOException {
-				doConnect(channel, processor);
-			}
-		};
-		queueOp(bind);
+		stats.registering();
+		queueOp(OpCode.CONNECT, channel, processor, null, null, null);
 	}
 
 	/**
-	 * Only called from within an IOOperation.
+	 * Only called from within an operation.
 	 * 
 	 * @throws ClosedChannelException
 	 */
@@ -227,60 +318,92 @@ final class SelectorThreadImpl implements SelectorThread {
 	}
 
 	void register(@Nonnull final SelectableChannel channel, @Nonnull final Processor processor) {
-		final IOOperation register = new IOOperation() {
-			@Override
-			public void run() throws IOException {
-				doRegister(channel, processor);
-			}
-		};
-		queueOp(register);
+		stats.registering();
+		queueOp(OpCode.REGISTER, channel, processor, null, null, null);
 	}
 
 	/**
-	 * Only called from within an IOOperation.
+	 * Only called from within an operation.
 	 * 
-	 * @throws ClosedChannelException
+	 * @throws IOException
 	 */
-	void doRegister(@Nonnull final SelectableChannel channel, @Nonnull final Processor processor) {
+	void doRegister(@Nonnull final SelectableChannel channel, @Nonnull final Processor processor)
+			throws IOException {
+		SelectionKey key;
 		try {
-			final SelectionKey key = channel.register(selector, type.getOp(), processor);
-			processor.getProcessor().registered(this, key, type);
+			try {
+				key = channel.register(selector, type.getOp(), processor);
+			} catch (final CancelledKeyException e) {
+				// a migrated channel came back before its previous key was
+				// dropped: flush the cancelled keys and retry; keys selected
+				// since the last select() are still pending in the set
+				final Set<SelectionKey> ks = selector.selectedKeys();
+				if (ks instanceof SelectedKeySet) {
+					((SelectedKeySet) ks).mark();
+				}
+				selector.selectNow();
+				key = channel.register(selector, type.getOp(), processor);
+			}
 		} catch (final ClosedChannelException e) {
 			// channel was already closed, notify the processor all the same;
-			processor.getProcessor().registered(this, null, type);
+			key = null;
+		}
+		processor.getProcessor().registered(this, key, type);
+		if (unified) {
+			// the same key is used for writing
+			processor.getProcessor().registered(this, key, SelectionType.OP_WRITE);
 		}
 	}
 
 	void cancel(@Nonnull final SelectionKey key, @Nonnull final SettableCallbackFuture<Void> future) {
-		final IOOperation cancel = new IOOperation() {
-			@Override
-			public void run() {
-				try {
-					key.cancel();
-					future.success(null);
-				} catch (final Throwable t) {
-					future.fail(t);
-				}
-			}
-		};
-		queueOp(cancel);
+		queueOp(OpCode.CANCEL, null, null, key, future, null);
 	}
 
 	void cancel(@Nonnull final SelectionKey key, @Nonnull final SettableCallbackFuture<Void> future,
 			@Nonnull final Callable<Void> task) {
-		final IOOperation cancel = new IOOperation() {
-			@Override
-			public void run() {
-				try {
-					key.cancel();
-					task.call();
-					future.success(null);
-				} catch (final Throwable t) {
-					future.fail(t);
+		queueOp(OpCode.CANCEL, null, null, key, future, task);
+	}
+
+	/**
+	 * Only called from within an operation.
+	 */
+	static void doCancel(@Nonnull final SelectionKey key, @Nonnull final SettableCallbackFuture<Void> future,
+			@Nonnull(when = When.MAYBE) final Callable<Void> task) {
+		try {
+			key.cancel();
+			if (task != null) {
+				task.call();
+			}
+			future.success(null);
+		} catch (final Throwable t) {
+			future.fail(t);
+		}
+	}
+
+	/**
+	 * Collects the {@link Processor}s attached to the valid keys of this
+	 * thread, from within the selector thread.
+	 */
+	void listProcessors(@Nonnull final SettableCallbackFuture<List<Processor>> future) {
+		queueOp(OpCode.LIST, null, null, null, future, null);
+	}
+
+	/**
+	 * Only called from within an operation.
+	 */
+	void doListProcessors(@Nonnull final SettableCallbackFuture<List<Processor>> future) {
+		try {
+			final List<Processor> processors = new ArrayList<>(selector.keys().size());
+			for (final SelectionKey key : selector.keys()) {
+				final Object attach = key.attachment();
+				if (key.isValid() && attach instanceof Processor) {
+					processors.add((Processor) attach);
 				}
 			}
-		};
-		queueOp(cancel);
+			future.success(processors);
+		} catch (final Throwable t) {
+			future.fail(t);
+		}
 	}
 
 	/**
@@ -289,11 +412,38 @@ final class SelectorThreadImpl implements SelectorThread {
 	 */
 	@Override
 	public void enableKey(@Nonnull final SelectionKey key) {
-		if (keys.add(key) && newKeys.compareAndSet(false, true)) {
+		keys.offer(key);
+		if (newKeys.compareAndSet(false, true)) {
 			selector.wakeup();
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * @see net.dsys.snio.api.pool.SelectorThread#enableKeyAt(java.nio.channels.SelectionKey, long)
+	 */
+	@Override
+	public void enableKeyAt(@Nonnull final SelectionKey key, final long deadline) {
+		timers.add(key, deadline, SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see net.dsys.snio.api.pool.SelectorThread#enableReaderAt(java.nio.channels.SelectionKey, long)
+	 */
+	@Override
+	public void enableReaderAt(@Nonnull final SelectionKey key, final long deadline) {
+		timers.add(key, deadline, SelectionKey.OP_READ);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public BufferAllocator getAllocator() {
+		return allocator;
+	}
+
 	/**
 	 * Base class for all threads.
 	 * 
@@ -302,44 +452,63 @@ final class SelectorThreadImpl implements SelectorThread {
 	private abstract static class Loop implements Runnable {
 
 		private final Selector selector;
+		private final PollingStrategy polling;
+		private final LoopStats stats;
 		private final AtomicBoolean newOps;
-		private final Queue<IOOperation> ops;
+		private final OpQueue ops;
+		private final KeyTimers timers;
 
-		Loop(@Nonnull final Selector selector, @Nonnull final AtomicBoolean newOps,
-				@Nonnull final Queue<IOOperation> ops) {
+		Loop(@Nonnull final Selector selector, @Nonnull final PollingStrategy polling,
+				@Nonnull final LoopStats stats, @Nonnull final AtomicBoolean newOps,
+				@Nonnull final OpQueue ops, @Nonnull final KeyTimers timers) {
 			if (selector == null) {
 				throw new NullPointerException("selector == null");
 			}
+			if (polling == null) {
+				throw new NullPointerException("polling == null");
+			}
+			if (stats == null) {
+				throw new NullPointerException("stats == null");
+			}
 			if (newOps == null) {
 				throw new NullPointerException("selector == null");
 			}
 			if (ops == null) {
 				throw new NullPointerException("ops == null");
 			}
+			if (timers == null) {
+				throw new NullPointerException("timers == null");
+			}
 			this.selector = selector;
+			this.polling = polling;
+			this.stats = stats;
 			this.newOps = newOps;
 			this.ops = ops;
+			this.timers = timers;
 		}
 
 		@Override
 		public void run() {
+			ops.bindConsumer();
 			while (selector.isOpen()) {
 				try {
-					final int n = selector.select();
-					runOps();
+					select();
+					final long start = System.nanoTime();
+					final int n = runOps();
+					long bytes = timers.expire(start);
 					updateKeys();
-					if (n == 0) {
-						continue;
-					}
+					// ops may also select keys, see doRegister()
 					final Set<SelectionKey> ks = selector.selectedKeys();
-					if (ks.isEmpty()) {
-						continue;
-					}
-					for (final Iterator<SelectionKey> it = ks.iterator(); it.hasNext();) {
-						final SelectionKey k = it.next();
-						it.remove();
-						runKey(k);
+					if (ks instanceof SelectedKeySet) {
+						bytes += runKeys((SelectedKeySet) ks);
+					} else if (!ks.isEmpty()) {
+						for (final Iterator<SelectionKey> it = ks.iterator(); it.hasNext();) {
+							final SelectionKey k = it.next();
+							it.remove();
+							bytes += runKey(k);
+						}
 					}
+					stats.update(selector.keys().size(), bytes, n, System.nanoTime() - start);
 				} catch (final ClosedSelectorException e) {
 					// this is an expected exception when the channel is closed.
 					break;
@@ -351,6 +520,83 @@ final class SelectorThreadImpl implements SelectorThread {
 			}
 		}
 
+		/**
+		 * Iterate by index, without allocating nor hashing.
+		 * 
+		 * @return number of bytes transferred
+		 */
+		private long runKeys(@Nonnull final SelectedKeySet ks) {
+			long bytes = 0;
+			final SelectionKey[] keys = ks.keys();
+			final int n = ks.size();
+			try {
+				for (int i = 0; i < n; i++) {
+					bytes += runKey(keys[i]);
+				}
+			} finally {
+				ks.reset();
+			}
+			return bytes;
+		}
+
+		/**
+		 * Waits for readiness events according to the {@link PollingStrategy}:
+		 * spin on {@link Selector#selectNow()}, then poll while yielding, and
+		 * finally block on {@link Selector#select()}. Returns early when a
+		 * {@link KeyTimers} deadline expires.
+		 */
+		private int select() throws IOException {
+			if (polling.isBlocking()) {
+				return blockingSelect();
+			}
+			final long spinEnd = System.nanoTime() + polling.getSpinNanos();
+			final long yieldEnd = spinEnd + polling.getYieldNanos();
+			long now;
+			do {
+				final int n = selector.selectNow();
+				if (n > 0 || hasUpdates()) {
+					return n;
+				}
+				now = System.nanoTime();
+				if (timers.isExpired(now)) {
+					return 0;
+				}
+				if (now - spinEnd >= 0) {
+					Thread.yield();
+				}
+			} while (now - yieldEnd < 0);
+			return blockingSelect();
+		}
+
+		/**
+		 * Blocks until the next deadline, if any. Since
+		 * {@link Selector#select(long)} only has millisecond resolution, the
+		 * last fraction of a millisecond is spent polling.
+		 */
+		private int blockingSelect() throws IOException {
+			if (timers.isEmpty()) {
+				// any wakeup() issued after the last selectNow() unblocks this call
+				return selector.select();
+			}
+			final long wait = timers.next() - System.nanoTime();
+			if (wait >= MILLISECOND) {
+				return selector.select(wait / MILLISECOND);
+			}
+			if (wait > 0) {
+				Thread.yield();
+			}
+			return selector.selectNow();
+		}
+
+		/**
+		 * @return <code>true</code> if there is pending work that was not
+		 *         signaled through the selector. Subclasses can override as
+		 *         needed.
+		 */
+		protected boolean hasUpdates() {
+			return newOps.get();
+		}
+
 		/**
 		 * Subclasses can override as needed.
 		 */
@@ -360,16 +606,19 @@ final class SelectorThreadImpl implements SelectorThread {
 
 		/**
 		 * Process a single SelectionKey.
+		 * 
+		 * @return number of bytes transferred
 		 */
-		protected abstract void runKey(@Nonnull SelectionKey k);
+		protected abstract long runKey(@Nonnull SelectionKey k);
 
-		private void runOps() throws IOException {
+		/**
+		 * @return number of operations executed
+		 */
+		private int runOps() throws IOException {
 			if (newOps.compareAndSet(true, false)) {
-				while (!ops.isEmpty()) {
-					final IOOperation op = ops.poll();
-					op.run();
-				}
+				return ops.drain();
 			}
+			return 0;
 		}
 
 	}
@@ -379,16 +628,17 @@ final class SelectorThreadImpl implements SelectorThread {
 	 */
 	private static final class AcceptLoop extends Loop {
 
-		AcceptLoop(@Nonnull final Selector selector, @Nonnull final AtomicBoolean newOps,
-				@Nonnull final Queue<IOOperation> ops) {
-			super(selector, newOps, ops);
+		AcceptLoop(@Nonnull final Selector selector, @Nonnull final PollingStrategy polling,
+				@Nonnull final LoopStats stats, @Nonnull final AtomicBoolean newOps,
+				@Nonnull final OpQueue ops, @Nonnull final KeyTimers timers) {
+			super(selector, polling, stats, newOps, ops, timers);
 		}
 
 		/**
 		 * {@inheritDoc}
 		 */
 		@Override
-		protected void runKey(final SelectionKey k) {
+		protected long runKey(final SelectionKey k) {
 			try {
 				if (k.isAcceptable()) {
 					final Acceptor accp = (Acceptor) k.attachment();
@@ -397,11 +647,126 @@ final class SelectorThreadImpl implements SelectorThread {
 				}
 			} catch (final CancelledKeyException e) {
 				// another thread cancelled the key
-				return;
 			} catch (final IOException e) {
 				// wtf?
 				e.printStackTrace();
-				return;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Process a single readable or connectable SelectionKey. A readable key is
+	 * read until it returns no data or <code>budget</code> bytes were read.
+	 * 
+	 * @return number of bytes read
+	 */
+	static long runReadKey(@Nonnull final SelectionKey k, @Nonnegative final int budget) {
+		try {
+			if (k.isReadable()) {
+				return readKey(k, budget);
+			} else if (k.isConnectable()) {
+				final Processor proc = (Processor) k.attachment();
+				final KeyProcessor<?> processor = proc.getProcessor();
+				processor.connect(k);
+			}
+		} catch (final CancelledKeyException e) {
+			// another thread cancelled the key
+			return 0;
+		} catch (final IOException e) {
+			// wtf?
+			e.printStackTrace();
+			return 0;
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads a key until it returns no data or <code>budget</code> bytes were
+	 * read, closing its processor if reading fails.
+	 * 
+	 * @return number of bytes read
+	 */
+	static long readKey(@Nonnull final SelectionKey k, @Nonnegative final int budget) throws IOException {
+		final Processor proc = (Processor) k.attachment();
+		final KeyProcessor<?> keyproc = proc.getProcessor();
+		try {
+			long total = 0;
+			long n;
+			do {
+				n = keyproc.read(k);
+				if (n < 0) {
+					proc.close();
+					return total;
+				}
+				total += n;
+			} while (n > 0 && total < budget);
+			return total;
+		} catch (final IOException e) {
+			proc.close();
+		} catch (final NotYetConnectedException e) {
+			// wtf?
+			e.printStackTrace();
+			proc.close();
+		}
+		return 0;
+	}
+
+	/**
+	 * Process a single writable SelectionKey.
+	 * 
+	 * @return number of bytes written
+	 */
+	static long runWriteKey(@Nonnull final SelectionKey k) {
+		try {
+			if (k.isWritable()) {
+				final Processor proc = (Processor) k.attachment();
+				final KeyProcessor<?> keyproc = proc.getProcessor();
+				try {
+					final long n = keyproc.write(k);
+					if (n < 0) {
+						proc.close();
+					} else {
+						return n;
+					}
+				} catch (final IOException e) {
+					proc.close();
+				} catch (final NotYetConnectedException e) {
+					e.printStackTrace();
+					proc.close();
+				}
+			}
+		} catch (final CancelledKeyException e) {
+			// another thread cancelled the key
+			return 0;
+		} catch (final IOException e) {
+			// wtf?
+			e.printStackTrace();
+			return 0;
+		}
+		return 0;
+	}
+
+	/**
+	 * Add interest in <code>op</code> to all keys enabled through
+	 * {@link #enableKey(SelectionKey)}.
+	 */
+	static void enableKeys(@Nonnull final AtomicBoolean newKeys,
+			@Nonnull final KeyQueue keys, final int op) {
+		if (newKeys.compareAndSet(true, false)) {
+			SelectionKey key = null;
+			while ((key = keys.poll()) != null) {
+				// allow the processor to queue its key again
+				((Processor) key.attachment()).getProcessor().writerEnabled();
+				try {
+					final int iops = key.interestOps();
+					if ((iops & op) == 0) {
+						key.interestOps(iops | op);
+					}
+				} catch (final CancelledKeyException e) {
+					// another thread cancelled the key
+					continue;
+				}
 			}
 		}
 	}
@@ -411,44 +776,22 @@ final class SelectorThreadImpl implements SelectorThread {
 	 */
 	private static final class ReadLoop extends Loop {
 
-		ReadLoop(@Nonnull final Selector selector, @Nonnull final AtomicBoolean newOps,
-				@Nonnull final Queue<IOOperation> ops) {
-			super(selector, newOps, ops);
+		private final int budget;
+
+		ReadLoop(@Nonnull final Selector selector, @Nonnull final PollingStrategy polling,
+				@Nonnull final LoopStats stats, @Nonnull final AtomicBoolean newOps,
+				@Nonnull final OpQueue ops, @Nonnull final KeyTimers timers,
+				@Nonnegative final int budget) {
+			super(selector, polling, stats, newOps, ops, timers);
+			this.budget = budget;
 		}
 
 		/**
 		 * {@inheritDoc}
 		 */
 		@Override
-		protected void runKey(final SelectionKey k) {
-			try {
-				if (k.isReadable()) {
-					final Processor proc = (Processor) k.attachment();
-					final KeyProcessor<?> keyproc = proc.getProcessor();
-					try {
-						if (keyproc.read(k) < 0) {
-							proc.close();
-						}
-					} catch (final IOException e) {
-						proc.close();
-					} catch (final NotYetConnectedException e) {
-						// wtf?
-						e.printStackTrace();
-						proc.close();
-					}
-				} else if (k.isConnectable()) {
-					final Processor proc = (Processor) k.attachment();
-					final KeyProcessor<?> processor = proc.getProcessor();
-					processor.connect(k);
-				}
-			} catch (final CancelledKeyException e) {
-				// another thread cancelled the key
-				return;
-			} catch (final IOException e) {
-				// wtf?
-				e.printStackTrace();
-				return;
-			}
+		protected long runKey(final SelectionKey k) {
+			return runReadKey(k, budget);
 		}
 
 	}
@@ -459,13 +802,14 @@ final class SelectorThreadImpl implements SelectorThread {
 	private static final class WriteLoop extends Loop {
 
 		private final AtomicBoolean newKeys;
-		private final NavigableSet<SelectionKey> keys;
+		private final KeyQueue keys;
 		private final int op;
 
-		WriteLoop(@Nonnull final Selector selector, @Nonnull final AtomicBoolean newOps,
-				@Nonnull final Queue<IOOperation> ops, @Nonnull final AtomicBoolean newKeys,
-				@Nonnull final NavigableSet<SelectionKey> keys, final int op) {
-			super(selector, newOps, ops);
+		WriteLoop(@Nonnull final Selector selector, @Nonnull final PollingStrategy polling,
+				@Nonnull final LoopStats stats, @Nonnull final AtomicBoolean newOps,
+				@Nonnull final OpQueue ops, @Nonnull final KeyTimers timers,
+				@Nonnull final AtomicBoolean newKeys, @Nonnull final KeyQueue keys, final int op) {
+			super(selector, polling, stats, newOps, ops, timers);
 			if (newKeys == null) {
 				throw new NullPointerException("newKeys == null");
 			}
@@ -484,30 +828,76 @@ final class SelectorThreadImpl implements SelectorThread {
 		 * {@inheritDoc}
 		 */
 		@Override
-		protected void runKey(final SelectionKey k) {
-			try {
-				if (k.isWritable()) {
-					final Processor proc = (Processor) k.attachment();
-					final KeyProcessor<?> keyproc = proc.getProcessor();
-					try {
-						if (keyproc.write(k) < 0) {
-							proc.close();
-						}
-					} catch (final IOException e) {
-						proc.close();
-					} catch (final NotYetConnectedException e) {
-						e.printStackTrace();
-						proc.close();
-					}
-				}
-			} catch (final CancelledKeyException e) {
-				// another thread cancelled the key
-				return;
-			} catch (final IOException e) {
-				// wtf?
-				e.printStackTrace();
-				return;
+		protected long runKey(final SelectionKey k) {
+			return runWriteKey(k);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected boolean hasUpdates() {
+			return super.hasUpdates() || newKeys.get();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected void updateKeys() {
+			enableKeys(newKeys, keys, op);
+		}
+
+	}
+
+	/**
+	 * Services both READ and WRITE readiness of a channel from a single
+	 * selector, i.e., the channel has a single key for both operations.
+	 * 
+	 * @author Ricardo Padilha
+	 */
+	private static final class ReadWriteLoop extends Loop {
+
+		private final AtomicBoolean newKeys;
+		private final KeyQueue keys;
+		private final int budget;
+
+		ReadWriteLoop(@Nonnull final Selector selector, @Nonnull final PollingStrategy polling,
+				@Nonnull final LoopStats stats, @Nonnull final AtomicBoolean newOps,
+				@Nonnull final OpQueue ops, @Nonnull final KeyTimers timers,
+				@Nonnull final AtomicBoolean newKeys, @Nonnull final KeyQueue keys,
+				@Nonnegative final int budget) {
+			super(selector, polling, stats, newOps, ops, timers);
+			if (newKeys == null) {
+				throw new NullPointerException("newKeys == null");
+			}
+			if (keys == null) {
+				throw new NullPointerException("keys == null");
+			}
+			this.newKeys = newKeys;
+			this.keys = keys;
+			this.budget = budget;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected long runKey(final SelectionKey k) {
+			long n = runReadKey(k, budget);
+			// reading may have closed the channel, which cancels the key
+			if (k.isValid()) {
+				n += runWriteKey(k);
 			}
+			return n;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected boolean hasUpdates() {
+			return super.hasUpdates() || newKeys.get();
 		}
 
 		/**
@@ -515,63 +905,229 @@ final class SelectorThreadImpl implements SelectorThread {
 		 */
 		@Override
 		protected void updateKeys() {
-			if (newKeys.compareAndSet(true, false)) {
-				SelectionKey key = null;
-				while ((key = keys.pollFirst()) != null) {
+			enableKeys(newKeys, keys, SelectionKey.OP_WRITE);
+		}
+
+	}
+
+	/**
+	 * Executes queued operations from within the selector thread.
+	 * 
+	 * @author Ricardo Padilha
+	 */
+	private final class OpRunner implements OpQueue.Runner {
+
+		OpRunner() {
+			return;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void run(final OpCode code, final SelectableChannel channel, final Object target,
+				final SelectionKey key, final SettableCallbackFuture<?> future, final Callable<Void> task)
+				throws IOException {
+			switch (code) {
+				case BIND: {
+					doBind(channel, (Acceptor) target);
+					break;
+				}
+				case CONNECT: {
 					try {
-						final int iops = key.interestOps();
-						if ((iops & op) == 0) {
-							key.interestOps(iops | op);
-						}
-					} catch (final CancelledKeyException e) {
-						// another thread cancelled the key
-						continue;
+						doConnect(channel, (Processor) target);
+					} finally {
+						stats.registered();
 					}
+					break;
+				}
+				case REGISTER: {
+					try {
+						doRegister(channel, (Processor) target);
+					} finally {
+						stats.registered();
+					}
+					break;
+				}
+				case CANCEL: {
+					doCancel(key, (SettableCallbackFuture<Void>) future, task);
+					break;
+				}
+				case LIST: {
+					doListProcessors((SettableCallbackFuture<List<Processor>>) future);
+					break;
+				}
+				case CLOSE: {
+					doClose();
+					break;
+				}
+				default: {
+					throw new Bug("Unsupported OpCode: " + code);
 				}
 			}
 		}
-
 	}
 
 	/**
-	 * Single command to be executed within the selector thread.
+	 * Queue of keys waiting for WRITE interest. Processors only queue their
+	 * key when it is not already pending, so the bounded queue rarely fills
+	 * up; if it does, keys spill over to an unbounded queue.
 	 * 
 	 * @author Ricardo Padilha
 	 */
-	private interface IOOperation {
-		void run() throws IOException;
+	static final class KeyQueue {
+
+		private final MPSCQueue<SelectionKey> queue;
+		private final Queue<SelectionKey> overflow;
+
+		KeyQueue(@Nonnegative final int capacity) {
+			this.queue = new MPSCQueue<>(capacity);
+			this.overflow = new ConcurrentLinkedQueue<>();
+		}
+
+		void offer(@Nonnull final SelectionKey key) {
+			if (!queue.offer(key) && !overflow.offer(key)) {
+				throw new Bug("overflow.offer(key) == false");
+			}
+		}
+
+		/**
+		 * Only called from within the selector thread.
+		 */
+		@Nonnull(when = When.MAYBE)
+		SelectionKey poll() {
+			final SelectionKey key = queue.poll();
+			if (key != null) {
+				return key;
+			}
+			return overflow.poll();
+		}
 	}
 
 	/**
-	 * Comparator for SelectionKeys. Makes sure that identical keys returns
-	 * zero, non-identical keys are sorted by hash code.
+	 * Keys waiting for a deadline before getting an interest added back. Only
+	 * used from within the selector thread. Deadlines are kept unsorted,
+	 * since only keys that hold back output, or that wait for room in their
+	 * input buffer, are ever added.
 	 * 
 	 * @author Ricardo Padilha
 	 */
-	private static final class KeyComparator implements Comparator<SelectionKey>, Serializable {
+	static final class KeyTimers {
 
-		private static final long serialVersionUID = 1L;
+		private static final int INITIAL_CAPACITY = 16;
 
-		KeyComparator() {
-			super();
+		private SelectionKey[] keys;
+		private long[] deadlines;
+		private int[] ops;
+		private int size;
+		private SelectionKey[] due;
+		private int[] dueOps;
+		private long next;
+
+		KeyTimers() {
+			this.keys = new SelectionKey[INITIAL_CAPACITY];
+			this.deadlines = new long[INITIAL_CAPACITY];
+			this.ops = new int[INITIAL_CAPACITY];
+			this.due = new SelectionKey[INITIAL_CAPACITY];
+			this.dueOps = new int[INITIAL_CAPACITY];
 		}
 
 		/**
-		 * {@inheritDoc}
+		 * @param op
+		 *            either {@link SelectionKey#OP_READ} or
+		 *            {@link SelectionKey#OP_WRITE}
 		 */
-		@Override
-		public int compare(@Nonnull(when = When.MAYBE) final SelectionKey o1,
-				@Nonnull(when = When.MAYBE) final SelectionKey o2) {
-			if ((o1 == o2) || (o1 == null && o2 == null)) {
+		void add(@Nonnull final SelectionKey key, final long deadline, final int op) {
+			if (key == null) {
+				throw new NullPointerException("key == null");
+			}
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * size);
+				deadlines = Arrays.copyOf(deadlines, 2 * size);
+				ops = Arrays.copyOf(ops, 2 * size);
+			}
+			if (size == 0 || deadline - next < 0) {
+				next = deadline;
+			}
+			keys[size] = key;
+			deadlines[size] = deadline;
+			ops[size] = op;
+			size++;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * Only valid if not {@link #isEmpty()}.
+		 * 
+		 * @return the earliest deadline
+		 */
+		long next() {
+			return next;
+		}
+
+		boolean isExpired(final long now) {
+			return size > 0 && now - next >= 0;
+		}
+
+		/**
+		 * Adds its operation to the interest set of every key whose deadline
+		 * is not after <code>now</code>. Keys enabled for reading are also
+		 * read once.
+		 * 
+		 * @return number of bytes read
+		 */
+		long expire(final long now) {
+			if (!isExpired(now)) {
 				return 0;
 			}
-			if (o1 == null) {
-				return -1;
+			if (due.length < size) {
+				due = new SelectionKey[keys.length];
+				dueOps = new int[keys.length];
 			}
-			if (o2 == null) {
-				return 1;
+			final int n = size;
+			int j = 0;
+			int d = 0;
+			for (int i = 0; i < n; i++) {
+				final SelectionKey key = keys[i];
+				final long deadline = deadlines[i];
+				final int op = ops[i];
+				if (now - deadline >= 0) {
+					due[d] = key;
+					dueOps[d] = op;
+					d++;
+					continue;
+				}
+				if (j == 0 || deadline - next < 0) {
+					next = deadline;
+				}
+				keys[j] = key;
+				deadlines[j] = deadline;
+				ops[j] = op;
+				j++;
+			}
+			Arrays.fill(keys, j, n, null);
+			size = j;
+			// reading may add timers, so keys are only run once the
+			// remaining ones are in place
+			long bytes = 0;
+			for (int i = 0; i < d; i++) {
+				final SelectionKey key = due[i];
+				due[i] = null;
+				try {
+					key.interestOps(key.interestOps() | dueOps[i]);
+					if (dueOps[i] == SelectionKey.OP_READ) {
+						bytes += readKey(key, 0);
+					}
+				} catch (final CancelledKeyException e) {
+					// another thread cancelled the key
+					continue;
+				} catch (final IOException e) {
+					// wtf?
+					e.printStackTrace();
+				}
 			}
-			return Integer.signum(o2.hashCode() - o1.hashCode());
+			return bytes;
 		}
 	}
 
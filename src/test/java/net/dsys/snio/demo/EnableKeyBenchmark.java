@@ -0,0 +1,227 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.demo;
+
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.dsys.commons.api.future.CallbackFuture;
+import net.dsys.commons.impl.future.SettableCallbackFuture;
+import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferProducer;
+import net.dsys.snio.api.pool.KeyProcessor;
+import net.dsys.snio.api.pool.Processor;
+import net.dsys.snio.api.pool.SelectionType;
+import net.dsys.snio.api.pool.SelectorExecutor;
+import net.dsys.snio.api.pool.SelectorPool;
+import net.dsys.snio.api.pool.SelectorThread;
+import net.dsys.snio.impl.pool.SelectorPools;
+
+/**
+ * Measures the cost of {@link KeyProcessor#wakeupWriter()}, i.e., of
+ * {@link SelectorThread#enableKey(SelectionKey)}, with many connections
+ * registered with a single writer thread. Each connection is an unconnected
+ * datagram channel, which is always writable.
+ *
+ * @author Ricardo Padilha
+ */
+public final class EnableKeyBenchmark {
+
+	private EnableKeyBenchmark() {
+		return;
+	}
+
+	public static void main(final String[] args) throws IOException, InterruptedException, ExecutionException {
+		final int connections = Integer.parseInt(getArg("connections", "4096", args));
+		final int producers = Integer.parseInt(getArg("producers", "4", args));
+		final int iterations = Integer.parseInt(getArg("iterations", "2000000", args));
+		final int rounds = Integer.parseInt(getArg("rounds", "5", args));
+
+		final SelectorPool pool = SelectorPools.open("benchmark", 1);
+		final SelectorExecutor executor = pool.get(0);
+		final CountDownLatch registered = new CountDownLatch(connections);
+		final AtomicLong writes = new AtomicLong();
+		final DummyProcessor[] processors = new DummyProcessor[connections];
+		for (int i = 0; i < connections; i++) {
+			final DatagramChannel channel = DatagramChannel.open();
+			channel.configureBlocking(false);
+			channel.bind(null);
+			processors[i] = new DummyProcessor(channel, registered, writes);
+			executor.register(channel, processors[i]);
+		}
+		registered.await();
+
+		for (int r = 0; r < rounds; r++) {
+			final long before = writes.get();
+			final Thread[] threads = new Thread[producers];
+			for (int p = 0; p < producers; p++) {
+				final int offset = p;
+				threads[p] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int i = 0, k = offset; i < iterations; i++) {
+							processors[k].wakeupWriter();
+							k += producers;
+							if (k >= connections) {
+								k = offset;
+							}
+						}
+					}
+				});
+			}
+			final long start = System.nanoTime();
+			for (final Thread thread : threads) {
+				thread.start();
+			}
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+			final long delta = System.nanoTime() - start;
+			System.out.printf("round %d: %d connections, %d producers, %.1f ns/wakeupWriter, %d writes%n",
+					Integer.valueOf(r), Integer.valueOf(connections), Integer.valueOf(producers),
+					Double.valueOf(delta / (double) iterations), Long.valueOf(writes.get() - before));
+		}
+
+		pool.close();
+		pool.getCloseFuture().get();
+	}
+
+	private static String getArg(final String name, final String defaultValue, final String[] args) {
+		if (args == null || name == null) {
+			return defaultValue;
+		}
+		final String key = "--" + name;
+		final int k = args.length - 1;
+		for (int i = 0; i < k; i++) {
+			if (key.equals(args[i])) {
+				return args[i + 1];
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Processor that performs no I/O and dedups wakeups like the channel
+	 * processors do.
+	 *
+	 * @author Ricardo Padilha
+	 */
+	private static final class DummyProcessor implements Processor, KeyProcessor<Void> {
+
+		private final DatagramChannel channel;
+		private final CountDownLatch registered;
+		private final AtomicBoolean writePending;
+		private final SettableCallbackFuture<Void> closeFuture;
+		private final AtomicLong writes;
+		private volatile SelectorThread thread;
+		private volatile SelectionKey writeKey;
+
+		DummyProcessor(final DatagramChannel channel, final CountDownLatch registered, final AtomicLong writes) {
+			this.channel = channel;
+			this.registered = registered;
+			this.writes = writes;
+			this.writePending = new AtomicBoolean();
+			this.closeFuture = new SettableCallbackFuture<>();
+		}
+
+		@Override
+		public KeyProcessor<?> getProcessor() {
+			return this;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+			closeFuture.success(null);
+		}
+
+		@Override
+		public void connect(final SelectionKey key) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public CallbackFuture<Void> getConnectionFuture() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void registered(final SelectorThread thread, final SelectionKey key, final SelectionType type) {
+			if (type == SelectionType.OP_WRITE) {
+				this.thread = thread;
+				this.writeKey = key;
+				registered.countDown();
+			}
+		}
+
+		@Override
+		public MessageBufferConsumer<Void> getInputBuffer() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public MessageBufferProducer<Void> getOutputBuffer() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long read(final SelectionKey key) {
+			return 0;
+		}
+
+		@Override
+		public long write(final SelectionKey key) {
+			writes.incrementAndGet();
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			return 0;
+		}
+
+		@Override
+		public void wakeupWriter() {
+			if (writePending.compareAndSet(false, true)) {
+				thread.enableKey(writeKey);
+			}
+		}
+
+		@Override
+		public void writerEnabled() {
+			writePending.set(false);
+		}
+
+		@Override
+		public CallbackFuture<Void> migrate(final SelectorExecutor executor, final SelectorExecutor target,
+				final Callable<Void> register) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close(final SelectorExecutor executor, final Callable<Void> closeTask) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public CallbackFuture<Void> getCloseFuture() {
+			return closeFuture;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.demo;
+
+import java.nio.ByteBuffer;
+
+import net.dsys.commons.api.lang.Factory;
+import net.dsys.commons.impl.lang.ByteBufferFactory;
+import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferProducer;
+import net.dsys.snio.api.buffer.MessageBufferProvider;
+import net.dsys.snio.impl.buffer.BlockingQueueProvider;
+import net.dsys.snio.impl.buffer.ConcurrentRingProvider;
+import net.dsys.snio.impl.buffer.RingBufferProvider;
+
+/**
+ * Compares the throughput of the buffer implementations, with a single
+ * producer (channel to application), and with several producers sharing one
+ * consumer (application to channel, or a single input buffer).
+ *
+ * @author Ricardo Padilha
+ */
+public final class ProviderBenchmark {
+
+	private ProviderBenchmark() {
+		return;
+	}
+
+	public static void main(final String[] args) throws InterruptedException {
+		final int capacity = Integer.parseInt(getArg("capacity", "256", args));
+		final int producers = Integer.parseInt(getArg("producers", "4", args));
+		final int messages = Integer.parseInt(getArg("messages", "10000000", args));
+		final int rounds = Integer.parseInt(getArg("rounds", "5", args));
+		final Factory<ByteBuffer> factory = new ByteBufferFactory(Long.SIZE / Byte.SIZE);
+
+		for (int r = 0; r < rounds; r++) {
+			MessageBufferProvider<ByteBuffer> provider;
+			provider = BlockingQueueProvider.createProvider(capacity, factory);
+			run(r, "blocking queue", provider.getAppInput(), single(provider), messages);
+			provider = RingBufferProvider.createProvider(capacity, factory);
+			run(r, "ring buffer", provider.getAppInput(), single(provider), messages);
+			provider = ConcurrentRingProvider.createProvider(capacity, factory);
+			run(r, "concurrent ring", provider.getAppInput(), single(provider), messages);
+
+			MessageBufferConsumer<ByteBuffer> consumer;
+			consumer = BlockingQueueProvider.createConsumer(capacity, factory);
+			run(r, "blocking queue", consumer, multiple(consumer, producers), messages);
+			consumer = RingBufferProvider.createConsumer(capacity, factory);
+			run(r, "ring buffer", consumer, multiple(consumer, producers), messages);
+			consumer = ConcurrentRingProvider.createConsumer(capacity, factory);
+			run(r, "concurrent ring", consumer, multiple(consumer, producers), messages);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static MessageBufferProducer<ByteBuffer>[] single(final MessageBufferProvider<ByteBuffer> provider) {
+		return new MessageBufferProducer[] { provider.getChannelOutput() };
+	}
+
+	@SuppressWarnings("unchecked")
+	private static MessageBufferProducer<ByteBuffer>[] multiple(final MessageBufferConsumer<ByteBuffer> consumer,
+			final int n) {
+		final MessageBufferProducer<ByteBuffer>[] producers = new MessageBufferProducer[n];
+		for (int i = 0; i < n; i++) {
+			producers[i] = consumer.createProducer();
+		}
+		return producers;
+	}
+
+	private static void run(final int round, final String name, final MessageBufferConsumer<ByteBuffer> in,
+			final MessageBufferProducer<ByteBuffer>[] outs, final int messages) throws InterruptedException {
+		final int perProducer = messages / outs.length;
+		final Thread[] threads = new Thread[outs.length];
+		for (int p = 0; p < outs.length; p++) {
+			final MessageBufferProducer<ByteBuffer> out = outs[p];
+			threads[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < perProducer; i++) {
+							final long seq = out.acquire();
+							try {
+								final ByteBuffer msg = out.get(seq);
+								msg.clear();
+								msg.putLong(i);
+								msg.flip();
+							} finally {
+								out.release(seq);
+							}
+						}
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		final long total = (long) perProducer * outs.length;
+		final long start = System.nanoTime();
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		long sum = 0;
+		for (long i = 0; i < total; i++) {
+			final long seq = in.acquire();
+			sum += in.get(seq).getLong(0);
+			in.release(seq);
+		}
+		final long delta = System.nanoTime() - start;
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		System.out.printf("round %d: %-16s %d producer(s), %.1f ns/message (checksum %d)%n",
+				Integer.valueOf(round), name, Integer.valueOf(outs.length),
+				Double.valueOf(delta / (double) total), Long.valueOf(sum));
+	}
+
+	private static String getArg(final String name, final String defaultValue, final String[] args) {
+		if (args == null || name == null) {
+			return defaultValue;
+		}
+		final String key = "--" + name;
+		final int k = args.length - 1;
+		for (int i = 0; i < k; i++) {
+			if (key.equals(args[i])) {
+				return args[i + 1];
+			}
+		}
+		return defaultValue;
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import net.dsys.snio.impl.pool.CpuAffinity;
+
+import org.junit.Test;
+
+/**
+ * @author Ricardo Padilha
+ */
+public final class AffinityTest {
+
+	public AffinityTest() {
+		super();
+	}
+
+	private static int[] cpus(final CpuAffinity affinity) {
+		final int[] cpus = new int[affinity.size()];
+		for (int i = 0; i < cpus.length; i++) {
+			cpus[i] = affinity.getCpu(i);
+		}
+		return cpus;
+	}
+
+	@Test
+	public void testParseSingle() {
+		assertArrayEquals(new int[] { 3 }, cpus(CpuAffinity.parse("3")));
+	}
+
+	@Test
+	public void testParseList() {
+		assertArrayEquals(new int[] { 0, 2, 5 }, cpus(CpuAffinity.parse("0,2,5")));
+	}
+
+	@Test
+	public void testParseRanges() {
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 8, 10, 11 }, cpus(CpuAffinity.parse("0-3,8,10-11")));
+	}
+
+	@Test
+	public void testParseWhitespace() {
+		assertArrayEquals(new int[] { 1, 2, 4 }, cpus(CpuAffinity.parse(" 1 - 2 , 4 ")));
+	}
+
+	@Test
+	public void testParseGrows() {
+		final CpuAffinity affinity = CpuAffinity.parse("0-63");
+		assertEquals(64, affinity.size());
+		assertEquals(63, affinity.getCpu(63));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseReversedRange() {
+		CpuAffinity.parse("3-1");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseNotANumber() {
+		CpuAffinity.parse("0,a");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseEmpty() {
+		CpuAffinity.parse("");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseNegative() {
+		CpuAffinity.parse("-1");
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testParseNull() {
+		CpuAffinity.parse(null);
+	}
+
+	@Test
+	public void testRoundRobin() {
+		final CpuAffinity affinity = CpuAffinity.of(4, 6);
+		assertEquals(4, affinity.nextCpu());
+		assertEquals(6, affinity.nextCpu());
+		assertEquals(4, affinity.nextCpu());
+		assertEquals(6, affinity.getCpu(-1));
+	}
+
+	@Test
+	public void testNone() {
+		final CpuAffinity affinity = CpuAffinity.none();
+		assertFalse(affinity.isEnabled());
+		assertSame(affinity, CpuAffinity.of());
+		final ThreadFactory factory = Executors.defaultThreadFactory();
+		assertSame(factory, affinity.apply(factory));
+		final Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				return;
+			}
+		};
+		assertSame(task, affinity.pairWithCaller(task));
+	}
+
+	@Test
+	public void testEnabled() {
+		assertTrue(CpuAffinity.of(0).isEnabled());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeCpu() {
+		CpuAffinity.of(0, -2);
+	}
+
+}
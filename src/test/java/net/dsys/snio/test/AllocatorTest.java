@@ -0,0 +1,218 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.dsys.snio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.dsys.snio.api.buffer.BufferAllocator;
+import net.dsys.snio.impl.buffer.BufferAllocators;
+import net.dsys.snio.impl.buffer.DirectRegionFactory;
+
+import org.junit.Test;
+
+/**
+ * @author Ricardo Padilha
+ */
+public final class AllocatorTest {
+
+	private static final int SLAB_SIZE = 4096;
+
+	public AllocatorTest() {
+		super();
+	}
+
+	@Test
+	public void testSlabAllocate() {
+		final BufferAllocator allocator = BufferAllocators.slab(SLAB_SIZE);
+		final ByteBuffer small = allocator.allocate(1);
+		assertTrue(small.isDirect());
+		assertEquals(64, small.capacity());
+		assertEquals(0, small.position());
+		assertEquals(small.capacity(), small.limit());
+		final ByteBuffer medium = allocator.allocate(1000);
+		assertEquals(1024, medium.capacity());
+		assertEquals(2 * SLAB_SIZE, allocator.getReserved());
+		assertEquals(64 + 1024, allocator.getAllocated());
+	}
+
+	@Test
+	public void testSlabRelease() {
+		final BufferAllocator allocator = BufferAllocators.slab(SLAB_SIZE);
+		final ByteBuffer first = allocator.allocate(100);
+		first.putInt(1);
+		allocator.release(first);
+		assertEquals(0, allocator.getAllocated());
+		assertEquals(SLAB_SIZE, allocator.getReserved());
+		final ByteBuffer second = allocator.allocate(128);
+		assertSame(first, second);
+		assertEquals(0, second.position());
+		assertEquals(SLAB_SIZE, allocator.getReserved());
+	}
+
+	@Test
+	public void testSlabFillsRegion() {
+		final BufferAllocator allocator = BufferAllocators.slab(SLAB_SIZE);
+		for (int i = 0; i < SLAB_SIZE / 256; i++) {
+			allocator.allocate(256);
+		}
+		assertEquals(SLAB_SIZE, allocator.getReserved());
+		allocator.allocate(256);
+		assertEquals(2 * SLAB_SIZE, allocator.getReserved());
+		assertEquals(SLAB_SIZE + 256, allocator.getAllocated());
+	}
+
+	@Test
+	public void testSlabLarge() {
+		final BufferAllocator allocator = BufferAllocators.slab(SLAB_SIZE);
+		final ByteBuffer large = allocator.allocate(SLAB_SIZE + 1);
+		assertEquals(SLAB_SIZE + 1, large.capacity());
+		assertEquals(SLAB_SIZE + 1, allocator.getReserved());
+		assertEquals(SLAB_SIZE + 1, allocator.getAllocated());
+		allocator.release(large);
+		assertEquals(0, allocator.getReserved());
+		assertEquals(0, allocator.getAllocated());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSlabReleaseForeignLarge() {
+		final BufferAllocator allocator = BufferAllocators.slab(SLAB_SIZE);
+		allocator.allocate(SLAB_SIZE + 1);
+		allocator.release(ByteBuffer.allocateDirect(SLAB_SIZE + 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSlabReleaseForeignSlice() {
+		final BufferAllocator allocator = BufferAllocators.slab(SLAB_SIZE);
+		allocator.allocate(64);
+		allocator.release(ByteBuffer.allocateDirect(64));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSlabReleaseTwice() {
+		final BufferAllocator allocator = BufferAllocators.slab(SLAB_SIZE);
+		final ByteBuffer buffer = allocator.allocate(64);
+		allocator.release(buffer);
+		allocator.release(buffer);
+	}
+
+	@Test
+	public void testDirect() {
+		final BufferAllocator allocator = BufferAllocators.direct();
+		final ByteBuffer buffer = allocator.allocate(100);
+		assertTrue(buffer.isDirect());
+		assertEquals(100, buffer.capacity());
+		assertEquals(100, allocator.getAllocated());
+		allocator.release(buffer);
+		assertEquals(0, allocator.getAllocated());
+	}
+
+	@Test
+	public void testRegionRelease() {
+		final DirectRegionFactory factory = new DirectRegionFactory(100, 4);
+		final ByteBuffer[] slots = new ByteBuffer[4];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = factory.newInstance();
+			assertTrue(slots[i].isDirect());
+			assertEquals(100, slots[i].capacity());
+			slots[i].putInt(0, i);
+		}
+		for (int i = 0; i < slots.length; i++) {
+			assertEquals(i, slots[i].getInt(0));
+		}
+		final long reserved = factory.getReserved();
+		assertTrue(reserved >= 4 * 128);
+		final long used = getDirectMemoryUsed();
+		for (int i = 0; i < slots.length - 1; i++) {
+			factory.release(slots[i]);
+		}
+		assertEquals(reserved, factory.getReserved());
+		factory.release(slots[slots.length - 1]);
+		assertEquals(0, factory.getReserved());
+		assertTrue(getDirectMemoryUsed() <= used - reserved);
+	}
+
+	@Test
+	public void testRegionPerThread() throws InterruptedException, ExecutionException {
+		final DirectRegionFactory factory = new DirectRegionFactory(100, 4);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final ByteBuffer[] mine = new ByteBuffer[4];
+			mine[0] = factory.newInstance();
+			mine[1] = factory.newInstance();
+			final long region = factory.getReserved();
+			// another thread creates a ring in the middle of this one
+			final ByteBuffer[] theirs = executor.submit(new Callable<ByteBuffer[]>() {
+				@Override
+				public ByteBuffer[] call() {
+					final ByteBuffer[] slots = new ByteBuffer[4];
+					for (int i = 0; i < slots.length; i++) {
+						slots[i] = factory.newInstance();
+					}
+					return slots;
+				}
+			}).get();
+			mine[2] = factory.newInstance();
+			mine[3] = factory.newInstance();
+			assertEquals(2 * region, factory.getReserved());
+			for (final ByteBuffer slot : mine) {
+				factory.release(slot);
+			}
+			assertEquals(region, factory.getReserved());
+			for (final ByteBuffer slot : theirs) {
+				factory.release(slot);
+			}
+			assertEquals(0, factory.getReserved());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegionReleaseTwice() {
+		final DirectRegionFactory factory = new DirectRegionFactory(100, 4);
+		final ByteBuffer slot = factory.newInstance();
+		factory.release(slot);
+		factory.release(slot);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegionReleaseForeign() {
+		final DirectRegionFactory factory = new DirectRegionFactory(100, 4);
+		factory.release(ByteBuffer.allocateDirect(100));
+	}
+
+	private static long getDirectMemoryUsed() {
+		for (final BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(pool.getName())) {
+				return pool.getMemoryUsed();
+			}
+		}
+		throw new AssertionError("no direct buffer pool");
+	}
+
+}
@@ -16,6 +16,7 @@
 
 package net.dsys.snio.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -26,19 +27,29 @@ import java.net.BindException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 
+import net.dsys.commons.api.future.CallbackFuture;
 import net.dsys.commons.impl.future.SettableFuture;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
+import net.dsys.snio.api.channel.AcceptListener;
+import net.dsys.snio.api.channel.CloseListener;
 import net.dsys.snio.api.channel.MessageChannel;
 import net.dsys.snio.api.channel.MessageServerChannel;
+import net.dsys.snio.api.pool.Migratable;
+import net.dsys.snio.api.pool.SelectorExecutor;
 import net.dsys.snio.api.pool.SelectorPool;
 import net.dsys.snio.demo.DemoSSLContext;
 import net.dsys.snio.impl.channel.MessageChannels;
@@ -326,6 +337,58 @@ public final class CloseTest {
 		server.close();
 	}
 
+	@Test
+	public void testCloseDuringMigrationTCP() throws Exception {
+		final InetAddress addr = InetAddress.getLocalHost();
+		final int port = atomicPort.getAndDecrement();
+		final InetSocketAddress local = new InetSocketAddress(port);
+		final InetSocketAddress remote = new InetSocketAddress(addr, port);
+
+		final ServerSocketChannel server = ServerSocketChannel.open();
+		server.configureBlocking(true);
+		try {
+			server.bind(local);
+		} catch (final BindException e) {
+			fail("test failed: test port is already occupied -- make sure that no other process is using that port");
+			server.close();
+			return;
+		}
+
+		final SelectorPool pair = SelectorPools.open("migrate", 2);
+		final ChannelConfig<ByteBuffer> common = new ChannelConfig<ByteBuffer>()
+				.setPool(pair)
+				.setBufferCapacity(CAPACITY);
+		try {
+			for (int i = 0; i < 300; i++) {
+				final MessageChannel<ByteBuffer> channel = MessageChannels.openTCPChannel(common, client);
+				channel.connect(remote);
+				final SocketChannel endpoint = server.accept();
+				assertNotNull(endpoint);
+				channel.getConnectFuture().get();
+
+				final Migratable migratable = (Migratable) channel;
+				final SelectorExecutor current = migratable.getExecutor();
+				final SelectorExecutor target = pair.get(0) == current ? pair.get(1) : pair.get(0);
+				final CallbackFuture<Void> migration = migratable.migrate(target);
+				// close at a different point of the migration each time
+				LockSupport.parkNanos((i % 16) * 5_000L);
+				channel.close();
+				channel.getCloseFuture().get(1, TimeUnit.SECONDS);
+				assertFalse(channel.isOpen());
+				try {
+					migration.get(1, TimeUnit.SECONDS);
+				} catch (final ExecutionException e) {
+					// closed before it was registered again
+				}
+				endpoint.close();
+			}
+		} finally {
+			server.close();
+			pair.close();
+			pair.getCloseFuture().get();
+		}
+	}
+
 	@Test
 	public void testConnectionSSL() throws Exception {
 		final InetAddress addr = InetAddress.getLocalHost();
@@ -358,6 +421,45 @@ public final class CloseTest {
 		server.getCloseFuture().get();
 	}
 
+	@Test
+	public void testConnectionSSLUnifiedLoop() throws Exception {
+		final InetAddress addr = InetAddress.getLocalHost();
+		final int port = atomicPort.getAndDecrement();
+		final InetSocketAddress local = new InetSocketAddress(port);
+		final InetSocketAddress remote = new InetSocketAddress(addr, port);
+
+		final SelectorPool unified = SelectorPools.buildPool().setName("unified").setSize(1).useUnifiedLoop().open();
+		final ChannelConfig<ByteBuffer> common = new ChannelConfig<ByteBuffer>()
+				.setPool(unified)
+				.setBufferCapacity(CAPACITY);
+
+		final MessageServerChannel<?> server = MessageServerChannels.openSSLServerChannel(common, this.server, ssl);
+		try {
+			server.bind(local);
+			server.getBindFuture().get();
+		} catch (final BindException e) {
+			fail("test failed: test port is already occupied -- make sure that no other process is using that port");
+			server.close();
+			return;
+		}
+
+		final MessageChannel<?> client = MessageChannels.openSSLChannel(common, this.client, ssl);
+		assertTrue(client.isOpen());
+		client.connect(remote);
+		client.getConnectFuture().get();
+
+		client.close();
+		client.getCloseFuture().get();
+		assertFalse(client.isOpen());
+
+		server.close();
+		server.getCloseFuture().get();
+
+		unified.close();
+		unified.getCloseFuture().get();
+		assertFalse(unified.isOpen());
+	}
+
 	@Test
 	public void testFailedConnectionTCP() throws Exception {
 		final InetAddress addr = InetAddress.getLocalHost();
@@ -415,6 +517,132 @@ public final class CloseTest {
 
 	}
 
+	@Test
+	public void testFailedAcceptListenerTCP() throws Exception {
+		final InetAddress addr = InetAddress.getLocalHost();
+		final int port = atomicPort.getAndDecrement();
+		final InetSocketAddress local = new InetSocketAddress(port);
+		final InetSocketAddress remote = new InetSocketAddress(addr, port);
+
+		final AtomicInteger accepted = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(2);
+		final MessageServerChannel<ByteBuffer> server = MessageServerChannels.openTCPServerChannel(common, this.server);
+		server.onAccept(new AcceptListener<ByteBuffer>() {
+			@Override
+			public void connectionAccepted(final SocketAddress remote, final MessageChannel<ByteBuffer> channel) {
+				latch.countDown();
+				if (accepted.getAndIncrement() == 0) {
+					throw new IllegalStateException("rejected");
+				}
+			}
+		});
+		try {
+			server.bind(local);
+			server.getBindFuture().get();
+		} catch (final BindException e) {
+			fail("test failed: test port is already occupied -- make sure that no other process is using that port");
+			server.close();
+			return;
+		}
+
+		// the first connection is closed by the server
+		final SocketChannel first = SocketChannel.open(remote);
+		assertEquals(-1, first.read(ByteBuffer.allocate(1)));
+		first.close();
+
+		// the selector thread still accepts
+		final SocketChannel second = SocketChannel.open(remote);
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(2, accepted.get());
+		second.close();
+
+		server.close();
+		server.getCloseFuture().get();
+	}
+
+	@Test
+	public void testMultipleAcceptorsTCP() throws Exception {
+		final InetAddress addr = InetAddress.getLocalHost();
+		final int port = atomicPort.getAndDecrement();
+		final InetSocketAddress local = new InetSocketAddress(port);
+		final InetSocketAddress remote = new InetSocketAddress(addr, port);
+		final int n = 8;
+
+		final SelectorPool multi = SelectorPools.open("multi", 2);
+		final ChannelConfig<ByteBuffer> common = new ChannelConfig<ByteBuffer>()
+				.setPool(multi)
+				.setBufferCapacity(CAPACITY);
+		final List<MessageChannel<ByteBuffer>> accepted = new CopyOnWriteArrayList<>();
+		final CountDownLatch acceptLatch = new CountDownLatch(n);
+		final AtomicInteger closed = new AtomicInteger();
+		final CountDownLatch closeLatch = new CountDownLatch(n);
+		final MessageServerChannel<ByteBuffer> server = MessageServerChannels.openTCPServerChannel(common,
+				new ServerConfig().setMessageLength(LENGTH).useMultipleAcceptors());
+		server.onAccept(new AcceptListener<ByteBuffer>() {
+			@Override
+			public void connectionAccepted(final SocketAddress remote, final MessageChannel<ByteBuffer> channel) {
+				accepted.add(channel);
+				acceptLatch.countDown();
+			}
+		});
+		server.onClose(new CloseListener<ByteBuffer>() {
+			@Override
+			public void connectionClosed(final MessageChannel<ByteBuffer> channel) {
+				closed.incrementAndGet();
+				closeLatch.countDown();
+			}
+		});
+		try {
+			server.bind(local);
+			server.getBindFuture().get();
+		} catch (final BindException e) {
+			fail("test failed: test port is already occupied -- make sure that no other process is using that port");
+			server.close();
+			multi.close();
+			return;
+		}
+
+		final List<SocketChannel> clients = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			clients.add(SocketChannel.open(remote));
+		}
+		assertTrue(acceptLatch.await(10, TimeUnit.SECONDS));
+
+		// each connection is reported once, whichever socket accepted it
+		for (final MessageChannel<ByteBuffer> channel : accepted) {
+			channel.close();
+			channel.getCloseFuture().get();
+		}
+		assertTrue(closeLatch.await(10, TimeUnit.SECONDS));
+		assertEquals(n, closed.get());
+		for (final SocketChannel client : clients) {
+			client.close();
+		}
+
+		server.close();
+		server.getCloseFuture().get();
+		assertFalse(server.isOpen());
+
+		// all listening sockets are gone once their selector flushed the keys
+		final long deadline = System.nanoTime() + SEC;
+		while (true) {
+			final ServerSocketChannel check = ServerSocketChannel.open();
+			try {
+				check.bind(local);
+				break;
+			} catch (final BindException e) {
+				if (System.nanoTime() - deadline >= 0) {
+					throw e;
+				}
+				LockSupport.parkNanos(SEC / 100);
+			} finally {
+				check.close();
+			}
+		}
+		multi.close();
+		multi.getCloseFuture().get();
+	}
+
 	@Test
 	public void testClientInterruptWriteTCP() throws Exception {
 		final InetAddress addr = InetAddress.getLocalHost();
@@ -17,20 +17,40 @@
 package net.dsys.snio.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+import net.dsys.commons.api.lang.Cleaner;
 import net.dsys.commons.api.lang.Factory;
 import net.dsys.commons.impl.future.CountDownFuture;
 import net.dsys.commons.impl.lang.ByteBufferFactory;
+import net.dsys.snio.api.buffer.InterruptedByClose;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
+import net.dsys.snio.api.buffer.MessageBufferHandler;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
 import net.dsys.snio.api.buffer.MessageBufferProvider;
+import net.dsys.snio.api.pool.KeyProcessor;
 import net.dsys.snio.impl.buffer.BlockingQueueProvider;
+import net.dsys.snio.impl.buffer.ByteRingProvider;
+import net.dsys.snio.impl.buffer.ConcurrentRingProvider;
+import net.dsys.snio.impl.buffer.DirectRegionFactory;
 import net.dsys.snio.impl.buffer.RingBufferProvider;
 
 import org.junit.After;
@@ -138,6 +158,74 @@ public final class ProviderTest {
 		future.get();
 	}
 
+	private static void testDrain(final MessageBufferProducer<ByteBuffer> out,
+			final MessageBufferConsumer<ByteBuffer> in) throws InterruptedException, IOException {
+		final int n = 5;
+		for (int i = 0; i < n; i++) {
+			final long seq = out.acquire();
+			final ByteBuffer bb = out.get(seq);
+			bb.clear();
+			bb.putInt(i);
+			bb.flip();
+			out.attach(seq, Integer.valueOf(i));
+			out.release(seq);
+		}
+		assertEquals(n, in.remaining());
+
+		final int[] next = new int[1];
+		final boolean[] end = new boolean[1];
+		final MessageBufferHandler<ByteBuffer> handler = new MessageBufferHandler<ByteBuffer>() {
+			@Override
+			public boolean handle(final ByteBuffer message, final Object attachment, final boolean endOfBatch) {
+				if (next[0] == 2 && !end[0]) {
+					// refuse once, the message must stay in the buffer
+					end[0] = true;
+					return false;
+				}
+				assertEquals(next[0], message.getInt(0));
+				assertEquals(next[0], ((Integer) attachment).intValue());
+				end[0] = endOfBatch;
+				next[0]++;
+				return true;
+			}
+		};
+		assertEquals(2, in.drainTo(handler, n));
+		assertEquals(n - 2, in.remaining());
+		assertEquals(2, in.drainTo(handler, 2));
+		assertTrue(end[0]);
+		assertEquals(1, in.drainTo(handler, n));
+		assertTrue(end[0]);
+		assertEquals(0, in.drainTo(handler, n));
+		assertEquals(0, in.remaining());
+		assertEquals(n, next[0]);
+	}
+
+	@Test
+	public void testDrainRingBuffer() throws InterruptedException, IOException {
+		provider = RingBufferProvider.createProviderFactory(8, factory).newInstance();
+		testDrain(provider.getChannelOutput(), provider.getAppInput());
+		in = RingBufferProvider.createConsumer(8, factory);
+		testDrain(in.createProducer(), in);
+	}
+
+	@Test
+	public void testDrainBlockingQueue() throws InterruptedException, IOException {
+		provider = BlockingQueueProvider.createProviderFactory(8, factory).newInstance();
+		testDrain(provider.getChannelOutput(), provider.getAppInput());
+	}
+
+	@Test
+	public void testDrainConcurrentRing() throws InterruptedException, IOException {
+		provider = ConcurrentRingProvider.createProviderFactory(8, factory).newInstance();
+		testDrain(provider.getChannelOutput(), provider.getAppInput());
+	}
+
+	@Test
+	public void testDrainByteRing() throws InterruptedException, IOException {
+		provider = ByteRingProvider.createProviderFactory(8, Integer.SIZE / Byte.SIZE, 1024).newInstance();
+		testDrain(provider.getChannelOutput(), provider.getAppInput());
+	}
+
 	@Test
 	public void testRingBuffer() throws InterruptedException, ExecutionException {
 		provider = RingBufferProvider.createProviderFactory(1, factory).newInstance();
@@ -154,4 +242,579 @@ public final class ProviderTest {
 		test(out, in);
 	}
 
+	@Test
+	public void testBlockingQueueAnyCapacity() throws InterruptedException, ExecutionException, IOException {
+		provider = BlockingQueueProvider.createProviderFactory(3, factory).newInstance();
+		out = provider.getChannelOutput();
+		in = provider.getAppInput();
+		test(out, in);
+		provider = BlockingQueueProvider.createProviderFactory(5, factory).newInstance();
+		testDrain(provider.getChannelOutput(), provider.getAppInput());
+	}
+
+	@Test
+	public void testBlockingQueuePublishOrder() throws InterruptedException {
+		in = BlockingQueueProvider.createConsumer(6, factory);
+		final MessageBufferProducer<ByteBuffer> first = in.createProducer();
+		final MessageBufferProducer<ByteBuffer> second = in.createProducer();
+
+		// the claims of both producers interleave
+		final long a = first.acquire();
+		final long b = second.acquire(2);
+		final long c = first.acquire();
+		assertEquals(a + 1, b - 1);
+		assertEquals(b + 1, c);
+		first.get(a).putInt(0, 1);
+		second.get(b - 1).putInt(0, 2);
+		second.get(b).putInt(0, 3);
+		first.get(c).putInt(0, 4);
+
+		// nothing is visible until the oldest claim is published
+		second.release(b);
+		assertEquals(0, in.remaining());
+		// releasing c also publishes a, since both belong to the first producer
+		first.release(c);
+		assertEquals(4, in.remaining());
+		final long last = in.acquire(4);
+		assertEquals(c, last);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i + 1, in.get(a + i).getInt(0));
+		}
+		in.release(last);
+		assertEquals(6, in.createProducer().remaining());
+	}
+
+	@Test
+	public void testBlockingQueueInterruptedByClose() throws InterruptedException, ExecutionException {
+		provider = BlockingQueueProvider.createProviderFactory(3, factory).newInstance();
+		out = provider.getAppOutput(newProcessor());
+		in = provider.getAppInput();
+		for (int i = 0; i < 3; i++) {
+			out.release(out.acquire());
+		}
+		final CountDownLatch started = new CountDownLatch(2);
+		final Callable<Void> put = new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				started.countDown();
+				// the buffer is full
+				out.acquire();
+				return null;
+			}
+		};
+		final Callable<Void> take = new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				started.countDown();
+				// nothing was published to the application
+				in.acquire();
+				return null;
+			}
+		};
+		final Future<Void> blockedPut = executor.submit(put);
+		final Future<Void> blockedTake = executor.submit(take);
+		started.await();
+		LockSupport.parkNanos(10_000_000L);
+		assertFalse(blockedPut.isDone());
+		assertFalse(blockedTake.isDone());
+		provider.close();
+		assertInterruptedByClose(blockedPut);
+		assertInterruptedByClose(blockedTake);
+	}
+
+	private static void assertInterruptedByClose(final Future<Void> future) throws InterruptedException {
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail("not interrupted by close");
+		} catch (final ExecutionException e) {
+			assertTrue(e.getCause() instanceof InterruptedByClose);
+		} catch (final TimeoutException e) {
+			fail("still blocked after close");
+		}
+	}
+
+	@Test
+	public void testConcurrentRing() throws InterruptedException, ExecutionException {
+		provider = ConcurrentRingProvider.createProviderFactory(1, factory).newInstance();
+		out = provider.getChannelOutput();
+		in = provider.getAppInput();
+		test(out, in);
+	}
+
+	@Test
+	public void testConcurrentRingMultiProducer() throws InterruptedException, ExecutionException {
+		in = ConcurrentRingProvider.createConsumer(1, factory);
+		out = in.createProducer();
+		test(out, in);
+	}
+
+	@Test
+	public void testByteRing() throws InterruptedException, ExecutionException {
+		provider = ByteRingProvider.createProviderFactory(1, Integer.SIZE / Byte.SIZE, 1).newInstance();
+		out = provider.getChannelOutput();
+		in = provider.getAppInput();
+		test(out, in);
+	}
+
+	/**
+	 * Processor that ignores every call, for providers used without a channel.
+	 */
+	@SuppressWarnings("unchecked")
+	private static KeyProcessor<ByteBuffer> newProcessor() {
+		return (KeyProcessor<ByteBuffer>) Proxy.newProxyInstance(KeyProcessor.class.getClassLoader(),
+				new Class<?>[] { KeyProcessor.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(final Object proxy, final Method method, final Object[] args) {
+						return null;
+					}
+				});
+	}
+
+	@Test
+	public void testRecycleWhileConsumerBusy() throws InterruptedException {
+		final AtomicInteger created = new AtomicInteger();
+		final AtomicInteger cleared = new AtomicInteger();
+		final Factory<ByteBuffer> slots = new Factory<ByteBuffer>() {
+			@Override
+			public ByteBuffer newInstance() {
+				created.incrementAndGet();
+				return factory.newInstance();
+			}
+		};
+		final Cleaner<ByteBuffer> cleaner = new Cleaner<ByteBuffer>() {
+			@Override
+			public void clear(final ByteBuffer message) {
+				cleared.incrementAndGet();
+				message.clear();
+				message.putInt(0, 0);
+			}
+		};
+		final Factory<MessageBufferProvider<ByteBuffer>> providers =
+				RingBufferProvider.createRecyclingProviderFactory(4, slots, cleaner, 1);
+		provider = providers.newInstance();
+		provider.getAppOutput(newProcessor());
+		assertEquals(8, created.get());
+		out = provider.getChannelOutput();
+		in = provider.getAppInput();
+
+		final long seq = out.acquire();
+		final ByteBuffer bb = out.get(seq);
+		bb.clear();
+		bb.putInt(42);
+		bb.flip();
+		out.release(seq);
+
+		// the consumer is still busy with the message when the peer disconnects
+		final long held = in.acquire();
+		final ByteBuffer message = in.get(held);
+		provider.close();
+		provider.recycle();
+		assertEquals(0, cleared.get());
+
+		// so the next connection cannot get its slots
+		providers.newInstance();
+		assertEquals(16, created.get());
+		assertEquals(42, message.getInt(0));
+
+		// they are given back once the consumer is done
+		try {
+			in.release(held);
+			fail("released despite being closed");
+		} catch (final InterruptedByClose e) {
+			// expected
+		}
+		assertEquals(8, cleared.get());
+		providers.newInstance();
+		assertEquals(16, created.get());
+	}
+
+	@Test
+	public void testRecycleIdleConsumer() throws InterruptedException {
+		final AtomicInteger created = new AtomicInteger();
+		final Factory<ByteBuffer> slots = new Factory<ByteBuffer>() {
+			@Override
+			public ByteBuffer newInstance() {
+				created.incrementAndGet();
+				return factory.newInstance();
+			}
+		};
+		final Cleaner<ByteBuffer> cleaner = new Cleaner<ByteBuffer>() {
+			@Override
+			public void clear(final ByteBuffer message) {
+				message.clear();
+			}
+		};
+		final Factory<MessageBufferProvider<ByteBuffer>> providers =
+				RingBufferProvider.createRecyclingProviderFactory(4, slots, cleaner, 1);
+		provider = providers.newInstance();
+		provider.getAppOutput(newProcessor());
+		out = provider.getChannelOutput();
+		in = provider.getAppInput();
+		final long seq = out.acquire();
+		out.release(seq);
+		in.release(in.acquire());
+		provider.close();
+		provider.recycle();
+		try {
+			in.acquire();
+			fail("acquired despite being closed");
+		} catch (final InterruptedByClose e) {
+			// expected
+		}
+		providers.newInstance();
+		assertEquals(8, created.get());
+	}
+
+	@Test
+	public void testRecycleWhileProducerBusy() throws InterruptedException {
+		final AtomicInteger created = new AtomicInteger();
+		final Factory<ByteBuffer> slots = new Factory<ByteBuffer>() {
+			@Override
+			public ByteBuffer newInstance() {
+				created.incrementAndGet();
+				return factory.newInstance();
+			}
+		};
+		final Cleaner<ByteBuffer> cleaner = new Cleaner<ByteBuffer>() {
+			@Override
+			public void clear(final ByteBuffer message) {
+				message.clear();
+			}
+		};
+		final Factory<MessageBufferProvider<ByteBuffer>> providers =
+				RingBufferProvider.createRecyclingProviderFactory(4, slots, cleaner, 1);
+		provider = providers.newInstance();
+		out = provider.getAppOutput(newProcessor());
+
+		// an application thread is still writing when the peer disconnects
+		final long seq = out.acquire();
+		provider.close();
+		provider.recycle();
+		providers.newInstance();
+		assertEquals(16, created.get());
+		try {
+			out.release(seq);
+			fail("released despite being closed");
+		} catch (final InterruptedByClose e) {
+			// expected
+		}
+		providers.newInstance();
+		assertEquals(16, created.get());
+	}
+
+	@Test
+	public void testReleaseRegionsRingBuffer() throws InterruptedException {
+		final DirectRegionFactory regions = new DirectRegionFactory(4, 4);
+		checkReleaseRegions(regions, RingBufferProvider.createProvider(4, regions));
+	}
+
+	@Test
+	public void testReleaseRegionsBlockingQueue() throws InterruptedException {
+		final DirectRegionFactory regions = new DirectRegionFactory(4, 4);
+		checkReleaseRegions(regions, BlockingQueueProvider.createProvider(4, regions));
+	}
+
+	@Test
+	public void testReleaseRegionsConcurrentRing() throws InterruptedException {
+		final DirectRegionFactory regions = new DirectRegionFactory(4, 4);
+		checkReleaseRegions(regions, ConcurrentRingProvider.createProvider(4, regions));
+	}
+
+	/**
+	 * The regions of the provider are freed once the channel is done and the
+	 * application released the slots it holds.
+	 */
+	private void checkReleaseRegions(final DirectRegionFactory regions,
+			final MessageBufferProvider<ByteBuffer> provider) throws InterruptedException {
+		final long reserved = regions.getReserved();
+		assertTrue(reserved > 0);
+		out = provider.getAppOutput(newProcessor());
+		in = provider.getAppInput();
+		final MessageBufferProducer<ByteBuffer> chnOut = provider.getChannelOutput();
+		final long published = chnOut.acquire();
+		chnOut.get(published).putInt(0, 42);
+		chnOut.release(published);
+
+		// the application is busy with both of its rings when the peer disconnects
+		final long written = out.acquire();
+		final long read = in.acquire();
+		provider.close();
+		provider.recycle();
+		assertEquals(reserved, regions.getReserved());
+		assertEquals(42, in.get(read).getInt(0));
+		try {
+			out.release(written);
+			fail("released despite being closed");
+		} catch (final InterruptedByClose e) {
+			// expected
+		}
+		assertEquals(reserved, regions.getReserved());
+		try {
+			in.release(read);
+			fail("released despite being closed");
+		} catch (final InterruptedByClose e) {
+			// expected
+		}
+		assertEquals(0, regions.getReserved());
+	}
+
+	@Test
+	public void testRecycleKeepsRegions() throws InterruptedException {
+		final DirectRegionFactory regions = new DirectRegionFactory(4, 4);
+		final Cleaner<ByteBuffer> cleaner = new Cleaner<ByteBuffer>() {
+			@Override
+			public void clear(final ByteBuffer message) {
+				message.clear();
+			}
+		};
+		final Factory<MessageBufferProvider<ByteBuffer>> providers =
+				RingBufferProvider.createRecyclingProviderFactory(4, regions, cleaner, 1);
+		final MessageBufferProvider<ByteBuffer> first = providers.newInstance();
+		first.getAppOutput(newProcessor());
+		final long reserved = regions.getReserved();
+		first.close();
+		first.recycle();
+		assertEquals(reserved, regions.getReserved());
+
+		// the next provider takes both rings of the first one
+		final MessageBufferProvider<ByteBuffer> second = providers.newInstance();
+		second.getAppOutput(newProcessor());
+		assertEquals(reserved, regions.getReserved());
+		final MessageBufferProvider<ByteBuffer> third = providers.newInstance();
+		third.getAppOutput(newProcessor());
+		assertEquals(2 * reserved, regions.getReserved());
+
+		// only the rings of one provider are kept, those of the other are freed
+		second.close();
+		second.recycle();
+		third.close();
+		third.recycle();
+		assertEquals(reserved, regions.getReserved());
+	}
+
+	private static void put(final ByteBuffer bb, final int value, final int length) {
+		bb.clear();
+		for (int i = 0; i < length; i++) {
+			bb.put((byte) (value + i));
+		}
+		bb.flip();
+	}
+
+	private static void check(final ByteBuffer bb, final int value, final int length) {
+		assertEquals(0, bb.position());
+		assertEquals(length, bb.remaining());
+		for (int i = 0; i < length; i++) {
+			assertEquals((byte) (value + i), bb.get(i));
+		}
+	}
+
+	@Test
+	public void testByteRingWrapAround() throws InterruptedException {
+		// room for a few records only, of lengths that do not divide the region
+		final int maxLength = 21;
+		provider = ByteRingProvider.createProvider(8, maxLength, 100);
+		out = provider.getChannelOutput();
+		in = provider.getAppInput();
+		int written = 0;
+		int read = 0;
+		for (int lap = 0; lap < 1000; lap++) {
+			// never ask for more than is free, so that exactly k are acquired
+			final int k = Math.min(1 + lap % 3, Math.max(1, out.remaining()));
+			final long last = out.acquire(k);
+			for (long seq = last - k + 1; seq <= last; seq++) {
+				put(out.get(seq), written, 1 + written % maxLength);
+				written++;
+			}
+			out.release(last);
+			while (in.remaining() > 0) {
+				final long seq = in.acquire();
+				check(in.get(seq), read, 1 + read % maxLength);
+				in.release(seq);
+				read++;
+			}
+		}
+		assertEquals(written, read);
+	}
+
+	@Test
+	public void testByteRingOutOfOrderWrite() throws InterruptedException {
+		provider = ByteRingProvider.createProvider(8, 16, 1024);
+		out = provider.getChannelOutput();
+		in = provider.getAppInput();
+		for (int lap = 0; lap < 100; lap++) {
+			// lay out all records first, then fill them backwards
+			final long last = out.acquire(4);
+			final ByteBuffer[] bbs = new ByteBuffer[4];
+			for (int i = 0; i < 4; i++) {
+				bbs[i] = out.get(last - 3 + i);
+			}
+			for (int i = 3; i >= 0; i--) {
+				put(bbs[i], lap + i, 1 + (lap + i) % 16);
+			}
+			out.release(last);
+			assertEquals(4, in.remaining());
+			for (int i = 0; i < 4; i++) {
+				final long seq = in.acquire();
+				check(in.get(seq), lap + i, 1 + (lap + i) % 16);
+				in.release(seq);
+			}
+		}
+	}
+
+	@Test
+	public void testByteRingBatchShrinks() throws InterruptedException {
+		// room for four records of maximum length
+		provider = ByteRingProvider.createProvider(16, 60, 256);
+		out = provider.getChannelOutput();
+		in = provider.getAppInput();
+		int written = 0;
+		while (out.remaining() > 0) {
+			// batches of small messages only take the bytes they use
+			final int k = Math.min(3, out.remaining());
+			final long last = out.acquire(k);
+			for (long seq = last - k + 1; seq <= last; seq++) {
+				put(out.get(seq), written, 4);
+				written++;
+			}
+			out.release(last);
+		}
+		assertEquals(16, written);
+		for (int i = 0; i < written; i++) {
+			final long seq = in.acquire();
+			check(in.get(seq), i, 4);
+			in.release(seq);
+		}
+	}
+
+	@Test
+	public void testByteRingMultiProducer() throws InterruptedException, ExecutionException {
+		final int threads = 4;
+		final int reps = REPS / threads;
+		provider = ByteRingProvider.createProvider(16, 16, 256);
+		out = provider.getAppOutput(newProcessor());
+		in = provider.getChannelInput();
+		final CountDownLatch latch = new CountDownLatch(threads + 1);
+		final CountDownFuture<Void> future = new CountDownFuture<>(latch, null);
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < reps; i++) {
+							final long seq = out.acquire();
+							try {
+								put(out.get(seq), i, 1 + (i + id) % 16);
+								out.attach(seq, Integer.valueOf(id));
+							} finally {
+								out.release(seq);
+							}
+						}
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (final Throwable e) {
+						future.fail(e);
+					} finally {
+						latch.countDown();
+					}
+				}
+			});
+		}
+		final int[] next = new int[threads];
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < reps * threads; i++) {
+						final long seq = in.acquire();
+						final int id = ((Integer) in.attachment(seq)).intValue();
+						check(in.get(seq), next[id], 1 + (next[id] + id) % 16);
+						next[id]++;
+						in.release(seq);
+					}
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (final Throwable e) {
+					future.fail(e);
+				} finally {
+					latch.countDown();
+				}
+			}
+		}).start();
+		future.get();
+		for (int t = 0; t < threads; t++) {
+			assertEquals(reps, next[t]);
+		}
+	}
+
+	/**
+	 * Several threads write to the application output at once, on a ring
+	 * small enough for writers and reader to park.
+	 */
+	@Test(timeout = 60_000)
+	public void testConcurrentRingSharedOutput() throws InterruptedException, ExecutionException {
+		final int threads = 4;
+		final int reps = REPS / threads;
+		provider = ConcurrentRingProvider.createProvider(2, factory);
+		out = provider.getAppOutput(newProcessor());
+		in = provider.getChannelInput();
+		final CountDownLatch latch = new CountDownLatch(threads + 1);
+		final CountDownFuture<Void> future = new CountDownFuture<>(latch, null);
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < reps; i++) {
+							final long seq = out.acquire();
+							try {
+								// other writers release their slots meanwhile
+								Thread.yield();
+								final ByteBuffer bb = out.get(seq);
+								bb.clear();
+								bb.putInt(i);
+								bb.flip();
+								out.attach(seq, Integer.valueOf(id));
+							} finally {
+								out.release(seq);
+							}
+						}
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (final Throwable e) {
+						future.fail(e);
+					} finally {
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+		final int[] next = new int[threads];
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < reps * threads; i++) {
+						final long seq = in.acquire();
+						final int id = ((Integer) in.attachment(seq)).intValue();
+						assertEquals(next[id], in.get(seq).getInt(0));
+						next[id]++;
+						in.release(seq);
+					}
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (final Throwable e) {
+					future.fail(e);
+				} finally {
+					latch.countDown();
+				}
+			}
+		}).start();
+		future.get();
+		for (int t = 0; t < threads; t++) {
+			assertEquals(reps, next[t]);
+		}
+	}
+
 }
@@ -17,7 +17,10 @@
 package net.dsys.snio.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -26,6 +29,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.dsys.commons.api.lang.Interruptible;
+import net.dsys.snio.api.buffer.BufferAllocator;
 import net.dsys.snio.api.buffer.MessageBufferConsumer;
 import net.dsys.snio.api.buffer.MessageBufferProducer;
 import net.dsys.snio.api.channel.AcceptListener;
@@ -47,6 +51,7 @@ import net.dsys.snio.impl.pool.SelectorPools;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
 public final class TransferTest {
 
@@ -162,4 +167,145 @@ public final class TransferTest {
 		}
 	}
 
+	/**
+	 * The client only reads its replies once it sent all of its requests, so
+	 * its input buffer fills up while the single selector thread still has to
+	 * write the rest of the requests.
+	 */
+	@Test(timeout = 60_000)
+	public void testUnifiedLoopFullInput() throws Exception {
+		final int capacity = 4;
+		final int count = 64 * capacity;
+		final SelectorPool unified = SelectorPools.buildPool().setName("unified").setSize(1).useUnifiedLoop().open();
+		final ChannelConfig<ByteBuffer> common = new ChannelConfig<ByteBuffer>()
+				.setPool(unified)
+				.setBufferCapacity(capacity);
+		final int port = atomicPort.getAndDecrement();
+		final MessageHandler<ByteBuffer> handler = MessageHandlers.buildHandler()
+				.useManyConsumers(EchoServer.createFactory())
+				.build();
+		final MessageServerChannel<ByteBuffer> server =
+				MessageServerChannels.openTCPServerChannel(common, new ServerConfig().setMessageLength(8));
+		server.onAccept(handler.getAcceptListener());
+		try {
+			server.bind(new InetSocketAddress(port));
+			server.getBindFuture().get();
+		} catch (final BindException e) {
+			fail("test failed: test port is already occupied -- make sure that no other process is using that port");
+			return;
+		}
+		final MessageChannel<ByteBuffer> client =
+				MessageChannels.openTCPChannel(common, new ClientConfig().setMessageLength(8));
+		client.connect(new InetSocketAddress(InetAddress.getLocalHost(), port));
+		client.getConnectFuture().get();
+
+		final MessageBufferProducer<ByteBuffer> out = client.getOutputBuffer();
+		for (int i = 0; i < count; i++) {
+			final long seq = out.acquire();
+			final ByteBuffer msg = out.get(seq);
+			msg.clear();
+			msg.putInt(i).flip();
+			out.release(seq);
+		}
+		final MessageBufferConsumer<ByteBuffer> in = client.getInputBuffer();
+		for (int i = 0; i < count; i++) {
+			final long seq = in.acquire();
+			assertEquals(i, in.get(seq).getInt(0));
+			in.release(seq);
+		}
+
+		client.close();
+		client.getCloseFuture().get();
+		server.close();
+		server.getCloseFuture().get();
+		handler.close();
+		unified.close();
+		unified.getCloseFuture().get();
+	}
+
+	/**
+	 * With a recycling allocator, connections using lazy buffers give all of
+	 * them back once they are idle.
+	 */
+	@Test(timeout = 60_000)
+	public void testLazyBuffersIdle() throws Exception {
+		final SelectorPool slab = SelectorPools.buildPool().setName("slab").setSize(1)
+				.useSlabAllocator(1 << 16).open();
+		assertEquals(0, idleAllocated(slab));
+	}
+
+	/**
+	 * Without a recycling allocator, lazy buffers are attached eagerly instead
+	 * of being allocated on every read and write.
+	 */
+	@Test(timeout = 60_000)
+	public void testLazyBuffersDirect() throws Exception {
+		final SelectorPool direct = SelectorPools.buildPool().setName("direct").setSize(1)
+				.useDirectAllocator().open();
+		assertTrue(idleAllocated(direct) > 0);
+	}
+
+	/**
+	 * Echoes a few messages over a connection using lazy buffers, then closes
+	 * <code>pool</code>.
+	 * 
+	 * @return the number of bytes held by the allocator of <code>pool</code>
+	 *         once the connection is idle
+	 */
+	private long idleAllocated(final SelectorPool pool) throws Exception {
+		final int count = 64;
+		final ChannelConfig<ByteBuffer> common = new ChannelConfig<ByteBuffer>()
+				.setPool(pool)
+				.useLazyBuffers();
+		final int port = atomicPort.getAndDecrement();
+		final MessageHandler<ByteBuffer> handler = MessageHandlers.buildHandler()
+				.useManyConsumers(EchoServer.createFactory())
+				.build();
+		final MessageServerChannel<ByteBuffer> server =
+				MessageServerChannels.openTCPServerChannel(common, new ServerConfig().setMessageLength(8));
+		server.onAccept(handler.getAcceptListener());
+		try {
+			server.bind(new InetSocketAddress(port));
+			server.getBindFuture().get();
+		} catch (final BindException e) {
+			fail("test failed: test port is already occupied -- make sure that no other process is using that port");
+			return -1;
+		}
+		final MessageChannel<ByteBuffer> client =
+				MessageChannels.openTCPChannel(common, new ClientConfig().setMessageLength(8));
+		client.connect(new InetSocketAddress(InetAddress.getLocalHost(), port));
+		client.getConnectFuture().get();
+
+		final MessageBufferProducer<ByteBuffer> out = client.getOutputBuffer();
+		final MessageBufferConsumer<ByteBuffer> in = client.getInputBuffer();
+		for (int i = 0; i < count; i++) {
+			final long seq = out.acquire();
+			final ByteBuffer msg = out.get(seq);
+			msg.clear();
+			msg.putInt(i).flip();
+			out.release(seq);
+			final long reply = in.acquire();
+			assertEquals(i, in.get(reply).getInt(0));
+			in.release(reply);
+		}
+
+		// the last write may still be completing
+		final BufferAllocator allocator = pool.getAllocator();
+		final long deadline = System.currentTimeMillis() + 1000;
+		long allocated = allocator.getAllocated();
+		while (allocated > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			allocated = allocator.getAllocated();
+		}
+
+		client.close();
+		client.getCloseFuture().get();
+		server.close();
+		server.getCloseFuture().get();
+		handler.close();
+		pool.close();
+		pool.getCloseFuture().get();
+		return allocated;
+	}
+
 }
@@ -0,0 +1,297 @@
+/**
+ * Copyright 2014 Ricardo Padilha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dsys.snio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.dsys.snio.api.buffer.MessageBufferProducer;
+import net.dsys.snio.api.channel.AcceptListener;
+import net.dsys.snio.api.channel.MessageChannel;
+import net.dsys.snio.api.channel.MessageServerChannel;
+import net.dsys.snio.api.pool.SelectorPool;
+import net.dsys.snio.impl.channel.MessageChannels;
+import net.dsys.snio.impl.channel.MessageServerChannels;
+import net.dsys.snio.impl.channel.builder.ChannelConfig;
+import net.dsys.snio.impl.channel.builder.ClientConfig;
+import net.dsys.snio.impl.channel.builder.ServerConfig;
+import net.dsys.snio.impl.pool.SelectorPools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class WriteTest {
+
+	private static final int CAPACITY = 256;
+	private static final int HEADER = 4;
+	private static final int SMALL = 256;
+	private static final int LARGE = 4096;
+	private static final int PORT = 63535;
+	private static final long MILLI = 1_000_000;
+	// copied and gathered bodies, around the gathering threshold
+	private static final int[] SIZES = { 0, 100, 1023, 1024, LARGE };
+
+	private AtomicInteger atomicPort = new AtomicInteger(PORT);
+	private SelectorPool pool;
+	private ServerSocketChannel server;
+	private MessageServerChannel<ByteBuffer> acceptor;
+	private SocketChannel endpoint;
+	private MessageChannel<ByteBuffer> client;
+
+	public WriteTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		pool = SelectorPools.open("test", 1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (client != null) {
+			client.close();
+			client.getCloseFuture().get();
+		}
+		if (endpoint != null) {
+			endpoint.close();
+		}
+		if (server != null) {
+			server.close();
+		}
+		if (acceptor != null) {
+			acceptor.close();
+			acceptor.getCloseFuture().get();
+		}
+		if (pool.isOpen()) {
+			pool.close();
+			pool.getCloseFuture().get();
+		}
+	}
+
+	/**
+	 * Connects a channel with the given configuration to a plain socket.
+	 */
+	private void connect(final ChannelConfig<ByteBuffer> common, final int length) throws Exception {
+		final int port = atomicPort.getAndDecrement();
+		server = ServerSocketChannel.open();
+		try {
+			server.bind(new InetSocketAddress(port));
+		} catch (final BindException e) {
+			fail("test failed: test port is already occupied -- make sure that no other process is using that port");
+			return;
+		}
+		client = MessageChannels.openTCPChannel(common.setPool(pool).setBufferCapacity(CAPACITY),
+				new ClientConfig().setMessageLength(length));
+		client.connect(new InetSocketAddress(InetAddress.getLocalHost(), port));
+		endpoint = server.accept();
+		client.getConnectFuture().get();
+		endpoint.configureBlocking(false);
+	}
+
+	/**
+	 * Accepts a plain socket on a server channel with the given configuration.
+	 * Unlike client channels, accepted channels default to a blocking queue.
+	 */
+	private void accept(final ChannelConfig<ByteBuffer> common, final int length) throws Exception {
+		final int port = atomicPort.getAndDecrement();
+		final SynchronousQueue<MessageChannel<ByteBuffer>> accepted = new SynchronousQueue<>();
+		acceptor = MessageServerChannels.openTCPServerChannel(common.setPool(pool).setBufferCapacity(CAPACITY),
+				new ServerConfig().setMessageLength(length));
+		acceptor.onAccept(new AcceptListener<ByteBuffer>() {
+			@Override
+			public void connectionAccepted(final SocketAddress remote, final MessageChannel<ByteBuffer> channel) {
+				try {
+					accepted.put(channel);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		try {
+			acceptor.bind(new InetSocketAddress(port));
+			acceptor.getBindFuture().get();
+		} catch (final BindException e) {
+			fail("test failed: test port is already occupied -- make sure that no other process is using that port");
+			return;
+		}
+		endpoint = SocketChannel.open(new InetSocketAddress(InetAddress.getLocalHost(), port));
+		client = accepted.poll(10, TimeUnit.SECONDS);
+		assertTrue(client != null);
+		endpoint.configureBlocking(false);
+	}
+
+	/**
+	 * Sends a message of <code>length</code> bytes, all equal to
+	 * <code>value</code>.
+	 */
+	private void send(final int value, final int length) throws InterruptedException {
+		final MessageBufferProducer<ByteBuffer> out = client.getOutputBuffer();
+		final long seq = out.acquire();
+		final ByteBuffer msg = out.get(seq);
+		msg.clear();
+		for (int i = 0; i < length; i++) {
+			msg.put((byte) value);
+		}
+		msg.flip();
+		out.release(seq);
+	}
+
+	/**
+	 * Reads whatever the endpoint received within <code>millis</code>.
+	 */
+	private ByteBuffer receive(final int bytes, final long millis) throws IOException, InterruptedException {
+		final ByteBuffer in = ByteBuffer.allocate(bytes);
+		final long deadline = System.nanoTime() + millis * MILLI;
+		while (in.hasRemaining() && System.nanoTime() - deadline < 0) {
+			if (endpoint.read(in) == 0) {
+				Thread.sleep(1);
+			}
+		}
+		in.flip();
+		return in;
+	}
+
+	/**
+	 * Checks that <code>in</code> holds the frame of a message sent with
+	 * {@link #send(int, int)}.
+	 */
+	private static void check(final ByteBuffer in, final int value, final int length) {
+		assertEquals(length, in.getInt());
+		for (int i = 0; i < length; i++) {
+			assertEquals((byte) value, in.get());
+		}
+	}
+
+	private void testCoalescingByCount(final int length, final int size) throws Exception {
+		final int frame = HEADER + size;
+		final int count = 4;
+		connect(new ChannelConfig<ByteBuffer>().useWriteCoalescing(count * frame, 1, TimeUnit.MINUTES), length);
+		for (int i = 0; i < count - 1; i++) {
+			send(i, size);
+		}
+		assertEquals(0, receive(1, 200).remaining());
+		send(count - 1, size);
+		final ByteBuffer in = receive(count * frame, 10_000);
+		assertEquals(count * frame, in.remaining());
+		for (int i = 0; i < count; i++) {
+			check(in, i, size);
+		}
+	}
+
+	private void testCoalescingByDelay(final int length, final int size) throws Exception {
+		final long delay = 500;
+		connect(new ChannelConfig<ByteBuffer>().useWriteCoalescing(LARGE * 2, delay, TimeUnit.MILLISECONDS),
+				length);
+		final long start = System.nanoTime();
+		send(1, size);
+		final ByteBuffer in = receive(HEADER + size, 10_000);
+		final long elapsed = System.nanoTime() - start;
+		assertEquals(HEADER + size, in.remaining());
+		check(in, 1, size);
+		assertTrue("elapsed " + elapsed, elapsed >= delay * MILLI);
+	}
+
+	private void testGathering(final ChannelConfig<ByteBuffer> common) throws Exception {
+		connect(common, LARGE);
+		sendMixed();
+	}
+
+	/**
+	 * Sends messages of all {@link #SIZES} in turn, and checks that the
+	 * endpoint receives them in order.
+	 */
+	private void sendMixed() throws Exception {
+		final int count = 1000;
+		final Thread sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < count; i++) {
+						send(i, SIZES[i % SIZES.length]);
+					}
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		sender.start();
+		for (int i = 0; i < count; i++) {
+			final int size = SIZES[i % SIZES.length];
+			final ByteBuffer in = receive(HEADER + size, 10_000);
+			assertEquals(HEADER + size, in.remaining());
+			check(in, i, size);
+		}
+		sender.join();
+	}
+
+	@Test
+	public void testGathering() throws Exception {
+		testGathering(new ChannelConfig<ByteBuffer>());
+	}
+
+	@Test
+	public void testGatheringAccepted() throws Exception {
+		accept(new ChannelConfig<ByteBuffer>(), LARGE);
+		sendMixed();
+	}
+
+	@Test
+	public void testGatheringLazy() throws Exception {
+		testGathering(new ChannelConfig<ByteBuffer>().useLazyBuffers());
+	}
+
+	@Test
+	public void testGatheringCoalesced() throws Exception {
+		testGathering(new ChannelConfig<ByteBuffer>().useWriteCoalescing(LARGE, 1, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testCoalescingByCountCopy() throws Exception {
+		testCoalescingByCount(SMALL, SMALL / 2);
+	}
+
+	@Test
+	public void testCoalescingByCountGather() throws Exception {
+		testCoalescingByCount(LARGE, LARGE / 2);
+	}
+
+	@Test
+	public void testCoalescingByDelayCopy() throws Exception {
+		testCoalescingByDelay(SMALL, SMALL / 2);
+	}
+
+	@Test
+	public void testCoalescingByDelayGather() throws Exception {
+		testCoalescingByDelay(LARGE, LARGE / 2);
+	}
+
+}